@@ -28,6 +28,7 @@ import com.sixt.service.framework.health.HealthCheckManager;
 import com.sixt.service.framework.injection.*;
 import com.sixt.service.framework.jetty.JettyComposer;
 import com.sixt.service.framework.health.ReadinessCheckServer;
+import com.sixt.service.framework.jetty.RpcHandlerMetrics;
 import com.sixt.service.framework.jetty.RpcServlet;
 import com.sixt.service.framework.logging.SixtLogbackContext;
 import com.sixt.service.framework.metrics.MetricsReporterProvider;
@@ -144,7 +145,9 @@ public abstract class AbstractService {
     }
 
     public void startJettyContainer() throws Exception {
-        jettyServer = new Server(serviceProperties.getServicePort());
+        jettyServer = new Server(JettyComposer.createThreadPool(serviceProperties,
+                injector.getInstance(RpcHandlerMetrics.class)));
+        jettyServer.addConnector(JettyComposer.createConnector(jettyServer, serviceProperties));
         JettyComposer.compose(jettyServer);
         jettyServer.start();
         int port = ((ServerConnector) jettyServer.getConnectors()[0]).getLocalPort();
@@ -156,9 +159,20 @@ public abstract class AbstractService {
         startupComplete.set(true);
         injector.getInstance(RpcServlet.class).serveRequests();
         injector.getInstance(ReadinessCheckServer.class).serveRequests();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdownGracefully, "graceful-shutdown"));
         jettyServer.join();
     }
 
+    /**
+     * Run from a shutdown hook: drain the requests in flight and shut down the kafka
+     * consumers, see GracefulShutdown
+     */
+    protected void shutdownGracefully() {
+        injector.getInstance(GracefulShutdown.class).run(
+                injector.getInstance(ServiceRegistrationProvider.class),
+                injector.getInstance(RpcServlet.class), jettyServer);
+    }
+
     @SuppressWarnings("unchecked")
     public void initializeHealthCheckManager(List<String> hcProviders) {
         if (hcProviders != null && !hcProviders.isEmpty()) {
@@ -14,6 +14,12 @@ package com.sixt.service.framework;
 
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 public class FeatureFlags {
 
     // Key for service property.  in seconds
@@ -67,4 +73,360 @@ public class FeatureFlags {
         return serviceProps.getIntegerProperty(READINESS_CHECK_PORT,
                 DEFAULT_READINESS_CHECK_PORT);
     }
+
+    // Set to "true" to hand rpc requests from the jetty threads to a dedicated, bounded
+    // handler executor (asynchronous servlet processing).  When the executor's queue is
+    // full, requests are rejected immediately with a retriable 503.
+    public final static String ASYNC_RPC_HANDLING = "asyncRpcHandling";
+    public static boolean shouldUseAsyncRpcHandling(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(ASYNC_RPC_HANDLING);
+        if (StringUtils.isNotEmpty(value) && Boolean.valueOf(value)) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    public final static String RPC_HANDLER_THREADS = "rpcHandlerThreads";
+    public final static int DEFAULT_RPC_HANDLER_THREADS = 64;
+    public static int getRpcHandlerThreads(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(RPC_HANDLER_THREADS,
+                DEFAULT_RPC_HANDLER_THREADS);
+    }
+
+    public final static String RPC_HANDLER_QUEUE_SIZE = "rpcHandlerQueueSize";
+    public final static int DEFAULT_RPC_HANDLER_QUEUE_SIZE = 128;
+    public static int getRpcHandlerQueueSize(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(RPC_HANDLER_QUEUE_SIZE,
+                DEFAULT_RPC_HANDLER_QUEUE_SIZE);
+    }
+
+    // Comma-separated assignments of rpc methods to bulkheads, e.g.
+    // "Export.Run=export,Export.Status=export".  Overrides the Bulkhead annotation.
+    public final static String RPC_BULKHEAD_METHODS = "rpcBulkheadMethods";
+    public static Map<String, String> getRpcBulkheadMethods(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(RPC_BULKHEAD_METHODS);
+        Map<String, String> retval = new HashMap<>();
+        if (StringUtils.isNotBlank(value)) {
+            for (String assignment : value.split(",")) {
+                String[] parts = assignment.split("=");
+                if (parts.length == 2 && StringUtils.isNotBlank(parts[0]) &&
+                        StringUtils.isNotBlank(parts[1])) {
+                    retval.put(parts[0].trim(), parts[1].trim());
+                }
+            }
+        }
+        return retval;
+    }
+
+    // Calls running concurrently in a bulkhead, set per bulkhead as
+    // rpcBulkhead.<name>.maxConcurrency
+    public final static String RPC_BULKHEAD_PREFIX = "rpcBulkhead.";
+    public final static int DEFAULT_RPC_BULKHEAD_MAX_CONCURRENCY = 16;
+    public static int getRpcBulkheadMaxConcurrency(ServiceProperties serviceProps, String bulkhead) {
+        return serviceProps.getIntegerProperty(RPC_BULKHEAD_PREFIX + bulkhead + ".maxConcurrency",
+                DEFAULT_RPC_BULKHEAD_MAX_CONCURRENCY);
+    }
+
+    // Calls waiting to run in a bulkhead, set per bulkhead as rpcBulkhead.<name>.queueSize.
+    // 0 rejects calls as soon as the bulkhead runs maxConcurrency calls.
+    public final static int DEFAULT_RPC_BULKHEAD_QUEUE_SIZE = 16;
+    public static int getRpcBulkheadQueueSize(ServiceProperties serviceProps, String bulkhead) {
+        return serviceProps.getIntegerProperty(RPC_BULKHEAD_PREFIX + bulkhead + ".queueSize",
+                DEFAULT_RPC_BULKHEAD_QUEUE_SIZE);
+    }
+
+    // How long (in ms) a call waits to run in a bulkhead before it is rejected, set per
+    // bulkhead as rpcBulkhead.<name>.maxWaitMillis.  The call's deadline caps the wait.
+    public final static int DEFAULT_RPC_BULKHEAD_MAX_WAIT_MILLIS = 1000;
+    public static int getRpcBulkheadMaxWaitMillis(ServiceProperties serviceProps, String bulkhead) {
+        return serviceProps.getIntegerProperty(RPC_BULKHEAD_PREFIX + bulkhead + ".maxWaitMillis",
+                DEFAULT_RPC_BULKHEAD_MAX_WAIT_MILLIS);
+    }
+
+    // If true, and the jvm supports virtual threads (java 21+), rpc handlers run on
+    // virtual threads (which implies asynchronous rpc handling), as do the workers of
+    // kafka subscribers and consumers.  Falls back to platform threads otherwise.
+    public final static String VIRTUAL_THREADS = "virtualThreads";
+    public static boolean shouldUseVirtualThreads(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(VIRTUAL_THREADS);
+        if (StringUtils.isNotEmpty(value) && Boolean.valueOf(value)) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    // Maximum number of rpc handlers running concurrently on virtual threads, beyond
+    // which requests are rejected with a 503
+    public final static String VIRTUAL_THREAD_CONCURRENCY = "virtualThreadConcurrency";
+    public final static int DEFAULT_VIRTUAL_THREAD_CONCURRENCY = 10000;
+    public static int getVirtualThreadConcurrency(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(VIRTUAL_THREAD_CONCURRENCY,
+                DEFAULT_VIRTUAL_THREAD_CONCURRENCY);
+    }
+
+    // Minimum and maximum number of jetty threads, which accept connections, read
+    // requests and run the rpc handlers unless asynchronous rpc handling is enabled
+    public final static String JETTY_MIN_THREADS = "jettyMinThreads";
+    public final static int DEFAULT_JETTY_MIN_THREADS = 8;
+    public static int getJettyMinThreads(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(JETTY_MIN_THREADS,
+                DEFAULT_JETTY_MIN_THREADS);
+    }
+
+    public final static String JETTY_MAX_THREADS = "jettyMaxThreads";
+    public final static int DEFAULT_JETTY_MAX_THREADS = 200;
+    public static int getJettyMaxThreads(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(JETTY_MAX_THREADS,
+                DEFAULT_JETTY_MAX_THREADS);
+    }
+
+    // Maximum number of jobs waiting for a jetty thread, beyond which connections are
+    // rejected.  0 or less for an unbounded queue.
+    public final static String JETTY_QUEUE_CAPACITY = "jettyQueueCapacity";
+    public final static int DEFAULT_JETTY_QUEUE_CAPACITY = 0;
+    public static int getJettyQueueCapacity(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(JETTY_QUEUE_CAPACITY,
+                DEFAULT_JETTY_QUEUE_CAPACITY);
+    }
+
+    // Number of acceptor and selector threads of the service port, -1 to let jetty
+    // derive them from the number of cpus
+    public final static String JETTY_ACCEPTORS = "jettyAcceptors";
+    public final static int DEFAULT_JETTY_ACCEPTORS = -1;
+    public static int getJettyAcceptors(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(JETTY_ACCEPTORS, DEFAULT_JETTY_ACCEPTORS);
+    }
+
+    public final static String JETTY_SELECTORS = "jettySelectors";
+    public final static int DEFAULT_JETTY_SELECTORS = -1;
+    public static int getJettySelectors(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(JETTY_SELECTORS, DEFAULT_JETTY_SELECTORS);
+    }
+
+    // Milliseconds after which an idle connection to the service port is closed
+    public final static String JETTY_IDLE_TIMEOUT = "jettyIdleTimeout";
+    public final static int DEFAULT_JETTY_IDLE_TIMEOUT = 30000;
+    public static int getJettyIdleTimeout(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(JETTY_IDLE_TIMEOUT,
+                DEFAULT_JETTY_IDLE_TIMEOUT);
+    }
+
+    // Backlog of connections not yet accepted, 0 for the operating system's default
+    public final static String JETTY_ACCEPT_QUEUE_SIZE = "jettyAcceptQueueSize";
+    public final static int DEFAULT_JETTY_ACCEPT_QUEUE_SIZE = 0;
+    public static int getJettyAcceptQueueSize(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(JETTY_ACCEPT_QUEUE_SIZE,
+                DEFAULT_JETTY_ACCEPT_QUEUE_SIZE);
+    }
+
+    // Milliseconds the shutdown waits for rpc requests in flight before stopping jetty
+    public final static String SHUTDOWN_DRAIN_TIMEOUT = "shutdownDrainTimeout";
+    public final static int DEFAULT_SHUTDOWN_DRAIN_TIMEOUT = 20000;
+    public static int getShutdownDrainTimeout(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(SHUTDOWN_DRAIN_TIMEOUT,
+                DEFAULT_SHUTDOWN_DRAIN_TIMEOUT);
+    }
+
+    // Milliseconds the shutdown waits after deregistering and reporting not-ready before
+    // it stops accepting connections, so that load balancers and registry watchers notice
+    public final static String SHUTDOWN_PROPAGATION_DELAY = "shutdownPropagationDelay";
+    public final static int DEFAULT_SHUTDOWN_PROPAGATION_DELAY = 5000;
+    public static int getShutdownPropagationDelay(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(SHUTDOWN_PROPAGATION_DELAY,
+                DEFAULT_SHUTDOWN_PROPAGATION_DELAY);
+    }
+
+    // Maximum number of calls in a json-rpc batch or protobuf multi-request frame
+    public final static String RPC_MAX_BATCH_SIZE = "rpcMaxBatchSize";
+    public final static int DEFAULT_RPC_MAX_BATCH_SIZE = 100;
+    public static int getRpcMaxBatchSize(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(RPC_MAX_BATCH_SIZE,
+                DEFAULT_RPC_MAX_BATCH_SIZE);
+    }
+
+    // Set to "true" to also accept HTTP/2 cleartext (h2c) connections on the service port.
+    // HTTP/1.1 clients are still served on the same port.
+    public final static String HTTP2_CLEARTEXT_SERVER = "http2CleartextServer";
+    public static boolean shouldUseHttp2CleartextServer(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(HTTP2_CLEARTEXT_SERVER);
+        if (StringUtils.isNotEmpty(value) && Boolean.valueOf(value)) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    // Comma-separated names of the services to call over multiplexed HTTP/2 cleartext
+    // connections, or "*" for all services.  Only list services that accept h2c, all
+    // other services are called over HTTP/1.1.
+    public final static String HTTP2_CLIENT_SERVICES = "http2ClientServices";
+    public final static String ALL_SERVICES = "*";
+    public static Set<String> getHttp2ClientServices(ServiceProperties serviceProps) {
+        return getServiceNames(serviceProps.getProperty(HTTP2_CLIENT_SERVICES));
+    }
+
+    // Comma-separated names of the services to call over persistent keep-alive
+    // connections, or "*" (the default) for all services
+    public final static String HTTP_KEEP_ALIVE_SERVICES = "httpKeepAliveServices";
+    public static Set<String> getHttpKeepAliveServices(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(HTTP_KEEP_ALIVE_SERVICES);
+        if (value == null) {
+            return Collections.singleton(ALL_SERVICES);
+        }
+        return getServiceNames(value);
+    }
+
+    // Comma-separated names of (legacy) services that get a new connection for every
+    // call, or "*" for all services.  Takes precedence over httpKeepAliveServices.
+    public final static String HTTP_CONNECTION_CLOSE_SERVICES = "httpConnectionCloseServices";
+    public static Set<String> getHttpConnectionCloseServices(ServiceProperties serviceProps) {
+        return getServiceNames(serviceProps.getProperty(HTTP_CONNECTION_CLOSE_SERVICES));
+    }
+
+    // Connections to one endpoint of a called service.  Can be set per service as
+    // httpPool.<service>.maxConnections
+    public final static String HTTP_MAX_CONNECTIONS_PER_ENDPOINT = "httpMaxConnectionsPerEndpoint";
+    public final static int DEFAULT_HTTP_MAX_CONNECTIONS_PER_ENDPOINT = 16;
+    public final static String HTTP_POOL_PREFIX = "httpPool.";
+    public static int getHttpMaxConnectionsPerEndpoint(ServiceProperties serviceProps,
+                                                       String serviceName) {
+        int value = serviceProps.getIntegerProperty(HTTP_MAX_CONNECTIONS_PER_ENDPOINT,
+                DEFAULT_HTTP_MAX_CONNECTIONS_PER_ENDPOINT);
+        if (serviceName != null) {
+            value = serviceProps.getIntegerProperty(HTTP_POOL_PREFIX + serviceName +
+                    ".maxConnections", value);
+        }
+        return value;
+    }
+
+    // Requests waiting for a connection to one endpoint of a called service, before
+    // further requests are rejected.  Can be set per service as httpPool.<service>.maxQueued
+    public final static String HTTP_MAX_QUEUED_PER_ENDPOINT = "httpMaxQueuedPerEndpoint";
+    public final static int DEFAULT_HTTP_MAX_QUEUED_PER_ENDPOINT = 1024;
+    public static int getHttpMaxQueuedPerEndpoint(ServiceProperties serviceProps,
+                                                  String serviceName) {
+        int value = serviceProps.getIntegerProperty(HTTP_MAX_QUEUED_PER_ENDPOINT,
+                DEFAULT_HTTP_MAX_QUEUED_PER_ENDPOINT);
+        if (serviceName != null) {
+            value = serviceProps.getIntegerProperty(HTTP_POOL_PREFIX + serviceName +
+                    ".maxQueued", value);
+        }
+        return value;
+    }
+
+    /**
+     * @return the services with connection pool settings of their own
+     */
+    public static Set<String> getHttpPoolServices(ServiceProperties serviceProps) {
+        Set<String> retval = new HashSet<>();
+        for (String key : serviceProps.getAllProperties().keySet()) {
+            if (key.startsWith(HTTP_POOL_PREFIX) && key.lastIndexOf('.') > HTTP_POOL_PREFIX.length()) {
+                retval.add(key.substring(HTTP_POOL_PREFIX.length(), key.lastIndexOf('.')));
+            }
+        }
+        return retval;
+    }
+
+    private static Set<String> getServiceNames(String value) {
+        Set<String> retval = new HashSet<>();
+        if (StringUtils.isNotBlank(value)) {
+            for (String service : value.split(",")) {
+                if (StringUtils.isNotBlank(service)) {
+                    retval.add(service.trim());
+                }
+            }
+        }
+        return retval;
+    }
+
+    // Protobuf rpc bodies smaller than this (in bytes) are never compressed
+    public final static String RPC_COMPRESSION_THRESHOLD = "rpcCompressionThreshold";
+    public final static int DEFAULT_RPC_COMPRESSION_THRESHOLD = 16 * 1024;
+    public static int getRpcCompressionThreshold(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(RPC_COMPRESSION_THRESHOLD,
+                DEFAULT_RPC_COMPRESSION_THRESHOLD);
+    }
+
+    // Set to "true" to compress protobuf rpc responses with a coding the client accepts
+    public final static String RPC_RESPONSE_COMPRESSION = "rpcResponseCompression";
+    public static boolean shouldCompressRpcResponses(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(RPC_RESPONSE_COMPRESSION);
+        if (StringUtils.isNotEmpty(value) && Boolean.valueOf(value)) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    // Content coding ("gzip" or "lz4") for outgoing protobuf rpc requests.  Unset for
+    // no compression.  Only set it if all called services can decode it.
+    public final static String RPC_REQUEST_COMPRESSION = "rpcRequestCompression";
+    public static String getRpcRequestCompression(ServiceProperties serviceProps) {
+        return serviceProps.getProperty(RPC_REQUEST_COMPRESSION);
+    }
+
+    // Set to "true" to return the durations of the request's phases (until the response
+    // is written) in a Server-Timing response header
+    public final static String RPC_SERVER_TIMING_HEADER = "rpcServerTimingHeader";
+    public static boolean shouldSendServerTimingHeader(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(RPC_SERVER_TIMING_HEADER);
+        if (StringUtils.isNotEmpty(value) && Boolean.valueOf(value)) {
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    // Precision, in significant digits (0 to 5), of the histograms behind the timers.
+    // Each additional digit takes about ten times the memory.
+    public final static String METRICS_TIMER_SIGNIFICANT_DIGITS = "metricsTimerSignificantDigits";
+    public final static int DEFAULT_METRICS_TIMER_SIGNIFICANT_DIGITS = 2;
+    public static int getMetricsTimerSignificantDigits(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(METRICS_TIMER_SIGNIFICANT_DIGITS,
+                DEFAULT_METRICS_TIMER_SIGNIFICANT_DIGITS);
+    }
+
+    // Longest duration (in ms) the timers tell apart, longer ones are counted as this
+    public final static String METRICS_TIMER_MAX_MILLIS = "metricsTimerMaxMillis";
+    public final static int DEFAULT_METRICS_TIMER_MAX_MILLIS = 3600000;
+    public static int getMetricsTimerMaxMillis(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(METRICS_TIMER_MAX_MILLIS,
+                DEFAULT_METRICS_TIMER_MAX_MILLIS);
+    }
+
+    // Set to "false" to not register every metric as a JMX MBean
+    public final static String JMX_METRICS = "jmxMetrics";
+    public static boolean shouldReportMetricsToJmx(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(JMX_METRICS);
+        if (StringUtils.isNotEmpty(value) && ! Boolean.valueOf(value)) {
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    // How long (in ms) the /metrics endpoint serves the same rendered metrics, which
+    // are then buffered in memory.  0 renders them for every request, streamed.
+    public final static String METRICS_ENDPOINT_CACHE_MILLIS = "metricsEndpointCacheMillis";
+    public final static int DEFAULT_METRICS_ENDPOINT_CACHE_MILLIS = 0;
+    public static int getMetricsEndpointCacheMillis(ServiceProperties serviceProps) {
+        return serviceProps.getIntegerProperty(METRICS_ENDPOINT_CACHE_MILLIS,
+                DEFAULT_METRICS_ENDPOINT_CACHE_MILLIS);
+    }
+
+    // How the client picks an endpoint of a called service within an availability zone:
+    // "powerOfTwoChoices" (the less busy of two random endpoints), "peakEwma" (the less
+    // busy of two, weighted by their response latencies) or "roundRobin"
+    public final static String LOAD_BALANCING_STRATEGY = "loadBalancingStrategy";
+    public final static String DEFAULT_LOAD_BALANCING_STRATEGY = "powerOfTwoChoices";
+    public static String getLoadBalancingStrategy(ServiceProperties serviceProps) {
+        String value = serviceProps.getProperty(LOAD_BALANCING_STRATEGY);
+        if (StringUtils.isNotEmpty(value)) {
+            return value;
+        } else {
+            return DEFAULT_LOAD_BALANCING_STRATEGY;
+        }
+    }
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sixt.service.framework.health.ReadinessCheckServer;
+import com.sixt.service.framework.jetty.RpcHandlerMetrics;
+import com.sixt.service.framework.jetty.RpcServlet;
+import com.sixt.service.framework.kafka.messaging.Consumer;
+import com.sixt.service.framework.registry.ServiceRegistrationProvider;
+import com.sixt.service.framework.util.Sleeper;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.NetworkConnector;
+import org.eclipse.jetty.server.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The orderly shutdown of a service: deregister and report not-ready, give clients
+ * shutdownPropagationDelay to notice, stop accepting connections, let the rpc requests
+ * in flight complete (up to shutdownDrainTimeout), stop jetty, and shut down the kafka
+ * consumers so they commit their final offsets.
+ */
+@Singleton
+public class GracefulShutdown {
+
+    private static final Logger logger = LoggerFactory.getLogger(GracefulShutdown.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    private final ServiceProperties serviceProps;
+    private final RpcHandlerMetrics handlerMetrics;
+    private final ReadinessCheckServer readinessCheck;
+    private final Set<Consumer> consumers = ConcurrentHashMap.newKeySet();
+    protected Sleeper sleeper = new Sleeper();
+
+    @Inject
+    public GracefulShutdown(ServiceProperties serviceProps, RpcHandlerMetrics handlerMetrics,
+                            ReadinessCheckServer readinessCheck) {
+        this.serviceProps = serviceProps;
+        this.handlerMetrics = handlerMetrics;
+        this.readinessCheck = readinessCheck;
+    }
+
+    /**
+     * Shut the consumer down as part of the graceful shutdown
+     */
+    public void addConsumer(Consumer consumer) {
+        consumers.add(consumer);
+    }
+
+    /**
+     * @param registration the registration provider, or null if the service isn't
+     * registered
+     * @param servlet the servlet serving the rpc requests, or null
+     */
+    public void run(ServiceRegistrationProvider registration, RpcServlet servlet,
+                    Server jettyServer) {
+        logger.info("Shutting down gracefully");
+        if (registration != null) {
+            try {
+                registration.deregister();
+            } catch (Exception ex) {
+                logger.warn("Error deregistering the service", ex);
+            }
+        }
+        readinessCheck.stopServingRequests();
+        if (servlet != null) {
+            servlet.drain();
+        }
+
+        if (jettyServer != null) {
+            //requests keep arriving until load balancers and registry watchers notice
+            long propagationDelay = FeatureFlags.getShutdownPropagationDelay(serviceProps);
+            if (propagationDelay > 0) {
+                sleeper.sleepNoException(propagationDelay);
+            }
+            for (Connector connector : jettyServer.getConnectors()) {
+                if (connector instanceof NetworkConnector) {
+                    //established connections are still served
+                    ((NetworkConnector) connector).close();
+                }
+            }
+            awaitRequestsInFlight(FeatureFlags.getShutdownDrainTimeout(serviceProps));
+            try {
+                jettyServer.stop();
+            } catch (Exception ex) {
+                logger.warn("Error stopping jetty", ex);
+            }
+        }
+
+        for (Consumer consumer : consumers) {
+            try {
+                consumer.shutdown();
+            } catch (Exception ex) {
+                logger.warn("Error shutting down kafka consumer", ex);
+            }
+        }
+        logger.info("Graceful shutdown complete");
+    }
+
+    private void awaitRequestsInFlight(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        int inFlight;
+        while ((inFlight = handlerMetrics.getInFlightRequests()) > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                logger.warn("Stopping with {} rpc requests still in flight", inFlight);
+                return;
+            }
+            sleeper.sleepNoException(POLL_INTERVAL_MILLIS);
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import com.sixt.service.framework.protobuf.ProtobufUtil;
+import com.sixt.service.framework.rpc.RpcCallException;
+import com.sixt.service.framework.util.ReflectionUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Everything needed to dispatch a request to one rpc endpoint: the handler, the parser
+ * and default instance of its request type, the complete hook chain, and the response
+ * cache and request coalescer if the handler is annotated for them.
+ * Built by the MethodHandlerDictionary when handlers and hooks are registered, so that
+ * handling a request needs neither reflection nor copying of the hook lists.
+ */
+public class MethodDispatch {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodDispatch.class);
+
+    private final String methodName;
+    private final ServiceMethodHandler<? extends Message, ? extends Message> handler;
+    private final Class<? extends Message> requestClass;
+    private final Message requestDefaultInstance;
+    private final Parser<? extends Message> requestParser;
+    private final ServiceMethodPreHook[] preHooks;
+    private final ServiceMethodPostHook[] postHooks;
+    private final ResponseCache responseCache;
+    private final RequestCoalescer requestCoalescer;
+
+    public MethodDispatch(String methodName,
+                          ServiceMethodHandler<? extends Message, ? extends Message> handler,
+                          List<ServiceMethodPreHook<? extends Message>> preHooks,
+                          List<ServiceMethodPostHook<? extends Message>> postHooks) {
+        this.methodName = methodName;
+        this.handler = handler;
+        this.requestClass = resolveRequestClass(handler);
+        this.requestDefaultInstance = resolveDefaultInstance(requestClass);
+        this.requestParser = requestDefaultInstance == null ? null :
+                requestDefaultInstance.getParserForType();
+        this.preHooks = preHooks.toArray(new ServiceMethodPreHook[preHooks.size()]);
+        this.postHooks = postHooks.toArray(new ServiceMethodPostHook[postHooks.size()]);
+        this.responseCache = ResponseCache.forHandler(handler);
+        this.requestCoalescer = RequestCoalescer.forHandler(handler);
+    }
+
+    private MethodDispatch(MethodDispatch other,
+                           List<ServiceMethodPreHook<? extends Message>> preHooks,
+                           List<ServiceMethodPostHook<? extends Message>> postHooks) {
+        this.methodName = other.methodName;
+        this.handler = other.handler;
+        this.requestClass = other.requestClass;
+        this.requestDefaultInstance = other.requestDefaultInstance;
+        this.requestParser = other.requestParser;
+        this.preHooks = preHooks.toArray(new ServiceMethodPreHook[preHooks.size()]);
+        this.postHooks = postHooks.toArray(new ServiceMethodPostHook[postHooks.size()]);
+        this.responseCache = other.responseCache;
+        this.requestCoalescer = other.requestCoalescer;
+    }
+
+    /**
+     * Same handler and request type, but with a new hook chain.  Used when hooks are
+     * registered after the handler, so the reflection doesn't need to be repeated.
+     */
+    MethodDispatch withHooks(List<ServiceMethodPreHook<? extends Message>> preHooks,
+                             List<ServiceMethodPostHook<? extends Message>> postHooks) {
+        return new MethodDispatch(this, preHooks, postHooks);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<? extends Message> resolveRequestClass(ServiceMethodHandler handler) {
+        try {
+            return (Class<? extends Message>) ReflectionUtil.findSubClassParameterType(handler, 0);
+        } catch (ClassNotFoundException | ClassCastException ex) {
+            logger.warn("Unable to determine request type of handler for {}", methodName, ex);
+            return null;
+        }
+    }
+
+    private Message resolveDefaultInstance(Class<? extends Message> klass) {
+        if (klass == null) {
+            logger.warn("Unable to determine request type of handler for {}", methodName);
+            return null;
+        }
+        try {
+            return ProtobufUtil.newEmptyMessage(klass);
+        } catch (Exception ex) {
+            logger.warn("Unable to build request default instance for {}", methodName, ex);
+            return null;
+        }
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public ServiceMethodHandler<? extends Message, ? extends Message> getHandler() {
+        return handler;
+    }
+
+    public Class<? extends Message> getRequestClass() {
+        return requestClass;
+    }
+
+    /**
+     * @return the default instance of the request type, or null if the type of the
+     * handler could not be determined at registration
+     */
+    public Message getRequestDefaultInstance() {
+        return requestDefaultInstance;
+    }
+
+    public Parser<? extends Message> getRequestParser() {
+        return requestParser;
+    }
+
+    /**
+     * Global pre-hooks followed by the method's pre-hooks.  The array is shared, don't modify it.
+     */
+    public ServiceMethodPreHook[] getPreHooks() {
+        return preHooks;
+    }
+
+    /**
+     * The method's post-hooks followed by global post-hooks.  The array is shared, don't modify it.
+     */
+    public ServiceMethodPostHook[] getPostHooks() {
+        return postHooks;
+    }
+
+    /**
+     * @return the cache of the method's responses, or null if they aren't cacheable
+     */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * @return the coalescer of identical concurrent requests, or null if the method's
+     * requests aren't coalesced
+     */
+    public RequestCoalescer getRequestCoalescer() {
+        return requestCoalescer;
+    }
+
+    /**
+     * Parse a protobuf-encoded request body into the request type of the handler
+     */
+    public Message parseRequest(byte[] data) throws RpcCallException {
+        if (requestParser == null) {
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Unable to determine request type of handler for " + methodName);
+        }
+        try {
+            return requestParser.parseFrom(data);
+        } catch (Exception e) {
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Error deserializing byte array to protobuf: " + e);
+        }
+    }
+
+    /**
+     * Parse a protobuf-encoded request body directly from a stream.  The caller is
+     * responsible for limiting the stream to the size of the body.
+     */
+    public Message parseRequest(CodedInputStream input) throws RpcCallException {
+        if (requestParser == null) {
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Unable to determine request type of handler for " + methodName);
+        }
+        try {
+            return requestParser.parseFrom(input);
+        } catch (Exception e) {
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Error deserializing byte array to protobuf: " + e);
+        }
+    }
+
+    /**
+     * The request to pass to the handler when the request body is empty
+     */
+    public Message emptyRequest() throws RpcCallException {
+        if (requestDefaultInstance == null) {
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Unable to determine request type of handler for " + methodName);
+        }
+        return requestDefaultInstance;
+    }
+
+}
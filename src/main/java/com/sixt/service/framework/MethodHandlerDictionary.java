@@ -17,6 +17,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MethodHandlerDictionary  {
 
@@ -29,6 +30,7 @@ public class MethodHandlerDictionary  {
     private List<ServiceMethodPostHook<? extends Message>> globalPostHooks;
     private Map<String, List<ServiceMethodPreHook<? extends Message>>> methodPreHooks;
     private Map<String, List<ServiceMethodPostHook<? extends Message>>> methodPostHooks;
+    private Map<String, MethodDispatch> dispatchTable;
 
     public MethodHandlerDictionary() {
         this.methodHandlers = new HashMap<>();
@@ -36,6 +38,7 @@ public class MethodHandlerDictionary  {
         this.globalPostHooks = new ArrayList<>();
         this.methodPreHooks = new HashMap<>();
         this.methodPostHooks = new HashMap<>();
+        this.dispatchTable = new ConcurrentHashMap<>();
     }
 
     /**
@@ -46,6 +49,7 @@ public class MethodHandlerDictionary  {
     public void addPreHook(String endpoint, ServiceMethodPreHook<? extends Message> handlerClass) {
         if (GLOBAL.equals(endpoint)) {
             globalPreHooks.add(handlerClass);
+            rebuildDispatchTable();
         } else {
             List<ServiceMethodPreHook<? extends Message>> hooks = methodPreHooks.get(endpoint);
             if (hooks == null) {
@@ -53,6 +57,7 @@ public class MethodHandlerDictionary  {
                 methodPreHooks.put(endpoint, hooks);
             }
             hooks.add(handlerClass);
+            rebuildDispatch(endpoint);
         }
     }
 
@@ -64,6 +69,7 @@ public class MethodHandlerDictionary  {
     public void addPostHook(String endpoint, ServiceMethodPostHook<? extends Message> handlerClass) {
         if (GLOBAL.equals(endpoint)) {
             globalPostHooks.add(handlerClass);
+            rebuildDispatchTable();
         } else {
             List<ServiceMethodPostHook<? extends Message>> hooks = methodPostHooks.get(endpoint);
             if (hooks == null) {
@@ -71,6 +77,7 @@ public class MethodHandlerDictionary  {
                 methodPostHooks.put(endpoint, hooks);
             }
             hooks.add(handlerClass);
+            rebuildDispatch(endpoint);
         }
     }
 
@@ -80,6 +87,12 @@ public class MethodHandlerDictionary  {
             logger.warn("Overwriting ServiceMethodHandler registration for {}", endpoint);
         }
         methodHandlers.put(endpoint, instance);
+        if (instance == null) {
+            dispatchTable.remove(endpoint);
+        } else {
+            dispatchTable.put(endpoint, new MethodDispatch(endpoint, instance,
+                    getPreHooksFor(endpoint), getPostHooksFor(endpoint)));
+        }
     }
 
     public Map<String, ServiceMethodHandler<? extends Message, ? extends Message>> getMethodHandlers() {
@@ -122,4 +135,27 @@ public class MethodHandlerDictionary  {
     public boolean hasMethodHandler(String method) {
         return methodHandlers.containsKey(method);
     }
+
+    /**
+     * The precompiled handler, request type and hook chain for an endpoint.
+     * This is what should be used on the request path.
+     * @return null if no handler is registered for the endpoint
+     */
+    public MethodDispatch getDispatch(String endpoint) {
+        return dispatchTable.get(endpoint);
+    }
+
+    private void rebuildDispatch(String endpoint) {
+        MethodDispatch existing = dispatchTable.get(endpoint);
+        if (existing != null) {
+            dispatchTable.put(endpoint, existing.withHooks(getPreHooksFor(endpoint),
+                    getPostHooksFor(endpoint)));
+        }
+    }
+
+    private void rebuildDispatchTable() {
+        for (String endpoint : dispatchTable.keySet()) {
+            rebuildDispatch(endpoint);
+        }
+    }
 }
@@ -17,6 +17,8 @@ import io.opentracing.SpanContext;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
 
 /**
  * Encapsulates context information needed for services to communicate, share
@@ -26,12 +28,16 @@ import java.util.UUID;
 public class OrangeContext {
 
     public final static String CORRELATION_ID = "correlation-id";
-    private static final String RPC_ORIGIN_SERVICE = "X-Sx-From-Service";
-    private static final String RPC_ORIGIN_METHOD = "X-Sx-From-Method";
+    //lower-cased, as properties are stored
+    private static final String RPC_ORIGIN_SERVICE = "x-sx-from-service";
+    private static final String RPC_ORIGIN_METHOD = "x-sx-from-method";
+    //absolute deadline of the call chain, in epoch milliseconds
+    public final static String DEADLINE = "x-sx-deadline";
 
     private String correlationId;
     private Map<String, String> properties = new HashMap<>();
     private SpanContext tracingContext;
+    private long deadline;
 
     public OrangeContext() {
         this(null, null);
@@ -43,12 +49,13 @@ public class OrangeContext {
 
     public OrangeContext(String correlationId, Map<String, String> props) {
         if (correlationId == null) {
-            this.correlationId = UUID.randomUUID().toString();
+            this.correlationId = newCorrelationId();
         } else {
             this.correlationId = correlationId;
         }
         if (props != null) {
             this.properties = props;
+            this.deadline = parseDeadline(props.get(DEADLINE));
         }
     }
 
@@ -56,6 +63,17 @@ public class OrangeContext {
         this.correlationId = correlationId;
     }
 
+    /**
+     * A random (version 4) UUID.  Correlation ids needn't be unpredictable, so this
+     * avoids the contention on the SecureRandom behind UUID.randomUUID().
+     */
+    static String newCorrelationId() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xf000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & ~(0xcL << 60)) | (0x8L << 60);
+        return new UUID(mostSigBits, leastSigBits).toString();
+    }
+
     public String getCorrelationId() {
         return correlationId;
     }
@@ -78,14 +96,59 @@ public class OrangeContext {
         properties.put(key.toLowerCase(), value);
     }
 
+    /**
+     * @return a copy of the properties, see forEachProperty to read them without copying
+     */
     public Map<String, String> getProperties() {
         return new HashMap<>(properties);
     }
 
+    public void forEachProperty(BiConsumer<String, String> action) {
+        properties.forEach(action);
+    }
+
     public String getProperty(String key) {
         return properties.get(key.toLowerCase());
     }
 
+    private static long parseDeadline(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the time in epoch milliseconds by which the caller needs a response,
+     * or 0 if there is no deadline
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return milliseconds left until the deadline (negative once it passed), or
+     * Long.MAX_VALUE if there is no deadline
+     */
+    public long getRemainingMillis() {
+        if (deadline == 0) {
+            return Long.MAX_VALUE;
+        }
+        return deadline - System.currentTimeMillis();
+    }
+
+    public boolean isDeadlineExceeded() {
+        return getRemainingMillis() <= 0;
+    }
+
     public SpanContext getTracingContext() {
         return tracingContext;
     }
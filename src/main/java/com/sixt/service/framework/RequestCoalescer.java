@@ -0,0 +1,139 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import com.sixt.service.framework.annotation.CoalescedRequests;
+import com.sixt.service.framework.rpc.RpcCallException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight execution of the handler of a method annotated with CoalescedRequests:
+ * the first of several identical concurrent requests invokes the handler, the others
+ * wait for its outcome.  Requests are identified by their serialized form.
+ */
+public class RequestCoalescer {
+
+    private final long maxWaitMillis;
+    private final ConcurrentMap<ByteString, CompletableFuture<Message>> inFlight =
+            new ConcurrentHashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong waitTimeouts = new AtomicLong();
+    private final AtomicBoolean metricsRegistered = new AtomicBoolean(false);
+
+    public RequestCoalescer(long maxWaitMillis) {
+        if (maxWaitMillis <= 0) {
+            throw new IllegalArgumentException("Request coalescing needs a positive maximum wait, got " +
+                    maxWaitMillis + "ms");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return the coalescer configured by the CoalescedRequests annotation of the
+     * handler, or null if it isn't annotated
+     */
+    public static RequestCoalescer forHandler(ServiceMethodHandler handler) {
+        CoalescedRequests config = handler == null ? null :
+                handler.getClass().getAnnotation(CoalescedRequests.class);
+        if (config == null) {
+            return null;
+        }
+        return new RequestCoalescer(config.maxWaitMillis());
+    }
+
+    /**
+     * Run the invocation, unless an identical request is in flight already, in which
+     * case its response is returned or its exception rethrown.  Should that take
+     * longer than the maximum wait, the invocation is run after all.
+     */
+    public Message execute(ByteString request, Invocation invocation) throws RpcCallException {
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        CompletableFuture<Message> existing = inFlight.putIfAbsent(request, future);
+        if (existing == null) {
+            try {
+                Message response = invocation.invoke();
+                future.complete(response);
+                return response;
+            } catch (Throwable ex) {
+                //also Errors, or the waiters would wait until the maximum wait is over
+                future.completeExceptionally(ex);
+                throw ex;
+            } finally {
+                inFlight.remove(request, future);
+            }
+        }
+
+        coalesced.incrementAndGet();
+        try {
+            return existing.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            waitTimeouts.incrementAndGet();
+            return invocation.invoke();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RpcCallException) {
+                throw (RpcCallException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Interrupted while waiting for an identical request");
+        }
+    }
+
+    /**
+     * @return how many requests shared the outcome of an identical request
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return how many requests gave up waiting and invoked the handler themselves
+     */
+    public long getWaitTimeouts() {
+        return waitTimeouts.get();
+    }
+
+    public long getInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return true only for the first caller, which is to register the metrics
+     */
+    public boolean claimMetricsRegistration() {
+        return metricsRegistered.compareAndSet(false, true);
+    }
+
+    @FunctionalInterface
+    public interface Invocation {
+        Message invoke() throws RpcCallException;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.protobuf.ByteString;
+import com.sixt.service.framework.annotation.CachedResponse;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the responses of a method annotated with CachedResponse, keyed
+ * by the serialized request.  The responses are cached already encoded, separately for
+ * protobuf and json-rpc, so a hit skips both the handler and the encoding.
+ */
+public class ResponseCache {
+
+    private final Cache<ByteString, Entry> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicBoolean metricsRegistered = new AtomicBoolean(false);
+
+    public ResponseCache(long ttlMillis, int maxEntries) {
+        if (ttlMillis <= 0 || maxEntries <= 0) {
+            throw new IllegalArgumentException("Response cache needs a positive ttl and size, got " +
+                    ttlMillis + "ms and " + maxEntries);
+        }
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .<ByteString, Entry>removalListener(notification -> {
+                    if (notification.wasEvicted()) {
+                        evictions.incrementAndGet();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @return the cache configured by the CachedResponse annotation of the handler, or
+     * null if it isn't annotated
+     */
+    public static ResponseCache forHandler(ServiceMethodHandler handler) {
+        CachedResponse config = handler == null ? null :
+                handler.getClass().getAnnotation(CachedResponse.class);
+        if (config == null) {
+            return null;
+        }
+        return new ResponseCache(config.ttlMillis(), config.maxEntries());
+    }
+
+    /**
+     * @return the protobuf-encoded response body, or null on a miss
+     */
+    public byte[] getProtobuf(ByteString request) {
+        Entry entry = cache.getIfPresent(request);
+        return countLookup(entry == null ? null : entry.protobuf);
+    }
+
+    public void putProtobuf(ByteString request, byte[] response) {
+        getOrCreateEntry(request).protobuf = response;
+    }
+
+    /**
+     * @return the response printed as json, or null on a miss
+     */
+    public String getJson(ByteString request) {
+        Entry entry = cache.getIfPresent(request);
+        return countLookup(entry == null ? null : entry.json);
+    }
+
+    public void putJson(ByteString request, String response) {
+        getOrCreateEntry(request).json = response;
+    }
+
+    private <T> T countLookup(T value) {
+        if (value == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    private Entry getOrCreateEntry(ByteString request) {
+        return cache.asMap().computeIfAbsent(request, key -> new Entry());
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        cache.cleanUp();
+        return evictions.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return true only for the first caller, which is to register the metrics
+     */
+    public boolean claimMetricsRegistration() {
+        return metricsRegistered.compareAndSet(false, true);
+    }
+
+    private static class Entry {
+        private volatile byte[] protobuf;
+        private volatile String json;
+    }
+
+}
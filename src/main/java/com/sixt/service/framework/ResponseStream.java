@@ -0,0 +1,31 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.protobuf.Message;
+import com.sixt.service.framework.rpc.RpcCallException;
+
+/**
+ * The responses of a StreamingServiceMethodHandler.  Sent messages are buffered and
+ * written to the client in chunks, flush() writes the buffered messages immediately.
+ */
+public interface ResponseStream<RES extends Message> {
+
+    /**
+     * @throws RpcCallException if the client went away, the handler should stop then
+     */
+    void send(RES response) throws RpcCallException;
+
+    void flush() throws RpcCallException;
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.protobuf.Message;
+import com.sixt.service.framework.rpc.RpcCallException;
+
+/**
+ * A handler that responds with a sequence of messages instead of a single one, for
+ * result sets too large to build in memory.  The messages are written to the client as
+ * they are sent, only the protobuf transport supports streaming.
+ */
+public interface StreamingServiceMethodHandler<REQ extends Message, RES extends Message>
+        extends ServiceMethodHandler<REQ, RES> {
+
+    /**
+     * Send the responses to the stream.  Returning completes the stream, an exception
+     * ends it with an error after the messages that were already sent.
+     */
+    void handleRequest(REQ request, ResponseStream<RES> responses, OrangeContext ctx)
+            throws RpcCallException;
+
+    /**
+     * Streaming methods can't be called through json or in a multi-request frame
+     */
+    @Override
+    default RES handleRequest(REQ request, OrangeContext ctx) throws RpcCallException {
+        throw new RpcCallException(RpcCallException.Category.BadRequest,
+                "Streaming method can only be called with a streaming protobuf request");
+    }
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a ServiceMethodHandler as idempotent: its response depends on nothing but the
+ * request, so the serialized response can be cached and served to repeated requests
+ * without invoking the handler.  Pre-hooks still run for every request, and the cache
+ * is keyed by the request they produce.  Error responses are never cached.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface CachedResponse {
+
+    /**
+     * How long a response is served from the cache after it was produced
+     */
+    long ttlMillis();
+
+    /**
+     * The maximum number of distinct requests cached, the least recently used are
+     * evicted beyond that
+     */
+    int maxEntries() default 1000;
+}
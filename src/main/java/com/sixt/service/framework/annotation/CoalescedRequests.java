@@ -0,0 +1,37 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Coalesces identical concurrent requests to a ServiceMethodHandler: while a request
+ * is being handled, identical requests wait for and share its response or error
+ * instead of invoking the handler again.  Only for handlers whose response depends on
+ * nothing but the request.  Requests are compared after the pre-hooks ran.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface CoalescedRequests {
+
+    /**
+     * How long a request waits for the identical request in flight, before it
+     * invokes the handler itself
+     */
+    long maxWaitMillis() default 1000;
+}
@@ -40,6 +40,17 @@ public class ReadinessCheckServer {
         }
     }
 
+    /**
+     * Report the service as not ready anymore, while it shuts down
+     */
+    public void stopServingRequests() {
+        isReady.set(false);
+    }
+
+    public boolean isReady() {
+        return isReady.get();
+    }
+
     private class NanoReadinessServer extends NanoHTTPD {
 
         public NanoReadinessServer(int port) {
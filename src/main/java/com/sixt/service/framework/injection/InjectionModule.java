@@ -20,13 +20,20 @@ import com.sixt.service.framework.FeatureFlags;
 import com.sixt.service.framework.MethodHandlerDictionary;
 import com.sixt.service.framework.ServiceProperties;
 import com.sixt.service.framework.configuration.ConfigurationManager;
+import com.sixt.service.framework.rpc.HttpClientSelector;
 import com.sixt.service.framework.rpc.LoadBalancer;
 import com.sixt.service.framework.rpc.LoadBalancerImpl;
+import com.sixt.service.framework.rpc.Lz4ContentDecoder;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -37,21 +44,26 @@ public class InjectionModule extends AbstractModule {
     private final MetricRegistry metricRegistry;
     private ServiceProperties serviceProperties;
     private final HttpClient httpClient;
+    private final HttpClientSelector httpClientSelector;
     private MethodHandlerDictionary methodHandlerDictionary;
     private ConfigurationManager configurationManager;
 
     public InjectionModule(ServiceProperties serviceProperties) {
         this.serviceProperties = serviceProperties;
         metricRegistry = new MetricRegistry();
-        JmxReporter reporter = JmxReporter.forRegistry(metricRegistry).build();
-        reporter.start();
+        if (FeatureFlags.shouldReportMetricsToJmx(serviceProperties)) {
+            JmxReporter reporter = JmxReporter.forRegistry(metricRegistry).build();
+            reporter.start();
+        }
         httpClient = createHttpClient();
+        httpClientSelector = createHttpClientSelector();
     }
 
     @Override
     protected void configure() {
         bind(ServiceProperties.class).toInstance(serviceProperties);
         bind(HttpClient.class).toInstance(httpClient);
+        bind(HttpClientSelector.class).toInstance(httpClientSelector);
         bind(LoadBalancer.class).to(LoadBalancerImpl.class);
     }
 
@@ -94,13 +106,33 @@ public class InjectionModule extends AbstractModule {
     }
 
     private HttpClient createHttpClient() {
+        return createHttpClient(null);
+    }
+
+    /**
+     * @param serviceName the service the client's connections are pooled for, or null
+     *                    for the client shared by all services
+     */
+    private HttpClient createHttpClient(String serviceName) {
         //Allow ssl by default
         SslContextFactory sslContextFactory = new SslContextFactory();
         //Don't exclude RSA because Sixt needs them, dammit!
         sslContextFactory.setExcludeCipherSuites("");
         HttpClient client = new HttpClient(sslContextFactory);
+        if (serviceName != null) {
+            //clients of single services share the threads and buffers of the default client
+            client.setExecutor(httpClient.getExecutor());
+            client.setScheduler(httpClient.getScheduler());
+            client.setByteBufferPool(httpClient.getByteBufferPool());
+        }
+        client.getContentDecoderFactories().add(new Lz4ContentDecoder.Factory());
         client.setFollowRedirects(false);
-        client.setMaxConnectionsPerDestination(16);
+        client.setMaxConnectionsPerDestination(FeatureFlags.getHttpMaxConnectionsPerEndpoint(
+                serviceProperties, serviceName));
+        client.setMaxRequestsQueuedPerDestination(FeatureFlags.getHttpMaxQueuedPerEndpoint(
+                serviceProperties, serviceName));
+        //drop the pools of endpoints that have no connections left
+        client.setRemoveIdleDestinations(true);
         client.setConnectTimeout(FeatureFlags.getHttpConnectTimeout(serviceProperties));
         client.setAddressResolutionTimeout(FeatureFlags.getHttpAddressResolutionTimeout(serviceProperties));
         //You can set more restrictive timeouts per request, but not less, so
@@ -114,4 +146,39 @@ public class InjectionModule extends AbstractModule {
         return client;
     }
 
+    private HttpClientSelector createHttpClientSelector() {
+        Set<String> http2Services = FeatureFlags.getHttp2ClientServices(serviceProperties);
+        HttpClient http2Client = null;
+        if (! http2Services.isEmpty()) {
+            logger.info("Calling services {} over HTTP/2", http2Services);
+            http2Client = createHttp2Client();
+        }
+        Map<String, HttpClient> serviceClients = new HashMap<>();
+        for (String service : FeatureFlags.getHttpPoolServices(serviceProperties)) {
+            serviceClients.put(service, createHttpClient(service));
+        }
+        return new HttpClientSelector(httpClient, http2Client, http2Services, serviceClients,
+                FeatureFlags.getHttpKeepAliveServices(serviceProperties),
+                FeatureFlags.getHttpConnectionCloseServices(serviceProperties));
+    }
+
+    /**
+     * Multiplexes concurrent requests to an endpoint over a few h2c connections
+     */
+    private HttpClient createHttp2Client() {
+        HttpClient client = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+        client.getContentDecoderFactories().add(new Lz4ContentDecoder.Factory());
+        client.setFollowRedirects(false);
+        client.setMaxConnectionsPerDestination(4);
+        client.setConnectTimeout(FeatureFlags.getHttpConnectTimeout(serviceProperties));
+        client.setAddressResolutionTimeout(FeatureFlags.getHttpAddressResolutionTimeout(serviceProperties));
+        client.setIdleTimeout(60 * 60 * 1000);
+        try {
+            client.start();
+        } catch (Exception e) {
+            logger.error("Error building http/2 client", e);
+        }
+        return client;
+    }
+
 }
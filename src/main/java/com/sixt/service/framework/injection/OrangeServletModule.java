@@ -14,6 +14,7 @@ package com.sixt.service.framework.injection;
 
 import com.google.inject.servlet.ServletModule;
 import com.sixt.service.framework.jetty.HealthServlet;
+import com.sixt.service.framework.jetty.MetricsServlet;
 import com.sixt.service.framework.jetty.RpcServlet;
 
 public class OrangeServletModule extends ServletModule {
@@ -21,9 +22,11 @@ public class OrangeServletModule extends ServletModule {
     @Override
     protected void configureServlets() {
         bind(HealthServlet.class);
+        bind(MetricsServlet.class);
         bind(RpcServlet.class);
 
         serve("/health").with(HealthServlet.class);
+        serve("/metrics").with(MetricsServlet.class);
         serve("/").with(RpcServlet.class);
     }
 }
\ No newline at end of file
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.protobuf.Message;
+import com.sixt.service.framework.OrangeContext;
+import com.sixt.service.framework.RequestCoalescer;
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.rpc.RpcCallException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounds the concurrency of the methods of one bulkhead.  Handlers run on the calling
+ * thread once it got one of the bulkhead's permits.  A limited number of calls wait
+ * for a permit, for at most the maximum wait or until their deadline.  Beyond that,
+ * calls are rejected, so that at most maxConcurrency + queueSize calling threads can
+ * be tied up by the methods of the bulkhead.
+ */
+public class BulkheadExecutor {
+
+    private final String name;
+    private final int maxConcurrency;
+    private final int queueSize;
+    private final long maxWaitMillis;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final GoCounter counter;
+
+    /**
+     * @param queueSize number of calls waiting for a permit, 0 to reject calls as soon
+     * as maxConcurrency calls are running
+     * @param maxWaitMillis how long a call waits for a permit at most
+     */
+    public BulkheadExecutor(String name, int maxConcurrency, int queueSize, long maxWaitMillis,
+                            RpcHandlerMetrics handlerMetrics) {
+        this.name = name;
+        this.maxConcurrency = maxConcurrency;
+        this.queueSize = queueSize;
+        this.maxWaitMillis = maxWaitMillis;
+        //waiting calls get the permits in order
+        this.permits = new Semaphore(maxConcurrency, true);
+        String executorName = getExecutorName(name);
+        counter = handlerMetrics.getExecutorCounter(executorName);
+        handlerMetrics.registerExecutorGauges(executorName, waiting::get,
+                () -> this.maxConcurrency - permits.availablePermits());
+    }
+
+    static String getExecutorName(String bulkheadName) {
+        return "bulkhead_" + bulkheadName;
+    }
+
+    /**
+     * Run the invocation on the calling thread, once the bulkhead has room for it
+     *
+     * @param context the context of the call, whose deadline caps the wait, or null
+     * @throws RpcCallException ServiceUnavailable if the bulkhead is saturated, or the
+     * exception of the invocation
+     */
+    public Message execute(OrangeContext context, RequestCoalescer.Invocation invocation)
+            throws RpcCallException {
+        if (! acquirePermit(context)) {
+            counter.incFailure();
+            throw new RpcCallException(RpcCallException.Category.ServiceUnavailable,
+                    "Bulkhead '" + name + "' is saturated, request rejected");
+        }
+        counter.incSuccess();
+        try {
+            return invocation.invoke();
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean acquirePermit(OrangeContext context) {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (waiting.incrementAndGet() > queueSize) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            long wait = maxWaitMillis;
+            if (context != null) {
+                wait = Math.min(wait, context.getRemainingMillis());
+            }
+            return wait > 0 && permits.tryAcquire(wait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    boolean hasQueuedCalls() {
+        return waiting.get() > 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+}
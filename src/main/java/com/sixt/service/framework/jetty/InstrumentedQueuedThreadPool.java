@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.metrics.GoGauge;
+import com.sixt.service.framework.metrics.GoTimer;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * The jetty thread pool, reporting its threads and queue as executor "jetty", and how
+ * long jobs wait in the queue.  With a queue capacity, jobs are rejected as soon as the
+ * queue is full, and jetty closes the affected connection instead of piling up work.
+ */
+public class InstrumentedQueuedThreadPool extends QueuedThreadPool {
+
+    public final static String EXECUTOR_NAME = "jetty";
+
+    private final GoCounter counter;
+    private final GoTimer queueWait;
+
+    /**
+     * @param queueCapacity maximum number of queued jobs, or 0 or less for no limit
+     */
+    public InstrumentedQueuedThreadPool(int minThreads, int maxThreads, int queueCapacity,
+                                        RpcHandlerMetrics handlerMetrics) {
+        super(maxThreads, minThreads, 60000, createQueue(minThreads, maxThreads, queueCapacity));
+        setName("jetty");
+        counter = handlerMetrics.getExecutorCounter(EXECUTOR_NAME);
+        queueWait = handlerMetrics.getExecutorQueueTimer(EXECUTOR_NAME);
+        GoGauge gauge = handlerMetrics.registerExecutorGauges(EXECUTOR_NAME,
+                this::getQueueSize, this::getBusyThreads);
+        gauge.register("threads", this::getThreads);
+        gauge.register("idle_threads", this::getIdleThreads);
+        gauge.register("max_threads", this::getMaxThreads);
+    }
+
+    private static BlockingQueue<Runnable> createQueue(int minThreads, int maxThreads,
+                                                       int queueCapacity) {
+        if (queueCapacity > 0) {
+            return new BlockingArrayQueue<>(queueCapacity, 0, queueCapacity);
+        }
+        //jetty's default
+        int capacity = Math.max(minThreads, 8);
+        return new BlockingArrayQueue<>(capacity, capacity);
+    }
+
+    @Override
+    public void execute(Runnable job) {
+        try {
+            super.execute(new TimedJob(job, queueWait));
+            counter.incSuccess();
+        } catch (RejectedExecutionException ex) {
+            counter.incFailure();
+            throw ex;
+        }
+    }
+
+    private static class TimedJob implements Runnable {
+
+        private final Runnable job;
+        private final GoTimer queueWait;
+        private final long enqueued;
+
+        TimedJob(Runnable job, GoTimer queueWait) {
+            this.job = job;
+            this.queueWait = queueWait;
+            this.enqueued = queueWait.start();
+        }
+
+        @Override
+        public void run() {
+            queueWait.recordSuccess(enqueued);
+            job.run();
+        }
+
+        @Override
+        public String toString() {
+            return job.toString();
+        }
+    }
+
+}
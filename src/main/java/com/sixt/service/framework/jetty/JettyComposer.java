@@ -13,11 +13,19 @@
 package com.sixt.service.framework.jetty;
 
 import com.google.inject.servlet.GuiceFilter;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
 import org.eclipse.jetty.jmx.MBeanContainer;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.DefaultServlet;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import javax.servlet.DispatcherType;
 import java.lang.management.ManagementFactory;
@@ -29,8 +37,11 @@ public class JettyComposer {
     public static void compose(Server server) {
         //Servlets + Guice
         ServletContextHandler servletContextHandler = new ServletContextHandler(server, "/", ServletContextHandler.SESSIONS);
-        servletContextHandler.addFilter(GuiceFilter.class, "/*", EnumSet.allOf(DispatcherType.class));
-        servletContextHandler.addServlet(DefaultServlet.class, "/");
+        //async support is needed for the RpcServlet's asynchronous handling mode
+        FilterHolder guiceFilter = servletContextHandler.addFilter(GuiceFilter.class, "/*",
+                EnumSet.allOf(DispatcherType.class));
+        guiceFilter.setAsyncSupported(true);
+        servletContextHandler.addServlet(DefaultServlet.class, "/").setAsyncSupported(true);
 
         //JMX stuff...
         MBeanContainer mbContainer = new MBeanContainer(ManagementFactory.getPlatformMBeanServer());
@@ -38,4 +49,37 @@ public class JettyComposer {
         server.addBean(mbContainer);
         server.addBean(Log.getLog());
     }
+
+    /**
+     * The connector for the service port.  HTTP/1.1 is always served; with h2c enabled,
+     * HTTP/2 clients can connect with prior knowledge or upgrade from HTTP/1.1.
+     */
+    public static ServerConnector createConnector(Server server, ServiceProperties serviceProps) {
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        int acceptors = FeatureFlags.getJettyAcceptors(serviceProps);
+        int selectors = FeatureFlags.getJettySelectors(serviceProps);
+        ServerConnector connector;
+        if (FeatureFlags.shouldUseHttp2CleartextServer(serviceProps)) {
+            connector = new ServerConnector(server, acceptors, selectors,
+                    new HttpConnectionFactory(httpConfig),
+                    new HTTP2CServerConnectionFactory(httpConfig));
+        } else {
+            connector = new ServerConnector(server, acceptors, selectors,
+                    new HttpConnectionFactory(httpConfig));
+        }
+        connector.setPort(serviceProps.getServicePort());
+        connector.setIdleTimeout(FeatureFlags.getJettyIdleTimeout(serviceProps));
+        connector.setAcceptQueueSize(FeatureFlags.getJettyAcceptQueueSize(serviceProps));
+        return connector;
+    }
+
+    /**
+     * The thread pool for the jetty server, sized and bounded by the service properties
+     */
+    public static QueuedThreadPool createThreadPool(ServiceProperties serviceProps,
+                                                    RpcHandlerMetrics handlerMetrics) {
+        return new InstrumentedQueuedThreadPool(FeatureFlags.getJettyMinThreads(serviceProps),
+                FeatureFlags.getJettyMaxThreads(serviceProps),
+                FeatureFlags.getJettyQueueCapacity(serviceProps), handlerMetrics);
+    }
 }
@@ -13,19 +13,23 @@
 package com.sixt.service.framework.jetty;
 
 import com.codahale.metrics.MetricRegistry;
-import com.google.common.io.CharStreams;
-import com.google.gson.*;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.protobuf.Message;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.MethodDispatch;
 import com.sixt.service.framework.MethodHandlerDictionary;
 import com.sixt.service.framework.OrangeContext;
-import com.sixt.service.framework.ServiceMethodHandler;
+import com.sixt.service.framework.ResponseCache;
 import com.sixt.service.framework.ServiceProperties;
 import com.sixt.service.framework.json.JsonRpcRequest;
-import com.sixt.service.framework.json.JsonRpcResponse;
 import com.sixt.service.framework.metrics.GoTimer;
-import com.sixt.service.framework.protobuf.ProtobufUtil;
 import com.sixt.service.framework.rpc.RpcCallException;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
@@ -37,48 +41,74 @@ import org.slf4j.MDC;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static com.sixt.service.framework.OrangeContext.CORRELATION_ID;
 import static com.sixt.service.framework.jetty.RpcServlet.TYPE_JSON;
-import static com.sixt.service.framework.json.JsonRpcRequest.METHOD_FIELD;
-import static com.sixt.service.framework.json.JsonRpcRequest.PARAMS_FIELD;
 import static com.sixt.service.framework.json.JsonRpcResponse.ERROR_FIELD;
-import static com.sixt.service.framework.util.ReflectionUtil.findSubClassParameterType;
 
 @Singleton
 public class JsonHandler extends RpcHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(JsonHandler.class);
 
-    @Inject
+    //method tag of the request phases of batches
+    private static final String BATCH = "batch";
+
+    private final JsonRpcCodec codec;
+
     public JsonHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
                        RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties, Tracer tracer) {
-        super(handlers, registry, handlerMetrics, serviceProperties, tracer);
+        this(handlers, registry, handlerMetrics, serviceProperties, tracer, null);
+    }
+
+    public JsonHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
+                       RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties,
+                       Tracer tracer, RpcHandlerExecutor handlerExecutor) {
+        this(handlers, registry, handlerMetrics, serviceProperties, tracer, handlerExecutor, null);
+    }
+
+    @Inject
+    public JsonHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
+                       RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties,
+                       Tracer tracer, RpcHandlerExecutor handlerExecutor, RpcBulkheads bulkheads) {
+        super(handlers, registry, handlerMetrics, serviceProperties, tracer, handlerExecutor,
+                bulkheads);
+        this.codec = new JsonRpcCodec(handlers, FeatureFlags.getRpcMaxBatchSize(serviceProperties));
     }
 
     public void doPost(HttpServletRequest req, HttpServletResponse resp) {
         logger.debug("Handling json request");
 
-        GoTimer methodTimer = null;
-        String methodName = null;
-        Span span = null;
-        long startTime = System.nanoTime();
+        RequestTimings timings = new RequestTimings();
+        long phaseStart = timings.recordQueueWait(req);
         Map<String, String> headers = gatherHttpHeaders(req);
         OrangeContext context = new OrangeContext(headers);
+        phaseStart = timings.record(RequestTimings.Phase.HEADERS, phaseStart);
         try {
 
             MDC.put(CORRELATION_ID, context.getCorrelationId());
 
-            String postedContent = CharStreams.toString(req.getReader());
-            logger.debug("Request JSON: {}", postedContent);
+            if (isExpired(context)) {
+                JsonObject jsonResponse = new JsonObject();
+                jsonResponse.add(ERROR_FIELD, new RpcCallException(
+                        RpcCallException.Category.RequestTimedOut, "Deadline exceeded").toJson());
+                writeResponse(resp, RpcCallException.Category.RequestTimedOut.getHttpStatus(),
+                        jsonResponse.toString());
+                return;
+            }
 
-            JsonRpcRequest rpcRequest;
+            JsonRpcCodec.RequestBody body;
 
             try {
-                rpcRequest = parseRpcRequest(postedContent);
+                body = codec.readBody(req.getReader());
             } catch (IllegalArgumentException iaex) {
-                logger.warn("Error parsing request: " + postedContent, iaex);
+                logger.warn("Error parsing request", iaex);
                 @SuppressWarnings("ThrowableNotThrown")
                 RpcCallException callException = new RpcCallException(RpcCallException.Category.BadRequest,
                         iaex.getMessage());
@@ -90,99 +120,287 @@ public class JsonHandler extends RpcHandler {
                 return;
             }
 
-            methodName = rpcRequest.getMethod();
-
-            span = getSpan(methodName, headers, context);
+            timings.record(RequestTimings.Phase.DECODE, phaseStart);
 
-            methodTimer = getMethodTimer(methodName, context.getRpcOriginService(),
+            if (body.isBatch()) {
+                handleBatch(resp, body.getRequests(), headers, context.getCorrelationId(),
+                        timings);
+            } else {
+                JsonCall call = new JsonCall(body.getRequests().get(0), headers, context);
+                call.timings.addAll(timings);
+                call.run();
+                phaseStart = System.nanoTime();
+                setServerTimingHeader(resp, call.timings);
+                resp.setContentType(TYPE_JSON);
+                try {
+                    writeJsonRpcResponse(resp, call);
+                } catch (IOException e) {
+                    call.writeFailed = true;
+                    logger.error("Error handling request", e);
+                }
+                call.timings.record(RequestTimings.Phase.WRITE, phaseStart);
+                call.finish();
+            }
+        } catch (IOException e) {
+            logger.error("Error handling request", e);
+            incrementFailureCounter(null, context.getRpcOriginService(),
                     context.getRpcOriginMethod());
-            startTime = methodTimer.start();
-            context.setCorrelationId(rpcRequest.getIdAsString());
-            JsonRpcResponse finalResponse = dispatchJsonRpcRequest(rpcRequest, context);
+        } finally {
+            MDC.remove(CORRELATION_ID);
+        }
+    }
 
-            resp.setContentType(TYPE_JSON);
-            writeResponse(resp, finalResponse.getStatusCode(), finalResponse.toJson().toString());
+    /**
+     * The calls of a batch share the correlation id of the http request, but each has
+     * its own context, span and metrics.  The response array is written once all calls
+     * have completed, in the order of the request array.
+     */
+    private void handleBatch(HttpServletResponse resp, List<JsonRpcCodec.Request> requests,
+                             Map<String, String> headers, String correlationId,
+                             RequestTimings timings) {
+        logger.debug("Handling json-rpc batch of {} calls", requests.size());
+        List<JsonCall> calls = new ArrayList<>(requests.size());
+        for (JsonRpcCodec.Request request : requests) {
+            OrangeContext context = new OrangeContext(correlationId, copyHeaders(headers));
+            calls.add(new JsonCall(request, headers, context));
+        }
 
-            //TODO: should we check the response for errors (for metrics)?
-            methodTimer.recordSuccess(startTime);
-            incrementSuccessCounter(methodName, context.getRpcOriginService(),
-                    context.getRpcOriginMethod());
+        runBatch(calls);
+
+        long phaseStart = System.nanoTime();
+        setServerTimingHeader(resp, timings);
+        resp.setContentType(TYPE_JSON);
+        try {
+            writeJsonRpcBatchResponse(resp, calls);
         } catch (IOException e) {
-            if (span != null) {
-                Tags.ERROR.set(span, true);
-            }
-            //TODO: this case doesn't return a response.  should it?
-            methodTimer.recordFailure(startTime);
             logger.error("Error handling request", e);
-            incrementFailureCounter(methodName, context.getRpcOriginService(),
-                    context.getRpcOriginMethod());
-        } finally {
-            if (span != null) {
-                span.finish();
+            for (JsonCall call : calls) {
+                call.writeFailed = true;
             }
-            MDC.remove(CORRELATION_ID);
+        }
+        timings.record(RequestTimings.Phase.WRITE, phaseStart);
+        //the calls' own phases are recorded per call
+        timings.recordMetrics(handlerMetrics, BATCH);
+        for (JsonCall call : calls) {
+            call.finish();
         }
     }
 
     protected JsonRpcRequest parseRpcRequest(String jsonRequestString)
             throws IllegalArgumentException {
-        JsonObject jsonRpcRequest = null;
         try {
-            jsonRpcRequest = new JsonParser().parse(jsonRequestString).getAsJsonObject();
-        } catch (Exception ex) {
+            JsonRpcCodec.Request request = codec.readRequest(new StringReader(jsonRequestString));
+            return new JsonRpcRequest(request.getId(), request.getMethod(), null);
+        } catch (IOException ex) {
             throw new IllegalArgumentException(ex.getMessage(), ex);
         }
-        JsonElement methodElement = jsonRpcRequest.get(METHOD_FIELD);
-        if (methodElement == null || methodElement.getAsString().isEmpty()) {
-            throw new IllegalArgumentException("Missing method name");
+    }
+
+    private Message dispatchJsonRpcRequest(JsonRpcCodec.Request rpcRequest, OrangeContext cxt,
+                                           RequestTimings timings) throws RpcCallException {
+        if (rpcRequest.getDispatch() == null || rpcRequest.getParams() == null) {
+            throw new IllegalStateException("Reflection for handler of " +
+                    rpcRequest.getMethod() + " failed");
         }
-        if (! handlers.hasMethodHandler(methodElement.getAsString())) {
-            throw new IllegalArgumentException("No handler registered for method '" +
-                    methodElement.getAsString() + "'");
+        return invokeHandlerChain(rpcRequest.getDispatch(), rpcRequest.getParams(), cxt, timings);
+    }
+
+    /**
+     * The result is printed straight to the response writer.  Should printing fail
+     * before anything was committed, an error response is sent instead.
+     */
+    private void writeJsonRpcResponse(HttpServletResponse resp, JsonCall call) throws IOException {
+        setResponseStatus(resp, call.statusCode);
+        PrintWriter writer = resp.getWriter();
+        try {
+            call.writeResponse(writer);
+        } catch (IOException ex) {
+            if (resp.isCommitted()) {
+                throw ex;
+            }
+            logger.warn("Error writing response", ex);
+            resp.resetBuffer();
+            call.serializationFailed(ex);
+            setResponseStatus(resp, call.statusCode);
+            codec.writeResponse(writer, call.id, null, call.error);
         }
+        writer.flush();
+    }
 
-        JsonArray paramsArray = jsonRpcRequest.getAsJsonArray(PARAMS_FIELD);
-        JsonElement idElement = jsonRpcRequest.get(JsonRpcRequest.ID_FIELD);
-        return new JsonRpcRequest(idElement, methodElement.getAsString(), paramsArray);
+    /**
+     * A batch is always answered with status 200, the errors are in the individual
+     * responses.  Should printing one of the results fail before anything was
+     * committed, that call is turned into an error and the array is written again.
+     */
+    private void writeJsonRpcBatchResponse(HttpServletResponse resp,
+                                           List<JsonCall> calls) throws IOException {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        PrintWriter writer = resp.getWriter();
+        boolean written = false;
+        while (! written) {
+            JsonCall current = null;
+            try {
+                writer.write('[');
+                for (int i = 0; i < calls.size(); i++) {
+                    current = calls.get(i);
+                    if (i > 0) {
+                        writer.write(',');
+                    }
+                    current.writeResponse(writer);
+                }
+                writer.write(']');
+                written = true;
+            } catch (InvalidProtocolBufferException ex) {
+                if (resp.isCommitted() || current == null) {
+                    throw ex;
+                }
+                logger.warn("Error writing response", ex);
+                resp.resetBuffer();
+                current.serializationFailed(ex);
+            }
+        }
+        writer.flush();
     }
 
-    @SuppressWarnings("unchecked")
-    private JsonRpcResponse dispatchJsonRpcRequest(JsonRpcRequest rpcRequest, OrangeContext cxt) {
-        ServiceMethodHandler handler = handlers.getMethodHandler(rpcRequest.getMethod());
-        Message innerRequest = convertJsonToProtobuf(handler, rpcRequest);
-        JsonRpcResponse jsonResponse = new JsonRpcResponse(rpcRequest.getId(), JsonNull.INSTANCE,
-                JsonNull.INSTANCE, HttpServletResponse.SC_OK);
-        JsonElement idElement = rpcRequest.getId();
-        if (idElement == null) {
-            jsonResponse.setId(new JsonPrimitive(-1));
+    /**
+     * One json-rpc call, either a single request or one call of a batch
+     */
+    private class JsonCall implements Runnable {
+
+        private final JsonRpcCodec.Request request;
+        private final Map<String, String> headers;
+        private final OrangeContext context;
+        private final JsonElement id;
+        private final RequestTimings timings = new RequestTimings();
+        private Span span;
+        private GoTimer methodTimer;
+        private long startTime;
+        private Message response;
+        private String printedResponse;
+        private JsonElement error = JsonNull.INSTANCE;
+        private int statusCode = HttpServletResponse.SC_OK;
+        private boolean writeFailed;
+
+        JsonCall(JsonRpcCodec.Request request, Map<String, String> headers, OrangeContext context) {
+            this.request = request;
+            this.headers = headers;
+            this.context = context;
+            this.id = request.getId() == null ? new JsonPrimitive(-1) : request.getId();
         }
-        try {
-            Message innerResponse = invokeHandlerChain(rpcRequest.getMethod(), handler, innerRequest, cxt);
-            jsonResponse.setResult(ProtobufUtil.protobufToJson(innerResponse));
-        } catch (RpcCallException rpcEx) {
-            logger.debug("Error processing request", rpcEx);
-            jsonResponse.setError(rpcEx.toJson());
-            jsonResponse.setStatusCode(rpcEx.getCategory().getHttpStatus());
-        } catch (Exception ex) {
-            logger.warn("Error processing request", ex);
-            if (ex.getMessage() != null) {
-                jsonResponse.setError(new JsonPrimitive(ex.getMessage()));
+
+        @Override
+        public void run() {
+            String previousCorrelationId = MDC.get(CORRELATION_ID);
+            MDC.put(CORRELATION_ID, context.getCorrelationId());
+            try {
+                if (request.getError() != null) {
+                    @SuppressWarnings("ThrowableNotThrown")
+                    RpcCallException callException = new RpcCallException(
+                            RpcCallException.Category.BadRequest, request.getError());
+                    error = callException.toJson();
+                    statusCode = HttpServletResponse.SC_BAD_REQUEST;
+                    return;
+                }
+                String methodName = request.getMethod();
+                logger.debug("Request method: {}, id: {}", methodName, request.getId());
+
+                span = getSpan(methodName, headers, context);
+
+                methodTimer = getMethodTimer(methodName, context.getRpcOriginService(),
+                        context.getRpcOriginMethod());
+                startTime = methodTimer.start();
+                context.setCorrelationId(request.getIdAsString());
+
+                ResponseCache cache = request.getDispatch() == null ? null :
+                        getResponseCache(request.getDispatch());
+                if (cache == null) {
+                    response = dispatchJsonRpcRequest(request, context, timings);
+                } else {
+                    invokeCached(cache);
+                }
+            } catch (RpcCallException rpcEx) {
+                logger.debug("Error processing request", rpcEx);
+                error = rpcEx.toJson();
+                statusCode = rpcEx.getCategory().getHttpStatus();
+            } catch (Exception ex) {
+                logger.warn("Error processing request", ex);
+                if (ex.getMessage() != null) {
+                    error = new JsonPrimitive(ex.getMessage());
+                }
+                statusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            } finally {
+                if (previousCorrelationId == null) {
+                    MDC.remove(CORRELATION_ID);
+                } else {
+                    MDC.put(CORRELATION_ID, previousCorrelationId);
+                }
             }
-            jsonResponse.setStatusCode(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
         }
-        return jsonResponse;
-    }
 
-    @SuppressWarnings("unchecked")
-    private Message convertJsonToProtobuf(ServiceMethodHandler handler,
-                                          JsonRpcRequest rpcRequest) {
-        try {
-            Class<?> requestKlass = findSubClassParameterType(handler, 0);
-            return ProtobufUtil.jsonToProtobuf(rpcRequest.getParams(),
-                    (Class<? extends Message>) requestKlass);
-        } catch (ClassNotFoundException ex) {
-            throw new IllegalStateException("Reflection for handler " +
-                    handler.getClass() + " failed");
+        /**
+         * Serve the printed result from the cache, or invoke the handler and cache its
+         * printed result.  The pre-hooks run either way.
+         */
+        private void invokeCached(ResponseCache cache) throws RpcCallException {
+            MethodDispatch dispatch = request.getDispatch();
+            Message params = applyPreHooks(dispatch, request.getParams(), context, timings);
+            ByteString key = params.toByteString();
+            printedResponse = cache.getJson(key);
+            if (printedResponse == null) {
+                Message result = invokeHandler(dispatch, params, context, timings);
+                try {
+                    printedResponse = codec.printResult(result);
+                } catch (InvalidProtocolBufferException ex) {
+                    logger.warn("Error writing response", ex);
+                    serializationFailed(ex);
+                    return;
+                }
+                cache.putJson(key, printedResponse);
+            }
+        }
+
+        void writeResponse(Writer out) throws IOException {
+            if (printedResponse != null) {
+                codec.writePrintedResponse(out, id, printedResponse, error);
+            } else {
+                codec.writeResponse(out, id, response, error);
+            }
+        }
+
+        void serializationFailed(IOException ex) {
+            response = null;
+            printedResponse = null;
+            error = new JsonPrimitive("Error serializing response: " + ex.getMessage());
+            statusCode = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+        }
+
+        /**
+         * Record metrics and finish the span, once the response has been written
+         */
+        void finish() {
+            boolean failed = writeFailed || statusCode != HttpServletResponse.SC_OK;
+            String methodName = request.getError() == null ? request.getMethod() : "unknown";
+            if (span != null) {
+                if (failed) {
+                    Tags.ERROR.set(span, true);
+                }
+                span.finish();
+            }
+            if (methodTimer != null) {
+                if (failed) {
+                    methodTimer.recordFailure(startTime);
+                } else {
+                    methodTimer.recordSuccess(startTime);
+                }
+            }
+            timings.recordMetrics(handlerMetrics, methodName);
+            if (failed) {
+                incrementFailureCounter(methodName, context.getRpcOriginService(),
+                        context.getRpcOriginMethod());
+            } else {
+                incrementSuccessCounter(methodName, context.getRpcOriginService(),
+                        context.getRpcOriginMethod());
+            }
         }
     }
 
@@ -0,0 +1,372 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.MethodDispatch;
+import com.sixt.service.framework.MethodHandlerDictionary;
+import com.sixt.service.framework.protobuf.JsonProtobufMerger;
+import com.sixt.service.framework.protobuf.ProtobufUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.sixt.service.framework.json.JsonRpcRequest.ID_FIELD;
+import static com.sixt.service.framework.json.JsonRpcRequest.METHOD_FIELD;
+import static com.sixt.service.framework.json.JsonRpcRequest.PARAMS_FIELD;
+
+/**
+ * Reads json-rpc requests in a single streaming pass: method and id are picked up on
+ * the way, and the first element of params is merged straight into a builder of the
+ * handler's request type.  Responses are written straight to the servlet writer, with
+ * the result printed by JsonFormat without an intermediate json tree.
+ * A json-rpc 2.0 batch (an array of request objects) is read the same way, element by
+ * element.
+ */
+public class JsonRpcCodec {
+
+    private static final Logger logger = LoggerFactory.getLogger(JsonRpcCodec.class);
+
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+    private static final JsonFormat.Printer printer = JsonFormat.printer()
+            .preservingProtoFieldNames().omittingInsignificantWhitespace();
+
+    private final MethodHandlerDictionary handlers;
+    private final int maxBatchSize;
+
+    public JsonRpcCodec(MethodHandlerDictionary handlers) {
+        this(handlers, FeatureFlags.DEFAULT_RPC_MAX_BATCH_SIZE);
+    }
+
+    public JsonRpcCodec(MethodHandlerDictionary handlers, int maxBatchSize) {
+        this.handlers = handlers;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the request is not a valid json-rpc request
+     * for a registered method
+     */
+    public Request readRequest(Reader in) throws IOException {
+        try {
+            JsonParser parser = jsonFactory.createParser(in);
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Not a JSON object: " + token);
+            }
+            return checkValid(readRequest(parser));
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Malformed JSON: " + ex.getOriginalMessage(), ex);
+        }
+    }
+
+    /**
+     * Read either a single request or a batch.  Invalid calls inside a batch don't fail
+     * the batch, they are returned with an error.
+     *
+     * @throws IllegalArgumentException if the body is neither a valid single request nor
+     * a well-formed batch
+     */
+    public RequestBody readBody(Reader in) throws IOException {
+        try {
+            JsonParser parser = jsonFactory.createParser(in);
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_OBJECT) {
+                return new RequestBody(false,
+                        Collections.singletonList(checkValid(readRequest(parser))));
+            } else if (token == JsonToken.START_ARRAY) {
+                return new RequestBody(true, readBatch(parser));
+            } else {
+                throw new IllegalArgumentException("Not a JSON object or array: " + token);
+            }
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Malformed JSON: " + ex.getOriginalMessage(), ex);
+        }
+    }
+
+    private List<Request> readBatch(JsonParser parser) throws IOException {
+        List<Request> requests = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (requests.size() >= maxBatchSize) {
+                throw new IllegalArgumentException("Batch exceeds the maximum of " +
+                        maxBatchSize + " calls");
+            }
+            if (token == JsonToken.START_OBJECT) {
+                requests.add(readRequest(parser));
+            } else {
+                parser.skipChildren();
+                requests.add(new Request(null, null, null, null, "Not a JSON object: " + token));
+            }
+        }
+        if (requests.isEmpty()) {
+            throw new IllegalArgumentException("Empty batch");
+        }
+        return requests;
+    }
+
+    private Request checkValid(Request request) {
+        if (request.getError() != null) {
+            throw new IllegalArgumentException(request.getError());
+        }
+        return request;
+    }
+
+    /**
+     * Read one request object, the parser being positioned at its START_OBJECT.  If the
+     * request is invalid, the rest of the object is consumed and the request is returned
+     * with an error.
+     */
+    protected Request readRequest(JsonParser parser) throws IOException {
+        JsonStreamContext requestContext = parser.getParsingContext();
+        String method = null;
+        MethodDispatch dispatch = null;
+        JsonElement id = null;
+        Message params = null;
+        JsonElement unresolvedParams = null;
+        String error = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (METHOD_FIELD.equals(name)) {
+                method = token.isScalarValue() ? parser.getValueAsString() : null;
+                parser.skipChildren();
+                dispatch = method == null ? null : handlers.getDispatch(method);
+            } else if (ID_FIELD.equals(name)) {
+                id = JsonProtobufMerger.readTree(parser);
+            } else if (PARAMS_FIELD.equals(name) && token == JsonToken.START_ARRAY) {
+                if (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (isUsable(dispatch)) {
+                        try {
+                            params = readParams(parser, dispatch);
+                        } catch (IllegalArgumentException ex) {
+                            error = ex.getMessage();
+                            //skip the rest of the params
+                            while (parser.getParsingContext() != requestContext) {
+                                parser.nextToken();
+                            }
+                            continue;
+                        }
+                    } else if (method == null) {
+                        //params came before the method, the request type isn't known yet
+                        unresolvedParams = JsonProtobufMerger.readTree(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (method == null || method.isEmpty()) {
+            error = "Missing method name";
+        } else if (! handlers.hasMethodHandler(method)) {
+            error = "No handler registered for method '" + method + "'";
+        }
+        if (error == null && params == null && isUsable(dispatch)) {
+            try {
+                if (unresolvedParams instanceof JsonObject) {
+                    params = ProtobufUtil.jsonToProtobuf(unresolvedParams.toString(),
+                            dispatch.getRequestDefaultInstance());
+                } else {
+                    params = dispatch.getRequestDefaultInstance();
+                }
+            } catch (RuntimeException ex) {
+                error = ex.getMessage();
+            }
+        }
+        if (error != null) {
+            return new Request(id, method, null, null, error);
+        }
+        return new Request(id, method, dispatch, params);
+    }
+
+    private Message readParams(JsonParser parser, MethodDispatch dispatch) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            logger.warn("Parsing json params that are not an object is deprecated and will be " +
+                    "removed in the next major release");
+            parser.skipChildren();
+            return dispatch.getRequestDefaultInstance();
+        }
+        Message.Builder builder = dispatch.getRequestDefaultInstance().newBuilderForType();
+        try {
+            JsonProtobufMerger.merge(parser, builder);
+        } catch (InvalidProtocolBufferException ex) {
+            throw new IllegalArgumentException(ex.getMessage(), ex);
+        }
+        return builder.build();
+    }
+
+    private boolean isUsable(MethodDispatch dispatch) {
+        return dispatch != null && dispatch.getRequestDefaultInstance() != null;
+    }
+
+    /**
+     * Write a json-rpc response object.  If there is no error, a null result is written
+     * as an empty object.
+     */
+    public void writeResponse(Writer out, JsonElement id, Message result,
+                              JsonElement error) throws IOException {
+        out.write("{\"id\":");
+        writeElement(out, id);
+        out.write(",\"error\":");
+        writeElement(out, error);
+        out.write(",\"result\":");
+        if (error != null && ! error.isJsonNull()) {
+            out.write("null");
+        } else if (result == null) {
+            out.write("{}");
+        } else {
+            printer.appendTo(result, out);
+        }
+        out.write('}');
+    }
+
+    /**
+     * Write a json-rpc response object with a result that was already printed by
+     * printResult
+     */
+    public void writePrintedResponse(Writer out, JsonElement id, String result,
+                                     JsonElement error) throws IOException {
+        out.write("{\"id\":");
+        writeElement(out, id);
+        out.write(",\"error\":");
+        writeElement(out, error);
+        out.write(",\"result\":");
+        if (error != null && ! error.isJsonNull()) {
+            out.write("null");
+        } else {
+            out.write(result);
+        }
+        out.write('}');
+    }
+
+    /**
+     * Print a result the way writeResponse does, for writePrintedResponse
+     */
+    public String printResult(Message result) throws InvalidProtocolBufferException {
+        return result == null ? "{}" : printer.print(result);
+    }
+
+    private void writeElement(Writer out, JsonElement element) throws IOException {
+        if (element == null) {
+            element = JsonNull.INSTANCE;
+        }
+        out.write(element.toString());
+    }
+
+    /**
+     * A decoded request body: a single request, or the requests of a batch in their
+     * original order
+     */
+    public static class RequestBody {
+
+        private final boolean batch;
+        private final List<Request> requests;
+
+        public RequestBody(boolean batch, List<Request> requests) {
+            this.batch = batch;
+            this.requests = requests;
+        }
+
+        public boolean isBatch() {
+            return batch;
+        }
+
+        public List<Request> getRequests() {
+            return requests;
+        }
+    }
+
+    /**
+     * A decoded json-rpc request.  The dispatch is null if the method has no usable
+     * handler, in which case params is also null.  Invalid requests of a batch carry
+     * an error message instead, and neither dispatch nor params.
+     */
+    public static class Request {
+
+        private final JsonElement id;
+        private final String method;
+        private final MethodDispatch dispatch;
+        private final Message params;
+        private final String error;
+
+        public Request(JsonElement id, String method, MethodDispatch dispatch, Message params) {
+            this(id, method, dispatch, params, null);
+        }
+
+        public Request(JsonElement id, String method, MethodDispatch dispatch, Message params,
+                       String error) {
+            this.id = id;
+            this.method = method;
+            this.dispatch = dispatch;
+            this.params = params;
+            this.error = error;
+        }
+
+        public JsonElement getId() {
+            return id;
+        }
+
+        public String getIdAsString() {
+            if (id == null || id instanceof JsonNull) {
+                return null;
+            } else {
+                return id.getAsString();
+            }
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public MethodDispatch getDispatch() {
+            return dispatch;
+        }
+
+        public Message getParams() {
+            return params;
+        }
+
+        /**
+         * @return why the request is invalid, or null if it is valid
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+}
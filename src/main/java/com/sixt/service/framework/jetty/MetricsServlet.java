@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.metrics.PrometheusFormat;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves the service's metrics in the Prometheus text format.  By default every scrape
+ * renders the metrics and streams them to the response.  With a cache interval
+ * configured, scrapes within it get the same rendered metrics, so that several
+ * Prometheus servers scraping the service don't each pay for snapshotting every timer.
+ * That buffers the whole response in memory, and the values can be up to an interval old.
+ */
+@Singleton
+public class MetricsServlet extends HttpServlet {
+
+    private final MetricRegistry registry;
+    private final long cacheNanos;
+    private byte[] rendered;
+    private long renderedAt;
+
+    @Inject
+    public MetricsServlet(MetricRegistry registry, ServiceProperties serviceProps) {
+        this.registry = registry;
+        this.cacheNanos = TimeUnit.MILLISECONDS.toNanos(
+                FeatureFlags.getMetricsEndpointCacheMillis(serviceProps));
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        resp.setContentType(PrometheusFormat.CONTENT_TYPE);
+        if (cacheNanos <= 0) {
+            PrometheusFormat.write(registry, resp.getWriter());
+        } else {
+            byte[] body = getRendered();
+            resp.setContentLength(body.length);
+            resp.getOutputStream().write(body);
+        }
+    }
+
+    private synchronized byte[] getRendered() throws IOException {
+        long now = System.nanoTime();
+        if (rendered == null || now - renderedAt >= cacheNanos) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                    rendered == null ? 8192 : rendered.length);
+            Writer out = new BufferedWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8));
+            PrometheusFormat.write(registry, out);
+            rendered = buffer.toByteArray();
+            renderedAt = now;
+        }
+        return rendered;
+    }
+
+}
@@ -13,29 +13,33 @@
 package com.sixt.service.framework.jetty;
 
 import com.codahale.metrics.MetricRegistry;
-import com.google.common.primitives.Ints;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.CountingOutputStream;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.Message;
 import com.sixt.service.framework.*;
 import com.sixt.service.framework.metrics.GoTimer;
-import com.sixt.service.framework.protobuf.ProtobufUtil;
+import com.sixt.service.framework.protobuf.RpcCompression;
 import com.sixt.service.framework.protobuf.RpcEnvelope;
 import com.sixt.service.framework.rpc.RpcCallException;
-import com.sixt.service.framework.util.ReflectionUtil;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
 import io.opentracing.tag.Tags;
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
-import javax.servlet.ServletInputStream;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletRequestWrapper;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 @Singleton
@@ -43,120 +47,251 @@ public class ProtobufHandler extends RpcHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(ProtobufHandler.class);
 
-    @Inject
+    private static final String IDENTITY = "identity";
+    //method tag of the request phases of multi-request frames
+    private static final String BATCH = "batch";
+
     public ProtobufHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
                            RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties, Tracer tracer) {
-        super(handlers, registry, handlerMetrics, serviceProperties, tracer);
+        this(handlers, registry, handlerMetrics, serviceProperties, tracer, null);
+    }
+
+    public ProtobufHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
+                           RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties,
+                           Tracer tracer, RpcHandlerExecutor handlerExecutor) {
+        this(handlers, registry, handlerMetrics, serviceProperties, tracer, handlerExecutor, null);
+    }
+
+    @Inject
+    public ProtobufHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
+                           RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties,
+                           Tracer tracer, RpcHandlerExecutor handlerExecutor, RpcBulkheads bulkheads) {
+        super(handlers, registry, handlerMetrics, serviceProperties, tracer, handlerExecutor,
+                bulkheads);
     }
 
-    @SuppressWarnings("unchecked")
     public void doPost(HttpServletRequest req, HttpServletResponse resp) {
         logger.debug("Handling protobuf request");
 
-        RpcEnvelope.Request rpcRequest = null;
-        String methodName = null;
-        Span span = null;
+        RequestTimings timings = new RequestTimings();
+        long phaseStart = timings.recordQueueWait(req);
         Map<String, String> headers = gatherHttpHeaders(req);
         OrangeContext context = new OrangeContext(headers);
-        HttpServletRequest blubb = new HttpServletRequestWrapper(req);
+        List<ProtobufCall> calls = new ArrayList<>(1);
+        phaseStart = timings.record(RequestTimings.Phase.HEADERS, phaseStart);
 
         try {
             MDC.put(OrangeContext.CORRELATION_ID, context.getCorrelationId());
 
-            ServletInputStream in = req.getInputStream();
-            rpcRequest = readRpcEnvelope(in);
+            if (isExpired(context)) {
+                resp.setStatus(RpcCallException.Category.RequestTimedOut.getHttpStatus());
+                return;
+            }
+
+            String contentEncoding = req.getHeader(RpcCompression.CONTENT_ENCODING);
+            RpcCompression requestCompression = RpcCompression.fromEncoding(contentEncoding);
+            if (requestCompression == null && StringUtils.isNotBlank(contentEncoding) &&
+                    ! IDENTITY.equalsIgnoreCase(contentEncoding.trim())) {
+                logger.warn("Unsupported content encoding: {}", contentEncoding);
+                resp.setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+                incrementFailureCounter(null, context.getRpcOriginService(),
+                        context.getRpcOriginMethod());
+                return;
+            }
+            RpcCompression responseCompression = null;
+            if (FeatureFlags.shouldCompressRpcResponses(serviceProps)) {
+                responseCompression = RpcCompression.negotiate(
+                        req.getHeader(RpcCompression.ACCEPT_ENCODING));
+            }
 
-            methodName = rpcRequest.getServiceMethod();
+            CountingInputStream compressedIn = null;
+            CountingInputStream rawIn = null;
+            try {
+                InputStream body = req.getInputStream();
+                if (requestCompression != null) {
+                    compressedIn = new CountingInputStream(body);
+                    rawIn = new CountingInputStream(requestCompression.decompress(compressedIn));
+                    body = rawIn;
+                }
+                readCalls(req, body, headers, context, calls);
+            } catch (RpcReadException ex) {
+                logger.warn("Bad request, cannot decode rpc message: {}", ex.toJson(req));
+                failAll(calls, ex.getMessage(), HttpServletResponse.SC_BAD_REQUEST);
+            } catch (Exception ex) {
+                logger.warn("Uncaught exception", ex);
+                failAll(calls, ex.getMessage(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+            if (rawIn != null) {
+                handlerMetrics.recordCompression(requestCompression.getEncoding(), "request",
+                        rawIn.getCount(), compressedIn.getCount());
+            }
 
-            span = getSpan(methodName, headers, context);
+            phaseStart = timings.record(RequestTimings.Phase.DECODE, phaseStart);
 
-            ServiceMethodHandler handler = handlers.getMethodHandler(methodName);
-            if (handler == null) {
-                incrementFailureCounter(methodName, context.getRpcOriginService(),
+            if (calls.isEmpty()) {
+                //not even an envelope could be read, there is nothing to respond to
+                incrementFailureCounter(null, context.getRpcOriginService(),
                         context.getRpcOriginMethod());
-                throw new IllegalArgumentException("Invalid method: " +
-                        rpcRequest.getServiceMethod());
+                return;
             }
 
-            Class<? extends Message> requestClass = (Class<? extends Message>)
-                    ReflectionUtil.findSubClassParameterType(handler, 0);
-
-            Message pbRequest = readRpcBody(in, requestClass);
+            if (calls.size() == 1 && isStreaming(calls.get(0).dispatch) && ! calls.get(0).failed) {
+                ProtobufCall call = calls.get(0);
+                call.timings.addAll(timings);
+                call.stream(resp);
+            } else if (calls.size() == 1) {
+                ProtobufCall call = calls.get(0);
+                call.timings.addAll(timings);
+                call.run();
+                phaseStart = System.nanoTime();
+                setServerTimingHeader(resp, call.timings);
+                if (call.failed) {
+                    sendErrorResponse(resp, call.envelope, call.errorMessage, call.statusCode);
+                } else {
+                    resp.setContentType(RpcServlet.TYPE_OCTET);
+                    sendSuccessfulResponse(resp, call, responseCompression);
+                }
+                call.timings.record(RequestTimings.Phase.WRITE, phaseStart);
+            } else {
+                runBatch(calls);
+                phaseStart = System.nanoTime();
+                setServerTimingHeader(resp, timings);
+                sendBatchResponse(resp, calls, responseCompression);
+                timings.record(RequestTimings.Phase.WRITE, phaseStart);
+                //the calls' own phases are recorded per call
+                timings.recordMetrics(handlerMetrics, BATCH);
+            }
 
-            GoTimer methodTimer = getMethodTimer(methodName, context.getRpcOriginService(),
-                    context.getRpcOriginMethod());
-            long startTime = methodTimer.start();
+            for (ProtobufCall call : calls) {
+                call.finish();
+            }
+        } finally {
+            MDC.remove(OrangeContext.CORRELATION_ID);
+        }
+    }
 
-            Message pbResponse = invokeHandlerChain(methodName, handler, pbRequest, context);
+    /**
+     * Read all envelope and body pairs of the frame.  Calls that can't be dispatched
+     * are failed individually, an unreadable frame throws.
+     */
+    private void readCalls(HttpServletRequest req, InputStream body, Map<String, String> headers,
+                           OrangeContext context, List<ProtobufCall> calls)
+            throws RpcReadException, IOException {
+        int maxBatchSize = FeatureFlags.getRpcMaxBatchSize(serviceProps);
+        ProtobufRpcCodec codec = new ProtobufRpcCodec(req.getInputStream(), body);
+        do {
+            if (calls.size() >= maxBatchSize) {
+                throw new RpcReadException(null, req.getInputStream(),
+                        "Multi-request frame exceeds the maximum of " + maxBatchSize + " calls");
+            }
+            RpcEnvelope.Request envelope = codec.readEnvelope();
 
-            resp.setContentType(RpcServlet.TYPE_OCTET);
-            sendSuccessfulResponse(resp, rpcRequest, pbResponse);
+            //the calls of a multi-request frame share the correlation id, not the context
+            OrangeContext callContext = calls.isEmpty() ? context :
+                    new OrangeContext(context.getCorrelationId(), copyHeaders(headers));
+            ProtobufCall call = new ProtobufCall(envelope, callContext,
+                    getSpan(envelope.getServiceMethod(), headers, callContext));
+            calls.add(call);
 
-            //TODO: should we check the response for errors?
-            methodTimer.recordSuccess(startTime);
-            incrementSuccessCounter(methodName, context.getRpcOriginService(),
-                    context.getRpcOriginMethod());
-        } catch (RpcCallException rpcEx) {
-            sendErrorResponse(resp, rpcRequest, rpcEx.toString(), rpcEx.getCategory().getHttpStatus());
-            if (span != null) {
-                Tags.ERROR.set(span, true);
+            MethodDispatch dispatch = handlers.getDispatch(envelope.getServiceMethod());
+            if (dispatch == null) {
+                call.fail("Invalid method: " + envelope.getServiceMethod(),
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                codec.skipBody();
+                continue;
             }
-            incrementFailureCounter(methodName, context.getRpcOriginService(),
-                    context.getRpcOriginMethod());
-        } catch (RpcReadException ex) {
-            logger.warn("Bad request, cannot decode rpc message: {}", ex.toJson(req));
-            sendErrorResponse(resp, rpcRequest, ex.getMessage(), HttpServletResponse.SC_BAD_REQUEST);
-            if (span != null) {
-                Tags.ERROR.set(span, true);
+            call.dispatch = dispatch;
+            try {
+                call.request = codec.readBody(dispatch);
+            } catch (RpcCallException rpcEx) {
+                call.fail(rpcEx.toString(), rpcEx.getCategory().getHttpStatus());
             }
-            incrementFailureCounter(methodName, context.getRpcOriginService(),
-                    context.getRpcOriginMethod());
-        } catch (Exception ex) {
-            logger.warn("Uncaught exception", ex);
-            sendErrorResponse(resp, rpcRequest, ex.getMessage(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
-            if (span != null) {
-                Tags.ERROR.set(span, true);
+        } while (codec.hasMoreRequests());
+    }
+
+    private void failAll(List<ProtobufCall> calls, String message, int httpStatusCode) {
+        for (ProtobufCall call : calls) {
+            if (! call.failed) {
+                call.fail(message, httpStatusCode);
             }
-            incrementFailureCounter(methodName, context.getRpcOriginService(),
-                    context.getRpcOriginMethod());
-        } finally {
-            if (span != null) {
-                span.finish();
+        }
+    }
+
+    /**
+     * A multi-request frame is always answered with status 200, the errors are in the
+     * individual response envelopes.
+     */
+    private void sendBatchResponse(HttpServletResponse resp, List<ProtobufCall> calls,
+                                   RpcCompression compression) {
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType(RpcServlet.TYPE_OCTET);
+        RpcEnvelope.Response[] rpcResponses = new RpcEnvelope.Response[calls.size()];
+        for (int i = 0; i < calls.size(); i++) {
+            ProtobufCall call = calls.get(i);
+            RpcEnvelope.Response.Builder rpcResponse = RpcEnvelope.Response.newBuilder().
+                    setServiceMethod(call.envelope.getServiceMethod()).
+                    setSequenceNumber(call.envelope.getSequenceNumber());
+            if (call.failed) {
+                rpcResponse.setError(call.errorMessage == null ? "null" : call.errorMessage);
             }
-            MDC.remove(OrangeContext.CORRELATION_ID);
+            rpcResponses[i] = rpcResponse.build();
+        }
+        try {
+            writeResponses(resp, compression, rpcResponses, calls);
+        } catch (IOException ioex) {
+            //there is nothing we can do, client probably went away
+            logger.debug("Caught IOException, assuming client disconnected");
         }
     }
 
-    private void sendSuccessfulResponse(HttpServletResponse response,
-                                        RpcEnvelope.Request rpcRequest,
-                                        Message pbResponse) throws IOException {
+    private void sendSuccessfulResponse(HttpServletResponse response, ProtobufCall call,
+                                        RpcCompression compression) {
         response.setStatus(HttpServletResponse.SC_OK);
 
         RpcEnvelope.Response rpcResponse = RpcEnvelope.Response.newBuilder().
-                setServiceMethod(rpcRequest.getServiceMethod()).
-                setSequenceNumber(rpcRequest.getSequenceNumber()).build();
-        byte responseHeader[] = rpcResponse.toByteArray();
-        byte responseBody[];
-        if (pbResponse == null) {
-            responseBody = new byte[0];
-        } else {
-            responseBody = pbResponse.toByteArray();
-        }
+                setServiceMethod(call.envelope.getServiceMethod()).
+                setSequenceNumber(call.envelope.getSequenceNumber()).build();
 
         try {
-            ServletOutputStream out = response.getOutputStream();
-
-            out.write(Ints.toByteArray(responseHeader.length));
-            out.write(responseHeader);
-
-            out.write(Ints.toByteArray(responseBody.length));
-            out.write(responseBody);
+            writeResponses(response, compression, new RpcEnvelope.Response[]{rpcResponse},
+                    Collections.singletonList(call));
         } catch (IOException ioex) {
             //there is nothing we can do, client probably went away
             logger.debug("Caught IOException, assuming client disconnected");
         }
     }
 
+    /**
+     * Write the response frames of the calls, compressed if the client accepts a
+     * compression and the frames reach the compression threshold
+     */
+    private void writeResponses(HttpServletResponse response, RpcCompression compression,
+                                RpcEnvelope.Response[] rpcResponses,
+                                List<ProtobufCall> calls) throws IOException {
+        long rawSize = 0;
+        if (compression != null) {
+            for (int i = 0; i < rpcResponses.length; i++) {
+                rawSize += 8 + rpcResponses[i].getSerializedSize() + calls.get(i).getBodySize();
+            }
+        }
+        if (compression == null || rawSize < FeatureFlags.getRpcCompressionThreshold(serviceProps)) {
+            OutputStream out = response.getOutputStream();
+            for (int i = 0; i < rpcResponses.length; i++) {
+                calls.get(i).writeResponse(out, rpcResponses[i]);
+            }
+            return;
+        }
+        response.setHeader(RpcCompression.CONTENT_ENCODING, compression.getEncoding());
+        CountingOutputStream compressedOut = new CountingOutputStream(response.getOutputStream());
+        try (OutputStream out = compression.compress(compressedOut)) {
+            for (int i = 0; i < rpcResponses.length; i++) {
+                calls.get(i).writeResponse(out, rpcResponses[i]);
+            }
+        }
+        handlerMetrics.recordCompression(compression.getEncoding(), "response", rawSize,
+                compressedOut.getCount());
+    }
+
     private void sendErrorResponse(HttpServletResponse resp,
                                    RpcEnvelope.Request rpcRequest,
                                    String message,
@@ -175,64 +310,185 @@ public class ProtobufHandler extends RpcHandler {
                         setServiceMethod(rpcRequest.getServiceMethod()).
                         setSequenceNumber(rpcRequest.getSequenceNumber()).
                         setError(message).build();
-                byte responseHeader[] = rpcResponse.toByteArray();
-                ServletOutputStream out = resp.getOutputStream();
-                out.write(Ints.toByteArray(responseHeader.length));
-                out.write(responseHeader);
-                out.write(Ints.toByteArray(0)); //zero-length (no) body
+                //zero-length (no) body
+                ProtobufRpcCodec.writeResponse(resp.getOutputStream(), rpcResponse, null);
             } catch (Exception ex) {
                 logger.warn("Error writing error response", ex);
             }
         }
     }
 
-    private RpcEnvelope.Request readRpcEnvelope(ServletInputStream in) throws Exception {
-        byte chunkSize[] = new byte[4];
-        in.read(chunkSize);
-        int size = Ints.fromByteArray(chunkSize);
-        if (size <= 0 || size > ProtobufUtil.MAX_HEADER_CHUNK_SIZE) {
-            String message = "Invalid header chunk size: " + size;
-            throw new RpcReadException(chunkSize, in, message);
-        }
-        byte headerData[] = readyFully(in, size);
-        RpcEnvelope.Request rpcRequest = RpcEnvelope.Request.parseFrom(headerData);
-        return rpcRequest;
-    }
+    /**
+     * One call of a protobuf request, either the only one or one of a multi-request frame
+     */
+    private class ProtobufCall implements Runnable {
 
-    private Message readRpcBody(ServletInputStream in,
-                                Class<? extends Message> requestClass) throws Exception {
-        byte chunkSize[] = new byte[4];
-        in.read(chunkSize);
-        int size = Ints.fromByteArray(chunkSize);
-        if (size == 0) {
-            return ProtobufUtil.newEmptyMessage(requestClass);
-        }
-        if (size > ProtobufUtil.MAX_BODY_CHUNK_SIZE) {
-            String message = "Invalid body chunk size: " + size;
-            throw new RpcReadException(chunkSize, in, message);
-        }
-        byte bodyData[] = readyFully(in, size);
-        Message pbRequest = ProtobufUtil.byteArrayToProtobuf(bodyData, requestClass);
-        return pbRequest;
-    }
+        private final RpcEnvelope.Request envelope;
+        private final OrangeContext context;
+        private final Span span;
+        private final RequestTimings timings = new RequestTimings();
+        private MethodDispatch dispatch;
+        private Message request;
+        private Message response;
+        private byte[] serializedResponse;
+        private GoTimer methodTimer;
+        private long startTime;
+        private boolean failed;
+        private String errorMessage;
+        private int statusCode = HttpServletResponse.SC_OK;
+
+        ProtobufCall(RpcEnvelope.Request envelope, OrangeContext context, Span span) {
+            this.envelope = envelope;
+            this.context = context;
+            this.span = span;
+        }
 
-    private byte[] readyFully(ServletInputStream in, int totalSize) throws Exception {
-        byte[] retval = new byte[totalSize];
-        int bytesRead = 0;
-        while (bytesRead < totalSize) {
+        void fail(String message, int httpStatusCode) {
+            failed = true;
+            errorMessage = message;
+            statusCode = httpStatusCode;
+        }
+
+        @Override
+        public void run() {
+            if (failed) {
+                return;
+            }
+            String previousCorrelationId = MDC.get(OrangeContext.CORRELATION_ID);
+            MDC.put(OrangeContext.CORRELATION_ID, context.getCorrelationId());
             try {
-                int read = in.read(retval, bytesRead, totalSize - bytesRead);
-                if (read == -1) {
-                    throw new RpcCallException(RpcCallException.Category.InternalServerError,
-                            "Unable to read complete request or response");
+                methodTimer = getMethodTimer(envelope.getServiceMethod(),
+                        context.getRpcOriginService(), context.getRpcOriginMethod());
+                startTime = methodTimer.start();
+
+                ResponseCache cache = getResponseCache(dispatch);
+                if (cache == null) {
+                    response = invokeHandlerChain(dispatch, request, context, timings);
+                } else {
+                    invokeCached(cache);
                 }
-                bytesRead += read;
-            } catch (IOException e) {
-                throw new RpcCallException(RpcCallException.Category.InternalServerError,
-                        "IOException reading data: " + e);
+            } catch (RpcCallException rpcEx) {
+                fail(rpcEx.toString(), rpcEx.getCategory().getHttpStatus());
+            } catch (Exception ex) {
+                logger.warn("Uncaught exception", ex);
+                fail(ex.getMessage(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } finally {
+                if (previousCorrelationId == null) {
+                    MDC.remove(OrangeContext.CORRELATION_ID);
+                } else {
+                    MDC.put(OrangeContext.CORRELATION_ID, previousCorrelationId);
+                }
+            }
+        }
+
+        /**
+         * Run a streaming handler, writing its messages to the response as they are sent.
+         * Failing before any message was sent is answered like a failed call.
+         */
+        void stream(HttpServletResponse resp) {
+            String previousCorrelationId = MDC.get(OrangeContext.CORRELATION_ID);
+            MDC.put(OrangeContext.CORRELATION_ID, context.getCorrelationId());
+            ProtobufResponseStream responses = null;
+            try {
+                methodTimer = getMethodTimer(envelope.getServiceMethod(),
+                        context.getRpcOriginService(), context.getRpcOriginMethod());
+                startTime = methodTimer.start();
+
+                Message hookedRequest = applyPreHooks(dispatch, request, context, timings);
+                setServerTimingHeader(resp, timings);
+                resp.setStatus(HttpServletResponse.SC_OK);
+                resp.setContentType(RpcServlet.TYPE_OCTET);
+                responses = new ProtobufResponseStream(resp.getOutputStream(), envelope);
+                invokeStreamingHandler(dispatch, hookedRequest, responses, context, timings);
+                responses.flush();
+            } catch (RpcCallException rpcEx) {
+                fail(rpcEx.toString(), rpcEx.getCategory().getHttpStatus());
+            } catch (Exception ex) {
+                logger.warn("Uncaught exception", ex);
+                fail(ex.getMessage(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } finally {
+                if (previousCorrelationId == null) {
+                    MDC.remove(OrangeContext.CORRELATION_ID);
+                } else {
+                    MDC.put(OrangeContext.CORRELATION_ID, previousCorrelationId);
+                }
+            }
+            if (! failed) {
+                return;
+            }
+            if (responses == null || responses.getSentCount() == 0 && ! resp.isCommitted()) {
+                sendErrorResponse(resp, envelope, errorMessage, statusCode);
+                return;
+            }
+            try {
+                responses.sendError(errorMessage);
+            } catch (IOException ioex) {
+                //there is nothing we can do, client probably went away
+                logger.debug("Caught IOException, assuming client disconnected");
+            }
+        }
+
+        /**
+         * Serve the response from the cache, or invoke the handler and cache its encoded
+         * response.  The pre-hooks run either way.
+         */
+        private void invokeCached(ResponseCache cache) throws RpcCallException {
+            Message hookedRequest = applyPreHooks(dispatch, request, context, timings);
+            ByteString key = hookedRequest.toByteString();
+            serializedResponse = cache.getProtobuf(key);
+            if (serializedResponse == null) {
+                Message result = invokeHandler(dispatch, hookedRequest, context, timings);
+                serializedResponse = result == null ? new byte[0] : result.toByteArray();
+                cache.putProtobuf(key, serializedResponse);
+            }
+        }
+
+        int getBodySize() {
+            if (failed) {
+                return 0;
+            } else if (serializedResponse != null) {
+                return serializedResponse.length;
+            } else {
+                return response == null ? 0 : response.getSerializedSize();
+            }
+        }
+
+        void writeResponse(OutputStream out, RpcEnvelope.Response rpcResponse) throws IOException {
+            if (failed) {
+                ProtobufRpcCodec.writeResponse(out, rpcResponse, null);
+            } else if (serializedResponse != null) {
+                ProtobufRpcCodec.writeSerializedResponse(out, rpcResponse, serializedResponse);
+            } else {
+                ProtobufRpcCodec.writeResponse(out, rpcResponse, response);
+            }
+        }
+
+        /**
+         * Record metrics and finish the span, once the response has been written
+         */
+        void finish() {
+            if (span != null) {
+                if (failed) {
+                    Tags.ERROR.set(span, true);
+                }
+                span.finish();
+            }
+            if (methodTimer != null) {
+                if (failed) {
+                    methodTimer.recordFailure(startTime);
+                } else {
+                    methodTimer.recordSuccess(startTime);
+                }
+            }
+            timings.recordMetrics(handlerMetrics, envelope.getServiceMethod());
+            if (failed) {
+                incrementFailureCounter(envelope.getServiceMethod(),
+                        context.getRpcOriginService(), context.getRpcOriginMethod());
+            } else {
+                incrementSuccessCounter(envelope.getServiceMethod(),
+                        context.getRpcOriginService(), context.getRpcOriginMethod());
             }
         }
-        return retval;
     }
 
 }
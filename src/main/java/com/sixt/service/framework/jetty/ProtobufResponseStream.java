@@ -0,0 +1,98 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.protobuf.Message;
+import com.sixt.service.framework.ResponseStream;
+import com.sixt.service.framework.protobuf.RpcEnvelope;
+import com.sixt.service.framework.rpc.RpcCallException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the messages of a streaming handler as a sequence of response envelope and body
+ * pairs, the same framing as the responses of a multi-request frame.  As the length
+ * of the response isn't known, jetty sends it with chunked transfer encoding.  A stream
+ * that fails after messages were sent ends with an envelope carrying the error.
+ */
+public class ProtobufResponseStream implements ResponseStream<Message> {
+
+    private final OutputStream out;
+    private final RpcEnvelope.Response envelope;
+    private int sentCount;
+    private boolean broken;
+
+    public ProtobufResponseStream(OutputStream out, RpcEnvelope.Request request) {
+        this.out = out;
+        this.envelope = RpcEnvelope.Response.newBuilder().
+                setServiceMethod(request.getServiceMethod()).
+                setSequenceNumber(request.getSequenceNumber()).build();
+    }
+
+    @Override
+    public void send(Message response) throws RpcCallException {
+        checkNotBroken();
+        try {
+            ProtobufRpcCodec.writeResponse(out, envelope, response);
+            sentCount++;
+        } catch (IOException ex) {
+            throw clientDisconnected();
+        }
+    }
+
+    @Override
+    public void flush() throws RpcCallException {
+        checkNotBroken();
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            throw clientDisconnected();
+        }
+    }
+
+    /**
+     * End the stream with an error envelope, if the client is still there
+     */
+    public void sendError(String message) throws IOException {
+        if (! broken) {
+            ProtobufRpcCodec.writeResponse(out, envelope.toBuilder().
+                    setError(message == null ? "null" : message).build(), null);
+        }
+    }
+
+    public int getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return whether writing to the client failed
+     */
+    public boolean isBroken() {
+        return broken;
+    }
+
+    private void checkNotBroken() throws RpcCallException {
+        if (broken) {
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Client disconnected from the response stream");
+        }
+    }
+
+    private RpcCallException clientDisconnected() {
+        broken = true;
+        return new RpcCallException(RpcCallException.Category.InternalServerError,
+                "Client disconnected from the response stream");
+    }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.common.primitives.Ints;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Message;
+import com.sixt.service.framework.MethodDispatch;
+import com.sixt.service.framework.protobuf.ProtobufUtil;
+import com.sixt.service.framework.protobuf.RpcEnvelope;
+import com.sixt.service.framework.rpc.RpcCallException;
+import com.sixt.service.framework.util.VirtualThreads;
+
+import javax.servlet.ServletInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes the framing of protobuf rpc calls: a 4-byte big-endian length prefix
+ * followed by the RpcEnvelope, then a 4-byte big-endian length prefix followed by the body.
+ * Messages are parsed straight from the request stream and serialized straight into a
+ * per-thread buffer (or the response stream, for large responses), so no intermediate
+ * byte arrays are created per chunk.  Virtual threads get a new buffer per response.
+ * A multi-request frame is a sequence of such envelope and body pairs, and is answered
+ * with the sequence of response pairs in the same order.
+ */
+public class ProtobufRpcCodec {
+
+    //responses up to this size are serialized into a reusable buffer and written at once
+    static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+    private static final int INITIAL_POOLED_BUFFER_SIZE = 4 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<byte[]> pooledBuffer =
+            ThreadLocal.withInitial(() -> new byte[INITIAL_POOLED_BUFFER_SIZE]);
+
+    private final ServletInputStream in;
+    private final CodedInputStream input;
+
+    public ProtobufRpcCodec(ServletInputStream in) {
+        this(in, in);
+    }
+
+    /**
+     * @param body the request body to read from, e.g. decompressing the request stream
+     */
+    public ProtobufRpcCodec(ServletInputStream in, InputStream body) {
+        this.in = in;
+        this.input = CodedInputStream.newInstance(body);
+        this.input.setSizeLimit(ProtobufUtil.MAX_BODY_CHUNK_SIZE + 4);
+    }
+
+    public RpcEnvelope.Request readEnvelope() throws RpcReadException, IOException {
+        int size = readChunkSize();
+        if (size <= 0 || size > ProtobufUtil.MAX_HEADER_CHUNK_SIZE) {
+            String message = "Invalid header chunk size: " + size;
+            throw new RpcReadException(Ints.toByteArray(size), in, message);
+        }
+        int oldLimit = input.pushLimit(size);
+        RpcEnvelope.Request retval = RpcEnvelope.Request.parseFrom(input);
+        input.popLimit(oldLimit);
+        return retval;
+    }
+
+    public Message readBody(MethodDispatch dispatch) throws RpcReadException,
+            RpcCallException, IOException {
+        int size = readChunkSize();
+        if (size == 0) {
+            return dispatch.emptyRequest();
+        }
+        if (size < 0 || size > ProtobufUtil.MAX_BODY_CHUNK_SIZE) {
+            String message = "Invalid body chunk size: " + size;
+            throw new RpcReadException(Ints.toByteArray(size), in, message);
+        }
+        int oldLimit = input.pushLimit(size);
+        try {
+            return dispatch.parseRequest(input);
+        } catch (RpcCallException ex) {
+            //leave the stream at the next request of a multi-request frame
+            input.skipRawBytes(input.getBytesUntilLimit());
+            throw ex;
+        } finally {
+            input.popLimit(oldLimit);
+        }
+    }
+
+    /**
+     * Skip the body of a request that can't be dispatched, so that the following
+     * request of a multi-request frame can still be read
+     */
+    public void skipBody() throws RpcReadException, IOException {
+        int size = readChunkSize();
+        if (size < 0 || size > ProtobufUtil.MAX_BODY_CHUNK_SIZE) {
+            String message = "Invalid body chunk size: " + size;
+            throw new RpcReadException(Ints.toByteArray(size), in, message);
+        }
+        input.skipRawBytes(size);
+    }
+
+    /**
+     * @return whether another envelope follows, i.e. the frame is a multi-request frame
+     */
+    public boolean hasMoreRequests() throws IOException {
+        input.resetSizeCounter();
+        return ! input.isAtEnd();
+    }
+
+    /**
+     * @return the big-endian length prefix of the next chunk, or 0 if the stream has ended
+     */
+    private int readChunkSize() throws IOException {
+        input.resetSizeCounter();
+        if (input.isAtEnd()) {
+            return 0;
+        }
+        return (input.readRawByte() & 0xff) << 24 |
+                (input.readRawByte() & 0xff) << 16 |
+                (input.readRawByte() & 0xff) << 8 |
+                (input.readRawByte() & 0xff);
+    }
+
+    /**
+     * Write the response envelope and body (which may be null for an empty body)
+     */
+    public static void writeResponse(OutputStream out, RpcEnvelope.Response header,
+                                     Message body) throws IOException {
+        int headerSize = header.getSerializedSize();
+        int bodySize = body == null ? 0 : body.getSerializedSize();
+        int totalSize = 4 + headerSize + 4 + bodySize;
+        if (totalSize <= MAX_POOLED_BUFFER_SIZE) {
+            byte[] buffer = getPooledBuffer(totalSize);
+            CodedOutputStream output = CodedOutputStream.newInstance(buffer, 0, totalSize);
+            writeChunk(output, header, headerSize);
+            writeChunk(output, body, bodySize);
+            output.checkNoSpaceLeft();
+            out.write(buffer, 0, totalSize);
+        } else {
+            CodedOutputStream output = CodedOutputStream.newInstance(out, STREAM_BUFFER_SIZE);
+            writeChunk(output, header, headerSize);
+            writeChunk(output, body, bodySize);
+            output.flush();
+        }
+    }
+
+    /**
+     * Write the response envelope and a body that is already protobuf-encoded
+     */
+    public static void writeSerializedResponse(OutputStream out, RpcEnvelope.Response header,
+                                               byte[] body) throws IOException {
+        int headerSize = header.getSerializedSize();
+        int totalSize = 4 + headerSize + 4 + body.length;
+        if (totalSize <= MAX_POOLED_BUFFER_SIZE) {
+            byte[] buffer = getPooledBuffer(totalSize);
+            CodedOutputStream output = CodedOutputStream.newInstance(buffer, 0, totalSize);
+            writeChunk(output, header, headerSize);
+            writeSize(output, body.length);
+            output.writeRawBytes(body);
+            output.checkNoSpaceLeft();
+            out.write(buffer, 0, totalSize);
+        } else {
+            CodedOutputStream output = CodedOutputStream.newInstance(out, STREAM_BUFFER_SIZE);
+            writeChunk(output, header, headerSize);
+            writeSize(output, body.length);
+            output.flush();
+            out.write(body);
+        }
+    }
+
+    private static void writeChunk(CodedOutputStream output, Message message,
+                                   int size) throws IOException {
+        writeSize(output, size);
+        if (message != null) {
+            message.writeTo(output);
+        }
+    }
+
+    private static void writeSize(CodedOutputStream output, int size) throws IOException {
+        output.writeRawByte((byte) (size >>> 24));
+        output.writeRawByte((byte) (size >>> 16));
+        output.writeRawByte((byte) (size >>> 8));
+        output.writeRawByte((byte) size);
+    }
+
+    private static byte[] getPooledBuffer(int size) {
+        if (VirtualThreads.isVirtual(Thread.currentThread())) {
+            //a virtual thread per request would keep a buffer per request alive
+            return new byte[size];
+        }
+        byte[] buffer = pooledBuffer.get();
+        if (buffer.length < size) {
+            buffer = new byte[Math.max(size, Math.min(buffer.length * 2, MAX_POOLED_BUFFER_SIZE))];
+            pooledBuffer.set(buffer);
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * The headers of a request, keyed by lower-cased header name, first value only.
+ * The names and values are kept in flat arrays, which copies share, and only turned
+ * into a hash map once the headers are modified.  Lookups are by lower-cased name, as
+ * OrangeContext does.
+ * The headers are snapshotted rather than read from the servlet request on demand,
+ * because a context can outlive its request, and jetty recycles request objects.
+ */
+public class RequestHeaders extends AbstractMap<String, String> {
+
+    private static final String[] EMPTY = new String[0];
+
+    private String[] names;
+    private String[] values;
+    private int size;
+    private Map<String, String> modified;
+
+    /**
+     * @param excluded names of the headers to leave out, which must be a case-insensitive set
+     */
+    public RequestHeaders(HttpServletRequest request, Set<String> excluded) {
+        names = EMPTY;
+        values = EMPTY;
+        Enumeration<String> headerNames = request.getHeaderNames();
+        if (headerNames == null) {
+            return;
+        }
+        names = new String[16];
+        values = new String[16];
+        while (headerNames.hasMoreElements()) {
+            String name = headerNames.nextElement();
+            if (excluded.contains(name)) {
+                continue;
+            }
+            String value = request.getHeader(name);
+            if (value == null) {
+                continue;
+            }
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            //a no-op for the lower-case names of http/2 and of other ja-micro services
+            names[size] = name.toLowerCase();
+            values[size] = value;
+            size++;
+        }
+    }
+
+    private RequestHeaders(RequestHeaders other) {
+        if (other.modified == null) {
+            names = other.names;
+            values = other.values;
+            size = other.size;
+        } else {
+            modified = new HashMap<>(other.modified);
+        }
+    }
+
+    /**
+     * @return an independent copy, sharing the arrays until either is modified
+     */
+    public RequestHeaders copy() {
+        return new RequestHeaders(this);
+    }
+
+    @Override
+    public String get(Object key) {
+        if (modified != null) {
+            return modified.get(key);
+        }
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return modified == null ? size : modified.size();
+    }
+
+    @Override
+    public String put(String key, String value) {
+        return modifiable().put(key, value);
+    }
+
+    @Override
+    public String remove(Object key) {
+        return modifiable().remove(key);
+    }
+
+    @Override
+    public void clear() {
+        modifiable().clear();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        if (modified != null) {
+            modified.forEach(action);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            action.accept(names[i], values[i]);
+        }
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        if (modified != null) {
+            return modified.entrySet();
+        }
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < size;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (index >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(names[index], values[index]);
+                        index++;
+                        return entry;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private Map<String, String> modifiable() {
+        if (modified == null) {
+            modified = new HashMap<>();
+            for (int i = size - 1; i >= 0; i--) {
+                //the first value of duplicate names wins, as in get
+                modified.put(names[i], values[i]);
+            }
+            names = null;
+            values = null;
+            size = 0;
+        }
+        return modified;
+    }
+
+}
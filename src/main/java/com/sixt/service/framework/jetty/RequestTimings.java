@@ -0,0 +1,143 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import org.eclipse.jetty.server.Request;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the phases of an rpc call, recorded per method as server_handler timers
+ * tagged with the phase, and optionally returned in a Server-Timing header.  A call is
+ * only worked on by one thread at a time, so this isn't synchronized.
+ */
+public class RequestTimings {
+
+    public final static String SERVER_TIMING = "Server-Timing";
+
+    public enum Phase {
+        QUEUE_WAIT("queue_wait"),    //from jetty parsing the request to the handler
+        HEADERS("headers"),          //gathering the headers and building the context
+        DECODE("decode"),
+        PRE_HOOKS("pre_hooks"),
+        HANDLER("handler"),
+        POST_HOOKS("post_hooks"),
+        WRITE("write");              //encoding and writing the response
+
+        private final String tag;
+
+        Phase(String tag) {
+            this.tag = tag;
+        }
+
+        public String getTag() {
+            return tag;
+        }
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+    private final boolean[] measured = new boolean[nanos.length];
+
+    /**
+     * Record the time since the request was parsed by jetty
+     * @return the current System.nanoTime(), as start of the next phase
+     */
+    public long recordQueueWait(HttpServletRequest req) {
+        long now = System.nanoTime();
+        Request baseRequest = Request.getBaseRequest(req);
+        if (baseRequest != null && baseRequest.getTimeStamp() > 0) {
+            long waitMillis = System.currentTimeMillis() - baseRequest.getTimeStamp();
+            add(Phase.QUEUE_WAIT, TimeUnit.MILLISECONDS.toNanos(Math.max(0, waitMillis)));
+        }
+        return now;
+    }
+
+    /**
+     * Record the phase as lasting from startNanos until now
+     * @return the current System.nanoTime(), as start of the next phase
+     */
+    public long record(Phase phase, long startNanos) {
+        long now = System.nanoTime();
+        add(phase, now - startNanos);
+        return now;
+    }
+
+    /**
+     * Repeated phases, e.g. of the calls of a batch, add up
+     */
+    public void add(Phase phase, long durationNanos) {
+        nanos[phase.ordinal()] += durationNanos;
+        measured[phase.ordinal()] = true;
+    }
+
+    /**
+     * Add the measured phases of the other timings, e.g. those of the request to those
+     * of its only call
+     */
+    public void addAll(RequestTimings other) {
+        for (Phase phase : Phase.values()) {
+            if (other.isMeasured(phase)) {
+                add(phase, other.getNanos(phase));
+            }
+        }
+    }
+
+    public boolean isMeasured(Phase phase) {
+        return measured[phase.ordinal()];
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public void recordMetrics(RpcHandlerMetrics handlerMetrics, String methodName) {
+        for (Phase phase : Phase.values()) {
+            if (isMeasured(phase)) {
+                handlerMetrics.getPhaseTimer(methodName, phase.getTag()).getSuccessTimer().
+                        update(getNanos(phase), TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * @return the measured phases in Server-Timing header syntax, durations in
+     * milliseconds, e.g. "decode;dur=0.042, handler;dur=12.500"
+     */
+    public String toServerTiming() {
+        StringBuilder sb = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (! isMeasured(phase)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            long micros = TimeUnit.NANOSECONDS.toMicros(getNanos(phase));
+            sb.append(phase.getTag()).append(";dur=").append(micros / 1000);
+            long fraction = micros % 1000;
+            if (fraction != 0) {
+                sb.append('.');
+                if (fraction < 100) {
+                    sb.append('0');
+                }
+                if (fraction < 10) {
+                    sb.append('0');
+                }
+                sb.append(fraction);
+            }
+        }
+        return sb.toString();
+    }
+
+}
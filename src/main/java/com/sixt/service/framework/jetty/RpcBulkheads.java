@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.MethodDispatch;
+import com.sixt.service.framework.ServiceMethodHandler;
+import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.annotation.Bulkhead;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The bulkheads rpc methods are assigned to, by the rpcBulkheadMethods service property
+ * or the Bulkhead annotation of their handler.  Bulkheads are created on first use.
+ */
+@Singleton
+public class RpcBulkheads {
+
+    private static final Logger logger = LoggerFactory.getLogger(RpcBulkheads.class);
+
+    private static final String NONE = "";
+
+    private final ServiceProperties serviceProps;
+    private final RpcHandlerMetrics handlerMetrics;
+    //method name to bulkhead name, NONE for methods without a bulkhead
+    private final ConcurrentMap<String, String> bulkheadNames = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BulkheadExecutor> bulkheads = new ConcurrentHashMap<>();
+
+    @Inject
+    public RpcBulkheads(ServiceProperties serviceProps, RpcHandlerMetrics handlerMetrics) {
+        this.serviceProps = serviceProps;
+        this.handlerMetrics = handlerMetrics;
+    }
+
+    /**
+     * @return the bulkhead the method runs in, or null if it runs on the calling thread
+     */
+    public BulkheadExecutor getBulkhead(MethodDispatch dispatch) {
+        String name = bulkheadNames.computeIfAbsent(dispatch.getMethodName(),
+                method -> resolveName(method, dispatch.getHandler()));
+        if (name.equals(NONE)) {
+            return null;
+        }
+        return bulkheads.computeIfAbsent(name, this::createBulkhead);
+    }
+
+    private String resolveName(String methodName, ServiceMethodHandler<?, ?> handler) {
+        String name = FeatureFlags.getRpcBulkheadMethods(serviceProps).get(methodName);
+        if (name == null && handler != null) {
+            Bulkhead annotation = handler.getClass().getAnnotation(Bulkhead.class);
+            if (annotation != null) {
+                name = annotation.value();
+            }
+        }
+        return name == null ? NONE : name;
+    }
+
+    private BulkheadExecutor createBulkhead(String name) {
+        int maxConcurrency = FeatureFlags.getRpcBulkheadMaxConcurrency(serviceProps, name);
+        int queueSize = FeatureFlags.getRpcBulkheadQueueSize(serviceProps, name);
+        int maxWaitMillis = FeatureFlags.getRpcBulkheadMaxWaitMillis(serviceProps, name);
+        logger.info("Creating bulkhead {} with a concurrency of {} and a queue of {} waiting up to {}ms",
+                name, maxConcurrency, queueSize, maxWaitMillis);
+        return new BulkheadExecutor(name, maxConcurrency, queueSize, maxWaitMillis, handlerMetrics);
+    }
+
+}
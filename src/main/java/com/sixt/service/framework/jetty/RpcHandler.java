@@ -13,6 +13,7 @@
 package com.sixt.service.framework.jetty;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.protobuf.Message;
 import com.sixt.service.framework.*;
 import com.sixt.service.framework.metrics.GoTimer;
@@ -31,8 +32,6 @@ import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.util.*;
 
-import static com.google.common.collect.ImmutableSortedSet.of;
-
 public abstract class RpcHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(RpcHandler.class);
@@ -42,21 +41,42 @@ public abstract class RpcHandler {
     protected final RpcHandlerMetrics handlerMetrics;
     protected final ServiceProperties serviceProps;
     protected final Tracer tracer;
+    protected final RpcHandlerExecutor handlerExecutor;
+    protected final RpcBulkheads bulkheads;
 
     //For now, we block services from getting certain input headers.
     //The reason is that these headers are also then used for outgoing requests.
     //If you need the incoming headers, we can create an additional bucket inside of OrangeContext to hold them.
-    private static final Set<String> blackListedHeaders = of("user-agent", "content-length", "content-type",
-            "date", "expect", "host");
+    //Hop-by-hop headers only apply to the inbound connection, and would e.g. turn off
+    //keep-alive or break http/2 on every outgoing call.
+    private static final Set<String> blackListedHeaders = ImmutableSortedSet.orderedBy(String.CASE_INSENSITIVE_ORDER)
+            .add("user-agent", "content-length", "content-type", "date", "expect", "host",
+                    "content-encoding", "accept-encoding")
+            .add("connection", "keep-alive", "proxy-connection", "te", "trailer",
+                    "transfer-encoding", "upgrade", "http2-settings").build();
 
     public RpcHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
                       RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties,
                       Tracer tracer) {
+        this(handlers, registry, handlerMetrics, serviceProperties, tracer, null);
+    }
+
+    public RpcHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
+                      RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties,
+                      Tracer tracer, RpcHandlerExecutor handlerExecutor) {
+        this(handlers, registry, handlerMetrics, serviceProperties, tracer, handlerExecutor, null);
+    }
+
+    public RpcHandler(MethodHandlerDictionary handlers, MetricRegistry registry,
+                      RpcHandlerMetrics handlerMetrics, ServiceProperties serviceProperties,
+                      Tracer tracer, RpcHandlerExecutor handlerExecutor, RpcBulkheads bulkheads) {
         this.handlers = handlers;
         this.metricRegistry = registry;
         this.handlerMetrics = handlerMetrics;
         this.serviceProps = serviceProperties;
         this.tracer = tracer;
+        this.handlerExecutor = handlerExecutor;
+        this.bulkheads = bulkheads;
     }
 
     protected void incrementFailureCounter(String methodName, String originService,
@@ -92,35 +112,32 @@ public abstract class RpcHandler {
     }
 
     protected Map<String, String> gatherHttpHeaders(HttpServletRequest req) {
-        Map<String, String> headers = new HashMap<>();
+        return new RequestHeaders(req, blackListedHeaders);
+    }
 
-        Enumeration<String> headerNames = req.getHeaderNames();
-        if (headerNames == null) {
-            return headers;
+    /**
+     * Copy gathered headers for another context, sharing them until modified
+     */
+    protected static Map<String, String> copyHeaders(Map<String, String> headers) {
+        if (headers instanceof RequestHeaders) {
+            return ((RequestHeaders) headers).copy();
         }
+        return new HashMap<>(headers);
+    }
 
-        while (headerNames.hasMoreElements()) {
-            String headerName = headerNames.nextElement();
-            Enumeration<String> headerValues = req.getHeaders(headerName);
-            if (headerValues == null) {
-                continue;
-            }
-
-            String headerNameLower = headerName.toLowerCase();
-            if (! blackListedHeaders.contains(headerNameLower)) {
-                if (headerValues.hasMoreElements()) {
-                    headers.put(headerNameLower, headerValues.nextElement());
-                }
-
-                while (headerValues.hasMoreElements()) {
-                    logger.debug("Duplicate http-header, discarding: {} = {}", headerName, headerValues.nextElement());
-                }
-            } else {
-                logger.trace("Blocking header {}", headerNameLower);
-            }
+    /**
+     * Whether the caller's deadline already passed, in which case nobody waits for the
+     * response anymore and the request should be dropped without decoding it
+     */
+    protected boolean isExpired(OrangeContext context) {
+        if (! context.isDeadlineExceeded()) {
+            return false;
         }
-
-        return headers;
+        logger.debug("Dropping request, its deadline passed {} ms ago",
+                -context.getRemainingMillis());
+        handlerMetrics.incrementDeadlineExceededCounter();
+        incrementFailureCounter(null, context.getRpcOriginService(), context.getRpcOriginMethod());
+        return true;
     }
 
     /**
@@ -132,28 +149,208 @@ public abstract class RpcHandler {
      * <li>Global post-handler hooks</li></ol>
      */
     @SuppressWarnings("unchecked")
-    protected Message invokeHandlerChain(String methodName, ServiceMethodHandler handler,
-                                         Message request, OrangeContext context) throws RpcCallException {
-        List<ServiceMethodPreHook<? extends Message>> preHooks = handlers.getPreHooksFor(methodName);
+    protected Message invokeHandlerChain(MethodDispatch dispatch, Message request,
+                                         OrangeContext context, RequestTimings timings)
+            throws RpcCallException {
+        return invokeHandler(dispatch, applyPreHooks(dispatch, request, context, timings),
+                context, timings);
+    }
+
+    @SuppressWarnings("unchecked")
+    protected Message applyPreHooks(MethodDispatch dispatch, Message request,
+                                    OrangeContext context, RequestTimings timings)
+            throws RpcCallException {
+        ServiceMethodPreHook[] preHooks = dispatch.getPreHooks();
+        if (preHooks.length == 0) {
+            return request;
+        }
+        long start = System.nanoTime();
         for (ServiceMethodPreHook hook : preHooks) {
             request = hook.handleRequest(request, context);
         }
-        Message response = handler.handleRequest(request, context);
-        List<ServiceMethodPostHook<? extends Message>> postHooks = handlers.getPostHooksFor(methodName);
+        timings.record(RequestTimings.Phase.PRE_HOOKS, start);
+        return request;
+    }
+
+    /**
+     * Invoke the handler with a request that already went through the pre-hooks, and
+     * pass the response through the post-hooks.  If the method coalesces requests, an
+     * identical request in flight is waited for instead, and the wait is timed as the
+     * handler phase, post-hooks included.  Methods assigned to a bulkhead run in it.
+     */
+    protected Message invokeHandler(MethodDispatch dispatch, Message request,
+                                    OrangeContext context, RequestTimings timings)
+            throws RpcCallException {
+        RequestCoalescer coalescer = dispatch.getRequestCoalescer();
+        if (coalescer == null) {
+            return invokeInBulkhead(dispatch, request, context, timings);
+        }
+        if (coalescer.claimMetricsRegistration()) {
+            handlerMetrics.registerCoalescingMetrics(dispatch.getMethodName(), coalescer);
+        }
+        long start = System.nanoTime();
+        try {
+            return coalescer.execute(request.toByteString(),
+                    () -> invokeInBulkhead(dispatch, request, context, null));
+        } finally {
+            timings.record(RequestTimings.Phase.HANDLER, start);
+        }
+    }
+
+    private Message invokeInBulkhead(MethodDispatch dispatch, Message request,
+                                     OrangeContext context, RequestTimings timings)
+            throws RpcCallException {
+        BulkheadExecutor bulkhead = bulkheads == null ? null : bulkheads.getBulkhead(dispatch);
+        if (bulkhead == null) {
+            return invokeHandlerAndPostHooks(dispatch, request, context, timings);
+        }
+        return bulkhead.execute(context, () -> invokeHandlerAndPostHooks(dispatch, request,
+                context, timings));
+    }
+
+    /**
+     * @param timings null if the caller times the invocation itself
+     */
+    @SuppressWarnings("unchecked")
+    private Message invokeHandlerAndPostHooks(MethodDispatch dispatch, Message request,
+                                              OrangeContext context, RequestTimings timings)
+            throws RpcCallException {
+        ServiceMethodHandler handler = dispatch.getHandler();
+        long start = System.nanoTime();
+        Message response;
+        try {
+            response = handler.handleRequest(request, context);
+        } finally {
+            if (timings != null) {
+                start = timings.record(RequestTimings.Phase.HANDLER, start);
+            }
+        }
+        ServiceMethodPostHook[] postHooks = dispatch.getPostHooks();
+        if (postHooks.length == 0) {
+            return response;
+        }
         for (ServiceMethodPostHook hook : postHooks) {
             response = hook.handleRequest(response, context);
         }
+        if (timings != null) {
+            timings.record(RequestTimings.Phase.POST_HOOKS, start);
+        }
         return response;
     }
 
+    /**
+     * Invoke a streaming handler with a request that already went through the
+     * pre-hooks.  The post-hooks are applied to every message sent, and are timed as
+     * part of the handler phase, like writing the messages.  Streams are neither cached
+     * nor coalesced, but run in the method's bulkhead.
+     */
+    @SuppressWarnings("unchecked")
+    protected void invokeStreamingHandler(MethodDispatch dispatch, Message request,
+                                          ResponseStream<Message> responses,
+                                          OrangeContext context, RequestTimings timings)
+            throws RpcCallException {
+        StreamingServiceMethodHandler handler = (StreamingServiceMethodHandler) dispatch.getHandler();
+        ResponseStream<Message> hookedResponses = responses;
+        if (dispatch.getPostHooks().length > 0) {
+            hookedResponses = new PostHookResponseStream(dispatch, responses, context);
+        }
+        ResponseStream<Message> stream = hookedResponses;
+        BulkheadExecutor bulkhead = bulkheads == null ? null : bulkheads.getBulkhead(dispatch);
+        long start = System.nanoTime();
+        try {
+            if (bulkhead == null) {
+                handler.handleRequest(request, stream, context);
+            } else {
+                bulkhead.execute(context, () -> {
+                    handler.handleRequest(request, stream, context);
+                    return null;
+                });
+            }
+        } finally {
+            timings.record(RequestTimings.Phase.HANDLER, start);
+        }
+    }
+
+    /**
+     * Return the durations of the phases so far in a Server-Timing header, if enabled.
+     * Must be called before the response is committed.
+     */
+    protected void setServerTimingHeader(HttpServletResponse resp, RequestTimings timings) {
+        if (FeatureFlags.shouldSendServerTimingHeader(serviceProps)) {
+            resp.setHeader(RequestTimings.SERVER_TIMING, timings.toServerTiming());
+        }
+    }
+
+    protected static boolean isStreaming(MethodDispatch dispatch) {
+        return dispatch != null && dispatch.getHandler() instanceof StreamingServiceMethodHandler;
+    }
+
+    /**
+     * @return the response cache of the method, or null if it has none.  The cache's
+     * metrics are registered on first use.
+     */
+    protected ResponseCache getResponseCache(MethodDispatch dispatch) {
+        ResponseCache cache = dispatch.getResponseCache();
+        if (cache != null && cache.claimMetricsRegistration()) {
+            handlerMetrics.registerResponseCacheMetrics(dispatch.getMethodName(), cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Run the calls of a batch request, in parallel on the handler executor if there
+     * is one.  Returns when all calls have completed.
+     */
+    protected void runBatch(List<? extends Runnable> calls) {
+        if (handlerExecutor == null || calls.size() < 2) {
+            for (Runnable call : calls) {
+                call.run();
+            }
+        } else {
+            handlerExecutor.invokeAll(calls);
+        }
+    }
+
     protected void writeResponse(HttpServletResponse resp, int statusCode, String s) throws IOException {
+        setResponseStatus(resp, statusCode);
+        resp.getWriter().write(s);
+        resp.getWriter().flush();
+    }
+
+    protected void setResponseStatus(HttpServletResponse resp, int statusCode) {
         if (statusCode != 200 && FeatureFlags.shouldExposeErrorsToHttp(serviceProps)) {
             resp.setStatus(statusCode);
         } else {
             resp.setStatus(HttpServletResponse.SC_OK);
         }
-        resp.getWriter().write(s);
-        resp.getWriter().flush();
+    }
+
+    private static class PostHookResponseStream implements ResponseStream<Message> {
+
+        private final MethodDispatch dispatch;
+        private final ResponseStream<Message> responses;
+        private final OrangeContext context;
+
+        PostHookResponseStream(MethodDispatch dispatch, ResponseStream<Message> responses,
+                               OrangeContext context) {
+            this.dispatch = dispatch;
+            this.responses = responses;
+            this.context = context;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void send(Message response) throws RpcCallException {
+            for (ServiceMethodPostHook hook : dispatch.getPostHooks()) {
+                response = hook.handleRequest(response, context);
+            }
+            responses.send(response);
+        }
+
+        @Override
+        public void flush() throws RpcCallException {
+            responses.flush();
+        }
     }
 
 }
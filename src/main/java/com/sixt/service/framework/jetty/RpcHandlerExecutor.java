@@ -0,0 +1,229 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.util.VirtualThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Bounded executor that runs rpc handlers off the jetty threads: whole requests when
+ * asynchronous request handling is enabled, and the calls of batch requests.  With
+ * virtual threads, every handler gets its own thread, up to the configured concurrency.  There is
+ * no caller-runs fallback for requests: when all threads are busy and the queue is
+ * full, the task is rejected and the caller is expected to shed the request.
+ */
+@Singleton
+public class RpcHandlerExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(RpcHandlerExecutor.class);
+
+    public final static String EXECUTOR_NAME = "rpc_handler";
+
+    private final boolean asyncEnabled;
+    private final Executor executor;
+    //null with virtual threads
+    private final ThreadPoolExecutor pool;
+    private final VirtualThreadPerTaskExecutor virtualThreadExecutor;
+    private final GoCounter counter;
+
+    @Inject
+    public RpcHandlerExecutor(ServiceProperties serviceProps, RpcHandlerMetrics handlerMetrics) {
+        ThreadFactory virtualThreads = VirtualThreads.shouldUse(serviceProps) ?
+                VirtualThreads.newThreadFactory("rpc-handler-") : null;
+        if (virtualThreads != null) {
+            //the jetty threads only hand the requests over, handlers can block as they like
+            asyncEnabled = true;
+            int concurrency = FeatureFlags.getVirtualThreadConcurrency(serviceProps);
+            logger.info("Rpc handling on virtual threads enabled with a concurrency of {}",
+                    concurrency);
+            pool = null;
+            virtualThreadExecutor = new VirtualThreadPerTaskExecutor(virtualThreads, concurrency);
+            executor = virtualThreadExecutor;
+        } else {
+            asyncEnabled = FeatureFlags.shouldUseAsyncRpcHandling(serviceProps);
+            int threads = FeatureFlags.getRpcHandlerThreads(serviceProps);
+            int queueSize = FeatureFlags.getRpcHandlerQueueSize(serviceProps);
+            if (asyncEnabled) {
+                logger.info("Asynchronous rpc handling enabled with {} threads and a queue of {}",
+                        threads, queueSize);
+            }
+            pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    new ThreadFactoryBuilder().setNameFormat("rpc-handler-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.AbortPolicy());
+            //threads are only started on demand, and time out when idle
+            pool.allowCoreThreadTimeOut(true);
+            virtualThreadExecutor = null;
+            executor = pool;
+        }
+        counter = handlerMetrics.getExecutorCounter(EXECUTOR_NAME);
+        handlerMetrics.registerExecutorGauges(EXECUTOR_NAME, this::getQueueDepth,
+                this::getActiveCount);
+    }
+
+    /**
+     * @return whether the RpcServlet should hand requests over to this executor
+     */
+    public boolean isEnabled() {
+        return asyncEnabled;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the executor is saturated or shut down
+     */
+    public void execute(Runnable task) throws RejectedExecutionException {
+        try {
+            executor.execute(task);
+            counter.incSuccess();
+        } catch (RejectedExecutionException ex) {
+            counter.incFailure();
+            throw ex;
+        }
+    }
+
+    /**
+     * Run the tasks in parallel and wait for all of them to complete.  The calling
+     * thread runs every task that no executor thread has picked up yet, so this
+     * can't deadlock when called from one of the executor's own threads, and tasks
+     * the executor rejects are still run.
+     */
+    public void invokeAll(List<? extends Runnable> tasks) {
+        List<ClaimableTask> claimableTasks = new ArrayList<>(tasks.size());
+        for (Runnable task : tasks) {
+            claimableTasks.add(new ClaimableTask(task));
+        }
+        for (int i = 1; i < claimableTasks.size(); i++) {
+            try {
+                executor.execute(claimableTasks.get(i));
+            } catch (RejectedExecutionException ex) {
+                //the calling thread will run it
+            }
+        }
+        for (ClaimableTask task : claimableTasks) {
+            task.run();
+        }
+        for (ClaimableTask task : claimableTasks) {
+            Uninterruptibles.awaitUninterruptibly(task.done);
+        }
+    }
+
+    public int getQueueDepth() {
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+
+    private int getActiveCount() {
+        return pool == null ? virtualThreadExecutor.getActiveCount() : pool.getActiveCount();
+    }
+
+    public void shutdown() {
+        if (pool == null) {
+            virtualThreadExecutor.shutdown();
+        } else {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Starts a new virtual thread per task, as virtual threads are cheap to create and
+     * not meant to be pooled.  A pooled virtual thread would keep its ThreadLocals alive.
+     * A semaphore bounds the concurrency, tasks beyond it are rejected.
+     */
+    static class VirtualThreadPerTaskExecutor implements Executor {
+
+        private final ThreadFactory threadFactory;
+        private final int concurrency;
+        private final Semaphore permits;
+        private volatile boolean shutdown;
+
+        VirtualThreadPerTaskExecutor(ThreadFactory threadFactory, int concurrency) {
+            this.threadFactory = threadFactory;
+            this.concurrency = concurrency;
+            this.permits = new Semaphore(concurrency);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            if (shutdown) {
+                throw new RejectedExecutionException("Executor was shut down");
+            }
+            if (! permits.tryAcquire()) {
+                throw new RejectedExecutionException("All " + concurrency + " threads are busy");
+            }
+            try {
+                threadFactory.newThread(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }).start();
+            } catch (RuntimeException | Error ex) {
+                permits.release();
+                throw ex;
+            }
+        }
+
+        int getActiveCount() {
+            return concurrency - permits.availablePermits();
+        }
+
+        void shutdown() {
+            shutdown = true;
+        }
+    }
+
+    private static class ClaimableTask implements Runnable {
+
+        private final Runnable task;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        ClaimableTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (claimed.compareAndSet(false, true)) {
+                try {
+                    task.run();
+                } catch (Exception ex) {
+                    logger.warn("Uncaught exception in batch call", ex);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+}
@@ -14,15 +14,22 @@ package com.sixt.service.framework.jetty;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.sixt.service.framework.RequestCoalescer;
+import com.sixt.service.framework.ResponseCache;
+import com.sixt.service.framework.metrics.GaugeGetter;
 import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.metrics.GoFunctionCounter;
+import com.sixt.service.framework.metrics.GoGauge;
 import com.sixt.service.framework.metrics.GoTimer;
 import com.sixt.service.framework.metrics.MetricBuilderFactory;
+import com.sixt.service.framework.metrics.MetricKey;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Singleton
 public class RpcHandlerMetrics {
@@ -32,12 +39,37 @@ public class RpcHandlerMetrics {
     public final static String UNKNOWN = "unknown";
 
     private final MetricBuilderFactory metricBuilderFactory;
-    protected Map<String, GoCounter> counters = new HashMap<>();
-    protected Map<String, GoTimer> timers = new HashMap<>();
+    //looked up on every request, keyed by the tag values
+    protected Map<MetricKey, GoCounter> counters = new ConcurrentHashMap<>();
+    protected Map<MetricKey, GoTimer> timers = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
 
     @Inject
     public RpcHandlerMetrics(MetricBuilderFactory metricBuilderFactory) {
         this.metricBuilderFactory = metricBuilderFactory;
+        metricBuilderFactory.newMetric("server_handler").
+                withTag("requests", "in_flight").buildGauge().
+                register("in_flight", inFlightRequests::get);
+    }
+
+    /**
+     * Track an rpc request from its arrival at the RpcServlet until its response was
+     * written
+     */
+    public void requestStarted() {
+        inFlightRequests.incrementAndGet();
+    }
+
+    public void requestFinished() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    /**
+     * @return the number of rpc requests currently being handled or waiting for a
+     * handler thread
+     */
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
     }
 
     public void incrementSuccessCounter(String methodName, String originService,
@@ -52,48 +84,154 @@ public class RpcHandlerMetrics {
         counter.incFailure();
     }
 
-    private synchronized GoCounter getOrCreateCounter(String methodName, String originService, String originMethod) {
-        if (StringUtils.isBlank(methodName)) {
-            methodName = UNKNOWN;
-        }
-        if (StringUtils.isBlank(originService)) {
-            originService = UNKNOWN;
-        }
-        if (StringUtils.isBlank(originMethod)) {
-            originMethod = UNKNOWN;
-        }
-        String key = methodName + ":" + originService + ":" + originMethod;
+    private GoCounter getOrCreateCounter(String methodName, String originService, String originMethod) {
+        MetricKey key = methodKey(methodName, originService, originMethod);
         GoCounter counter = counters.get(key);
         if (counter == null) {
-            counter = metricBuilderFactory.newMetric("server_handler").
-                    withTag("method", methodName).
-                    withTag("origin_service", originService).
-                    withTag("origin_method", originMethod).buildCounter();
-            counters.put(key, counter);
+            counter = counters.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("server_handler").
+                    withTag("method", orUnknown(methodName)).
+                    withTag("origin_service", orUnknown(originService)).
+                    withTag("origin_method", orUnknown(originMethod)).buildCounter());
         }
         return counter;
     }
 
-    public synchronized GoTimer getMethodTimer(String methodName, String originService, String originMethod) {
-        if (StringUtils.isBlank(methodName)) {
-            methodName = UNKNOWN;
-        }
-        if (StringUtils.isBlank(originService)) {
-            originService = UNKNOWN;
-        }
-        if (StringUtils.isBlank(originMethod)) {
-            originMethod = UNKNOWN;
+    public GoTimer getMethodTimer(String methodName, String originService, String originMethod) {
+        MetricKey key = methodKey(methodName, originService, originMethod);
+        GoTimer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("server_handler").
+                    withTag("method", orUnknown(methodName)).
+                    withTag("origin_service", orUnknown(originService)).
+                    withTag("origin_method", orUnknown(originMethod)).buildTimer());
         }
-        String key = methodName + ":" + originService + ":" + originMethod;
+        return timer;
+    }
+
+    //keyed by the tag values, so that e.g. a missing and a blank origin share an entry
+    private static MetricKey methodKey(String methodName, String originService,
+                                       String originMethod) {
+        return new MetricKey("method", orUnknown(methodName), orUnknown(originService),
+                orUnknown(originMethod));
+    }
+
+    /**
+     * Timer of one phase of the method's calls, e.g. decode or handler
+     */
+    public GoTimer getPhaseTimer(String methodName, String phase) {
+        MetricKey key = new MetricKey("phase", orUnknown(methodName), phase);
         GoTimer timer = timers.get(key);
         if (timer == null) {
-            timer = metricBuilderFactory.newMetric("server_handler").
-                    withTag("method", methodName).
-                    withTag("origin_service", originService).
-                    withTag("origin_method", originMethod).buildTimer();
-            timers.put(key, timer);
+            timer = timers.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("server_handler").
+                    withTag("method", orUnknown(methodName)).
+                    withTag("phase", phase).buildTimer());
         }
         return timer;
     }
 
+    private static String orUnknown(String tagValue) {
+        return StringUtils.isBlank(tagValue) ? UNKNOWN : tagValue;
+    }
+
+    /**
+     * Count a request dropped unread because the caller's deadline had already passed,
+     * as a failure
+     */
+    public void incrementDeadlineExceededCounter() {
+        getOrCreateDeadlineExceededCounter().incFailure();
+    }
+
+    private GoCounter getOrCreateDeadlineExceededCounter() {
+        MetricKey key = new MetricKey("rejection", "deadline_exceeded");
+        GoCounter counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("server_handler").
+                    withTag("rejection", "deadline_exceeded").buildCounter());
+        }
+        return counter;
+    }
+
+    /**
+     * Counter of the requests handed to a handler executor: successes are accepted
+     * requests, failures are requests rejected because the executor was saturated.
+     */
+    public GoCounter getExecutorCounter(String executorName) {
+        return metricBuilderFactory.newMetric("server_handler").
+                withTag("executor", executorName).buildCounter();
+    }
+
+    /**
+     * Count the bytes of a compressed request or response body, before and after
+     * compression
+     */
+    public void recordCompression(String encoding, String direction, long rawBytes,
+                                  long compressedBytes) {
+        getOrCreateCompressionCounter(encoding, direction, "raw").incSuccess(rawBytes);
+        getOrCreateCompressionCounter(encoding, direction, "compressed").incSuccess(compressedBytes);
+    }
+
+    private GoCounter getOrCreateCompressionCounter(String encoding, String direction,
+                                                    String bytes) {
+        MetricKey key = new MetricKey("compression", encoding, direction, bytes);
+        GoCounter counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("server_handler").
+                    withTag("encoding", encoding).
+                    withTag("direction", direction).
+                    withTag("bytes", bytes).buildCounter());
+        }
+        return counter;
+    }
+
+    public GoGauge registerExecutorGauges(String executorName, GaugeGetter queueDepth,
+                                          GaugeGetter activeThreads) {
+        GoGauge gauge = metricBuilderFactory.newMetric("server_handler").
+                withTag("executor", executorName).buildGauge();
+        gauge.register("queue_depth", queueDepth);
+        gauge.register("active_threads", activeThreads);
+        return gauge;
+    }
+
+    /**
+     * Time spent by jobs in the executor's queue before a thread picks them up
+     */
+    public GoTimer getExecutorQueueTimer(String executorName) {
+        return metricBuilderFactory.newMetric("server_handler").
+                withTag("executor", executorName).
+                withTag("phase", "queue_wait").buildTimer();
+    }
+
+    /**
+     * Register the size of the method's response cache as a gauge, and its hits, misses
+     * and evictions as counters
+     */
+    public void registerResponseCacheMetrics(String methodName, ResponseCache cache) {
+        GoFunctionCounter counter = metricBuilderFactory.newMetric("server_handler").
+                withTag("method", methodName).
+                withTag("cache", "response").buildFunctionCounter();
+        counter.register("hits", cache::getHits);
+        counter.register("misses", cache::getMisses);
+        counter.register("evictions", cache::getEvictions);
+        GoGauge gauge = metricBuilderFactory.newMetric("server_handler").
+                withTag("method", methodName).
+                withTag("cache", "response").buildGauge();
+        gauge.register("size", cache::size);
+    }
+
+    /**
+     * Register the coalesced requests and wait timeouts of the method as counters, and
+     * its requests in flight as a gauge
+     */
+    public void registerCoalescingMetrics(String methodName, RequestCoalescer coalescer) {
+        GoFunctionCounter counter = metricBuilderFactory.newMetric("server_handler").
+                withTag("method", methodName).
+                withTag("coalescing", "single_flight").buildFunctionCounter();
+        counter.register("coalesced", coalescer::getCoalesced);
+        counter.register("wait_timeouts", coalescer::getWaitTimeouts);
+        GoGauge gauge = metricBuilderFactory.newMetric("server_handler").
+                withTag("method", methodName).
+                withTag("coalescing", "single_flight").buildGauge();
+        gauge.register("in_flight", coalescer::getInFlight);
+    }
+
 }
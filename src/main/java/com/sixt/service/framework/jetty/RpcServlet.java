@@ -12,18 +12,24 @@
 
 package com.sixt.service.framework.jetty;
 
+import com.google.gson.JsonObject;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.sixt.service.framework.rpc.RpcCallException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import static com.sixt.service.framework.json.JsonRpcResponse.ERROR_FIELD;
+
 @Singleton
 public class RpcServlet extends HttpServlet {
 
@@ -36,18 +42,41 @@ public class RpcServlet extends HttpServlet {
 
     protected JsonHandler jsonRpcHandler;
     protected ProtobufHandler protobufHandler;
+    protected RpcHandlerExecutor handlerExecutor;
+    protected RpcHandlerMetrics handlerMetrics;
     protected AtomicBoolean canServeRequests = new AtomicBoolean(false);
+    protected AtomicBoolean isDraining = new AtomicBoolean(false);
 
-    @Inject
     public RpcServlet(JsonHandler jsonHandler, ProtobufHandler protobufHandler) {
+        this(jsonHandler, protobufHandler, null);
+    }
+
+    public RpcServlet(JsonHandler jsonHandler, ProtobufHandler protobufHandler,
+                      RpcHandlerExecutor handlerExecutor) {
+        this(jsonHandler, protobufHandler, handlerExecutor, null);
+    }
+
+    @Inject
+    public RpcServlet(JsonHandler jsonHandler, ProtobufHandler protobufHandler,
+                      RpcHandlerExecutor handlerExecutor, RpcHandlerMetrics handlerMetrics) {
         this.jsonRpcHandler = jsonHandler;
         this.protobufHandler = protobufHandler;
+        this.handlerExecutor = handlerExecutor;
+        this.handlerMetrics = handlerMetrics;
     }
 
     public void serveRequests() {
         canServeRequests.set(true);
     }
 
+    /**
+     * Requests are still served while the service shuts down, but clients are asked to
+     * close their connections, so that their next requests go to another instance
+     */
+    public void drain() {
+        isDraining.set(true);
+    }
+
     @Override
     protected void doHead(HttpServletRequest req,
                           HttpServletResponse resp) throws ServletException, IOException {
@@ -69,6 +98,59 @@ public class RpcServlet extends HttpServlet {
             resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             return;
         }
+        if (isDraining.get()) {
+            resp.setHeader("Connection", "close");
+        }
+        requestStarted();
+        if (handlerExecutor != null && handlerExecutor.isEnabled() && req.isAsyncSupported()) {
+            dispatchToHandlerExecutor(req, resp);
+        } else {
+            try {
+                handleRequest(req, resp);
+            } finally {
+                requestFinished();
+            }
+        }
+    }
+
+    private void requestStarted() {
+        if (handlerMetrics != null) {
+            handlerMetrics.requestStarted();
+        }
+    }
+
+    private void requestFinished() {
+        if (handlerMetrics != null) {
+            handlerMetrics.requestFinished();
+        }
+    }
+
+    /**
+     * Hand the request over to the bounded handler executor, releasing the jetty thread.
+     * If the executor is saturated, the request is rejected right away.
+     */
+    private void dispatchToHandlerExecutor(HttpServletRequest req, HttpServletResponse resp) {
+        AsyncContext asyncContext = req.startAsync();
+        //handlers are not interrupted, so the container shouldn't time out the response either
+        asyncContext.setTimeout(0);
+        try {
+            handlerExecutor.execute(() -> {
+                try {
+                    handleRequest(req, resp);
+                } finally {
+                    asyncContext.complete();
+                    requestFinished();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            logger.debug("Rejecting request, rpc handler executor is saturated");
+            sendServiceUnavailable(resp, "Service overloaded, request rejected");
+            asyncContext.complete();
+            requestFinished();
+        }
+    }
+
+    private void handleRequest(HttpServletRequest req, HttpServletResponse resp) {
         try {
             //TODO: refactor and clean up.  we should use codecs to abstract the encoding/decoding so that
             //      there is one handler class without a bunch of duplication
@@ -86,6 +168,25 @@ public class RpcServlet extends HttpServlet {
         }
     }
 
+    /**
+     * The error is sent as a json-rpc error, which both the json and protobuf
+     * clients understand without having read the request envelope.
+     */
+    private void sendServiceUnavailable(HttpServletResponse resp, String message) {
+        try {
+            @SuppressWarnings("ThrowableNotThrown")
+            RpcCallException callException = new RpcCallException(
+                    RpcCallException.Category.ServiceUnavailable, message);
+            JsonObject jsonResponse = new JsonObject();
+            jsonResponse.add(ERROR_FIELD, callException.toJson());
+            resp.setContentType(TYPE_JSON);
+            jsonRpcHandler.writeResponse(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    jsonResponse.toString());
+        } catch (Exception ex) {
+            logger.debug("Error writing rejection response", ex);
+        }
+    }
+
     private boolean isProtobuf(String ctype) {
         if (ctype == null) {
             return false;
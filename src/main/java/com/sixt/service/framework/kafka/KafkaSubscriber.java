@@ -64,6 +64,14 @@ public class KafkaSubscriber<TYPE> implements Runnable, ConsumerRebalanceListene
                     String groupId, boolean enableAutoCommit, OffsetReset offsetReset,
                     int minThreads, int maxThreads, int idleTimeoutSeconds, int pollTime,
                     int throttleLimit) {
+        this(callback, topic, groupId, enableAutoCommit, offsetReset, minThreads, maxThreads,
+                idleTimeoutSeconds, pollTime, throttleLimit, Executors.defaultThreadFactory());
+    }
+
+    KafkaSubscriber(EventReceivedCallback<TYPE> callback, String topic,
+                    String groupId, boolean enableAutoCommit, OffsetReset offsetReset,
+                    int minThreads, int maxThreads, int idleTimeoutSeconds, int pollTime,
+                    int throttleLimit, ThreadFactory threadFactory) {
         this.callback = callback;
         this.topic = topic;
         this.groupId = groupId;
@@ -90,7 +98,7 @@ public class KafkaSubscriber<TYPE> implements Runnable, ConsumerRebalanceListene
         }
         messagesForConsume = new HashMap<>();
         executor = new ThreadPoolExecutor(this.minThreads, this.maxThreads, this.idleTimeoutSeconds,
-                TimeUnit.SECONDS, workQueue);
+                TimeUnit.SECONDS, workQueue, threadFactory);
     }
 
     synchronized void initialize(String servers) {
@@ -87,7 +87,7 @@ public class KafkaSubscriberBuilder<TYPE> {
     public KafkaSubscriber<TYPE> build() {
         KafkaSubscriber<TYPE> retval = new KafkaSubscriber<>(callback, topic, groupId,
                 enableAutoCommit, offsetReset, minThreads, maxThreads, idleTimeoutSeconds,
-                pollTime, throttleLimit);
+                pollTime, throttleLimit, parentFactory.getWorkerThreadFactory());
         parentFactory.builtSubscriber(retval);
         return retval;
     }
@@ -15,9 +15,12 @@ package com.sixt.service.framework.kafka;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.util.VirtualThreads;
 
 import java.util.Collection;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 @Singleton
 public class KafkaSubscriberFactory<TYPE> {
@@ -42,6 +45,14 @@ public class KafkaSubscriberFactory<TYPE> {
         return new KafkaSubscriberBuilder<>(this, topic, callback);
     }
 
+    /**
+     * The factory of the subscribers' worker threads: virtual threads if configured
+     */
+    ThreadFactory getWorkerThreadFactory() {
+        return VirtualThreads.threadFactory(serviceProperties, "kafka-subscriber-",
+                Executors.defaultThreadFactory());
+    }
+
     public void builtSubscriber(KafkaSubscriber<TYPE> subscriber) {
         kafkaSubscribers.add(subscriber);
         subscriber.initialize(serviceProperties.getKafkaServer());
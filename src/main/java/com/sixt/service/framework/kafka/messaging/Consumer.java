@@ -77,9 +77,12 @@ public class Consumer {
     }
 
     public void shutdown() {
+        if (isStopped.getAndSet(true)) {
+            // already shut down, e.g. by the service and by the graceful shutdown
+            return;
+        }
         logger.debug("Shutdown requested for consumer in group {} for topic {}", consumerGroupId, topic.toString());
 
-        isStopped.set(true);
         consumerLoopExecutor.shutdown();
 
 
@@ -13,11 +13,15 @@
 package com.sixt.service.framework.kafka.messaging;
 
 import com.google.inject.Inject;
+import com.sixt.service.framework.GracefulShutdown;
 import com.sixt.service.framework.ServiceProperties;
 import com.sixt.service.framework.metrics.MetricBuilderFactory;
+import com.sixt.service.framework.util.VirtualThreads;
 import io.opentracing.Tracer;
 
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 
 public class ConsumerFactory {
@@ -26,18 +30,25 @@ public class ConsumerFactory {
     private final TypeDictionary typeDictionary;
     private final Tracer tracer;
     private final MetricBuilderFactory metricBuilderFactory;
+    private final GracefulShutdown gracefulShutdown;
 
     // Stand-alone use without tracing and metrics.
     public ConsumerFactory(ServiceProperties serviceProperties, TypeDictionary typeDictionary) {
         this(serviceProperties, typeDictionary, null, null);
     }
 
-    @Inject
     public ConsumerFactory(ServiceProperties serviceProperties, TypeDictionary typeDictionary, Tracer tracer, MetricBuilderFactory metricBuilderFactory) {
+        this(serviceProperties, typeDictionary, tracer, metricBuilderFactory, null);
+    }
+
+    @Inject
+    public ConsumerFactory(ServiceProperties serviceProperties, TypeDictionary typeDictionary, Tracer tracer, MetricBuilderFactory metricBuilderFactory,
+                           GracefulShutdown gracefulShutdown) {
         this.serviceProperties = serviceProperties;
         this.typeDictionary = typeDictionary;
         this.tracer = tracer;
         this.metricBuilderFactory = metricBuilderFactory;
+        this.gracefulShutdown = gracefulShutdown;
     }
 
     // Design note: There is no default for the FailedMessageProcessor because I want users to explicitly think about error handling.
@@ -47,13 +58,21 @@ public class ConsumerFactory {
         Topic defaultInbox = Topic.defaultServiceInbox(serviceName);
         String consumerGroupId = defaultConsumerGroupId(defaultInbox);
 
-        return new Consumer(defaultInbox, consumerGroupId, defaultKafkaConfig(), defaultPartitionProcessorFactory(failedMessageStrategy));
+        return register(new Consumer(defaultInbox, consumerGroupId, defaultKafkaConfig(), defaultPartitionProcessorFactory(failedMessageStrategy)));
     }
 
     public Consumer consumerForTopic(Topic topic, DiscardFailedMessages failedMessageStrategy) {
         String consumerGroupId = defaultConsumerGroupId(topic);
 
-        return new Consumer(topic, consumerGroupId, defaultKafkaConfig(), defaultPartitionProcessorFactory(failedMessageStrategy));
+        return register(new Consumer(topic, consumerGroupId, defaultKafkaConfig(), defaultPartitionProcessorFactory(failedMessageStrategy)));
+    }
+
+    // The consumer commits its final offsets when the service shuts down gracefully.
+    private Consumer register(Consumer consumer) {
+        if (gracefulShutdown != null) {
+            gracefulShutdown.addConsumer(consumer);
+        }
+        return consumer;
     }
 
     private String defaultConsumerGroupId(Topic topic) {
@@ -84,7 +103,9 @@ public class ConsumerFactory {
     }
 
     private PartitionProcessorFactory defaultPartitionProcessorFactory(FailedMessageProcessor failedMessageStrategy) {
-        PartitionProcessorFactory partitionProcessorFactory = new PartitionProcessorFactory(typeDictionary, failedMessageStrategy, tracer, metricBuilderFactory);
+        // Virtual threads, if configured, keep blocking handlers from holding a platform thread per partition.
+        ThreadFactory threadFactory = VirtualThreads.threadFactory(serviceProperties, "partition-processor-", Executors.defaultThreadFactory());
+        PartitionProcessorFactory partitionProcessorFactory = new PartitionProcessorFactory(typeDictionary, failedMessageStrategy, tracer, metricBuilderFactory, threadFactory);
         return partitionProcessorFactory;
     }
 
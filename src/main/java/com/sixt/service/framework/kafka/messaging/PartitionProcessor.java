@@ -30,7 +30,9 @@ import org.slf4j.Marker;
 
 import javax.validation.constraints.Null;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -72,6 +74,10 @@ final class PartitionProcessor {
     // Lifecycle --------------------------------------------------
 
     PartitionProcessor(TopicPartition partitionKey, TypeDictionary typeDictionary, FailedMessageProcessor failedMessageProcessor, Tracer tracer, MetricBuilderFactory metricBuilderFactory) {
+        this(partitionKey, typeDictionary, failedMessageProcessor, tracer, metricBuilderFactory, Executors.defaultThreadFactory());
+    }
+
+    PartitionProcessor(TopicPartition partitionKey, TypeDictionary typeDictionary, FailedMessageProcessor failedMessageProcessor, Tracer tracer, MetricBuilderFactory metricBuilderFactory, ThreadFactory threadFactory) {
         this.partitionKey = partitionKey;
         this.typeDictionary = typeDictionary;
         this.failedMessageProcessor = failedMessageProcessor;
@@ -88,7 +94,7 @@ final class PartitionProcessor {
         // EXTENSION:
         // - if required, allow multiple threads sacrificing ordering.
         // - but then the commmit offset handling requires more thoughts
-        executor = new ThreadPoolExecutor(1, 1, 24, TimeUnit.HOURS, undeliveredMessages);
+        executor = new ThreadPoolExecutor(1, 1, 24, TimeUnit.HOURS, undeliveredMessages, threadFactory);
     }
 
     void stopProcessing() {
@@ -16,20 +16,29 @@ import com.sixt.service.framework.metrics.MetricBuilderFactory;
 import io.opentracing.Tracer;
 import org.apache.kafka.common.TopicPartition;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
 final class PartitionProcessorFactory {
     private final TypeDictionary typeDictionary;
     private final FailedMessageProcessor failedMessageProcessor;
     private final Tracer tracer;
     private final MetricBuilderFactory metricBuilderFactory;
+    private final ThreadFactory threadFactory;
 
     PartitionProcessorFactory(TypeDictionary typeDictionary, FailedMessageProcessor failedMessageProcessor, Tracer tracer, MetricBuilderFactory metricsBuilderFactory) {
+        this(typeDictionary, failedMessageProcessor, tracer, metricsBuilderFactory, Executors.defaultThreadFactory());
+    }
+
+    PartitionProcessorFactory(TypeDictionary typeDictionary, FailedMessageProcessor failedMessageProcessor, Tracer tracer, MetricBuilderFactory metricsBuilderFactory, ThreadFactory threadFactory) {
         this.typeDictionary = typeDictionary;
         this.failedMessageProcessor = failedMessageProcessor;
         this.tracer = tracer;
         this.metricBuilderFactory = metricsBuilderFactory;
+        this.threadFactory = threadFactory;
     }
 
     PartitionProcessor newProcessorFor(TopicPartition partitionKey) {
-        return new PartitionProcessor(partitionKey, typeDictionary, failedMessageProcessor, tracer, metricBuilderFactory);
+        return new PartitionProcessor(partitionKey, typeDictionary, failedMessageProcessor, tracer, metricBuilderFactory, threadFactory);
     }
 }
@@ -0,0 +1,46 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.metrics;
+
+import com.codahale.metrics.Metric;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts that a component keeps itself, e.g. the hits of a cache, read when the
+ * metrics are reported.  Unlike the elements of a GoGauge they only ever grow, so they
+ * are reported as counters.
+ */
+public class GoFunctionCounter implements Metric {
+
+    protected Map<String, GaugeGetter> elements = new ConcurrentHashMap<>();
+    protected String name;
+
+    public GoFunctionCounter(String name) {
+        this.name = name;
+    }
+
+    public void register(String name, GaugeGetter getter) {
+        elements.put(name, getter);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Map<String, GaugeGetter> getElements() {
+        return elements;
+    }
+
+}
@@ -14,12 +14,12 @@ package com.sixt.service.framework.metrics;
 
 import com.codahale.metrics.Gauge;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class GoGauge implements Gauge<Long> {
 
-    protected Map<String, GaugeGetter> elements = new HashMap<>();
+    protected Map<String, GaugeGetter> elements = new ConcurrentHashMap<>();
     protected String name;
 
     public GoGauge(String name) {
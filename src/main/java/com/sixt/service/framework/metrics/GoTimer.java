@@ -24,10 +24,31 @@ public class GoTimer extends Timer implements Metric {
     //  multiple underlying Timer objects;
     protected Timer successTimer;
     protected Timer failureTimer;
+    protected HistogramReservoir successReservoir;
+    protected HistogramReservoir failureReservoir;
     protected String name;
+    protected final int significantDigits;
+    protected final long highestTrackableNanos;
 
     public GoTimer(String name) {
+        this(name, HistogramReservoir.DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param significantDigits precision of the recorded durations, see {@link HistogramReservoir}
+     */
+    public GoTimer(String name, int significantDigits) {
+        this(name, significantDigits, HistogramReservoir.DEFAULT_HIGHEST_TRACKABLE_NANOS);
+    }
+
+    /**
+     * @param significantDigits precision of the recorded durations, see {@link HistogramReservoir}
+     * @param highestTrackableNanos longer durations are recorded as this
+     */
+    public GoTimer(String name, int significantDigits, long highestTrackableNanos) {
         this.name = name;
+        this.significantDigits = significantDigits;
+        this.highestTrackableNanos = highestTrackableNanos;
         reset();
     }
 
@@ -51,13 +72,29 @@ public class GoTimer extends Timer implements Metric {
         return failureTimer;
     }
 
+    /**
+     * @return the total duration of the successes in nanoseconds
+     */
+    public long getSuccessSum() {
+        return successReservoir.getSum();
+    }
+
+    /**
+     * @return the total duration of the failures in nanoseconds
+     */
+    public long getFailureSum() {
+        return failureReservoir.getSum();
+    }
+
     public String getName() {
         return name;
     }
 
     public void reset() {
-        successTimer = new Timer();
-        failureTimer = new Timer();
+        successReservoir = new HistogramReservoir(significantDigits, highestTrackableNanos);
+        failureReservoir = new HistogramReservoir(significantDigits, highestTrackableNanos);
+        successTimer = new Timer(successReservoir);
+        failureTimer = new Timer(failureReservoir);
     }
 
 }
@@ -0,0 +1,260 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import org.HdrHistogram.AbstractHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramIterationValue;
+import org.HdrHistogram.IntCountsHistogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reservoir of durations in nanoseconds, counted in an HdrHistogram: every value is
+ * recorded (no sampling) with the configured number of significant digits, from the
+ * microsecond range up to the highest trackable value (an hour by default).  Recording
+ * is wait-free.  Snapshots cover a sliding window that the reservoir rotates by itself
+ * in two halves, so a snapshot holds the values of the current half and the previous
+ * one, and reading has no side effects.  The sum of the values is kept since the
+ * reservoir was created, like the count of a {@link com.codahale.metrics.Timer}.
+ * <p>
+ * A reservoir holds four histograms.  With the defaults it takes about 85 KB; memory
+ * grows about tenfold per significant digit, and with the number of powers of two
+ * between a microsecond and the highest trackable value.
+ */
+public class HistogramReservoir implements Reservoir {
+
+    public final static int DEFAULT_SIGNIFICANT_DIGITS = 2;
+    public final static long DEFAULT_HIGHEST_TRACKABLE_NANOS = TimeUnit.HOURS.toNanos(1);
+    public final static long DEFAULT_WINDOW_SECONDS = 60;
+
+    private final static long LOWEST_DISCERNIBLE_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+
+    //larger values are counted as the maximum
+    private final long highestTrackableNanos;
+    private final Recorder recorder;
+    private final Clock clock;
+    private final long intervalNanos;
+    private final LongAdder sum = new LongAdder();
+    private Histogram drained;
+    private IntCountsHistogram current;
+    private IntCountsHistogram previous;
+    private long intervalStart;
+    private volatile long nextRotation;
+
+    public HistogramReservoir() {
+        this(DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param significantDigits precision of the recorded values, 0 to 5
+     */
+    public HistogramReservoir(int significantDigits) {
+        this(significantDigits, DEFAULT_HIGHEST_TRACKABLE_NANOS);
+    }
+
+    /**
+     * @param significantDigits precision of the recorded values, 0 to 5
+     * @param highestTrackableNanos larger values are recorded as this, at least 2 µs
+     */
+    public HistogramReservoir(int significantDigits, long highestTrackableNanos) {
+        this(significantDigits, highestTrackableNanos, DEFAULT_WINDOW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param significantDigits precision of the recorded values, 0 to 5
+     * @param window the time covered by a snapshot
+     */
+    public HistogramReservoir(int significantDigits, long window, TimeUnit unit) {
+        this(significantDigits, DEFAULT_HIGHEST_TRACKABLE_NANOS, window, unit);
+    }
+
+    /**
+     * @param significantDigits precision of the recorded values, 0 to 5
+     * @param highestTrackableNanos larger values are recorded as this, at least 2 µs
+     * @param window the time covered by a snapshot
+     */
+    public HistogramReservoir(int significantDigits, long highestTrackableNanos,
+                              long window, TimeUnit unit) {
+        this(significantDigits, highestTrackableNanos, window, unit, Clock.defaultClock());
+    }
+
+    HistogramReservoir(int significantDigits, long highestTrackableNanos, long window,
+                       TimeUnit unit, Clock clock) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.highestTrackableNanos = highestTrackableNanos;
+        this.recorder = new Recorder(LOWEST_DISCERNIBLE_NANOS, highestTrackableNanos,
+                significantDigits);
+        this.clock = clock;
+        this.intervalNanos = Math.max(1, unit.toNanos(window) / 2);
+        this.current = newIntervalHistogram(significantDigits);
+        this.previous = newIntervalHistogram(significantDigits);
+        this.intervalStart = clock.getTick();
+        this.nextRotation = intervalStart + intervalNanos;
+    }
+
+    @Override
+    public void update(long nanos) {
+        //values recorded before the current half ended have to be moved first
+        if (clock.getTick() - nextRotation >= 0) {
+            advance();
+        }
+        long value = Math.min(Math.max(0, nanos), highestTrackableNanos);
+        recorder.recordValue(value);
+        sum.add(value);
+    }
+
+    /**
+     * @return the sum of all values ever recorded
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the number of values in the window
+     */
+    @Override
+    public synchronized int size() {
+        advance();
+        return (int) Math.min(previous.getTotalCount() + current.getTotalCount(),
+                Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the values in the window
+     */
+    @Override
+    public synchronized Snapshot getSnapshot() {
+        advance();
+        AbstractHistogram window = previous.copy();
+        window.add(current);
+        return new HistogramSnapshot(window);
+    }
+
+    /**
+     * Moves the recorded values into the current half of the window, after rotating the
+     * halves when the current one has ended
+     */
+    private synchronized void advance() {
+        drained = recorder.getIntervalHistogram(drained);
+        current.add(drained);
+        long now = clock.getTick();
+        long elapsedIntervals = (now - intervalStart) / intervalNanos;
+        if (elapsedIntervals > 0) {
+            IntCountsHistogram recycled = previous;
+            recycled.reset();
+            if (elapsedIntervals == 1) {
+                previous = current;
+                current = recycled;
+            } else {
+                current.reset();
+            }
+            intervalStart += elapsedIntervals * intervalNanos;
+            nextRotation = intervalStart + intervalNanos;
+        }
+    }
+
+    private IntCountsHistogram newIntervalHistogram(int significantDigits) {
+        return new IntCountsHistogram(LOWEST_DISCERNIBLE_NANOS, highestTrackableNanos,
+                significantDigits);
+    }
+
+    /**
+     * Quantiles and the maximum are the highest value equivalent to a bucket, at the
+     * precision of the histogram.
+     */
+    static class HistogramSnapshot extends Snapshot {
+
+        private final AbstractHistogram histogram;
+
+        HistogramSnapshot(AbstractHistogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public double getValue(double quantile) {
+            if (quantile < 0.0 || quantile > 1.0 || Double.isNaN(quantile)) {
+                throw new IllegalArgumentException(quantile + " is not in [0..1]");
+            }
+            if (histogram.getTotalCount() == 0) {
+                return 0.0;
+            }
+            return histogram.getValueAtPercentile(quantile * 100);
+        }
+
+        /**
+         * Every recorded value, at the precision of the histogram
+         */
+        @Override
+        public long[] getValues() {
+            long[] values = new long[size()];
+            int position = 0;
+            for (HistogramIterationValue value : histogram.recordedValues()) {
+                for (long i = 0; i < value.getCountAtValueIteratedTo() &&
+                        position < values.length; i++) {
+                    values[position++] = value.getValueIteratedTo();
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(histogram.getTotalCount(), Integer.MAX_VALUE);
+        }
+
+        @Override
+        public long getMax() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMaxValue();
+        }
+
+        @Override
+        public double getMean() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMean();
+        }
+
+        @Override
+        public long getMin() {
+            return histogram.getTotalCount() == 0 ? 0 : histogram.getMinValue();
+        }
+
+        @Override
+        public double getStdDev() {
+            return histogram.getTotalCount() <= 1 ? 0 : histogram.getStdDeviation();
+        }
+
+        @Override
+        public void dump(OutputStream output) {
+            try (PrintWriter out = new PrintWriter(new OutputStreamWriter(output,
+                    StandardCharsets.UTF_8))) {
+                for (HistogramIterationValue value : histogram.recordedValues()) {
+                    out.printf("%d %d%n", value.getValueIteratedTo(),
+                            value.getCountAtValueIteratedTo());
+                }
+            }
+        }
+    }
+
+}
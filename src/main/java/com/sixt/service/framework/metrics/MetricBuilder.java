@@ -16,6 +16,8 @@ import com.codahale.metrics.Metric;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.MetricSet;
 import com.google.inject.Inject;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,6 +25,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 //DO NOT MAKE @Singleton
 public class MetricBuilder {
@@ -30,13 +33,28 @@ public class MetricBuilder {
     private static final Logger logger = LoggerFactory.getLogger(MetricBuilder.class);
 
     private final MetricRegistry registry;
+    private final int timerSignificantDigits;
+    private final long timerHighestTrackableNanos;
     private final List<MetricTag> tags = new ArrayList<>();
 
     private String baseName;
 
-    @Inject
     public MetricBuilder(MetricRegistry registry) {
+        this(registry, HistogramReservoir.DEFAULT_SIGNIFICANT_DIGITS,
+                HistogramReservoir.DEFAULT_HIGHEST_TRACKABLE_NANOS);
+    }
+
+    @Inject
+    public MetricBuilder(MetricRegistry registry, ServiceProperties serviceProps) {
+        this(registry, FeatureFlags.getMetricsTimerSignificantDigits(serviceProps),
+                TimeUnit.MILLISECONDS.toNanos(FeatureFlags.getMetricsTimerMaxMillis(serviceProps)));
+    }
+
+    private MetricBuilder(MetricRegistry registry, int timerSignificantDigits,
+                          long timerHighestTrackableNanos) {
         this.registry = registry;
+        this.timerSignificantDigits = timerSignificantDigits;
+        this.timerHighestTrackableNanos = timerHighestTrackableNanos;
     }
 
     public MetricBuilder withTag(String name, String value) {
@@ -48,7 +66,7 @@ public class MetricBuilder {
         String name = generateName("timing");
         GoTimer timer = getExistingTimer(name);
         if (timer == null) {
-            timer = new GoTimer(name);
+            timer = new GoTimer(name, timerSignificantDigits, timerHighestTrackableNanos);
             Map<String, Metric> map = new HashMap<>(1);
             map.put(name, timer);
             MetricSet set = () -> map;
@@ -87,6 +105,22 @@ public class MetricBuilder {
         return gauge;
     }
 
+    /**
+     * A counter of counts kept elsewhere, see {@link GoFunctionCounter}
+     */
+    public synchronized GoFunctionCounter buildFunctionCounter() {
+        String name = generateName("counter");
+        GoFunctionCounter counter = getExistingFunctionCounter(name);
+        if (counter == null) {
+            counter = new GoFunctionCounter(name);
+            Map<String, Metric> map = new HashMap<>();
+            map.put(name, counter);
+            MetricSet set = () -> map;
+            registry.registerAll(set);
+        }
+        return counter;
+    }
+
     private GoTimer getExistingTimer(String name) {
         Metric m = registry.getMetrics().get(name);
         if (m instanceof GoTimer) {
@@ -117,6 +151,16 @@ public class MetricBuilder {
         return null;
     }
 
+    private GoFunctionCounter getExistingFunctionCounter(String name) {
+        Metric m = registry.getMetrics().get(name);
+        if (m instanceof GoFunctionCounter) {
+            return (GoFunctionCounter) m;
+        } else if (m != null) {
+            logger.warn("Existing metric with name {} is not a GoFunctionCounter", name);
+        }
+        return null;
+    }
+
     //this name is highly-dependent upon the Sixt GoOrange metrics infrastructure
     //TODO: when we implement pluggable metrics reporting, the metrics reporter
     //      should interact here...
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.metrics;
+
+import java.util.Objects;
+
+/**
+ * Composite key of a cached metric handle: the kind of metric and up to three tag
+ * values.  Cheaper to build and compare than the concatenated metric name, so handles
+ * can be looked up on every request.
+ */
+public final class MetricKey {
+
+    private final String kind;
+    private final String first;
+    private final String second;
+    private final String third;
+    private final int hash;
+
+    public MetricKey(String kind, String first) {
+        this(kind, first, null, null);
+    }
+
+    public MetricKey(String kind, String first, String second) {
+        this(kind, first, second, null);
+    }
+
+    public MetricKey(String kind, String first, String second, String third) {
+        this.kind = kind;
+        this.first = first;
+        this.second = second;
+        this.third = third;
+        int h = kind.hashCode();
+        h = 31 * h + Objects.hashCode(first);
+        h = 31 * h + Objects.hashCode(second);
+        this.hash = 31 * h + Objects.hashCode(third);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (! (o instanceof MetricKey)) {
+            return false;
+        }
+        MetricKey other = (MetricKey) o;
+        return hash == other.hash && kind.equals(other.kind) &&
+                Objects.equals(first, other.first) &&
+                Objects.equals(second, other.second) &&
+                Objects.equals(third, other.third);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return kind + ":" + first + ":" + second + ":" + third;
+    }
+
+}
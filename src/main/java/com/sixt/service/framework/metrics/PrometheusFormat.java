@@ -0,0 +1,274 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.metrics;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes a MetricRegistry in the Prometheus text exposition format.  The tags that
+ * {@link MetricBuilder} encodes into metric names become labels again.  GoCounters are
+ * written as "_total" counters and GoTimers as "_seconds" summaries, each with a
+ * result="success" and result="failure" series.  Every element of a GoGauge is its own
+ * gauge, and every element of a GoFunctionCounter its own "_total" counter.
+ * <p>
+ * The quantiles of a summary come from the timer's snapshot, which for a
+ * {@link HistogramReservoir} covers only the last 30 to 60 seconds.  "_count" and
+ * "_sum" are cumulative, as Prometheus expects, so rates and averages over any range
+ * come from those.  Timers and histograms of other reservoirs don't track a sum and
+ * have no "_sum" series.
+ */
+public class PrometheusFormat {
+
+    public final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final static String METRIC_TYPE_TAG = "metric_type";
+    private final static double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private final static double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    public static void write(MetricRegistry registry, Writer out) throws IOException {
+        Map<String, Family> families = new TreeMap<>();
+        for (Map.Entry<String, Metric> entry : registry.getMetrics().entrySet()) {
+            collect(families, entry.getKey(), entry.getValue());
+        }
+        for (Family family : families.values()) {
+            family.write(out);
+        }
+        out.flush();
+    }
+
+    private static void collect(Map<String, Family> families, String registryName, Metric metric) {
+        String[] parts = registryName.split(",");
+        String baseName = sanitizeName(parts[0]);
+        String labels = labelsOf(parts);
+        if (metric instanceof GoGauge) {
+            for (Map.Entry<String, GaugeGetter> element : ((GoGauge) metric).getElements().entrySet()) {
+                GaugeGetter getter = element.getValue();
+                family(families, sanitizeName(parts[0] + "_" + element.getKey()), "gauge").
+                        add(labels, (name, l, out) ->
+                                writeSample(out, name, l, null, getter.getValue()));
+            }
+        } else if (metric instanceof GoFunctionCounter) {
+            for (Map.Entry<String, GaugeGetter> element :
+                    ((GoFunctionCounter) metric).getElements().entrySet()) {
+                GaugeGetter getter = element.getValue();
+                family(families, sanitizeName(parts[0] + "_" + element.getKey()) + "_total",
+                        "counter").add(labels, (name, l, out) ->
+                                writeSample(out, name, l, null, getter.getValue()));
+            }
+        } else if (metric instanceof GoCounter) {
+            GoCounter counter = (GoCounter) metric;
+            family(families, baseName + "_total", "counter").add(labels, (name, l, out) -> {
+                writeSample(out, name, l, "result=\"success\"", counter.getSuccessCount());
+                writeSample(out, name, l, "result=\"failure\"", counter.getFailureCount());
+            });
+        } else if (metric instanceof GoTimer) {
+            GoTimer timer = (GoTimer) metric;
+            family(families, baseName + "_seconds", "summary").add(labels, (name, l, out) -> {
+                Timer success = timer.getSuccessTimer();
+                writeSummary(out, name, join(l, "result=\"success\""), success.getSnapshot(),
+                        success.getCount(), timer.getSuccessSum(), NANOS_PER_SECOND);
+                Timer failure = timer.getFailureTimer();
+                writeSummary(out, name, join(l, "result=\"failure\""), failure.getSnapshot(),
+                        failure.getCount(), timer.getFailureSum(), NANOS_PER_SECOND);
+            });
+        } else if (metric instanceof Timer) {
+            family(families, baseName + "_seconds", "summary").add(labels, (name, l, out) ->
+                    writeSummary(out, name, l, (Timer) metric, NANOS_PER_SECOND));
+        } else if (metric instanceof Histogram) {
+            family(families, baseName, "summary").add(labels, (name, l, out) ->
+                    writeSummary(out, name, l, (Histogram) metric, 1.0));
+        } else if (metric instanceof Counter) {
+            family(families, baseName, "gauge").add(labels, (name, l, out) ->
+                    writeSample(out, name, l, null, ((Counter) metric).getCount()));
+        } else if (metric instanceof Meter) {
+            family(families, baseName + "_total", "counter").add(labels, (name, l, out) ->
+                    writeSample(out, name, l, null, ((Meter) metric).getCount()));
+        } else if (metric instanceof Gauge) {
+            family(families, baseName, "gauge").add(labels, (name, l, out) -> {
+                Object value = ((Gauge<?>) metric).getValue();
+                if (value instanceof Number) {
+                    writeSample(out, name, l, null, ((Number) value).doubleValue());
+                }
+            });
+        }
+    }
+
+    private static Family family(Map<String, Family> families, String name, String type) {
+        Family family = families.computeIfAbsent(name, n -> new Family(n, type));
+        if (! family.type.equals(type)) {
+            //a family can only have one type, so a clashing metric gets a suffixed name
+            String suffixedName = name + "_" + type;
+            family = families.computeIfAbsent(suffixedName, n -> new Family(n, type));
+        }
+        return family;
+    }
+
+    private static void writeSummary(Writer out, String name, String labels, Timer timer,
+                                     double scale) throws IOException {
+        writeSummary(out, name, labels, timer.getSnapshot(), timer.getCount(), Double.NaN,
+                scale);
+    }
+
+    private static void writeSummary(Writer out, String name, String labels, Histogram histogram,
+                                     double scale) throws IOException {
+        writeSummary(out, name, labels, histogram.getSnapshot(), histogram.getCount(),
+                Double.NaN, scale);
+    }
+
+    /**
+     * @param sum the sum of all values, or NaN if unknown
+     */
+    private static void writeSummary(Writer out, String name, String labels, Snapshot snapshot,
+                                     long count, double sum, double scale) throws IOException {
+        for (double quantile : QUANTILES) {
+            writeSample(out, name, labels, "quantile=\"" + quantile + "\"",
+                    snapshot.getValue(quantile) / scale);
+        }
+        if (! Double.isNaN(sum)) {
+            writeSample(out, name + "_sum", labels, null, sum / scale);
+        }
+        writeSample(out, name + "_count", labels, null, count);
+    }
+
+    private static void writeSample(Writer out, String name, String labels, String extraLabels,
+                                    double value) throws IOException {
+        out.write(name);
+        String allLabels = join(labels, extraLabels);
+        if (! allLabels.isEmpty()) {
+            out.write('{');
+            out.write(allLabels);
+            out.write('}');
+        }
+        out.write(' ');
+        out.write(formatValue(value));
+        out.write('\n');
+    }
+
+    static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        } else {
+            return Double.toString(value);
+        }
+    }
+
+    private static String labelsOf(String[] nameParts) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < nameParts.length; i++) {
+            int separator = nameParts[i].indexOf('=');
+            if (separator <= 0) {
+                continue;
+            }
+            String key = nameParts[i].substring(0, separator);
+            if (METRIC_TYPE_TAG.equals(key)) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(sanitizeName(key)).append("=\"");
+            escapeLabelValue(sb, nameParts[i].substring(separator + 1));
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    private static String join(String labels, String moreLabels) {
+        if (moreLabels == null || moreLabels.isEmpty()) {
+            return labels;
+        } else if (labels.isEmpty()) {
+            return moreLabels;
+        }
+        return labels + "," + moreLabels;
+    }
+
+    static String sanitizeName(String name) {
+        StringBuilder sb = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+            sb.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') ||
+                    (c >= '0' && c <= '9') || c == '_';
+            sb.append(valid ? c : '_');
+        }
+        return sb.toString();
+    }
+
+    private static void escapeLabelValue(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface SeriesWriter {
+        void write(String familyName, String labels, Writer out) throws IOException;
+    }
+
+    private static class Family {
+
+        private final String name;
+        private final String type;
+        private final List<String> labels = new ArrayList<>();
+        private final List<SeriesWriter> series = new ArrayList<>();
+
+        Family(String name, String type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        void add(String labels, SeriesWriter writer) {
+            this.labels.add(labels);
+            this.series.add(writer);
+        }
+
+        void write(Writer out) throws IOException {
+            out.write("# TYPE ");
+            out.write(name);
+            out.write(' ');
+            out.write(type);
+            out.write('\n');
+            for (int i = 0; i < series.size(); i++) {
+                series.get(i).write(name, labels.get(i), out);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,402 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.protobuf;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.EnumValueDescriptor;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.Descriptors.OneofDescriptor;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Merges json straight from a Jackson stream into a protobuf builder, following the
+ * proto3 json mapping the same way as <code>JsonFormat.parser().ignoringUnknownFields()</code>,
+ * but without building a json tree or an intermediate String.
+ * <p>
+ * Well-known types (Timestamp, Duration, Struct, wrappers, ...) have special json
+ * representations; those sub-trees are handed over to JsonFormat.
+ */
+public class JsonProtobufMerger {
+
+    private static final String WELL_KNOWN_TYPES_PACKAGE = "google.protobuf";
+    private static final BigInteger MAX_UINT64 = new BigInteger("FFFFFFFFFFFFFFFF", 16);
+
+    private static final JsonFormat.Parser fallbackParser = JsonFormat.parser().ignoringUnknownFields();
+    private static final Map<Descriptor, Map<String, FieldDescriptor>> fieldsByName =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Merge the json value the parser is positioned at (an object, or null) into the builder
+     */
+    public static void merge(JsonParser parser, Message.Builder builder) throws IOException {
+        Descriptor descriptor = builder.getDescriptorForType();
+        if (isWellKnownType(descriptor)) {
+            fallbackParser.merge(readTree(parser).toString(), builder);
+            return;
+        }
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new InvalidProtocolBufferException("Expected a json object for " +
+                    descriptor.getFullName() + " but found " + token);
+        }
+        Map<String, FieldDescriptor> fields = getFields(descriptor);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            FieldDescriptor field = fields.get(parser.getCurrentName());
+            token = parser.nextToken();
+            if (field == null) {
+                parser.skipChildren();
+                continue;
+            }
+            //null means the default value, which is what an unset field has anyway, so
+            //unlike JsonFormat of protobuf 3.2 a null member doesn't conflict with a set one
+            boolean unset = token == JsonToken.VALUE_NULL && !isNullValueField(field);
+            OneofDescriptor oneof = field.getContainingOneof();
+            if (oneof != null && !unset && builder.getOneofFieldDescriptor(oneof) != null) {
+                throw new InvalidProtocolBufferException("Cannot set field " + field.getFullName() +
+                        " because another field " + builder.getOneofFieldDescriptor(oneof).getFullName() +
+                        " belonging to the same oneof has already been set");
+            }
+            if (unset) {
+                builder.clearField(field);
+            } else if (field.isMapField()) {
+                mergeMapField(parser, builder, field);
+            } else if (field.isRepeated()) {
+                mergeRepeatedField(parser, builder, field);
+            } else if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+                Message.Builder subBuilder = builder.newBuilderForField(field);
+                if (builder.hasField(field)) {
+                    subBuilder.mergeFrom((Message) builder.getField(field));
+                }
+                merge(parser, subBuilder);
+                builder.setField(field, subBuilder.build());
+            } else {
+                builder.setField(field, readScalar(parser, field));
+            }
+        }
+    }
+
+    private static void mergeRepeatedField(JsonParser parser, Message.Builder builder,
+                                           FieldDescriptor field) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw invalid(field, "expected an array");
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == JsonToken.VALUE_NULL) {
+                throw invalid(field, "repeated field elements cannot be null");
+            }
+            builder.addRepeatedField(field, readValue(parser, builder, field));
+        }
+    }
+
+    private static void mergeMapField(JsonParser parser, Message.Builder builder,
+                                      FieldDescriptor field) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw invalid(field, "expected an object");
+        }
+        Descriptor entryType = field.getMessageType();
+        FieldDescriptor keyField = entryType.findFieldByNumber(1);
+        FieldDescriptor valueField = entryType.findFieldByNumber(2);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Message.Builder entry = builder.newBuilderForField(field);
+            entry.setField(keyField, parseMapKey(parser.getCurrentName(), keyField));
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                throw invalid(field, "map values cannot be null");
+            }
+            entry.setField(valueField, readValue(parser, entry, valueField));
+            builder.addRepeatedField(field, entry.build());
+        }
+    }
+
+    private static Object readValue(JsonParser parser, Message.Builder owner,
+                                    FieldDescriptor field) throws IOException {
+        if (field.getJavaType() == FieldDescriptor.JavaType.MESSAGE) {
+            Message.Builder subBuilder = owner.newBuilderForField(field);
+            merge(parser, subBuilder);
+            return subBuilder.build();
+        }
+        return readScalar(parser, field);
+    }
+
+    private static Object readScalar(JsonParser parser, FieldDescriptor field) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+            throw invalid(field, "expected a primitive value");
+        }
+        switch (field.getType()) {
+            case INT32:
+            case SINT32:
+            case SFIXED32:
+                return (int) readLong(parser, field, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            case UINT32:
+            case FIXED32:
+                return (int) readLong(parser, field, 0, 0xFFFFFFFFL);
+            case INT64:
+            case SINT64:
+            case SFIXED64:
+                return readLong(parser, field, Long.MIN_VALUE, Long.MAX_VALUE);
+            case UINT64:
+            case FIXED64:
+                return readUnsignedLong(parser, field);
+            case FLOAT: {
+                double value = readDouble(parser, field);
+                float floatValue = (float) value;
+                if (Float.isInfinite(floatValue) && !Double.isInfinite(value)) {
+                    throw invalid(field, "out of range: " + parser.getText());
+                }
+                return floatValue;
+            }
+            case DOUBLE:
+                return readDouble(parser, field);
+            case BOOL:
+                return readBoolean(parser, field);
+            case STRING:
+                return parser.getText();
+            case BYTES:
+                return readBytes(parser, field);
+            case ENUM:
+                return readEnum(parser, field);
+            default:
+                throw invalid(field, "unsupported field type " + field.getType());
+        }
+    }
+
+    private static long readLong(JsonParser parser, FieldDescriptor field,
+                                 long min, long max) throws IOException {
+        long value;
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT &&
+                parser.getNumberType() != JsonParser.NumberType.BIG_INTEGER) {
+            value = parser.getLongValue();
+        } else {
+            try {
+                value = readBigDecimal(parser, field).longValueExact();
+            } catch (ArithmeticException ex) {
+                throw invalid(field, "not an integer: " + parser.getText());
+            }
+        }
+        if (value < min || value > max) {
+            throw invalid(field, "out of range: " + parser.getText());
+        }
+        return value;
+    }
+
+    private static long readUnsignedLong(JsonParser parser, FieldDescriptor field) throws IOException {
+        BigInteger value;
+        try {
+            value = readBigDecimal(parser, field).toBigIntegerExact();
+        } catch (ArithmeticException ex) {
+            throw invalid(field, "not an integer: " + parser.getText());
+        }
+        if (value.signum() < 0 || value.compareTo(MAX_UINT64) > 0) {
+            throw invalid(field, "out of range: " + parser.getText());
+        }
+        return value.longValue();
+    }
+
+    private static BigDecimal readBigDecimal(JsonParser parser, FieldDescriptor field) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token != JsonToken.VALUE_NUMBER_INT && token != JsonToken.VALUE_NUMBER_FLOAT &&
+                token != JsonToken.VALUE_STRING) {
+            throw invalid(field, "expected a number");
+        }
+        try {
+            return new BigDecimal(parser.getText().trim());
+        } catch (NumberFormatException ex) {
+            throw invalid(field, "not a number: " + parser.getText());
+        }
+    }
+
+    private static double readDouble(JsonParser parser, FieldDescriptor field) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return parser.getDoubleValue();
+        }
+        String text = parser.getText();
+        switch (text) {
+            case "NaN":
+                return Double.NaN;
+            case "Infinity":
+                return Double.POSITIVE_INFINITY;
+            case "-Infinity":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return readBigDecimal(parser, field).doubleValue();
+        }
+    }
+
+    private static boolean readBoolean(JsonParser parser, FieldDescriptor field) throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_TRUE) {
+            return true;
+        } else if (token == JsonToken.VALUE_FALSE) {
+            return false;
+        }
+        return parseBoolean(parser.getText(), field);
+    }
+
+    private static boolean parseBoolean(String text, FieldDescriptor field) throws IOException {
+        if ("true".equals(text)) {
+            return true;
+        } else if ("false".equals(text)) {
+            return false;
+        }
+        throw invalid(field, "not a boolean: " + text);
+    }
+
+    private static ByteString readBytes(JsonParser parser, FieldDescriptor field) throws IOException {
+        String text = parser.getText();
+        try {
+            return ByteString.copyFrom(Base64.getDecoder().decode(text));
+        } catch (IllegalArgumentException ex) {
+            try {
+                return ByteString.copyFrom(Base64.getUrlDecoder().decode(text));
+            } catch (IllegalArgumentException ex2) {
+                throw invalid(field, "not base64: " + text);
+            }
+        }
+    }
+
+    private static EnumValueDescriptor readEnum(JsonParser parser, FieldDescriptor field) throws IOException {
+        EnumValueDescriptor value;
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_INT) {
+            value = field.getEnumType().findValueByNumber(parser.getIntValue());
+        } else {
+            value = field.getEnumType().findValueByName(parser.getText());
+        }
+        if (value == null) {
+            throw invalid(field, "invalid enum value: " + parser.getText());
+        }
+        return value;
+    }
+
+    private static Object parseMapKey(String key, FieldDescriptor keyField) throws IOException {
+        try {
+            switch (keyField.getType()) {
+                case STRING:
+                    return key;
+                case BOOL:
+                    return parseBoolean(key, keyField);
+                case INT32:
+                case SINT32:
+                case SFIXED32:
+                    return Integer.parseInt(key);
+                case UINT32:
+                case FIXED32:
+                    long value = Long.parseLong(key);
+                    if (value < 0 || value > 0xFFFFFFFFL) {
+                        throw invalid(keyField, "map key out of range: " + key);
+                    }
+                    return (int) value;
+                case INT64:
+                case SINT64:
+                case SFIXED64:
+                    return Long.parseLong(key);
+                case UINT64:
+                case FIXED64:
+                    return Long.parseUnsignedLong(key);
+                default:
+                    throw invalid(keyField, "unsupported map key type " + keyField.getType());
+            }
+        } catch (NumberFormatException ex) {
+            throw invalid(keyField, "invalid map key: " + key);
+        }
+    }
+
+    private static boolean isWellKnownType(Descriptor descriptor) {
+        return WELL_KNOWN_TYPES_PACKAGE.equals(descriptor.getFile().getPackage());
+    }
+
+    //google.protobuf.Value represents json null explicitly
+    private static boolean isNullValueField(FieldDescriptor field) {
+        return field.getJavaType() == FieldDescriptor.JavaType.MESSAGE && !field.isRepeated() &&
+                "google.protobuf.Value".equals(field.getMessageType().getFullName());
+    }
+
+    private static Map<String, FieldDescriptor> getFields(Descriptor descriptor) {
+        Map<String, FieldDescriptor> fields = fieldsByName.get(descriptor);
+        if (fields == null) {
+            fields = new HashMap<>();
+            for (FieldDescriptor field : descriptor.getFields()) {
+                fields.put(field.getName(), field);
+                fields.put(field.getJsonName(), field);
+            }
+            fieldsByName.put(descriptor, fields);
+        }
+        return fields;
+    }
+
+    private static InvalidProtocolBufferException invalid(FieldDescriptor field, String message) {
+        return new InvalidProtocolBufferException("Invalid value for field " +
+                field.getFullName() + ", " + message);
+    }
+
+    /**
+     * Read the json value the parser is positioned at into a Gson tree
+     */
+    public static JsonElement readTree(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT: {
+                JsonObject object = new JsonObject();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    object.add(name, readTree(parser));
+                }
+                return object;
+            }
+            case START_ARRAY: {
+                JsonArray array = new JsonArray();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(readTree(parser));
+                }
+                return array;
+            }
+            case VALUE_STRING:
+                return new JsonPrimitive(parser.getText());
+            case VALUE_NUMBER_INT:
+                return new JsonPrimitive(parser.getNumberValue());
+            case VALUE_NUMBER_FLOAT:
+                return new JsonPrimitive(new BigDecimal(parser.getText()));
+            case VALUE_TRUE:
+                return new JsonPrimitive(true);
+            case VALUE_FALSE:
+                return new JsonPrimitive(false);
+            case VALUE_NULL:
+                return JsonNull.INSTANCE;
+            default:
+                throw new InvalidProtocolBufferException("Unexpected json token " +
+                        parser.getCurrentToken());
+        }
+    }
+
+}
@@ -81,6 +81,41 @@ public class ProtobufUtil {
         }
     }
 
+    /**
+     * NOTE: this is only using the first element of the JsonArray
+     */
+    public static <TYPE extends Message> TYPE jsonToProtobuf(JsonArray request, TYPE defaultInstance) {
+        return jsonToProtobuf(request.get(0).toString(), defaultInstance);
+    }
+
+    /**
+     * Converts a JSON String to a protobuf message, using the default instance of the
+     * message type instead of reflection to create the builder
+     * <p>
+     * Note: Ignores unknown fields
+     *
+     * @param input           the input String to convert
+     * @param defaultInstance the default instance of the protobuf message type to convert into
+     * @return the converted protobuf message
+     */
+    public static <TYPE extends Message> TYPE jsonToProtobuf(String input, TYPE defaultInstance) {
+        if (input == null) {
+            return null;
+        }
+
+        if (!isValidJSON(input)) {
+            return defaultInstance;
+        }
+
+        try {
+            Message.Builder builder = defaultInstance.newBuilderForType();
+            JsonFormat.parser().ignoringUnknownFields().merge(input, builder);
+            return (TYPE) builder.build();
+        } catch (Exception e) {
+            throw new RuntimeException("Error deserializing json to protobuf", e);
+        }
+    }
+
     private static boolean isValidJSON(String input) {
         if (StringUtils.isBlank(input)) {
             logger.warn("Parsing empty json string to protobuf is deprecated and will be removed in " +
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.protobuf;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The http content codings supported for protobuf rpc bodies.  lz4 is the block stream
+ * format of lz4-java, and is only understood by services built on this framework, so it
+ * is only used when the peer announced it.
+ */
+public enum RpcCompression {
+
+    LZ4("lz4") {
+        @Override
+        public OutputStream compress(OutputStream out) {
+            return new LZ4BlockOutputStream(out);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) {
+            return new LZ4BlockInputStream(in);
+        }
+    },
+
+    GZIP("gzip") {
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        }
+    };
+
+    public final static String CONTENT_ENCODING = "Content-Encoding";
+    public final static String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private final static int BUFFER_SIZE = 8 * 1024;
+
+    private final String encoding;
+
+    RpcCompression(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Closing the returned stream finishes the compressed data and closes the given stream
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    public byte[] compress(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        try (OutputStream compressor = compress(out)) {
+            compressor.write(data);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the compression for a content coding, or null for no (or an unknown) coding
+     */
+    public static RpcCompression fromEncoding(String encoding) {
+        if (encoding == null) {
+            return null;
+        }
+        String trimmed = encoding.trim();
+        for (RpcCompression compression : values()) {
+            if (compression.encoding.equalsIgnoreCase(trimmed)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Pick the compression for a response from the Accept-Encoding request header,
+     * preferring lz4 over gzip.  Codings with a quality of 0 are not acceptable.
+     *
+     * @return the compression to use, or null if the client accepts none
+     */
+    public static RpcCompression negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        RpcCompression retval = null;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            RpcCompression compression = fromEncoding(parts[0]);
+            if (compression == null || (parts.length > 1 && isZeroQuality(parts[1]))) {
+                continue;
+            }
+            if (retval == null || compression.ordinal() < retval.ordinal()) {
+                retval = compression;
+            }
+        }
+        return retval;
+    }
+
+    private static boolean isZeroQuality(String parameter) {
+        String[] keyValue = parameter.trim().split("=");
+        if (keyValue.length != 2 || ! "q".equalsIgnoreCase(keyValue[0].trim())) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(keyValue[1].trim()) == 0;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+}
@@ -23,4 +23,11 @@ public interface ServiceRegistrationProvider {
      */
     void initialize(MethodHandlerDictionary methodHandlers);
 
+    /**
+     * Called first when the service shuts down, so that other services stop sending it
+     * requests while the requests in flight are drained
+     */
+    default void deregister() {
+    }
+
 }
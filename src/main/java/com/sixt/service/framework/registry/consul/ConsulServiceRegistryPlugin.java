@@ -51,6 +51,11 @@ public class ConsulServiceRegistryPlugin implements
         registrationManager.register();
     }
 
+    @Override
+    public void deregister() {
+        registrationManager.unregisterService();
+    }
+
     @Override
     public void shutdown() {
         registrationMonitor.shutdown();
@@ -153,8 +153,12 @@ public class RegistrationManager implements Runnable {
         isShutdownHookRegistered.set(true);
     }
 
+    /**
+     * Remove the registration from consul, once.  Runs both as part of the graceful
+     * shutdown and from the shutdown hook, whichever comes first.
+     */
     protected void unregisterService() {
-        if (! isRegistered.get()) {
+        if (! isRegistered.getAndSet(false)) {
             return;
         }
         try {
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import com.codahale.metrics.Snapshot;
+import com.sixt.service.framework.metrics.HistogramReservoir;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * When an rpc call is hedged: if its response takes longer than the hedge delay, a
+ * duplicate request is sent to another endpoint, and the first successful response
+ * wins.  The delay is either fixed, or the p95 latency of the method's recent calls.
+ * A budget caps the hedges to a share of the calls: every call earns a fraction of a
+ * hedge, up to a small burst, which is also the budget of a new client.
+ */
+public class HedgingPolicy {
+
+    public final static double DEFAULT_BUDGET_PERCENT = 5.0;
+
+    //hedges that can be saved up for a burst of slow responses
+    private final static long MAX_BALANCE = 10;
+    private final static long HEDGE_COST = 1_000_000;
+    //an observed p95 needs this many calls, and is updated at most once per second
+    private final static int MIN_SAMPLES = 20;
+    private final static long ESTIMATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Duration delay;
+    private final int maxHedges;
+    private final long depositPerCall;
+    private final AtomicLong balance = new AtomicLong(MAX_BALANCE * HEDGE_COST);
+    private final HistogramReservoir latencies;
+    private volatile long observedDelayNanos = -1;
+    private volatile long estimatedAt = System.nanoTime();
+
+    /**
+     * @param delay the time to wait for a response before hedging, or null to wait for
+     *              the observed p95 latency of the method
+     * @param maxHedges duplicate requests per call
+     * @param budgetPercent hedges per 100 calls
+     */
+    public HedgingPolicy(Duration delay, int maxHedges, double budgetPercent) {
+        if (maxHedges < 1) {
+            throw new IllegalArgumentException("maxHedges must be at least 1");
+        }
+        if (delay != null && delay.isNegative()) {
+            throw new IllegalArgumentException("Hedge delay can't be negative");
+        }
+        this.delay = delay;
+        this.maxHedges = maxHedges;
+        this.depositPerCall = (long) (budgetPercent / 100 * HEDGE_COST);
+        this.latencies = delay == null ? new HistogramReservoir() : null;
+    }
+
+    public int getMaxHedges() {
+        return maxHedges;
+    }
+
+    /**
+     * @return the delay before hedging in nanoseconds, or -1 while there is no
+     *         observed latency yet
+     */
+    public long getDelayNanos() {
+        if (delay != null) {
+            return delay.toNanos();
+        }
+        long now = System.nanoTime();
+        if (now - estimatedAt >= ESTIMATE_INTERVAL_NANOS && latencies.size() >= MIN_SAMPLES) {
+            synchronized (this) {
+                if (now - estimatedAt >= ESTIMATE_INTERVAL_NANOS) {
+                    Snapshot snapshot = latencies.getSnapshot();
+                    observedDelayNanos = (long) snapshot.get95thPercentile();
+                    estimatedAt = now;
+                }
+            }
+        }
+        return observedDelayNanos;
+    }
+
+    /**
+     * Record the latency of a successful call
+     */
+    public void recordLatency(long nanos) {
+        if (latencies != null) {
+            latencies.update(nanos);
+        }
+    }
+
+    /**
+     * Add a call's share of a hedge to the budget
+     */
+    public void recordCall() {
+        balance.accumulateAndGet(depositPerCall,
+                (current, deposit) -> Math.min(current + deposit, MAX_BALANCE * HEDGE_COST));
+    }
+
+    /**
+     * @return true if the budget allows a hedge, which is then taken from the budget
+     */
+    public boolean tryAcquireHedge() {
+        while (true) {
+            long current = balance.get();
+            if (current < HEDGE_COST) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - HEDGE_COST)) {
+                return true;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import com.sixt.service.framework.FeatureFlags;
+import org.eclipse.jetty.client.ConnectionPool;
+import org.eclipse.jetty.client.DuplexConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.api.Connection;
+import org.eclipse.jetty.client.api.Destination;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses the http client for calls to a service: services configured in
+ * http2ClientServices are called over multiplexed HTTP/2 cleartext connections,
+ * services with connection pool settings of their own over a client with these
+ * settings, all others over the default HTTP/1.1 client.  HTTP/1.1 connections are
+ * kept alive, unless the service is configured to get a new connection for every call.
+ */
+public class HttpClientSelector {
+
+    public final static String DEFAULT_CLIENT = "default";
+    public final static String HTTP2_CLIENT = "http2";
+
+    private final HttpClient httpClient;
+    private final HttpClient http2Client;
+    private final Set<String> http2Services;
+    private final Map<String, HttpClient> serviceClients;
+    private final Set<String> keepAliveServices;
+    private final Set<String> connectionCloseServices;
+
+    public HttpClientSelector(HttpClient httpClient) {
+        this(httpClient, null, Collections.emptySet());
+    }
+
+    /**
+     * @param http2Client may be null if no service is called over HTTP/2
+     */
+    public HttpClientSelector(HttpClient httpClient, HttpClient http2Client,
+                              Set<String> http2Services) {
+        this(httpClient, http2Client, http2Services, Collections.emptyMap(),
+                Collections.singleton(FeatureFlags.ALL_SERVICES), Collections.emptySet());
+    }
+
+    /**
+     * @param serviceClients HTTP/1.1 clients for services with pools of their own
+     */
+    public HttpClientSelector(HttpClient httpClient, HttpClient http2Client,
+                              Set<String> http2Services, Map<String, HttpClient> serviceClients,
+                              Set<String> keepAliveServices, Set<String> connectionCloseServices) {
+        this.httpClient = httpClient;
+        this.http2Client = http2Client;
+        this.http2Services = http2Services;
+        this.serviceClients = serviceClients;
+        this.keepAliveServices = keepAliveServices;
+        this.connectionCloseServices = connectionCloseServices;
+    }
+
+    public HttpClient getHttpClient(String serviceName) {
+        if (usesHttp2(serviceName)) {
+            return http2Client;
+        }
+        HttpClient serviceClient = serviceName == null ? null : serviceClients.get(serviceName);
+        return serviceClient == null ? httpClient : serviceClient;
+    }
+
+    public boolean usesHttp2(String serviceName) {
+        return http2Client != null && (http2Services.contains(FeatureFlags.ALL_SERVICES) ||
+                http2Services.contains(serviceName));
+    }
+
+    /**
+     * @return false if calls to the service must ask for the connection to be closed
+     */
+    public boolean usesKeepAlive(String serviceName) {
+        if (usesHttp2(serviceName)) {
+            return true;
+        }
+        if (connectionCloseServices.contains(FeatureFlags.ALL_SERVICES) ||
+                connectionCloseServices.contains(serviceName)) {
+            return false;
+        }
+        return keepAliveServices.contains(FeatureFlags.ALL_SERVICES) ||
+                keepAliveServices.contains(serviceName);
+    }
+
+    /**
+     * @return the HTTP/1.1 client
+     */
+    public HttpClient getDefaultHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return all clients, by the name of the service they are dedicated to, or
+     *         "default" and "http2" for the shared clients
+     */
+    public Map<String, HttpClient> getHttpClients() {
+        Map<String, HttpClient> retval = new LinkedHashMap<>();
+        retval.put(DEFAULT_CLIENT, httpClient);
+        if (http2Client != null) {
+            retval.put(HTTP2_CLIENT, http2Client);
+        }
+        retval.putAll(serviceClients);
+        return retval;
+    }
+
+    /**
+     * Close the pooled connections to an endpoint of a service which aren't in use.
+     * Connections in use are closed by the endpoint when it shuts down.
+     */
+    public void closeIdleConnections(String serviceName, ServiceEndpoint endpoint) {
+        HttpClient client = getHttpClient(serviceName);
+        if (client == null) {
+            return;
+        }
+        for (Destination destination : client.getDestinations()) {
+            if (! endpoint.getHostAndPort().equals(destination.getHost() + ":" + destination.getPort()) ||
+                    ! (destination instanceof HttpDestination)) {
+                continue;
+            }
+            ConnectionPool pool = ((HttpDestination) destination).getConnectionPool();
+            if (pool instanceof DuplexConnectionPool) {
+                for (Connection connection : new ArrayList<>(
+                        ((DuplexConnectionPool) pool).getIdleConnections())) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+}
@@ -13,23 +13,39 @@
 package com.sixt.service.framework.rpc;
 
 import com.google.inject.Inject;
+import com.sixt.service.framework.FeatureFlags;
 import com.sixt.service.framework.OrangeContext;
 import com.sixt.service.framework.ServiceProperties;
 import com.sixt.service.framework.metrics.GoTimer;
+import com.sixt.service.framework.protobuf.RpcCompression;
 import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.Tracer;
 import io.opentracing.propagation.Format;
 import io.opentracing.propagation.TextMapInjectAdapter;
 import io.opentracing.tag.Tags;
+import org.apache.commons.io.IOUtils;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpContentResponse;
 import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 
+import java.io.InputStream;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -40,20 +56,33 @@ public class HttpClientWrapper {
 
     private static final Logger logger = LoggerFactory.getLogger(HttpClientWrapper.class);
 
+    //used without metrics; never reported, and its histograms aren't cheap to allocate
+    private static final GoTimer UNREPORTED_TIMER = new GoTimer("");
+
     protected ServiceProperties serviceProps;
     protected LoadBalancer loadBalancer;
     protected HttpClient httpClient;
+    protected HttpClientSelector httpClientSelector;
     protected RpcClientMetrics rpcClientMetrics;
     protected RpcClient client;
     protected Tracer tracer;
 
-    @Inject
     public HttpClientWrapper(ServiceProperties serviceProps, HttpClient httpClient,
                              RpcClientMetrics rpcClientMetrics, Tracer tracer) {
+        this(serviceProps, new HttpClientSelector(httpClient), rpcClientMetrics, tracer);
+    }
+
+    @Inject
+    public HttpClientWrapper(ServiceProperties serviceProps, HttpClientSelector httpClientSelector,
+                             RpcClientMetrics rpcClientMetrics, Tracer tracer) {
         this.serviceProps = serviceProps;
-        this.httpClient = httpClient;
+        this.httpClientSelector = httpClientSelector;
+        this.httpClient = httpClientSelector.getDefaultHttpClient();
         this.rpcClientMetrics = rpcClientMetrics;
         this.tracer = tracer;
+        if (rpcClientMetrics != null) {
+            rpcClientMetrics.instrumentConnectionPools(httpClientSelector);
+        }
     }
 
     public HttpRequestWrapper createHttpPost(RpcClient client)
@@ -65,7 +94,11 @@ public class HttpClientWrapper {
                     "No available instance of " + loadBalancer.getServiceName()).
                     withSource(serviceProps.getServiceName());
         }
-        return new HttpRequestWrapper("POST", instance);
+        HttpRequestWrapper retval = new HttpRequestWrapper("POST", instance);
+        if (! httpClientSelector.usesKeepAlive(loadBalancer.getServiceName())) {
+            retval.setHeader("Connection", "close");
+        }
+        return retval;
     }
 
     private HttpRequestWrapper createHttpPost(HttpRequestWrapper previous, List<ServiceEndpoint> triedEndpoints)
@@ -76,6 +109,10 @@ public class HttpClientWrapper {
                     "RpcCallException calling " + loadBalancer.getServiceName() + ", no available instance").
                     withSource(serviceProps.getServiceName());
         }
+        return copyHttpPost(previous, instance);
+    }
+
+    private HttpRequestWrapper copyHttpPost(HttpRequestWrapper previous, ServiceEndpoint instance) {
         //TODO: There may still be a problem where retries are setting chunked encoding
         // or the content-length gets munged
         HttpRequestWrapper retval =  new HttpRequestWrapper("POST", instance);
@@ -84,6 +121,41 @@ public class HttpClientWrapper {
         return retval;
     }
 
+    /**
+     * Set a protobuf request body.  It is compressed with the rpcRequestCompression
+     * coding if one is configured and the body reaches the compression threshold.
+     */
+    public void setProtobufContent(HttpRequestWrapper request, byte[] data) {
+        RpcCompression compression = RpcCompression.fromEncoding(
+                FeatureFlags.getRpcRequestCompression(serviceProps));
+        if (compression == null || data.length < FeatureFlags.getRpcCompressionThreshold(serviceProps)) {
+            request.setContentProvider(new BytesContentProvider(data));
+            return;
+        }
+        byte[] compressed = compression.compress(data);
+        request.setHeader(RpcCompression.CONTENT_ENCODING, compression.getEncoding());
+        request.setContentProvider(new BytesContentProvider(compressed));
+        if (rpcClientMetrics != null) {
+            rpcClientMetrics.recordRequestCompression(loadBalancer == null ? null :
+                    loadBalancer.getServiceName(), compression.getEncoding(), data.length,
+                    compressed.length);
+        }
+    }
+
+    private HttpClient getHttpClient() {
+        if (loadBalancer == null) {
+            return httpClient;
+        }
+        return httpClientSelector.getHttpClient(loadBalancer.getServiceName());
+    }
+
+    /**
+     * Close the pooled connections to an endpoint that left the service registry
+     */
+    public void closeIdleConnections(ServiceEndpoint endpoint) {
+        httpClientSelector.closeIdleConnections(loadBalancer.getServiceName(), endpoint);
+    }
+
     public void setLoadBalancer(LoadBalancer loadBalancer) {
         this.loadBalancer = loadBalancer;
     }
@@ -91,50 +163,44 @@ public class HttpClientWrapper {
     public ContentResponse execute(HttpRequestWrapper request, RpcCallExceptionDecoder decoder,
                                    OrangeContext orangeContext)
             throws RpcCallException {
+        if (client.hasHedgingPolicy()) {
+            return awaitResponse(executeAsync(request, decoder, orangeContext));
+        }
         ContentResponse retval = null;
         Span span = null;
         List<ServiceEndpoint> triedEndpoints = new ArrayList<>();
         RpcCallException lastException = null;
         int lastStatusCode;
         int tryCount = 0;
+        long deadline = orangeContext == null ? 0 : orangeContext.getDeadline();
+        if (deadline != 0 && deadline <= System.currentTimeMillis()) {
+            throw new RpcCallException(RpcCallException.Category.RequestTimedOut,
+                    "Deadline exceeded before calling " + loadBalancer.getServiceName()).
+                    withSource(serviceProps.getServiceName());
+        }
         do {
             triedEndpoints.add(request.getServiceEndpoint());
-            GoTimer methodTimer = getMethodTimer();
+            long tryTimeout = getTryTimeout(client, deadline);
+            setTryDeadline(request, tryTimeout, deadline);
+            GoTimer methodTimer = getMethodTimer(client);
             long startTime = methodTimer.start();
             try {
                 Marker logMarker = append("serviceMethod", request.getMethod())
                         .and(append("serviceEndpoint", request.getServiceEndpoint()));
                 logger.debug(logMarker,
                         "Sending http request to {}", request.getServiceEndpoint());
-                if (tracer != null) {
-                    SpanContext spanContext = null;
-                    if (orangeContext != null) {
-                        spanContext = orangeContext.getTracingContext();
-                    }
-                    if (spanContext != null) {
-                        span = tracer.buildSpan(client.getMethodName()).asChildOf(spanContext).start();
-                    } else {
-                        span = tracer.buildSpan(client.getMethodName()).start();
-                    }
-                    Tags.SPAN_KIND.set(span, Tags.SPAN_KIND_CLIENT);
-                    Tags.PEER_SERVICE.set(span, loadBalancer.getServiceName());
-                    if (orangeContext != null) {
-                        span.setTag("correlation_id", orangeContext.getCorrelationId());
-                    }
-                    tracer.inject(span.context(), Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(request.getHeaders()));
-                }
-                retval = request.newRequest(httpClient).timeout(client.getTimeout(),
+                span = startSpan(client, request, orangeContext);
+                retval = request.newRequest(getHttpClient()).timeout(tryTimeout,
                         TimeUnit.MILLISECONDS).send();
                 logger.debug(logMarker, "Http send completed");
                 lastStatusCode = retval.getStatus();
             } catch (TimeoutException timeout) {
                 lastStatusCode = RpcCallException.Category.RequestTimedOut.getHttpStatus();
                 lastException = new RpcCallException(RpcCallException.Category.RequestTimedOut, "Http-client timeout");
-                //TODO: RequestTimedOut should be retried as long as there is time budget left
-                logger.info(getRemoteMethod(), "Caught TimeoutException executing request");
+                logger.info(getRemoteMethod(client), "Caught TimeoutException executing request");
             } catch (Exception ex) {
                 lastStatusCode = RpcCallException.Category.InternalServerError.getHttpStatus();
-                logger.debug(getRemoteMethod(), "Caught exception executing request", ex);
+                logger.debug(getRemoteMethod(client), "Caught exception executing request", ex);
             }
 
             //content.length must always be > 0, because we have an envelope
@@ -144,6 +210,7 @@ public class HttpClientWrapper {
                     span.finish();
                 }
                 methodTimer.recordSuccess(startTime);
+                request.getServiceEndpoint().recordLatency(System.nanoTime() - startTime);
                 request.getServiceEndpoint().requestComplete(true);
                 return retval;
             } else {
@@ -153,6 +220,7 @@ public class HttpClientWrapper {
                     span.finish();
                 }
                 methodTimer.recordFailure(startTime);
+                request.getServiceEndpoint().recordLatency(System.nanoTime() - startTime);
                 //4xx errors should not change circuit-breaker state
                 request.getServiceEndpoint().requestComplete(lastStatusCode < 500);
 
@@ -163,6 +231,10 @@ public class HttpClientWrapper {
                     }
                 }
                 if (tryCount < client.getRetries()) {
+                    if (! hasTimeForRetry(deadline, tryCount)) {
+                        //no budget left for the back-off and another try
+                        break;
+                    }
                     if (client.hasRetryBackOffFunction()) {
                         client.getRetryBackOffFunction().execute(tryCount);
                     }
@@ -180,6 +252,530 @@ public class HttpClientWrapper {
         }
     }
 
+    private ContentResponse awaitResponse(CompletableFuture<ContentResponse> future)
+            throws RpcCallException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RpcCallException) {
+                throw (RpcCallException) ex.getCause();
+            }
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    RpcCallExceptionDecoder.exceptionToString(ex.getCause())).
+                    withSource(serviceProps.getServiceName());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Interrupted while calling " + loadBalancer.getServiceName()).
+                    withSource(serviceProps.getServiceName());
+        }
+    }
+
+    /**
+     * @return false if the deadline of the call chain passes before the back-off before
+     * the next try is over
+     */
+    private boolean hasTimeForRetry(long deadline, int tryCount) {
+        if (deadline == 0) {
+            return true;
+        }
+        long backOffMillis = 0;
+        if (client.hasRetryBackOffFunction()) {
+            Duration backOff = client.getRetryBackOffFunction().timeout(tryCount);
+            backOffMillis = backOff == null ? 0 : backOff.toMillis();
+        }
+        return System.currentTimeMillis() + backOffMillis < deadline;
+    }
+
+    /**
+     * Send a request whose response is streamed, and return the response body once a
+     * successful response started.  Failed tries are retried like in execute().  The
+     * client timeout bounds the wait for the start of the response, the deadline of the
+     * call chain bounds the whole stream.  The span and method timer of the call end when
+     * the response starts.  Errors the service reports in the stream itself are thrown
+     * while reading it, and are not retried.
+     */
+    public InputStream executeStreaming(HttpRequestWrapper request, RpcCallExceptionDecoder decoder,
+                                        OrangeContext orangeContext)
+            throws RpcCallException {
+        List<ServiceEndpoint> triedEndpoints = new ArrayList<>();
+        RpcCallException lastException = null;
+        int lastStatusCode;
+        int tryCount = 0;
+        long deadline = orangeContext == null ? 0 : orangeContext.getDeadline();
+        if (deadline != 0 && deadline <= System.currentTimeMillis()) {
+            throw new RpcCallException(RpcCallException.Category.RequestTimedOut,
+                    "Deadline exceeded before calling " + loadBalancer.getServiceName()).
+                    withSource(serviceProps.getServiceName());
+        }
+        do {
+            triedEndpoints.add(request.getServiceEndpoint());
+            long tryTimeout = getTryTimeout(client, deadline);
+            if (deadline != 0) {
+                request.setHeader(OrangeContext.DEADLINE, Long.toString(deadline));
+            }
+            GoTimer methodTimer = getMethodTimer(client);
+            long startTime = methodTimer.start();
+            Span span = null;
+            Request httpRequest = null;
+            try {
+                logger.debug(getRemoteMethod(client), "Sending streaming http request to {}",
+                        request.getServiceEndpoint());
+                span = startSpan(client, request, orangeContext);
+                httpRequest = request.newRequest(getHttpClient());
+                if (deadline != 0) {
+                    httpRequest.timeout(Math.max(1, deadline - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS);
+                }
+                InputStreamResponseListener listener = new InputStreamResponseListener();
+                httpRequest.send(listener);
+                Response response = listener.get(tryTimeout > 0 ? tryTimeout : Long.MAX_VALUE,
+                        TimeUnit.MILLISECONDS);
+                lastStatusCode = response.getStatus();
+                if (lastStatusCode == 200) {
+                    if (span != null) {
+                        Tags.HTTP_STATUS.set(span, lastStatusCode);
+                        span.finish();
+                    }
+                    methodTimer.recordSuccess(startTime);
+                    request.getServiceEndpoint().recordLatency(System.nanoTime() - startTime);
+                    request.getServiceEndpoint().requestComplete(true);
+                    return listener.getInputStream();
+                }
+                byte[] content = IOUtils.toByteArray(listener.getInputStream());
+                if (content.length > 0) {
+                    lastException = decoder.decodeException(
+                            new HttpContentResponse(response, content, null, null));
+                }
+            } catch (TimeoutException timeout) {
+                httpRequest.abort(timeout);
+                lastStatusCode = RpcCallException.Category.RequestTimedOut.getHttpStatus();
+                lastException = new RpcCallException(RpcCallException.Category.RequestTimedOut, "Http-client timeout");
+                logger.info(getRemoteMethod(client), "Caught TimeoutException executing request");
+            } catch (RpcCallException ex) {
+                lastStatusCode = ex.getCategory().getHttpStatus();
+                lastException = ex;
+            } catch (Exception ex) {
+                if (httpRequest != null) {
+                    httpRequest.abort(ex);
+                }
+                lastStatusCode = RpcCallException.Category.InternalServerError.getHttpStatus();
+                logger.debug(getRemoteMethod(client), "Caught exception executing request", ex);
+            }
+
+            if (span != null) {
+                Tags.HTTP_STATUS.set(span, lastStatusCode);
+                Tags.ERROR.set(span, true);
+                span.finish();
+            }
+            methodTimer.recordFailure(startTime);
+            request.getServiceEndpoint().recordLatency(System.nanoTime() - startTime);
+            //4xx errors should not change circuit-breaker state
+            request.getServiceEndpoint().requestComplete(lastStatusCode < 500);
+            if (lastException != null && ! lastException.isRetriable()) {
+                throw lastException;
+            }
+            if (tryCount < client.getRetries()) {
+                if (! hasTimeForRetry(deadline, tryCount)) {
+                    //no budget left for the back-off and another try
+                    break;
+                }
+                if (client.hasRetryBackOffFunction()) {
+                    client.getRetryBackOffFunction().execute(tryCount);
+                }
+                request = createHttpPost(request, triedEndpoints);
+            }
+            tryCount++;
+        } while (request != null && tryCount <= client.getRetries());
+
+        if (lastException == null) {
+            throw new RpcCallException(RpcCallException.Category.fromStatus(lastStatusCode),
+                    "Null response in executeStreaming").withSource(serviceProps.getServiceName());
+        } else {
+            throw lastException;
+        }
+    }
+
+    /**
+     * Send a request without blocking the calling thread.  Failed tries are retried like
+     * in execute(), but the back-off between tries is waited for on the http client's
+     * scheduler instead of a sleeping thread.  Calls of clients with a HedgingPolicy are
+     * hedged.  The future completes on an http client thread, either with the response
+     * or with an RpcCallException.
+     */
+    public CompletableFuture<ContentResponse> executeAsync(HttpRequestWrapper request,
+                                                           RpcCallExceptionDecoder decoder,
+                                                           OrangeContext orangeContext) {
+        CompletableFuture<ContentResponse> future = new CompletableFuture<>();
+        long deadline = orangeContext == null ? 0 : orangeContext.getDeadline();
+        if (deadline != 0 && deadline <= System.currentTimeMillis()) {
+            future.completeExceptionally(new RpcCallException(RpcCallException.Category.RequestTimedOut,
+                    "Deadline exceeded before calling " + loadBalancer.getServiceName()).
+                    withSource(serviceProps.getServiceName()));
+            return future;
+        }
+        new AsyncCall(client, decoder, orangeContext, deadline, future).send(request);
+        return future;
+    }
+
+    /**
+     * The state of one asynchronous call across its tries.  Without hedging, tries never
+     * overlap.  With hedging, duplicate tries to other endpoints run concurrently, the
+     * first successful one wins and the others are aborted.  The state is guarded by
+     * the call itself; the future is completed outside the lock.
+     */
+    private class AsyncCall {
+
+        private final RpcClient rpcClient;
+        private final RpcCallExceptionDecoder decoder;
+        private final OrangeContext orangeContext;
+        private final long deadline;
+        private final CompletableFuture<ContentResponse> future;
+        private final HedgingPolicy hedging;
+        private final List<ServiceEndpoint> triedEndpoints = new ArrayList<>();
+        private final List<Try> inFlight = new ArrayList<>();
+        private HttpRequestWrapper lastRequest;
+        private RpcCallException lastException;
+        private int lastStatusCode;
+        private int tryCount;
+        private int hedgeCount;
+        private boolean hedgeScheduled;
+        private boolean completed;
+
+        AsyncCall(RpcClient rpcClient, RpcCallExceptionDecoder decoder, OrangeContext orangeContext,
+                  long deadline, CompletableFuture<ContentResponse> future) {
+            this.rpcClient = rpcClient;
+            this.decoder = decoder;
+            this.orangeContext = orangeContext;
+            this.deadline = deadline;
+            this.future = future;
+            this.hedging = rpcClient.getHedgingPolicy();
+            if (hedging != null) {
+                hedging.recordCall();
+            }
+        }
+
+        void send(HttpRequestWrapper request) {
+            send(request, false);
+        }
+
+        private synchronized void send(HttpRequestWrapper request, boolean hedge) {
+            lastRequest = request;
+            triedEndpoints.add(request.getServiceEndpoint());
+            long tryTimeout = getTryTimeout(rpcClient, deadline);
+            setTryDeadline(request, tryTimeout, deadline);
+            Try attempt = new Try(request, hedge, getMethodTimer(rpcClient));
+            inFlight.add(attempt);
+            try {
+                logger.debug(getRemoteMethod(rpcClient), "Sending {} http request to {}",
+                        hedge ? "hedged" : "async", request.getServiceEndpoint());
+                attempt.span = startSpan(rpcClient, request, orangeContext);
+                attempt.httpRequest = request.newRequest(getHttpClient()).timeout(tryTimeout,
+                        TimeUnit.MILLISECONDS);
+                attempt.httpRequest.send(new BufferingResponseListener() {
+                    @Override
+                    public void onComplete(Result result) {
+                        if (result.isFailed()) {
+                            tryCompleted(attempt, null, result.getFailure());
+                        } else {
+                            tryCompleted(attempt, new HttpContentResponse(result.getResponse(),
+                                    getContent(), getMediaType(), getEncoding()), null);
+                        }
+                    }
+                });
+            } catch (Exception ex) {
+                tryCompleted(attempt, null, ex);
+            }
+            scheduleHedge();
+        }
+
+        private void tryCompleted(Try attempt, ContentResponse response, Throwable failure) {
+            int statusCode;
+            RpcCallException exception = null;
+            boolean successful = false;
+            if (failure instanceof TimeoutException) {
+                statusCode = RpcCallException.Category.RequestTimedOut.getHttpStatus();
+                exception = new RpcCallException(RpcCallException.Category.RequestTimedOut, "Http-client timeout");
+            } else if (failure != null) {
+                statusCode = RpcCallException.Category.InternalServerError.getHttpStatus();
+            } else {
+                statusCode = response.getStatus();
+            }
+            try {
+                successful = failure == null && responseWasSuccessful(decoder, response, statusCode);
+                if (! successful && statusCode != RpcCallException.Category.RequestTimedOut.getHttpStatus()) {
+                    exception = decoder.decodeException(response);
+                }
+            } catch (RpcCallException ex) {
+                exception = ex;
+            }
+
+            boolean lost;
+            List<Try> losers = Collections.emptyList();
+            Runnable next = null;
+            synchronized (this) {
+                inFlight.remove(attempt);
+                lost = completed;
+                if (completed) {
+                    //another try already decided the call
+                } else if (successful) {
+                    completed = true;
+                    losers = new ArrayList<>(inFlight);
+                    next = () -> future.complete(response);
+                } else {
+                    lastStatusCode = statusCode;
+                    lastException = exception;
+                    if (lastException != null && ! lastException.isRetriable()) {
+                        completed = true;
+                        losers = new ArrayList<>(inFlight);
+                        RpcCallException nonRetriable = lastException;
+                        next = () -> future.completeExceptionally(nonRetriable);
+                    } else if (! inFlight.isEmpty()) {
+                        //wait for the hedged tries
+                    } else if (tryCount < rpcClient.getRetries()) {
+                        next = scheduleRetry(attempt.request);
+                    } else {
+                        next = failure();
+                    }
+                }
+            }
+
+            finishTry(attempt, statusCode, successful, failure, lost);
+            if (successful && ! lost) {
+                if (hedging != null) {
+                    hedging.recordLatency(System.nanoTime() - attempt.startTime);
+                }
+                if (attempt.hedge && rpcClientMetrics != null) {
+                    rpcClientMetrics.recordHedge(rpcClient.getServiceName(), rpcClient.getMethodName(), "won");
+                }
+            }
+            for (Try loser : losers) {
+                if (loser.httpRequest != null) {
+                    loser.httpRequest.abort(new CancellationException("Another try completed the call"));
+                }
+            }
+            if (next != null) {
+                next.run();
+            }
+        }
+
+        private void finishTry(Try attempt, int statusCode, boolean successful, Throwable failure,
+                               boolean lost) {
+            if (lost && ! successful) {
+                //most likely aborted because another try won, no fault of the endpoint
+                if (attempt.span != null) {
+                    attempt.span.setTag("cancelled", true);
+                    attempt.span.finish();
+                }
+                attempt.request.getServiceEndpoint().requestCancelled();
+                return;
+            }
+            if (statusCode == RpcCallException.Category.RequestTimedOut.getHttpStatus() &&
+                    failure != null) {
+                logger.info(getRemoteMethod(rpcClient), "Caught TimeoutException executing request");
+            } else if (failure != null) {
+                logger.debug(getRemoteMethod(rpcClient), "Caught exception executing request", failure);
+            }
+            if (attempt.span != null) {
+                Tags.HTTP_STATUS.set(attempt.span, statusCode);
+                if (! successful) {
+                    Tags.ERROR.set(attempt.span, true);
+                }
+                attempt.span.finish();
+            }
+            attempt.request.getServiceEndpoint().recordLatency(System.nanoTime() - attempt.startTime);
+            if (successful) {
+                attempt.methodTimer.recordSuccess(attempt.startTime);
+                attempt.request.getServiceEndpoint().requestComplete(true);
+            } else {
+                attempt.methodTimer.recordFailure(attempt.startTime);
+                //4xx errors should not change circuit-breaker state
+                attempt.request.getServiceEndpoint().requestComplete(statusCode < 500);
+            }
+        }
+
+        //called with the lock held
+        private Runnable scheduleRetry(HttpRequestWrapper request) {
+            long backOff;
+            try {
+                backOff = getBackOffMillis();
+            } catch (RuntimeException ex) {
+                completed = true;
+                return () -> future.completeExceptionally(ex);
+            }
+            if (deadline != 0 && System.currentTimeMillis() + backOff >= deadline) {
+                //no budget left for the back-off and another try
+                return failure();
+            }
+            tryCount++;
+            if (backOff > 0) {
+                return () -> getHttpClient().getScheduler().schedule(() -> retry(request), backOff,
+                        TimeUnit.MILLISECONDS);
+            }
+            return () -> retry(request);
+        }
+
+        private long getBackOffMillis() {
+            if (! rpcClient.hasRetryBackOffFunction()) {
+                return 0;
+            }
+            Duration backOff = rpcClient.getRetryBackOffFunction().timeout(tryCount);
+            if (backOff == null || backOff.isNegative()) {
+                throw new IllegalArgumentException("Retry timeout cant be null or negative.");
+            }
+            return backOff.toMillis();
+        }
+
+        private void retry(HttpRequestWrapper previous) {
+            Runnable next;
+            synchronized (this) {
+                if (completed) {
+                    return;
+                }
+                if (deadline != 0 && deadline <= System.currentTimeMillis()) {
+                    //no budget left for another try
+                    next = failure();
+                } else {
+                    try {
+                        send(createHttpPost(previous, triedEndpoints), false);
+                        return;
+                    } catch (RpcCallException ex) {
+                        completed = true;
+                        next = () -> future.completeExceptionally(ex);
+                    }
+                }
+            }
+            next.run();
+        }
+
+        //called with the lock held
+        private Runnable failure() {
+            completed = true;
+            RpcCallException exception = lastException;
+            if (exception == null) {
+                exception = new RpcCallException(RpcCallException.Category.fromStatus(lastStatusCode),
+                        "Null response in executeAsync").withSource(serviceProps.getServiceName());
+            }
+            RpcCallException result = exception;
+            return () -> future.completeExceptionally(result);
+        }
+
+        //called with the lock held
+        private void scheduleHedge() {
+            if (hedging == null || completed || hedgeScheduled || hedgeCount >= hedging.getMaxHedges()) {
+                return;
+            }
+            long delay = hedging.getDelayNanos();
+            if (delay < 0) {
+                return;
+            }
+            hedgeScheduled = true;
+            getHttpClient().getScheduler().schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+        }
+
+        private synchronized void hedge() {
+            hedgeScheduled = false;
+            if (completed || inFlight.isEmpty() || hedgeCount >= hedging.getMaxHedges()) {
+                return;
+            }
+            ServiceEndpoint endpoint = getUntriedEndpoint();
+            if (endpoint == null) {
+                return;
+            }
+            if (! hedging.tryAcquireHedge()) {
+                endpoint.requestCancelled();
+                return;
+            }
+            hedgeCount++;
+            if (rpcClientMetrics != null) {
+                rpcClientMetrics.recordHedge(rpcClient.getServiceName(), rpcClient.getMethodName(), "sent");
+            }
+            send(copyHttpPost(lastRequest, endpoint), true);
+        }
+
+        private ServiceEndpoint getUntriedEndpoint() {
+            //unless FeatureFlags.shouldDisableRpcInstanceRetry, the load balancer may return tried endpoints
+            for (int i = 0; i <= triedEndpoints.size(); i++) {
+                ServiceEndpoint endpoint = loadBalancer.getHealthyInstanceExclude(triedEndpoints);
+                if (endpoint == null) {
+                    return null;
+                }
+                if (! triedEndpoints.contains(endpoint)) {
+                    return endpoint;
+                }
+                endpoint.requestCancelled();
+            }
+            return null;
+        }
+    }
+
+    private static class Try {
+
+        private final HttpRequestWrapper request;
+        private final boolean hedge;
+        private final GoTimer methodTimer;
+        private final long startTime;
+        private Span span;
+        private Request httpRequest;
+
+        Try(HttpRequestWrapper request, boolean hedge, GoTimer methodTimer) {
+            this.request = request;
+            this.hedge = hedge;
+            this.methodTimer = methodTimer;
+            this.startTime = methodTimer.start();
+        }
+    }
+
+    private Span startSpan(RpcClient client, HttpRequestWrapper request, OrangeContext orangeContext) {
+        if (tracer == null) {
+            return null;
+        }
+        SpanContext spanContext = null;
+        if (orangeContext != null) {
+            spanContext = orangeContext.getTracingContext();
+        }
+        Span span;
+        if (spanContext != null) {
+            span = tracer.buildSpan(client.getMethodName()).asChildOf(spanContext).start();
+        } else {
+            span = tracer.buildSpan(client.getMethodName()).start();
+        }
+        Tags.SPAN_KIND.set(span, Tags.SPAN_KIND_CLIENT);
+        Tags.PEER_SERVICE.set(span, loadBalancer.getServiceName());
+        if (orangeContext != null) {
+            span.setTag("correlation_id", orangeContext.getCorrelationId());
+        }
+        tracer.inject(span.context(), Format.Builtin.HTTP_HEADERS, new TextMapInjectAdapter(request.getHeaders()));
+        return span;
+    }
+
+    /**
+     * Propagate the deadline of a try: the end of its timeout, capped by the deadline of
+     * the call chain
+     */
+    private void setTryDeadline(HttpRequestWrapper request, long tryTimeout, long deadline) {
+        if (tryTimeout > 0) {
+            long tryDeadline = System.currentTimeMillis() + tryTimeout;
+            if (deadline != 0) {
+                tryDeadline = Math.min(tryDeadline, deadline);
+            }
+            request.setHeader(OrangeContext.DEADLINE, Long.toString(tryDeadline));
+        }
+    }
+
+    /**
+     * The timeout of a single try: the client's timeout, capped by the time left until
+     * the deadline of the call chain.  0 means no timeout.
+     */
+    private long getTryTimeout(RpcClient client, long deadline) {
+        long timeout = client.getTimeout();
+        if (deadline != 0) {
+            long remaining = Math.max(1, deadline - System.currentTimeMillis());
+            timeout = timeout > 0 ? Math.min(timeout, remaining) : remaining;
+        }
+        return timeout;
+    }
+
     private boolean responseWasSuccessful(RpcCallExceptionDecoder decoder,
                                           ContentResponse response, int lastStatusCode) throws RpcCallException {
         if (shouldExposeErrorsToHttp(serviceProps)) {
@@ -193,16 +789,15 @@ public class HttpClientWrapper {
         return (exception == null);
     }
 
-    private GoTimer getMethodTimer() {
+    private GoTimer getMethodTimer(RpcClient client) {
         if (rpcClientMetrics == null) {
-            return new GoTimer("");
+            return UNREPORTED_TIMER;
         } else {
-            return rpcClientMetrics.getMethodTimer(client.getServiceName(),
-                    client.getMethodName());
+            return client.getMethodTimer(rpcClientMetrics);
         }
     }
 
-    private Marker getRemoteMethod() {
+    private Marker getRemoteMethod(RpcClient client) {
         return append("method", client.getServiceMethodName());
     }
 
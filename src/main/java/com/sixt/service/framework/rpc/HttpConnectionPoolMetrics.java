@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.metrics.GoGauge;
+import com.sixt.service.framework.metrics.MetricBuilderFactory;
+import org.eclipse.jetty.client.AbstractConnectionPool;
+import org.eclipse.jetty.client.ConnectionPool;
+import org.eclipse.jetty.client.DuplexConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.api.Destination;
+import org.eclipse.jetty.io.Connection;
+
+/**
+ * Metrics of the connection pools of an http client, summed over its endpoints:
+ * active, idle and pending (waiting for a connection) gauges, and counters of
+ * created and closed connections.
+ */
+public class HttpConnectionPoolMetrics implements Connection.Listener {
+
+    private final HttpClient httpClient;
+    private final GoCounter createdConnections;
+    private final GoCounter closedConnections;
+
+    HttpConnectionPoolMetrics(HttpClient httpClient, String clientName,
+                              MetricBuilderFactory metricBuilderFactory) {
+        this.httpClient = httpClient;
+        createdConnections = metricBuilderFactory.newMetric("client_connection_pool").
+                withTag("http_client", clientName).withTag("connections", "created").buildCounter();
+        closedConnections = metricBuilderFactory.newMetric("client_connection_pool").
+                withTag("http_client", clientName).withTag("connections", "closed").buildCounter();
+        GoGauge gauge = metricBuilderFactory.newMetric("client_connection_pool").
+                withTag("http_client", clientName).buildGauge();
+        gauge.register("active", this::getActiveConnections);
+        gauge.register("idle", this::getIdleConnections);
+        gauge.register("pending", this::getPendingRequests);
+    }
+
+    /**
+     * Instrument the client, unless it already is
+     */
+    public static synchronized void instrument(HttpClient httpClient, String clientName,
+                                               MetricBuilderFactory metricBuilderFactory) {
+        if (httpClient.getBeans(HttpConnectionPoolMetrics.class).isEmpty()) {
+            //the client adds its connection listener beans to every new connection
+            httpClient.addBean(new HttpConnectionPoolMetrics(httpClient, clientName,
+                    metricBuilderFactory));
+        }
+    }
+
+    @Override
+    public void onOpened(Connection connection) {
+        createdConnections.incSuccess();
+    }
+
+    @Override
+    public void onClosed(Connection connection) {
+        closedConnections.incSuccess();
+    }
+
+    long getActiveConnections() {
+        long retval = 0;
+        for (Destination destination : httpClient.getDestinations()) {
+            ConnectionPool pool = getConnectionPool(destination);
+            if (pool instanceof DuplexConnectionPool) {
+                retval += ((DuplexConnectionPool) pool).getActiveConnectionCount();
+            } else if (pool instanceof AbstractConnectionPool) {
+                retval += ((AbstractConnectionPool) pool).getConnectionCount();
+            }
+        }
+        return retval;
+    }
+
+    long getIdleConnections() {
+        long retval = 0;
+        for (Destination destination : httpClient.getDestinations()) {
+            ConnectionPool pool = getConnectionPool(destination);
+            if (pool instanceof DuplexConnectionPool) {
+                retval += ((DuplexConnectionPool) pool).getIdleConnectionCount();
+            }
+        }
+        return retval;
+    }
+
+    long getPendingRequests() {
+        long retval = 0;
+        for (Destination destination : httpClient.getDestinations()) {
+            if (destination instanceof HttpDestination) {
+                retval += ((HttpDestination) destination).getQueuedRequestCount();
+            }
+        }
+        return retval;
+    }
+
+    private ConnectionPool getConnectionPool(Destination destination) {
+        if (destination instanceof HttpDestination) {
+            return ((HttpDestination) destination).getConnectionPool();
+        }
+        return null;
+    }
+
+}
@@ -42,15 +42,31 @@ public class LoadBalancerImpl implements LoadBalancer {
     protected ReentrantReadWriteLock mutex = new ReentrantReadWriteLock();
     protected Semaphore notificationSemaphore = new Semaphore(0);
     protected AtomicBoolean haveEndpoints = new AtomicBoolean(false);
+    protected LoadBalancingStrategy strategy;
 
     @Inject
     public LoadBalancerImpl(ServiceProperties serviceProps,
                             HttpClientWrapper wrapper) {
         this.serviceProps = serviceProps;
         this.httpClientWrapper = wrapper;
+        this.strategy = createStrategy(FeatureFlags.getLoadBalancingStrategy(serviceProps));
         httpClientWrapper.setLoadBalancer(this);
     }
 
+    protected LoadBalancingStrategy createStrategy(String name) {
+        if (RoundRobinStrategy.NAME.equals(name)) {
+            return new RoundRobinStrategy();
+        } else if (PowerOfTwoChoicesStrategy.NAME.equals(name)) {
+            return new PowerOfTwoChoicesStrategy();
+        } else if (PeakEwmaStrategy.NAME.equals(name)) {
+            return new PeakEwmaStrategy();
+        } else {
+            logger.warn("Unknown load balancing strategy '{}', using {}", name,
+                    PowerOfTwoChoicesStrategy.NAME);
+            return new PowerOfTwoChoicesStrategy();
+        }
+    }
+
     @Override
     public HttpClientWrapper getHttpClientWrapper() {
         return httpClientWrapper;
@@ -75,6 +91,7 @@ public class LoadBalancerImpl implements LoadBalancer {
                 logger.debug(logMarker,
                         "Endpoint for {} became unavailable: {}", this.serviceName, ep.getHostAndPort());
                 updateEndpointHealth(ep, CircuitBreakerState.State.UNHEALTHY);
+                httpClientWrapper.closeIdleConnections(ep);
             }
             for (ServiceEndpoint ep : updates.getUpdatedServices()) {
                 logger.debug(logMarker,
@@ -101,7 +118,7 @@ public class LoadBalancerImpl implements LoadBalancer {
             }
         }
         if (! found) {
-            AvailabilityZone az = new AvailabilityZone();
+            AvailabilityZone az = new AvailabilityZone(strategy);
             az.addServiceEndpoint(endpoint);
             availabilityZones.add(az);
         }
@@ -154,24 +171,20 @@ public class LoadBalancerImpl implements LoadBalancer {
     //modifies state
     @Override
     public ServiceEndpoint getHealthyInstanceExclude(List<ServiceEndpoint> triedEndpoints) {
+        if (! FeatureFlags.shouldDisableRpcInstanceRetry(serviceProps)) {
+            return getHealthyInstance();
+        }
         mutex.readLock().lock();
         try {
-            Set<ServiceEndpoint> set = new HashSet<>(triedEndpoints);
-            Set<ServiceEndpoint> seenInstances = new HashSet<>();
-            while (true) {
-                ServiceEndpoint retval = getHealthyInstance();
-                if (FeatureFlags.shouldDisableRpcInstanceRetry(serviceProps)) {
-                    if (seenInstances.contains(retval)) {
-                        //we've made a complete loop
-                        return null;
-                    }
-                    if (set.contains(retval)) {
-                        seenInstances.add(retval);
-                        continue;
-                    }
+            Set<ServiceEndpoint> excluded = new HashSet<>(triedEndpoints);
+            for (AvailabilityZone az : availabilityZones) {
+                ServiceEndpoint next = az.nextEndpoint(excluded);
+                if (next != null) {
+                    logger.debug("Returning instance {} for {}", next.getHostAndPort(), serviceName);
+                    return next;
                 }
-                return retval;
             }
+            return null;
         } finally {
             mutex.readLock().unlock();
         }
@@ -208,7 +221,11 @@ public class LoadBalancerImpl implements LoadBalancer {
 class AvailabilityZone {
 
     private String name = "";
-    private ServiceEndpointList serviceEndpoints = new ServiceEndpointList();
+    private ServiceEndpointList serviceEndpoints;
+
+    public AvailabilityZone(LoadBalancingStrategy strategy) {
+        serviceEndpoints = new ServiceEndpointList(strategy);
+    }
 
     public String getName() {
         return name;
@@ -226,6 +243,11 @@ class AvailabilityZone {
         return serviceEndpoints.nextAvailable();
     }
 
+    //modifies state
+    public ServiceEndpoint nextEndpoint(Set<ServiceEndpoint> excluded) {
+        return serviceEndpoints.nextAvailable(excluded);
+    }
+
     public void updateEndpointHealth(ServiceEndpoint ep, CircuitBreakerState.State state) {
         serviceEndpoints.updateEndpointHealth(ep, state);
     }
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import java.util.List;
+
+/**
+ * Chooses the endpoint of an availability zone that gets the next request.
+ * LoadBalancerImpl uses the strategy named by FeatureFlags.getLoadBalancingStrategy.
+ */
+public interface LoadBalancingStrategy {
+
+    /**
+     * Called with the endpoint list locked, so implementations see a consistent view
+     * of the endpoints' serving requests.
+     *
+     * @param candidates the endpoints that can serve a request, in round-robin order,
+     *                   never empty
+     * @return one of the candidates
+     */
+    ServiceEndpoint choose(List<ServiceEndpoint> candidates);
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import com.google.common.io.ByteStreams;
+import com.sixt.service.framework.protobuf.RpcCompression;
+import org.eclipse.jetty.client.ContentDecoder;
+import org.eclipse.jetty.util.BufferUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes http responses with the lz4 content coding for the jetty http client.
+ * Jetty hands over the content in arbitrary pieces, so they are buffered until a
+ * complete block of the lz4 block stream is available, which is then decoded by
+ * lz4-java itself.
+ */
+public class Lz4ContentDecoder implements ContentDecoder {
+
+    //magic, token, compressed length, decompressed length, checksum
+    private final static int HEADER_LENGTH = 8 + 1 + 4 + 4 + 4;
+    private final static int COMPRESSED_LENGTH_OFFSET = 9;
+    private final static int DECOMPRESSED_LENGTH_OFFSET = 13;
+    private final static int MAX_BLOCK_LENGTH = 32 * 1024 * 1024;
+
+    private ByteBuffer pending = ByteBuffer.allocate(16 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public ByteBuffer decode(ByteBuffer buffer) {
+        append(buffer);
+        pending.flip();
+        ByteBuffer decoded = BufferUtil.EMPTY_BUFFER;
+        try {
+            while (pending.remaining() >= HEADER_LENGTH) {
+                int start = pending.position();
+                int compressedLength = pending.getInt(start + COMPRESSED_LENGTH_OFFSET);
+                int decompressedLength = pending.getInt(start + DECOMPRESSED_LENGTH_OFFSET);
+                if (compressedLength < 0 || compressedLength > MAX_BLOCK_LENGTH ||
+                        decompressedLength < 0 || decompressedLength > MAX_BLOCK_LENGTH) {
+                    throw new IllegalStateException("Invalid lz4 block header");
+                }
+                int blockLength = HEADER_LENGTH + compressedLength;
+                if (pending.remaining() < blockLength) {
+                    break;
+                }
+                if (decompressedLength > 0) {
+                    decoded = concat(decoded, decodeBlock(start, blockLength, decompressedLength));
+                }
+                pending.position(start + blockLength);
+            }
+        } finally {
+            pending.compact();
+        }
+        return decoded;
+    }
+
+    private ByteBuffer decodeBlock(int offset, int length, int decompressedLength) {
+        byte[] block = new byte[decompressedLength];
+        try {
+            InputStream in = RpcCompression.LZ4.decompress(
+                    new ByteArrayInputStream(pending.array(), offset, length));
+            ByteStreams.readFully(in, block);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return ByteBuffer.wrap(block);
+    }
+
+    private void append(ByteBuffer buffer) {
+        if (pending.remaining() < buffer.remaining()) {
+            int capacity = Math.max(pending.capacity() * 2, pending.position() + buffer.remaining());
+            ByteBuffer grown = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        pending.put(buffer);
+    }
+
+    private static ByteBuffer concat(ByteBuffer first, ByteBuffer second) {
+        if (! first.hasRemaining()) {
+            return second;
+        }
+        ByteBuffer retval = ByteBuffer.allocate(first.remaining() + second.remaining());
+        retval.put(first).put(second).flip();
+        return retval;
+    }
+
+    public static class Factory extends ContentDecoder.Factory {
+
+        public Factory() {
+            super(RpcCompression.LZ4.getEncoding());
+        }
+
+        @Override
+        public ContentDecoder newContentDecoder() {
+            return new Lz4ContentDecoder();
+        }
+    }
+
+}
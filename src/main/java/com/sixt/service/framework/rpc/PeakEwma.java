@@ -0,0 +1,62 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Peak-sensitive exponentially weighted moving average of an endpoint's response
+ * latency.  A latency above the average replaces it at once, lower latencies pull it
+ * down gradually.  Without new responses the average decays towards zero, so an
+ * endpoint that was avoided because it was slow gets tried again.
+ */
+public class PeakEwma {
+
+    public final static long DEFAULT_DECAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final double decayNanos;
+    private double cost;
+    private long stamp = System.nanoTime();
+
+    public PeakEwma() {
+        this(DEFAULT_DECAY_NANOS);
+    }
+
+    public PeakEwma(long decayNanos) {
+        this.decayNanos = decayNanos;
+    }
+
+    public synchronized void observe(long latencyNanos) {
+        update(System.nanoTime(), latencyNanos);
+    }
+
+    /**
+     * @return the decayed average latency in nanoseconds, 0 if there is none yet
+     */
+    public synchronized double get() {
+        update(System.nanoTime(), 0);
+        return cost;
+    }
+
+    synchronized void update(long now, double latencyNanos) {
+        long elapsed = Math.max(now - stamp, 0);
+        stamp = now;
+        if (latencyNanos > cost) {
+            cost = latencyNanos;
+        } else {
+            double weight = Math.exp(-elapsed / decayNanos);
+            cost = cost * weight + latencyNanos * (1 - weight);
+        }
+    }
+
+}
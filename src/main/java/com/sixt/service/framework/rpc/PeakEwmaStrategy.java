@@ -0,0 +1,38 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+/**
+ * Like PowerOfTwoChoicesStrategy, but weighs the requests in flight with the endpoint's
+ * peak-EWMA response latency: the load is latency * (requests in flight + 1).  This
+ * steers requests away from endpoints that are slow, but not failing often enough to
+ * trip their circuit breaker.
+ */
+public class PeakEwmaStrategy extends PowerOfTwoChoicesStrategy {
+
+    public final static String NAME = "peakEwma";
+
+    //the load of an endpoint that is busy with its first requests, which has no latency yet
+    private final static double UNMEASURED_PENALTY = 1e15;
+
+    @Override
+    protected double load(ServiceEndpoint endpoint) {
+        double latency = endpoint.getLatencyEstimate();
+        int servingRequests = endpoint.getServingRequests();
+        if (latency == 0 && servingRequests > 0) {
+            return UNMEASURED_PENALTY + servingRequests;
+        }
+        return latency * (servingRequests + 1);
+    }
+
+}
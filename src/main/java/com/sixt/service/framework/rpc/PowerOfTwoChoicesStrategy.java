@@ -0,0 +1,46 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Samples two random endpoints and sends the request to the one with fewer requests
+ * in flight.  This steers load away from slow or paused instances without the herding
+ * of always picking the least busy endpoint.
+ */
+public class PowerOfTwoChoicesStrategy implements LoadBalancingStrategy {
+
+    public final static String NAME = "powerOfTwoChoices";
+
+    @Override
+    public ServiceEndpoint choose(List<ServiceEndpoint> candidates) {
+        int size = candidates.size();
+        if (size == 1) {
+            return candidates.get(0);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(size);
+        //a second index that differs from the first
+        int second = (first + 1 + random.nextInt(size - 1)) % size;
+        ServiceEndpoint a = candidates.get(first);
+        ServiceEndpoint b = candidates.get(second);
+        return load(b) < load(a) ? b : a;
+    }
+
+    protected double load(ServiceEndpoint endpoint) {
+        return endpoint.getServingRequests();
+    }
+
+}
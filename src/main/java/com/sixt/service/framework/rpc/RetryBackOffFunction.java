@@ -7,47 +7,43 @@ import java.util.concurrent.atomic.AtomicLong;
 
 public interface RetryBackOffFunction {
 
+    /**
+     * @deprecated no longer used, execute() sleeps instead of waiting on it
+     */
+    @Deprecated
     AtomicBoolean shouldContinueWaitingFlag = new AtomicBoolean(false);
+
+    /**
+     * @deprecated no longer used, execute() sleeps instead of waiting on it
+     */
+    @Deprecated
     AtomicLong pauseStartedAt = new AtomicLong(new Date().getTime());
 
     Duration timeout(int retryCounter);
 
+    /**
+     * Wait for the back-off before the given retry on the calling thread, for as long as
+     * timeout(retryCounter) returns.  Before, the wait always used the exponential
+     * default and hardly ever lasted.
+     */
     default void execute(int retryCounter) {
-
-        Duration timeout = null;
-        try {
-            getClass().getMethod("timeout", (Class<?>[]) null);
-            timeout = timeout(retryCounter);
-        } catch (NoSuchMethodException e) {
-            timeout = new ExponentialRetryBackOff().timeout(retryCounter);
-        }
-
-        if (timeout != null && !timeout.isNegative()) {
-            shouldContinueWaitingFlag.set(true);
-            while (!Thread.currentThread().isInterrupted() && shouldContinueWaitingFlag.get()) {
-                synchronized (shouldContinueWaitingFlag) {
-                    // we are in a while loop here to protect against spurious interrupts
-                    while (shouldContinueWaitingFlag.get()) {
-                        try {
-                            Long timeSpent = new Date().getTime() - pauseStartedAt.get();
-                            shouldContinueWaitingFlag.set(timeSpent <= timeout.toMillis());
-                            shouldContinueWaitingFlag.wait(1);
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            // we should probably quit if we are interrupted?
-                            return;
-                        }
-                    }
-                }
-            }
-        } else {
+        Duration timeout = timeout(retryCounter);
+        if (timeout == null || timeout.isNegative()) {
             throw new IllegalArgumentException("Retry timeout cant be null or negative.");
         }
+        try {
+            Thread.sleep(timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     class ExponentialRetryBackOff
         implements RetryBackOffFunction {
 
+        //the longest back-off, however many retries
+        static final Duration MAX_BACK_OFF = Duration.ofSeconds(1);
+
         private final Duration exponentialStep;
 
         ExponentialRetryBackOff(final Duration exponentialStep) {
@@ -63,8 +59,9 @@ public interface RetryBackOffFunction {
             if (retryCounter == 0) {
                 return Duration.ofMillis(0);
             } else {
-                return Duration.ofMillis((long) Math.pow(
-                    exponentialStep == null ? 10d : exponentialStep.toMillis(), retryCounter));
+                double millis = Math.pow(
+                    exponentialStep == null ? 10d : exponentialStep.toMillis(), retryCounter);
+                return Duration.ofMillis((long) Math.min(millis, MAX_BACK_OFF.toMillis()));
             }
         }
     }
@@ -0,0 +1,29 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import java.util.List;
+
+/**
+ * Sends requests to the endpoints in turn, regardless of how busy they are.
+ */
+public class RoundRobinStrategy implements LoadBalancingStrategy {
+
+    public final static String NAME = "roundRobin";
+
+    @Override
+    public ServiceEndpoint choose(List<ServiceEndpoint> candidates) {
+        return candidates.get(0);
+    }
+
+}
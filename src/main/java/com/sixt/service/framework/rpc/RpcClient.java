@@ -18,6 +18,7 @@ import static com.sixt.service.framework.jetty.RpcServlet.TYPE_OCTET;
 import com.sixt.service.framework.OrangeContext;
 import com.sixt.service.framework.json.JsonRpcRequest;
 import com.sixt.service.framework.json.JsonRpcResponse;
+import com.sixt.service.framework.metrics.GoTimer;
 import com.sixt.service.framework.protobuf.ProtobufRpcRequest;
 import com.sixt.service.framework.protobuf.ProtobufRpcResponse;
 import com.sixt.service.framework.protobuf.ProtobufUtil;
@@ -27,15 +28,17 @@ import com.google.inject.Inject;
 import com.google.protobuf.Message;
 
 import org.eclipse.jetty.client.api.ContentResponse;
-import org.eclipse.jetty.client.util.BytesContentProvider;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 /**
  * Interface to call a method on a remote service
- * TODO: add asynchronous call support
- * To make multiple simultaneous calls to multiple services, utilize async calls and
+ * To make multiple simultaneous calls to multiple services, utilize callAsync and
  * https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/CompletableFuture.html (allOf)
  */
 public class RpcClient<RESPONSE extends Message> {
@@ -49,6 +52,8 @@ public class RpcClient<RESPONSE extends Message> {
     private int retries;
     private int timeout;
     private RetryBackOffFunction retryBackOffFunction;
+    private HedgingPolicy hedgingPolicy;
+    private volatile GoTimer methodTimer;
 
     @Inject
     public RpcClient(
@@ -85,12 +90,10 @@ public class RpcClient<RESPONSE extends Message> {
 
         //set custom headers
         if (orangeContext != null) {
-            orangeContext.getProperties().forEach(balancedPost::setHeader);
+            orangeContext.forEachProperty(balancedPost::setHeader);
         }
 
         balancedPost.setHeader("Content-type", TYPE_JSON);
-        //TODO: fix: Temporary workaround below until go services are more http compliant
-        balancedPost.setHeader("Connection", "close");
         JsonRpcRequest jsonRequest = new JsonRpcRequest(null, methodName, params);
         String json = jsonRequest.toString();
         balancedPost.setContentProvider(new StringContentProvider(json));
@@ -114,23 +117,60 @@ public class RpcClient<RESPONSE extends Message> {
 
     public RESPONSE callSynchronous(Message request, OrangeContext orangeContext) throws RpcCallException {
         HttpClientWrapper clientWrapper = loadBalancer.getHttpClientWrapper();
+        HttpRequestWrapper balancedPost = createProtobufPost(clientWrapper, request, orangeContext);
+        ContentResponse rpcResponse = clientWrapper.execute(balancedPost,
+                new ProtobufRpcCallExceptionDecoder(), orangeContext);
+        return parseProtobufResponse(rpcResponse);
+    }
+
+    /**
+     * Call the method without blocking the calling thread.  The future completes with the
+     * response, or exceptionally with an RpcCallException, on an http client thread, so
+     * blocking work that depends on it should run on an executor of its own
+     * (e.g. with thenApplyAsync).  Fan-out calls can be joined with CompletableFuture.allOf.
+     */
+    public CompletableFuture<RESPONSE> callAsync(Message request, OrangeContext orangeContext) {
+        CompletableFuture<RESPONSE> retval = new CompletableFuture<>();
+        try {
+            HttpClientWrapper clientWrapper = loadBalancer.getHttpClientWrapper();
+            HttpRequestWrapper balancedPost = createProtobufPost(clientWrapper, request, orangeContext);
+            clientWrapper.executeAsync(balancedPost, new ProtobufRpcCallExceptionDecoder(),
+                    orangeContext).whenComplete((rpcResponse, failure) -> {
+                if (failure != null) {
+                    retval.completeExceptionally(failure);
+                    return;
+                }
+                try {
+                    retval.complete(parseProtobufResponse(rpcResponse));
+                } catch (RpcCallException ex) {
+                    retval.completeExceptionally(ex);
+                }
+            });
+        } catch (RpcCallException ex) {
+            retval.completeExceptionally(ex);
+        }
+        return retval;
+    }
+
+    private HttpRequestWrapper createProtobufPost(HttpClientWrapper clientWrapper, Message request,
+                                                  OrangeContext orangeContext) throws RpcCallException {
         HttpRequestWrapper balancedPost = clientWrapper.createHttpPost(this);
 
         //set custom headers
         if (orangeContext != null) {
-            orangeContext.getProperties().forEach(balancedPost::setHeader);
+            orangeContext.forEachProperty(balancedPost::setHeader);
         }
 
         balancedPost.setHeader("Content-type", TYPE_OCTET);
-        //TODO: fix: Temporary workaround below until go services are more http compliant
-        balancedPost.setHeader("Connection", "close");
         ProtobufRpcRequest pbRequest = new ProtobufRpcRequest(methodName, request);
         byte[] protobufData = pbRequest.getProtobufData();
-        balancedPost.setContentProvider(new BytesContentProvider(protobufData));
+        clientWrapper.setProtobufContent(balancedPost, protobufData);
 
         logger.debug("Sending request of size {}", protobufData.length);
-        ContentResponse rpcResponse = clientWrapper.execute(balancedPost,
-                new ProtobufRpcCallExceptionDecoder(), orangeContext);
+        return balancedPost;
+    }
+
+    private RESPONSE parseProtobufResponse(ContentResponse rpcResponse) throws RpcCallException {
         byte[] data = rpcResponse.getContent();
         logger.debug("Received a proto response of size: {}", data.length);
 
@@ -138,6 +178,44 @@ public class RpcClient<RESPONSE extends Message> {
                 new ProtobufRpcResponse(data).getPayloadData(), responseClass);
     }
 
+    /**
+     * Call a streaming method, whose messages are read from the returned stream while
+     * they arrive.  The stream must be closed if it isn't read to the end.
+     */
+    public RpcResponseStream<RESPONSE> callStreaming(Message request, OrangeContext orangeContext)
+            throws RpcCallException {
+        HttpClientWrapper clientWrapper = loadBalancer.getHttpClientWrapper();
+        HttpRequestWrapper balancedPost = createProtobufPost(clientWrapper, request, orangeContext);
+        InputStream responseStream = clientWrapper.executeStreaming(balancedPost,
+                new ProtobufRpcCallExceptionDecoder(), orangeContext);
+        return new RpcResponseStream<>(responseStream, responseClass, getServiceMethodName());
+    }
+
+    /**
+     * Call a streaming method, passing each message to the consumer as it arrives.
+     * Returns when the stream ended.
+     */
+    public void callStreaming(Message request, OrangeContext orangeContext,
+                              Consumer<RESPONSE> consumer) throws RpcCallException {
+        try (RpcResponseStream<RESPONSE> responses = callStreaming(request, orangeContext)) {
+            while (responses.hasNext()) {
+                consumer.accept(responses.next());
+            }
+        }
+    }
+
+    /**
+     * The timer of this client's method, resolved once instead of on every call
+     */
+    GoTimer getMethodTimer(RpcClientMetrics rpcClientMetrics) {
+        GoTimer timer = methodTimer;
+        if (timer == null) {
+            timer = rpcClientMetrics.getMethodTimer(serviceName, methodName);
+            methodTimer = timer;
+        }
+        return timer;
+    }
+
     public LoadBalancer getLoadBalancer() {
         return loadBalancer;
     }
@@ -177,4 +255,16 @@ public class RpcClient<RESPONSE extends Message> {
     public RetryBackOffFunction getRetryBackOffFunction() {
         return retryBackOffFunction;
     }
+
+    public boolean hasHedgingPolicy() {
+        return hedgingPolicy != null;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
 }
@@ -20,6 +20,8 @@ import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+
 /**
  * Builds RpcClients to interact with remote services.
  */
@@ -36,6 +38,9 @@ public class RpcClientBuilder<RESPONSE extends Message> {
     private int retries;
     private RetryBackOffFunction retryBackOffFunction;
     private int timeout;
+    private Duration hedgeDelay;
+    private int maxHedges;
+    private double hedgeBudgetPercent = HedgingPolicy.DEFAULT_BUDGET_PERCENT;
     private Class<RESPONSE> responseClass;
 
     @Inject
@@ -79,6 +84,29 @@ public class RpcClientBuilder<RESPONSE extends Message> {
         return this;
     }
 
+    /**
+     * Hedge calls of latency-critical methods: if a response takes longer than the delay,
+     * send a duplicate request to another endpoint, and take the first successful response.
+     * Off by default.
+     *
+     * @param delay the time to wait before hedging, or null for the observed p95 latency
+     *              of the method
+     * @param maxHedges duplicate requests per call
+     */
+    public RpcClientBuilder<RESPONSE> withHedging(Duration delay, int maxHedges) {
+        this.hedgeDelay = delay;
+        this.maxHedges = maxHedges;
+        return this;
+    }
+
+    /**
+     * Modify the hedges per 100 calls from the default of 5
+     */
+    public RpcClientBuilder<RESPONSE> withHedgeBudget(double percent) {
+        this.hedgeBudgetPercent = percent;
+        return this;
+    }
+
     public RpcClient<RESPONSE> build() {
         if (StringUtils.isBlank(serviceName)) {
             throw new IllegalStateException("RpcClientBuilder: Service name was not set");
@@ -88,8 +116,12 @@ public class RpcClientBuilder<RESPONSE extends Message> {
         }
         LoadBalancerFactory lbFactory = injector.getInstance(LoadBalancerFactory.class);
         LoadBalancer loadBalancer = lbFactory.getLoadBalancer(serviceName);
-        return new RpcClient<>(loadBalancer, serviceName, methodName, retries, timeout,
-                               retryBackOffFunction, responseClass);
+        RpcClient<RESPONSE> client = new RpcClient<>(loadBalancer, serviceName, methodName,
+                retries, timeout, retryBackOffFunction, responseClass);
+        if (maxHedges > 0) {
+            client.setHedgingPolicy(new HedgingPolicy(hedgeDelay, maxHedges, hedgeBudgetPercent));
+        }
+        return client;
     }
 
     public void setResponseClass(Class<RESPONSE> responseClass) {
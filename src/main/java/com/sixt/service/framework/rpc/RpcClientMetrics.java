@@ -14,12 +14,17 @@ package com.sixt.service.framework.rpc;
 
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import com.sixt.service.framework.metrics.GoCounter;
 import com.sixt.service.framework.metrics.GoTimer;
 import com.sixt.service.framework.metrics.MetricBuilderFactory;
+import com.sixt.service.framework.metrics.MetricKey;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 @Singleton
 public class RpcClientMetrics {
 
@@ -28,25 +33,79 @@ public class RpcClientMetrics {
     public final static String UNKNOWN = "unknown";
 
     private final MetricBuilderFactory metricBuilderFactory;
+    //looked up on every call, keyed by the tag values
+    private final Map<MetricKey, GoTimer> timers = new ConcurrentHashMap<>();
+    private final Map<MetricKey, GoCounter> counters = new ConcurrentHashMap<>();
 
     @Inject
     public RpcClientMetrics(MetricBuilderFactory metricBuilderFactory) {
         this.metricBuilderFactory = metricBuilderFactory;
     }
 
+    /**
+     * RpcClients cache the timer of their method, see {@link RpcClient#getMethodTimer}
+     */
+    public GoTimer getMethodTimer(String destinationService,
+                                  String destinationMethod) {
+        MetricKey key = new MetricKey("method", orUnknown(destinationService),
+                orUnknown(destinationMethod));
+        GoTimer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("client_rpc").
+                    withTag("method", UNKNOWN).
+                    withTag("destination_service", orUnknown(destinationService)).
+                    withTag("destination_method", orUnknown(destinationMethod)).buildTimer());
+        }
+        return timer;
+    }
+
+    /**
+     * Register the connection pool metrics of the selector's http clients, once per client
+     */
+    public void instrumentConnectionPools(HttpClientSelector httpClientSelector) {
+        httpClientSelector.getHttpClients().forEach((name, client) ->
+                HttpConnectionPoolMetrics.instrument(client, name, metricBuilderFactory));
+    }
 
-    public synchronized GoTimer getMethodTimer(String destinationService,
-                                               String destinationMethod) {
-        if (StringUtils.isBlank(destinationService)) {
-            destinationService = UNKNOWN;
+    /**
+     * Count a hedged request of a method, by event: "sent" or "won"
+     */
+    public void recordHedge(String destinationService, String destinationMethod, String event) {
+        MetricKey key = new MetricKey("hedge", destinationService, destinationMethod, event);
+        GoCounter counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("client_rpc").
+                    withTag("destination_service", orUnknown(destinationService)).
+                    withTag("destination_method", orUnknown(destinationMethod)).
+                    withTag("hedges", event).buildCounter());
         }
-        if (StringUtils.isBlank(destinationMethod)) {
-            destinationMethod = UNKNOWN;
+        counter.incSuccess();
+    }
+
+    /**
+     * Count the bytes of a compressed request body, before and after compression
+     */
+    public void recordRequestCompression(String destinationService, String encoding,
+                                         long rawBytes, long compressedBytes) {
+        getCompressionCounter(destinationService, encoding, "raw").incSuccess(rawBytes);
+        getCompressionCounter(destinationService, encoding, "compressed").incSuccess(compressedBytes);
+    }
+
+    private GoCounter getCompressionCounter(String destinationService, String encoding,
+                                            String bytes) {
+        MetricKey key = new MetricKey("compression", destinationService, encoding, bytes);
+        GoCounter counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, k -> metricBuilderFactory.newMetric("client_rpc").
+                    withTag("destination_service", orUnknown(destinationService)).
+                    withTag("encoding", encoding).
+                    withTag("bytes", bytes).buildCounter());
         }
-        return metricBuilderFactory.newMetric("client_rpc").
-                withTag("method", UNKNOWN).
-                withTag("destination_service", destinationService).
-                withTag("destination_method", destinationMethod).buildTimer();
+        return counter;
+    }
+
+    private static String orUnknown(String tagValue) {
+        return StringUtils.isBlank(tagValue) ? UNKNOWN : tagValue;
     }
 
 }
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may 
+ * not use this file except in compliance with the License. You may obtain a 
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT 
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the 
+ * License for the specific language governing permissions and limitations 
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import com.google.protobuf.Message;
+import com.sixt.service.framework.protobuf.ProtobufUtil;
+import com.sixt.service.framework.protobuf.RpcEnvelope;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
+
+/**
+ * The messages of a streaming rpc call, read from the response while it arrives.  Only
+ * one message is held in memory at a time.  Close the stream when not reading it to the
+ * end, this aborts the response.
+ */
+public class RpcResponseStream<RESPONSE extends Message> implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RpcResponseStream.class);
+
+    private final DataInputStream in;
+    private final Class<RESPONSE> responseClass;
+    private final String serviceMethod;
+    private RESPONSE next;
+    private boolean finished;
+
+    public RpcResponseStream(InputStream in, Class<RESPONSE> responseClass, String serviceMethod) {
+        this.in = new DataInputStream(in);
+        this.responseClass = responseClass;
+        this.serviceMethod = serviceMethod;
+    }
+
+    /**
+     * Block until the next message arrived or the stream ended
+     * @throws RpcCallException if the service ended the stream with an error, or the
+     * stream was interrupted
+     */
+    public boolean hasNext() throws RpcCallException {
+        if (next == null && ! finished) {
+            next = readNext();
+        }
+        return next != null;
+    }
+
+    public RESPONSE next() throws RpcCallException {
+        if (! hasNext()) {
+            throw new NoSuchElementException("Response stream of " + serviceMethod + " ended");
+        }
+        RESPONSE retval = next;
+        next = null;
+        return retval;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        try {
+            in.close();
+        } catch (IOException ex) {
+            logger.debug("Error closing response stream of {}", serviceMethod, ex);
+        }
+    }
+
+    private RESPONSE readNext() throws RpcCallException {
+        try {
+            int first = in.read();
+            if (first < 0) {
+                close();
+                return null;
+            }
+            int headerLength = first << 24 | in.readUnsignedByte() << 16 |
+                    in.readUnsignedByte() << 8 | in.readUnsignedByte();
+            checkChunkSize("header", headerLength, ProtobufUtil.MAX_HEADER_CHUNK_SIZE);
+            byte[] header = new byte[headerLength];
+            in.readFully(header);
+            RpcEnvelope.Response envelope = RpcEnvelope.Response.parseFrom(header);
+            int bodyLength = in.readInt();
+            checkChunkSize("body", bodyLength, ProtobufUtil.MAX_BODY_CHUNK_SIZE);
+            byte[] body = new byte[bodyLength];
+            in.readFully(body);
+            if (StringUtils.isNotEmpty(envelope.getError())) {
+                close();
+                throw decodeError(envelope.getError());
+            }
+            return ProtobufUtil.byteArrayToProtobuf(body, responseClass);
+        } catch (IOException ex) {
+            close();
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Response stream of " + serviceMethod + " interrupted: " + ex);
+        } catch (RpcCallException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private void checkChunkSize(String chunk, int size, int maxSize) throws RpcCallException {
+        if (size < 0 || size > maxSize) {
+            throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                    "Invalid " + chunk + " chunk size in response stream of " +
+                            serviceMethod + ": " + size);
+        }
+    }
+
+    private RpcCallException decodeError(String error) {
+        RpcCallException retval = RpcCallException.fromJson(error);
+        if (retval == null) {
+            retval = new RpcCallException(RpcCallException.Category.InternalServerError, error);
+        }
+        return retval;
+    }
+
+}
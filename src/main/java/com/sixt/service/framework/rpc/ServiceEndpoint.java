@@ -20,7 +20,8 @@ public class ServiceEndpoint {
     protected String availZone;
     protected String hostAndPort;
     protected CircuitBreakerState circuitBreaker;
-    protected AtomicInteger servingRequests = new AtomicInteger(0); //intended only for probe logic
+    protected AtomicInteger servingRequests = new AtomicInteger(0); //probe logic and load balancing
+    protected PeakEwma latency = new PeakEwma();
 
     public ServiceEndpoint(ScheduledThreadPoolExecutor executor,
                            String hostAndPort, String availZone) {
@@ -56,6 +57,10 @@ public class ServiceEndpoint {
         return circuitBreaker.canServeRequests(servingRequests.get() > 0);
     }
 
+    public int getServingRequests() {
+        return servingRequests.get();
+    }
+
     public void incrementServingRequests() {
         servingRequests.incrementAndGet();
     }
@@ -65,6 +70,28 @@ public class ServiceEndpoint {
         circuitBreaker.requestComplete(success);
     }
 
+    /**
+     * Record the time until the endpoint responded (or the request failed)
+     */
+    public void recordLatency(long nanos) {
+        latency.observe(nanos);
+    }
+
+    /**
+     * @return the endpoint's peak-EWMA response latency in nanoseconds
+     */
+    public double getLatencyEstimate() {
+        return latency.get();
+    }
+
+    /**
+     * A request that was picked for this endpoint, but never completed by it (e.g. a
+     * hedged request that lost), doesn't count for the circuit breaker
+     */
+    public void requestCancelled() {
+        servingRequests.decrementAndGet();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -15,6 +15,10 @@ package com.sixt.service.framework.rpc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class ServiceEndpointList {
@@ -24,6 +28,18 @@ public class ServiceEndpointList {
     protected volatile int size = 0;
     protected ServiceEndpointNode returnNext = null;
     protected ReentrantReadWriteLock mutex = new ReentrantReadWriteLock();
+    protected final LoadBalancingStrategy strategy;
+    //reused by nextAvailable, under the write lock
+    private final List<ServiceEndpoint> candidates = new ArrayList<>();
+    private final List<ServiceEndpointNode> candidateNodes = new ArrayList<>();
+
+    public ServiceEndpointList() {
+        this(new RoundRobinStrategy());
+    }
+
+    public ServiceEndpointList(LoadBalancingStrategy strategy) {
+        this.strategy = strategy;
+    }
 
     public void add(ServiceEndpoint sep) {
         mutex.writeLock().lock();
@@ -49,22 +65,37 @@ public class ServiceEndpointList {
     }
 
     public ServiceEndpoint nextAvailable() {
+        return nextAvailable(Collections.emptySet());
+    }
+
+    /**
+     * Let the strategy choose one of the endpoints that can serve requests and that
+     * aren't excluded.  Modifies state
+     */
+    public ServiceEndpoint nextAvailable(Set<ServiceEndpoint> excluded) {
         mutex.writeLock().lock(); //needs write b/c it calls canServeRequests
         try {
-            ServiceEndpointNode retval = returnNext;
+            candidates.clear();
+            candidateNodes.clear();
+            ServiceEndpointNode current = returnNext;
             for (int i = 0; i < size; i++) {
-                if (retval.value.canServeRequests()) {
-                    retval.value.incrementServingRequests();
-                    returnNext = retval.next;
-                    return retval.value;
-                } else {
-                    returnNext = returnNext.next;
-                    retval = returnNext;
+                if (current.value.canServeRequests() && ! excluded.contains(current.value)) {
+                    candidates.add(current.value);
+                    candidateNodes.add(current);
                 }
+                current = current.next;
+            }
+            if (candidates.isEmpty()) {
+                //if we got here, there are none available
+                return null;
             }
-            //if we got here, there are none available
-            return null;
+            ServiceEndpoint retval = strategy.choose(candidates);
+            retval.incrementServingRequests();
+            returnNext = candidateNodes.get(candidates.indexOf(retval)).next;
+            return retval;
         } finally {
+            candidates.clear();
+            candidateNodes.clear();
             mutex.writeLock().unlock();
         }
     }
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.util;
+
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Virtual threads (java 21+), looked up by reflection as the framework is built for
+ * java 8.
+ */
+public class VirtualThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Method ofVirtual;
+    private static final Method name;
+    private static final Method factory;
+    private static final Method isVirtual;
+    private static final AtomicBoolean unsupportedLogged = new AtomicBoolean(false);
+
+    static {
+        Method ofVirtualMethod = null;
+        Method nameMethod = null;
+        Method factoryMethod = null;
+        Method isVirtualMethod = null;
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+            nameMethod = builder.getMethod("name", String.class, long.class);
+            factoryMethod = builder.getMethod("factory");
+            isVirtualMethod = Thread.class.getMethod("isVirtual");
+            //preview releases have the api, but throw unless previews are enabled
+            factoryMethod.invoke(ofVirtualMethod.invoke(null));
+        } catch (Exception | LinkageError ex) {
+            ofVirtualMethod = null;
+        }
+        ofVirtual = ofVirtualMethod;
+        name = nameMethod;
+        factory = factoryMethod;
+        isVirtual = ofVirtualMethod == null ? null : isVirtualMethod;
+    }
+
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * @return a factory of virtual threads named namePrefix0, namePrefix1, ..., or null
+     * if the jvm has no virtual threads
+     */
+    public static ThreadFactory newThreadFactory(String namePrefix) {
+        if (! isSupported()) {
+            return null;
+        }
+        try {
+            Object builder = name.invoke(ofVirtual.invoke(null), namePrefix, 0L);
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException ex) {
+            logger.warn("Unable to create virtual thread factory", ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return whether the thread is a virtual thread, which shouldn't cache expensive
+     * objects in ThreadLocals as virtual threads aren't pooled
+     */
+    public static boolean isVirtual(Thread thread) {
+        if (isVirtual == null) {
+            return false;
+        }
+        try {
+            return (Boolean) isVirtual.invoke(thread);
+        } catch (ReflectiveOperationException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return whether virtual threads are configured and supported by the jvm
+     */
+    public static boolean shouldUse(ServiceProperties serviceProps) {
+        if (! FeatureFlags.shouldUseVirtualThreads(serviceProps)) {
+            return false;
+        }
+        if (! isSupported()) {
+            if (unsupportedLogged.compareAndSet(false, true)) {
+                logger.warn("Virtual threads are configured but not supported by this jvm, " +
+                        "using platform threads");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return a factory of virtual threads named namePrefix0, namePrefix1, ... if they
+     * are configured and supported, otherwise the fallback
+     */
+    public static ThreadFactory threadFactory(ServiceProperties serviceProps, String namePrefix,
+                                              ThreadFactory fallback) {
+        ThreadFactory virtual = shouldUse(serviceProps) ? newThreadFactory(namePrefix) : null;
+        return virtual == null ? fallback : virtual;
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.sixt.service.framework.health.ReadinessCheckServer;
+import com.sixt.service.framework.jetty.RpcHandlerMetrics;
+import com.sixt.service.framework.jetty.RpcServlet;
+import com.sixt.service.framework.kafka.messaging.Consumer;
+import com.sixt.service.framework.registry.ServiceRegistrationProvider;
+import com.sixt.service.framework.util.Sleeper;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+
+public class GracefulShutdownTest {
+
+    private ServiceProperties props = new ServiceProperties();
+    private RpcHandlerMetrics handlerMetrics = mock(RpcHandlerMetrics.class);
+    private ReadinessCheckServer readinessCheck = new ReadinessCheckServer(props);
+    private ServiceRegistrationProvider registration = mock(ServiceRegistrationProvider.class);
+    private RpcServlet servlet = mock(RpcServlet.class);
+    private Consumer consumer = mock(Consumer.class);
+    private Server server = new Server();
+    private ServerConnector connector = new ServerConnector(server);
+    private GracefulShutdown shutdown;
+
+    @Before
+    public void setup() throws Exception {
+        props.addProperty(FeatureFlags.SHUTDOWN_PROPAGATION_DELAY, "0");
+        readinessCheck.serveRequests();
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.start();
+        shutdown = new GracefulShutdown(props, handlerMetrics, readinessCheck);
+        shutdown.addConsumer(consumer);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        server.stop();
+    }
+
+    @Test
+    public void run_RequestsInFlight_DrainedBeforeJettyStops() {
+        when(handlerMetrics.getInFlightRequests()).thenReturn(2, 1, 0);
+
+        shutdown.run(registration, servlet, server);
+
+        InOrder inOrder = inOrder(registration, servlet, handlerMetrics, consumer);
+        inOrder.verify(registration).deregister();
+        inOrder.verify(servlet).drain();
+        inOrder.verify(handlerMetrics, times(3)).getInFlightRequests();
+        inOrder.verify(consumer).shutdown();
+        assertThat(readinessCheck.isReady()).isFalse();
+        assertThat(connector.isOpen()).isFalse();
+        assertThat(server.isStopped()).isTrue();
+    }
+
+    @Test
+    public void run_PropagationDelay_WaitedBeforeConnectorsClose() {
+        props.addProperty(FeatureFlags.SHUTDOWN_PROPAGATION_DELAY, "3000");
+        List<Long> sleeps = new ArrayList<>();
+        shutdown.sleeper = new Sleeper() {
+            @Override
+            public void sleepNoException(long time) {
+                assertThat(readinessCheck.isReady()).isFalse();
+                assertThat(connector.isOpen()).isTrue();
+                sleeps.add(time);
+            }
+        };
+
+        shutdown.run(registration, servlet, server);
+
+        assertThat(sleeps).containsExactly(3000L);
+        assertThat(connector.isOpen()).isFalse();
+    }
+
+    @Test
+    public void run_DrainTimesOut_JettyStopped() {
+        props.addProperty(FeatureFlags.SHUTDOWN_DRAIN_TIMEOUT, "100");
+        when(handlerMetrics.getInFlightRequests()).thenReturn(1);
+
+        shutdown.run(null, null, server);
+
+        assertThat(server.isStopped()).isTrue();
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.protobuf.RpcEnvelope;
+import com.sixt.service.framework.rpc.RpcCallException;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MethodHandlerDictionaryTest {
+
+    private MethodHandlerDictionary dictionary;
+
+    @Before
+    public void setup() {
+        dictionary = new MethodHandlerDictionary();
+    }
+
+    @Test
+    public void getDispatch_RegisteredHandler_ResolvesRequestType() throws Exception {
+        TestHandler handler = new TestHandler();
+        dictionary.put("Test.Method", handler);
+
+        MethodDispatch dispatch = dictionary.getDispatch("Test.Method");
+
+        assertThat(dispatch.getHandler()).isSameAs(handler);
+        assertThat(dispatch.getRequestClass()).isEqualTo(SerializationTest.class);
+        assertThat(dispatch.emptyRequest()).isEqualTo(SerializationTest.getDefaultInstance());
+        byte[] data = SerializationTest.newBuilder().setId("foo").build().toByteArray();
+        assertThat(((SerializationTest) dispatch.parseRequest(data)).getId()).isEqualTo("foo");
+    }
+
+    @Test
+    public void getDispatch_UnknownMethod_Null() {
+        dictionary.put("Test.Method", null);
+
+        assertThat(dictionary.getDispatch("Test.Method")).isNull();
+        assertThat(dictionary.getDispatch("Test.Other")).isNull();
+    }
+
+    @Test
+    public void getDispatch_HooksAddedAfterHandler_HookChainInOrder() {
+        TestPreHook globalPre = new TestPreHook();
+        TestPreHook methodPre = new TestPreHook();
+        TestPostHook globalPost = new TestPostHook();
+        TestPostHook methodPost = new TestPostHook();
+        TestPostHook otherPost = new TestPostHook();
+
+        dictionary.put("Test.Method", new TestHandler());
+        dictionary.addPreHook("Test.Method", methodPre);
+        dictionary.addPreHook(MethodHandlerDictionary.GLOBAL, globalPre);
+        dictionary.addPostHook(MethodHandlerDictionary.GLOBAL, globalPost);
+        dictionary.addPostHook("Test.Method", methodPost);
+        dictionary.addPostHook("Test.Other", otherPost);
+
+        MethodDispatch dispatch = dictionary.getDispatch("Test.Method");
+
+        assertThat(dispatch.getPreHooks()).containsExactly(globalPre, methodPre);
+        assertThat(dispatch.getPostHooks()).containsExactly(methodPost, globalPost);
+    }
+
+    @Test(expected = RpcCallException.class)
+    public void parseRequest_InvalidData_ThrowsRpcCallException() throws Exception {
+        dictionary.put("Test.Method", new TestHandler());
+
+        dictionary.getDispatch("Test.Method").parseRequest(new byte[]{1, 2, 3});
+    }
+
+    static class TestHandler implements ServiceMethodHandler<SerializationTest, RpcEnvelope.Response> {
+        @Override
+        public RpcEnvelope.Response handleRequest(SerializationTest request, OrangeContext ctx) {
+            return RpcEnvelope.Response.getDefaultInstance();
+        }
+    }
+
+    static class TestPreHook implements ServiceMethodPreHook<SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+    static class TestPostHook implements ServiceMethodPostHook<RpcEnvelope.Response> {
+        @Override
+        public RpcEnvelope.Response handleRequest(RpcEnvelope.Response response, OrangeContext ctx) {
+            return response;
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import com.sixt.service.framework.annotation.CoalescedRequests;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.rpc.RpcCallException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+public class RequestCoalescerTest {
+
+    private static final ByteString KEY = ByteString.copyFromUtf8("request");
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger invocations = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void execute_IdenticalRequestInFlight_SharesResponse() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(10000);
+        SerializationTest response = SerializationTest.newBuilder().setId("x").build();
+        RequestCoalescer.Invocation invocation = () -> {
+            invocations.incrementAndGet();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return response;
+        };
+
+        Future<Message> first = executor.submit(() -> coalescer.execute(KEY, invocation));
+        awaitInFlight(coalescer);
+        Future<Message> second = executor.submit(() -> coalescer.execute(KEY, invocation));
+        awaitCoalesced(coalescer);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(response);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isSameAs(response);
+        assertThat(invocations.get()).isEqualTo(1);
+        assertThat(coalescer.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void execute_InFlightRequestFails_ExceptionShared() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(10000);
+        RequestCoalescer.Invocation invocation = () -> {
+            invocations.incrementAndGet();
+            Uninterruptibles.awaitUninterruptibly(release);
+            throw new RpcCallException(RpcCallException.Category.ResourceNotFound, "gone");
+        };
+
+        Future<Message> first = executor.submit(() -> coalescer.execute(KEY, invocation));
+        awaitInFlight(coalescer);
+        Future<Message> second = executor.submit(() -> coalescer.execute(KEY, invocation));
+        awaitCoalesced(coalescer);
+        release.countDown();
+
+        assertThat(catchThrowable(() -> first.get(5, TimeUnit.SECONDS)))
+                .hasCauseInstanceOf(RpcCallException.class);
+        assertThat(catchThrowable(() -> second.get(5, TimeUnit.SECONDS)))
+                .hasCauseInstanceOf(RpcCallException.class);
+        assertThat(invocations.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void execute_InFlightRequestThrowsError_ErrorSharedWithoutWaiting() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(10000);
+        RequestCoalescer.Invocation invocation = () -> {
+            invocations.incrementAndGet();
+            Uninterruptibles.awaitUninterruptibly(release);
+            throw new AssertionError("broken handler");
+        };
+
+        Future<Message> first = executor.submit(() -> coalescer.execute(KEY, invocation));
+        awaitInFlight(coalescer);
+        Future<Message> second = executor.submit(() -> coalescer.execute(KEY, invocation));
+        awaitCoalesced(coalescer);
+        release.countDown();
+
+        assertThat(catchThrowable(() -> first.get(5, TimeUnit.SECONDS)))
+                .hasCauseInstanceOf(AssertionError.class);
+        assertThat(catchThrowable(() -> second.get(1, TimeUnit.SECONDS)))
+                .hasCauseInstanceOf(AssertionError.class);
+        assertThat(invocations.get()).isEqualTo(1);
+        assertThat(coalescer.getInFlight()).isEqualTo(0);
+    }
+
+    @Test
+    public void execute_MaxWaitExceeded_InvokesItself() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(10);
+        SerializationTest response = SerializationTest.getDefaultInstance();
+
+        Future<Message> first = executor.submit(() -> coalescer.execute(KEY, () -> {
+            Uninterruptibles.awaitUninterruptibly(release);
+            return response;
+        }));
+        awaitInFlight(coalescer);
+        Message second = coalescer.execute(KEY, () -> {
+            invocations.incrementAndGet();
+            return response;
+        });
+        release.countDown();
+
+        assertThat(second).isSameAs(response);
+        assertThat(invocations.get()).isEqualTo(1);
+        assertThat(coalescer.getWaitTimeouts()).isEqualTo(1);
+        assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(response);
+    }
+
+    @Test
+    public void execute_Sequential_NotCoalesced() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer(1000);
+
+        coalescer.execute(KEY, () -> SerializationTest.newBuilder().setId("" + invocations.incrementAndGet()).build());
+        coalescer.execute(KEY, () -> SerializationTest.newBuilder().setId("" + invocations.incrementAndGet()).build());
+
+        assertThat(invocations.get()).isEqualTo(2);
+        assertThat(coalescer.getCoalesced()).isEqualTo(0);
+    }
+
+    @Test
+    public void forHandler_Annotation_ConfiguresCoalescer() {
+        assertThat(RequestCoalescer.forHandler(new CoalescedHandler())).isNotNull();
+        assertThat(RequestCoalescer.forHandler((request, ctx) -> request)).isNull();
+    }
+
+    private void awaitInFlight(RequestCoalescer coalescer) throws InterruptedException {
+        while (coalescer.getInFlight() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    private void awaitCoalesced(RequestCoalescer coalescer) throws InterruptedException {
+        while (coalescer.getCoalesced() == 0) {
+            Thread.sleep(1);
+        }
+    }
+
+    @CoalescedRequests(maxWaitMillis = 500)
+    private static class CoalescedHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework;
+
+import com.google.protobuf.ByteString;
+import com.sixt.service.framework.annotation.CachedResponse;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResponseCacheTest {
+
+    private static final ByteString KEY_A = ByteString.copyFromUtf8("a");
+    private static final ByteString KEY_B = ByteString.copyFromUtf8("b");
+
+    @Test
+    public void get_FormatsCachedSeparately() {
+        ResponseCache cache = new ResponseCache(60000, 10);
+        cache.putProtobuf(KEY_A, new byte[]{1, 2});
+
+        assertThat(cache.getProtobuf(KEY_A)).containsExactly(1, 2);
+        assertThat(cache.getJson(KEY_A)).isNull();
+        cache.putJson(KEY_A, "{}");
+        assertThat(cache.getJson(KEY_A)).isEqualTo("{}");
+        assertThat(cache.getProtobuf(KEY_B)).isNull();
+
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getMisses()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void put_BeyondMaxEntries_LeastRecentlyUsedEvicted() {
+        ResponseCache cache = new ResponseCache(60000, 1);
+        cache.putProtobuf(KEY_A, new byte[]{1});
+        cache.putProtobuf(KEY_B, new byte[]{2});
+
+        assertThat(cache.getProtobuf(KEY_A)).isNull();
+        assertThat(cache.getProtobuf(KEY_B)).containsExactly(2);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+    }
+
+    @Test
+    public void get_AfterTtl_Miss() throws Exception {
+        ResponseCache cache = new ResponseCache(1, 10);
+        cache.putProtobuf(KEY_A, new byte[]{1});
+        Thread.sleep(10);
+
+        assertThat(cache.getProtobuf(KEY_A)).isNull();
+    }
+
+    @Test
+    public void forHandler_Annotation_ConfiguresCache() {
+        assertThat(ResponseCache.forHandler(new CachedHandler())).isNotNull();
+        assertThat(ResponseCache.forHandler((request, ctx) -> request)).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void construct_InvalidSize_Throws() {
+        new ResponseCache(1000, 0);
+    }
+
+    @CachedResponse(ttlMillis = 1000, maxEntries = 5)
+    private static class CachedHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+}
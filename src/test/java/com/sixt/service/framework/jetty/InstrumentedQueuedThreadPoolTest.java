@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sixt.service.framework.metrics.GaugeGetter;
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.metrics.GoGauge;
+import com.sixt.service.framework.metrics.GoTimer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class InstrumentedQueuedThreadPoolTest {
+
+    private GoCounter counter = new GoCounter("counter");
+    private GoTimer timer = new GoTimer("timer");
+    private GoGauge gauge = new GoGauge("gauge");
+    private CountDownLatch release = new CountDownLatch(1);
+    private InstrumentedQueuedThreadPool pool;
+
+    @Before
+    public void setup() {
+        RpcHandlerMetrics metrics = mock(RpcHandlerMetrics.class);
+        when(metrics.getExecutorCounter(anyString())).thenReturn(counter);
+        when(metrics.getExecutorQueueTimer(anyString())).thenReturn(timer);
+        when(metrics.registerExecutorGauges(anyString(), any(GaugeGetter.class),
+                any(GaugeGetter.class))).thenReturn(gauge);
+        pool = new InstrumentedQueuedThreadPool(1, 1, 1, metrics);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        release.countDown();
+        pool.stop();
+    }
+
+    @Test
+    public void execute_QueueFull_RejectedAndCounted() throws Exception {
+        pool.start();
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        pool.execute(() -> {
+            running.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+        });
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+        pool.execute(done::countDown);
+
+        try {
+            pool.execute(() -> {});
+            fail("Expected the job to be rejected");
+        } catch (RejectedExecutionException ex) {
+            //expected
+        }
+
+        assertThat(counter.getSuccessCount()).isEqualTo(2);
+        assertThat(counter.getFailureCount()).isEqualTo(1);
+        release.countDown();
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(timer.getSuccessTimer().getCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void gauges_Registered() throws Exception {
+        pool.start();
+
+        assertThat(gauge.getElements()).containsKeys("threads", "idle_threads", "max_threads");
+    }
+
+}
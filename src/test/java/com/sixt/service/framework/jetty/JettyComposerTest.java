@@ -0,0 +1,86 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JettyComposerTest {
+
+    private Server server;
+    private HttpClient http1Client;
+    private HttpClient http2Client;
+
+    @Before
+    public void setup() throws Exception {
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.HTTP2_CLEARTEXT_SERVER, "true");
+        props.setServicePort(0);
+        server = new Server();
+        server.addConnector(JettyComposer.createConnector(server, props));
+        ServletContextHandler context = new ServletContextHandler(server, "/");
+        context.addServlet(ProtocolServlet.class, "/");
+        server.start();
+
+        http1Client = new HttpClient();
+        http1Client.start();
+        http2Client = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+        http2Client.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        http1Client.stop();
+        http2Client.stop();
+        server.stop();
+    }
+
+    @Test
+    public void createConnector_H2cEnabled_ServesHttp1AndHttp2() throws Exception {
+        String uri = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+
+        ContentResponse http1 = http1Client.newRequest(uri).send();
+        ContentResponse http2 = http2Client.newRequest(uri).header("Connection", "close").send();
+
+        assertThat(http1.getVersion()).isEqualTo(HttpVersion.HTTP_1_1);
+        assertThat(http1.getContentAsString()).isEqualTo("HTTP/1.1");
+        assertThat(http2.getVersion()).isEqualTo(HttpVersion.HTTP_2);
+        assertThat(http2.getContentAsString()).isEqualTo("HTTP/2.0");
+    }
+
+    public static class ProtocolServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            resp.getWriter().write(req.getProtocol());
+        }
+    }
+
+}
@@ -15,6 +15,7 @@ package com.sixt.service.framework.jetty;
 import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonNull;
 import com.sixt.service.framework.FeatureFlags;
@@ -34,6 +35,7 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.util.Collections;
 import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -64,6 +66,7 @@ public class JsonHandlerTest {
 
         handlerMetrics = mock(RpcHandlerMetrics.class);
         when(handlerMetrics.getMethodTimer(anyString(), anyString(), anyString())).thenReturn(mock(GoTimer.class));
+        when(handlerMetrics.getPhaseTimer(anyString(), anyString())).thenReturn(new GoTimer("phase"));
 
         servlet = new JsonHandler(handlerDictionary, metricRegistry, handlerMetrics, new ServiceProperties(), null);
     }
@@ -221,7 +224,22 @@ public class JsonHandlerTest {
         LOGGER.debug(thrown.getMessage());
         // then
         assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
-        assertThat(thrown).hasMessageContaining("Not a JSON");
+        assertThat(thrown).hasMessageContaining("Malformed");
+    }
+
+    @Test
+    public void parseRpcRequest_NotJsonObject_ThrowIllegalArgumentException() {
+        // given
+        final String json = "\"a\"";
+
+        // when
+        Throwable thrown = catchThrowable(() -> {
+            servlet.parseRpcRequest(json);
+        });
+        LOGGER.debug(thrown.getMessage());
+        // then
+        assertThat(thrown).isInstanceOf(IllegalArgumentException.class);
+        assertThat(thrown).hasMessageContaining("Not a JSON object");
     }
 
     @Test
@@ -254,6 +272,86 @@ public class JsonHandlerTest {
         assertThat(thrown).hasMessage("Missing method name");
     }
 
+    @Test
+    public void doPost_Batch_ResponsesInOrderWithPerCallMetrics() throws Exception {
+        handlerDictionary.put("echo", new JsonRpcCodecTest.EchoHandler());
+        servlet = new JsonHandler(handlerDictionary, metricRegistry, handlerMetrics,
+                new ServiceProperties(), null);
+        String input = "[{\"method\":\"echo\",\"params\":[{\"id\":\"x\"}],\"id\":1}," +
+                "{\"method\":\"jsonRpcWithException\",\"params\":[{}],\"id\":2}," +
+                "{\"method\":\"missing\",\"id\":3}]";
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(MockHttpServletResponse.class);
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(input)));
+        CharArrayWriter charArrayWriter = new CharArrayWriter(512);
+        when(response.getWriter()).thenReturn(new PrintWriter(charArrayWriter));
+
+        servlet.doPost(request, response);
+
+        JsonArray responses = new com.google.gson.JsonParser().parse(charArrayWriter.toString())
+                .getAsJsonArray();
+        assertThat(responses).hasSize(3);
+        assertThat(responses.get(0).getAsJsonObject().get("id").getAsInt()).isEqualTo(1);
+        assertThat(responses.get(0).getAsJsonObject().getAsJsonObject("result")
+                .get("id").getAsString()).isEqualTo("x");
+        assertThat(responses.get(1).getAsJsonObject().get("id").getAsInt()).isEqualTo(2);
+        assertThat(responses.get(1).getAsJsonObject().get("error").toString()).contains("no p4s5!");
+        assertThat(responses.get(2).getAsJsonObject().get("error").toString()).contains("missing");
+        verify(response).setStatus(HttpServletResponse.SC_OK);
+        verify(handlerMetrics).incrementSuccessCounter("echo", null, null);
+        verify(handlerMetrics).incrementFailureCounter("jsonRpcWithException", null, null);
+        verify(handlerMetrics).incrementFailureCounter("unknown", null, null);
+    }
+
+    @Test
+    public void doPost_CachedResponse_HandlerInvokedOncePerDistinctRequest() throws Exception {
+        ProtobufHandlerTest.CachedCountingHandler cachedHandler =
+                new ProtobufHandlerTest.CachedCountingHandler();
+        handlerDictionary.put("cached", cachedHandler);
+        servlet = new JsonHandler(handlerDictionary, metricRegistry, handlerMetrics,
+                new ServiceProperties(), null);
+        String input = "[{\"method\":\"cached\",\"params\":[{\"id\":\"x\"}],\"id\":1}," +
+                "{\"method\":\"cached\",\"params\":[{\"id\":\"x\"}],\"id\":2}," +
+                "{\"method\":\"cached\",\"params\":[{\"id\":\"y\"}],\"id\":3}]";
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(MockHttpServletResponse.class);
+        when(request.getReader()).thenReturn(new BufferedReader(new StringReader(input)));
+        CharArrayWriter charArrayWriter = new CharArrayWriter(512);
+        when(response.getWriter()).thenReturn(new PrintWriter(charArrayWriter));
+
+        servlet.doPost(request, response);
+
+        JsonArray responses = new com.google.gson.JsonParser().parse(charArrayWriter.toString())
+                .getAsJsonArray();
+        assertThat(responses).hasSize(3);
+        assertThat(responses.get(1).getAsJsonObject().get("id").getAsInt()).isEqualTo(2);
+        assertThat(responses.get(1).getAsJsonObject().get("result"))
+                .isEqualTo(responses.get(0).getAsJsonObject().get("result"));
+        assertThat(responses.get(2).getAsJsonObject().getAsJsonObject("result")
+                .get("id").getAsString()).isEqualTo("y2");
+        assertThat(cachedHandler.invocations.get()).isEqualTo(2);
+        verify(handlerMetrics, times(3)).incrementSuccessCounter("cached", null, null);
+    }
+
+    @Test
+    public void doPost_DeadlinePassed_DroppedUnread() throws Exception {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(MockHttpServletResponse.class);
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(
+                Collections.singletonList("X-Sx-Deadline")));
+        when(request.getHeader("X-Sx-Deadline")).thenReturn(
+                Long.toString(System.currentTimeMillis() - 1000));
+        CharArrayWriter charArrayWriter = new CharArrayWriter(512);
+        when(response.getWriter()).thenReturn(new PrintWriter(charArrayWriter));
+
+        servlet.doPost(request, response);
+
+        assertThat(charArrayWriter.toString()).contains("Deadline exceeded");
+        verify(request, never()).getReader();
+        verify(handlerMetrics).incrementDeadlineExceededCounter();
+        verify(handlerMetrics).incrementFailureCounter(null, null, null);
+    }
+
     class ServiceMethodHandlerUnderTest implements com.sixt.service.framework.ServiceMethodHandler<RpcEnvelope.Request, RpcEnvelope.Response>{
         @Override
         public RpcEnvelope.Response handleRequest(RpcEnvelope.Request request, OrangeContext ctx) throws RpcCallException {
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.common.io.CharStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.protobuf.Message;
+import com.sixt.service.framework.MethodDispatch;
+import com.sixt.service.framework.MethodHandlerDictionary;
+import com.sixt.service.framework.OrangeContext;
+import com.sixt.service.framework.ServiceMethodHandler;
+import com.sixt.service.framework.json.JsonRpcResponse;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationSubMessage;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.protobuf.ProtobufUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding a json-rpc request and encoding its response the way it was done
+ * with Gson trees (string, tree, string again, JsonFormat) with the streaming codec.
+ * Run with: gradle jmh -PjmhArgs='JsonRpcCodec -prof gc'
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonRpcCodecBenchmark {
+
+    private static final String METHOD = "Benchmark.Echo";
+
+    private MethodHandlerDictionary handlers;
+    private JsonRpcCodec codec;
+    private String requestJson;
+
+    @Setup
+    public void setup() {
+        handlers = new MethodHandlerDictionary();
+        handlers.put(METHOD, new EchoHandler());
+        codec = new JsonRpcCodec(handlers);
+        requestJson = "{\"id\":\"1234\",\"method\":\"" + METHOD + "\",\"params\":[" +
+                "{\"id\":\"id-1\",\"id2\":\"id-2\",\"sub_message\":{\"id\":\"sub\"},\"id4\":\"id-4\"}]}";
+    }
+
+    @Benchmark
+    public String gsonTrees() throws Exception {
+        String posted = CharStreams.toString(new StringReader(requestJson));
+        JsonObject json = new JsonParser().parse(posted).getAsJsonObject();
+        String method = json.get("method").getAsString();
+        JsonArray params = json.getAsJsonArray("params");
+        JsonElement id = json.get("id");
+        MethodDispatch dispatch = handlers.getDispatch(method);
+        Message request = ProtobufUtil.jsonToProtobuf(params, dispatch.getRequestDefaultInstance());
+        JsonRpcResponse response = new JsonRpcResponse(id, ProtobufUtil.protobufToJson(request),
+                JsonNull.INSTANCE, 200);
+        StringWriter out = new StringWriter();
+        out.write(response.toJson().toString());
+        return out.toString();
+    }
+
+    @Benchmark
+    public String streamingCodec() throws Exception {
+        JsonRpcCodec.Request request = codec.readRequest(new StringReader(requestJson));
+        StringWriter out = new StringWriter();
+        codec.writeResponse(out, request.getId(), request.getParams(), JsonNull.INSTANCE);
+        return out.toString();
+    }
+
+    static class EchoHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sixt.service.framework.MethodHandlerDictionary;
+import com.sixt.service.framework.OrangeContext;
+import com.sixt.service.framework.ServiceMethodHandler;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationSubMessage;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.protobuf.ProtobufUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JsonRpcCodecTest {
+
+    private JsonRpcCodec codec;
+
+    @Before
+    public void setup() {
+        MethodHandlerDictionary handlers = new MethodHandlerDictionary();
+        handlers.put("Test.Echo", new EchoHandler());
+        codec = new JsonRpcCodec(handlers);
+    }
+
+    @Test
+    public void readRequest_MethodBeforeParams_ParamsMerged() throws Exception {
+        String json = "{\"id\":7,\"method\":\"Test.Echo\",\"service\":\"x\"," +
+                "\"params\":[{\"id\":\"a\",\"sub_message\":{\"id\":\"b\"}},{\"ignored\":1}]}";
+
+        JsonRpcCodec.Request request = codec.readRequest(new StringReader(json));
+
+        assertThat(request.getMethod()).isEqualTo("Test.Echo");
+        assertThat(request.getIdAsString()).isEqualTo("7");
+        assertThat(request.getParams()).isEqualTo(SerializationTest.newBuilder().setId("a")
+                .setSubMessage(SerializationSubMessage.newBuilder().setId("b")).build());
+    }
+
+    @Test
+    public void readRequest_ParamsBeforeMethod_ParamsMerged() throws Exception {
+        String json = "{\"params\":[{\"id\":\"a\"}],\"method\":\"Test.Echo\"}";
+
+        JsonRpcCodec.Request request = codec.readRequest(new StringReader(json));
+
+        assertThat(request.getId()).isNull();
+        assertThat(request.getParams()).isEqualTo(SerializationTest.newBuilder().setId("a").build());
+    }
+
+    @Test
+    public void readRequest_NoParams_DefaultInstance() throws Exception {
+        JsonRpcCodec.Request request = codec.readRequest(
+                new StringReader("{\"method\":\"Test.Echo\",\"params\":[\"\"]}"));
+
+        assertThat(request.getParams()).isEqualTo(SerializationTest.getDefaultInstance());
+    }
+
+    @Test
+    public void writeResponse_Result_SameAsJsonTree() throws Exception {
+        SerializationTest result = SerializationTest.newBuilder().setId("a\"b")
+                .setSubMessage(SerializationSubMessage.newBuilder().setId("c")).build();
+        StringWriter out = new StringWriter();
+
+        codec.writeResponse(out, new JsonPrimitive("id-1"), result, JsonNull.INSTANCE);
+
+        JsonObject expected = new JsonObject();
+        expected.addProperty("id", "id-1");
+        expected.add("error", JsonNull.INSTANCE);
+        expected.add("result", ProtobufUtil.protobufToJson(result));
+        assertThat(new JsonParser().parse(out.toString())).isEqualTo(expected);
+    }
+
+    @Test
+    public void writeResponse_Error_NullResult() throws Exception {
+        StringWriter out = new StringWriter();
+
+        codec.writeResponse(out, null, null, new JsonPrimitive("boom"));
+
+        assertThat(out.toString()).isEqualTo("{\"id\":null,\"error\":\"boom\",\"result\":null}");
+    }
+
+    @Test
+    public void readBody_Batch_RequestsInOrderWithErrors() throws Exception {
+        String json = "[{\"method\":\"Test.Echo\",\"params\":[{\"id\":\"a\"}],\"id\":1}," +
+                "{\"method\":\"Test.Echo\",\"params\":[{\"sub_message\":[1,{\"x\":2}]}],\"id\":2}," +
+                "5,{\"method\":\"Test.Unknown\",\"id\":3}]";
+
+        JsonRpcCodec.RequestBody body = codec.readBody(new StringReader(json));
+
+        assertThat(body.isBatch()).isTrue();
+        assertThat(body.getRequests()).hasSize(4);
+        JsonRpcCodec.Request first = body.getRequests().get(0);
+        assertThat(first.getError()).isNull();
+        assertThat(first.getParams()).isEqualTo(SerializationTest.newBuilder().setId("a").build());
+        //the invalid params are skipped, the rest of the request is still read
+        JsonRpcCodec.Request second = body.getRequests().get(1);
+        assertThat(second.getError()).isNotNull();
+        assertThat(second.getIdAsString()).isEqualTo("2");
+        assertThat(body.getRequests().get(2).getError()).startsWith("Not a JSON object");
+        JsonRpcCodec.Request fourth = body.getRequests().get(3);
+        assertThat(fourth.getError()).contains("Test.Unknown");
+        assertThat(fourth.getIdAsString()).isEqualTo("3");
+    }
+
+    @Test
+    public void readBody_SingleRequest_NotBatch() throws Exception {
+        JsonRpcCodec.RequestBody body = codec.readBody(
+                new StringReader("{\"method\":\"Test.Echo\",\"params\":[{}]}"));
+
+        assertThat(body.isBatch()).isFalse();
+        assertThat(body.getRequests()).hasSize(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readBody_EmptyBatch_ThrowsIllegalArgumentException() throws Exception {
+        codec.readBody(new StringReader("[]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readBody_BatchTooLarge_ThrowsIllegalArgumentException() throws Exception {
+        MethodHandlerDictionary handlers = new MethodHandlerDictionary();
+        handlers.put("Test.Echo", new EchoHandler());
+        String call = "{\"method\":\"Test.Echo\",\"params\":[{}]}";
+
+        new JsonRpcCodec(handlers, 2).readBody(new StringReader("[" + call + "," + call + "," + call + "]"));
+    }
+
+    static class EchoHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+}
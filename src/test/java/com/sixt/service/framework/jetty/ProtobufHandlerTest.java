@@ -0,0 +1,348 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.primitives.Ints;
+import com.google.protobuf.Message;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.MethodHandlerDictionary;
+import com.sixt.service.framework.OrangeContext;
+import com.sixt.service.framework.ResponseCache;
+import com.sixt.service.framework.ResponseStream;
+import com.sixt.service.framework.ServiceMethodHandler;
+import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.StreamingServiceMethodHandler;
+import com.sixt.service.framework.annotation.CachedResponse;
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.metrics.GoTimer;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.protobuf.RpcCompression;
+import com.sixt.service.framework.protobuf.RpcEnvelope;
+import com.sixt.service.framework.rpc.RpcCallException;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ProtobufHandlerTest {
+
+    private ProtobufHandler handler;
+    private RpcHandlerMetrics handlerMetrics;
+    private RpcHandlerExecutor handlerExecutor;
+    private GoTimer phaseTimer = new GoTimer("phase");
+
+    @Before
+    public void setup() {
+        MethodHandlerDictionary handlers = new MethodHandlerDictionary();
+        handlers.put("Test.Echo", new EchoHandler());
+        handlers.put("Test.Fail", new FailingHandler());
+        handlers.put("Test.Stream", new StreamingHandler());
+        handlerMetrics = mock(RpcHandlerMetrics.class);
+        when(handlerMetrics.getMethodTimer(anyString(), anyString(), anyString()))
+                .thenReturn(mock(GoTimer.class));
+        when(handlerMetrics.getPhaseTimer(anyString(), anyString())).thenReturn(phaseTimer);
+        when(handlerMetrics.getExecutorCounter(anyString())).thenReturn(new GoCounter("test"));
+        ServiceProperties props = new ServiceProperties();
+        handlerExecutor = new RpcHandlerExecutor(props, handlerMetrics);
+        handler = new ProtobufHandler(handlers, mock(MetricRegistry.class), handlerMetrics,
+                props, null, handlerExecutor);
+    }
+
+    @After
+    public void teardown() {
+        handlerExecutor.shutdown();
+    }
+
+    @Test
+    public void doPost_MultiRequestFrame_ResponsesInOrder() throws Exception {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeRequest(frame, "Test.Echo", 1, SerializationTest.newBuilder().setId("a").build());
+        writeRequest(frame, "Test.Fail", 2, SerializationTest.getDefaultInstance());
+        writeRequest(frame, "Test.Unknown", 3, SerializationTest.getDefaultInstance());
+        writeRequest(frame, "Test.Echo", 4, SerializationTest.newBuilder().setId("b").build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        handler.doPost(mockRequest(frame.toByteArray()), mockResponse(out));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertResponse(in, 1, "", SerializationTest.newBuilder().setId("a").build());
+        assertThat(readResponseHeader(in).getError()).contains("boom");
+        assertThat(readBody(in)).isEmpty();
+        RpcEnvelope.Response unknown = readResponseHeader(in);
+        assertThat(unknown.getSequenceNumber()).isEqualTo(3);
+        assertThat(unknown.getError()).contains("Invalid method");
+        assertThat(readBody(in)).isEmpty();
+        assertResponse(in, 4, "", SerializationTest.newBuilder().setId("b").build());
+        assertThat(in.available()).isEqualTo(0);
+
+        verify(handlerMetrics, times(2)).incrementSuccessCounter("Test.Echo", null, null);
+        verify(handlerMetrics).incrementFailureCounter("Test.Fail", null, null);
+        verify(handlerMetrics).incrementFailureCounter("Test.Unknown", null, null);
+    }
+
+    @Test
+    public void doPost_CompressedRequestAndAcceptedCompression_CompressedResponse() throws Exception {
+        MethodHandlerDictionary handlers = new MethodHandlerDictionary();
+        handlers.put("Test.Echo", new EchoHandler());
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.RPC_RESPONSE_COMPRESSION, "true");
+        props.addProperty(FeatureFlags.RPC_COMPRESSION_THRESHOLD, "100");
+        handler = new ProtobufHandler(handlers, mock(MetricRegistry.class), handlerMetrics,
+                props, null, handlerExecutor);
+        SerializationTest body = SerializationTest.newBuilder()
+                .setId(StringUtils.repeat("abc", 1000)).build();
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeRequest(frame, "Test.Echo", 1, body);
+        HttpServletRequest request = mockRequest(RpcCompression.GZIP.compress(frame.toByteArray()));
+        when(request.getHeader(RpcCompression.CONTENT_ENCODING)).thenReturn("gzip");
+        when(request.getHeader(RpcCompression.ACCEPT_ENCODING)).thenReturn("gzip, lz4");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HttpServletResponse response = mockResponse(out);
+
+        handler.doPost(request, response);
+
+        verify(response).setHeader(RpcCompression.CONTENT_ENCODING, "lz4");
+        DataInputStream in = new DataInputStream(RpcCompression.LZ4.decompress(
+                new ByteArrayInputStream(out.toByteArray())));
+        assertResponse(in, 1, "", body);
+        verify(handlerMetrics).recordCompression(eq("gzip"), eq("request"),
+                eq((long) frame.size()), anyLong());
+        ArgumentCaptor<Long> compressedSize = ArgumentCaptor.forClass(Long.class);
+        verify(handlerMetrics).recordCompression(eq("lz4"), eq("response"),
+                eq((long) frame.size()), compressedSize.capture());
+        assertThat(compressedSize.getValue()).isLessThan(frame.size());
+    }
+
+    @Test
+    public void doPost_UnsupportedContentEncoding_UnsupportedMediaType() throws Exception {
+        HttpServletRequest request = mockRequest(new byte[0]);
+        when(request.getHeader(RpcCompression.CONTENT_ENCODING)).thenReturn("br");
+        HttpServletResponse response = mockResponse(new ByteArrayOutputStream());
+
+        handler.doPost(request, response);
+
+        verify(response).setStatus(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+    }
+
+    @Test
+    public void doPost_CachedResponse_HandlerInvokedOncePerDistinctRequest() throws Exception {
+        MethodHandlerDictionary handlers = new MethodHandlerDictionary();
+        CachedCountingHandler cachedHandler = new CachedCountingHandler();
+        handlers.put("Test.Cached", cachedHandler);
+        handler = new ProtobufHandler(handlers, mock(MetricRegistry.class), handlerMetrics,
+                new ServiceProperties(), null, handlerExecutor);
+        SerializationTest first = SerializationTest.newBuilder().setId("a").build();
+        SerializationTest second = SerializationTest.newBuilder().setId("b").build();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 1; i <= 3; i++) {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            writeRequest(frame, "Test.Cached", i, i < 3 ? first : second);
+            handler.doPost(mockRequest(frame.toByteArray()), mockResponse(out));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertResponse(in, 1, "", SerializationTest.newBuilder().setId("a1").build());
+        assertResponse(in, 2, "", SerializationTest.newBuilder().setId("a1").build());
+        assertResponse(in, 3, "", SerializationTest.newBuilder().setId("b2").build());
+        assertThat(cachedHandler.invocations.get()).isEqualTo(2);
+        verify(handlerMetrics).registerResponseCacheMetrics(eq("Test.Cached"),
+                any(ResponseCache.class));
+    }
+
+    @Test
+    public void doPost_ServerTimingEnabled_PhasesInHeaderAndRecorded() throws Exception {
+        MethodHandlerDictionary handlers = new MethodHandlerDictionary();
+        handlers.put("Test.Echo", new EchoHandler());
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.RPC_SERVER_TIMING_HEADER, "true");
+        handler = new ProtobufHandler(handlers, mock(MetricRegistry.class), handlerMetrics,
+                props, null, handlerExecutor);
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeRequest(frame, "Test.Echo", 1, SerializationTest.newBuilder().setId("a").build());
+        HttpServletResponse response = mockResponse(new ByteArrayOutputStream());
+
+        handler.doPost(mockRequest(frame.toByteArray()), response);
+
+        ArgumentCaptor<String> serverTiming = ArgumentCaptor.forClass(String.class);
+        verify(response).setHeader(eq(RequestTimings.SERVER_TIMING), serverTiming.capture());
+        assertThat(serverTiming.getValue()).contains("headers;dur=", "decode;dur=",
+                "handler;dur=").doesNotContain("write").doesNotContain("pre_hooks");
+        verify(handlerMetrics).getPhaseTimer("Test.Echo", "decode");
+        verify(handlerMetrics).getPhaseTimer("Test.Echo", "handler");
+        verify(handlerMetrics).getPhaseTimer("Test.Echo", "write");
+        assertThat(phaseTimer.getSuccessTimer().getCount()).isEqualTo(4);
+    }
+
+    @Test
+    public void doPost_StreamingMethod_MessagesStreamed() throws Exception {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeRequest(frame, "Test.Stream", 7, SerializationTest.newBuilder().setId("a").build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        handler.doPost(mockRequest(frame.toByteArray()), mockResponse(out));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertResponse(in, 7, "", SerializationTest.newBuilder().setId("a0").build());
+        assertResponse(in, 7, "", SerializationTest.newBuilder().setId("a1").build());
+        assertResponse(in, 7, "", SerializationTest.newBuilder().setId("a2").build());
+        assertThat(in.available()).isEqualTo(0);
+        verify(handlerMetrics).incrementSuccessCounter("Test.Stream", null, null);
+    }
+
+    @Test
+    public void doPost_StreamingMethodFailsAfterFirstMessage_StreamEndsWithError() throws Exception {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeRequest(frame, "Test.Stream", 7, SerializationTest.newBuilder().setId("fail").build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        handler.doPost(mockRequest(frame.toByteArray()), mockResponse(out));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertResponse(in, 7, "", SerializationTest.newBuilder().setId("fail0").build());
+        assertThat(readResponseHeader(in).getError()).contains("stream broken");
+        assertThat(readBody(in)).isEmpty();
+        assertThat(in.available()).isEqualTo(0);
+        verify(handlerMetrics).incrementFailureCounter("Test.Stream", null, null);
+    }
+
+    @Test
+    public void doPost_StreamingMethodInMultiRequestFrame_Rejected() throws Exception {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        writeRequest(frame, "Test.Echo", 1, SerializationTest.newBuilder().setId("a").build());
+        writeRequest(frame, "Test.Stream", 2, SerializationTest.newBuilder().setId("b").build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        handler.doPost(mockRequest(frame.toByteArray()), mockResponse(out));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertResponse(in, 1, "", SerializationTest.newBuilder().setId("a").build());
+        assertThat(readResponseHeader(in).getError()).contains("Streaming method");
+        assertThat(readBody(in)).isEmpty();
+    }
+
+    private void assertResponse(DataInputStream in, long sequenceNumber, String error,
+                                Message body) throws IOException {
+        RpcEnvelope.Response header = readResponseHeader(in);
+        assertThat(header.getSequenceNumber()).isEqualTo(sequenceNumber);
+        assertThat(header.getError()).isEqualTo(error);
+        assertThat(SerializationTest.parseFrom(readBody(in))).isEqualTo(body);
+    }
+
+    private RpcEnvelope.Response readResponseHeader(DataInputStream in) throws IOException {
+        return RpcEnvelope.Response.parseFrom(readBody(in));
+    }
+
+    private byte[] readBody(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return data;
+    }
+
+    private void writeRequest(ByteArrayOutputStream out, String method, long sequenceNumber,
+                              Message body) throws IOException {
+        byte[] header = RpcEnvelope.Request.newBuilder().setServiceMethod(method)
+                .setSequenceNumber(sequenceNumber).build().toByteArray();
+        out.write(Ints.toByteArray(header.length));
+        out.write(header);
+        out.write(Ints.toByteArray(body.getSerializedSize()));
+        out.write(body.toByteArray());
+    }
+
+    private HttpServletRequest mockRequest(byte[] data) throws IOException {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getInputStream()).thenReturn(
+                new ProtobufRpcCodecTest.ByteArrayServletInputStream(data));
+        return request;
+    }
+
+    private HttpServletResponse mockResponse(ByteArrayOutputStream out) throws IOException {
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                out.write(b);
+            }
+        });
+        return response;
+    }
+
+    static class StreamingHandler implements
+            StreamingServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public void handleRequest(SerializationTest request,
+                                  ResponseStream<SerializationTest> responses,
+                                  OrangeContext ctx) throws RpcCallException {
+            for (int i = 0; i < 3; i++) {
+                if (i == 1 && request.getId().equals("fail")) {
+                    throw new RpcCallException(RpcCallException.Category.InternalServerError,
+                            "stream broken");
+                }
+                responses.send(SerializationTest.newBuilder().setId(request.getId() + i).build());
+            }
+        }
+    }
+
+    static class EchoHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+    @CachedResponse(ttlMillis = 60000)
+    static class CachedCountingHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        final AtomicInteger invocations = new AtomicInteger();
+
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request.toBuilder().setId(request.getId() + invocations.incrementAndGet()).build();
+        }
+    }
+
+    static class FailingHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx)
+                throws RpcCallException {
+            throw new RpcCallException(RpcCallException.Category.BadRequest, "boom");
+        }
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.common.primitives.Ints;
+import com.sixt.service.framework.MethodDispatch;
+import com.sixt.service.framework.MethodHandlerDictionary;
+import com.sixt.service.framework.OrangeContext;
+import com.sixt.service.framework.ServiceMethodHandler;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.protobuf.RpcEnvelope;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProtobufRpcCodecTest {
+
+    private MethodDispatch dispatch;
+
+    @Before
+    public void setup() {
+        MethodHandlerDictionary dictionary = new MethodHandlerDictionary();
+        dictionary.put("Test.Method", new TestHandler());
+        dispatch = dictionary.getDispatch("Test.Method");
+    }
+
+    @Test
+    public void readRequest_EnvelopeAndBody_Parsed() throws Exception {
+        RpcEnvelope.Request envelope = RpcEnvelope.Request.newBuilder()
+                .setServiceMethod("Test.Method").setSequenceNumber(42).build();
+        SerializationTest body = SerializationTest.newBuilder().setId("foo").build();
+        ProtobufRpcCodec codec = new ProtobufRpcCodec(new ByteArrayServletInputStream(
+                frame(envelope.toByteArray(), body.toByteArray())));
+
+        assertThat(codec.readEnvelope()).isEqualTo(envelope);
+        assertThat(codec.readBody(dispatch)).isEqualTo(body);
+    }
+
+    @Test
+    public void readBody_NoBody_DefaultInstance() throws Exception {
+        RpcEnvelope.Request envelope = RpcEnvelope.Request.newBuilder()
+                .setServiceMethod("Test.Method").build();
+        ProtobufRpcCodec codec = new ProtobufRpcCodec(new ByteArrayServletInputStream(
+                frame(envelope.toByteArray(), new byte[0])));
+
+        codec.readEnvelope();
+        assertThat(codec.readBody(dispatch)).isEqualTo(SerializationTest.getDefaultInstance());
+    }
+
+    @Test(expected = RpcReadException.class)
+    public void readEnvelope_InvalidHeaderSize_ThrowsRpcReadException() throws Exception {
+        byte[] data = "GET / HTTP/1.1".getBytes();
+        new ProtobufRpcCodec(new ByteArrayServletInputStream(data)).readEnvelope();
+    }
+
+    @Test
+    public void writeResponse_SmallAndLargeBodies_SameFraming() throws Exception {
+        RpcEnvelope.Response header = RpcEnvelope.Response.newBuilder()
+                .setServiceMethod("Test.Method").setSequenceNumber(7).build();
+        for (int size : new int[]{0, 10, ProtobufRpcCodec.MAX_POOLED_BUFFER_SIZE + 1}) {
+            SerializationTest body = SerializationTest.newBuilder()
+                    .setId(StringUtils.repeat('x', size)).build();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            ProtobufRpcCodec.writeResponse(out, header, body);
+
+            assertThat(out.toByteArray()).isEqualTo(frame(header.toByteArray(), body.toByteArray()));
+        }
+    }
+
+    @Test
+    public void writeResponse_NullBody_ZeroLengthBody() throws Exception {
+        RpcEnvelope.Response header = RpcEnvelope.Response.newBuilder()
+                .setServiceMethod("Test.Method").setError("boom").build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ProtobufRpcCodec.writeResponse(out, header, null);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        byte[] headerData = new byte[in.readInt()];
+        in.readFully(headerData);
+        assertThat(RpcEnvelope.Response.parseFrom(headerData)).isEqualTo(header);
+        assertThat(in.readInt()).isEqualTo(0);
+        assertThat(in.available()).isEqualTo(0);
+    }
+
+    private static byte[] frame(byte[] header, byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(Ints.toByteArray(header.length));
+        out.write(header);
+        out.write(Ints.toByteArray(body.length));
+        out.write(body);
+        return out.toByteArray();
+    }
+
+    static class TestHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+    static class ByteArrayServletInputStream extends ServletInputStream {
+        private final ByteArrayInputStream inputStream;
+
+        ByteArrayServletInputStream(byte[] data) {
+            this.inputStream = new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return inputStream.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+        }
+
+        @Override
+        public int read() {
+            return inputStream.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return inputStream.read(b, off, len);
+        }
+    }
+
+}
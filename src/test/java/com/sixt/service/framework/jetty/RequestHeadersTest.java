@@ -0,0 +1,97 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.sixt.service.framework.OrangeContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RequestHeadersTest {
+
+    private HttpServletRequest request;
+    private TreeSet<String> excluded;
+
+    @Before
+    public void setup() {
+        request = mock(HttpServletRequest.class);
+        when(request.getHeaderNames()).thenReturn(Collections.enumeration(
+                Arrays.asList("X-Correlation-Id", "User-Agent", "x-sx-from-service")));
+        when(request.getHeader("X-Correlation-Id")).thenReturn("abc");
+        when(request.getHeader("User-Agent")).thenReturn("test");
+        when(request.getHeader("x-sx-from-service")).thenReturn("com.sixt.service.a");
+        excluded = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        excluded.add("user-agent");
+    }
+
+    @Test
+    public void get_LowerCasedNamesWithoutExcluded() {
+        RequestHeaders headers = new RequestHeaders(request, excluded);
+
+        assertThat(headers).hasSize(2);
+        assertThat(headers.get("x-correlation-id")).isEqualTo("abc");
+        assertThat(headers.containsKey("user-agent")).isFalse();
+        Map<String, String> expected = new HashMap<>();
+        expected.put("x-correlation-id", "abc");
+        expected.put("x-sx-from-service", "com.sixt.service.a");
+        assertThat(new HashMap<>(headers)).isEqualTo(expected);
+    }
+
+    @Test
+    public void copy_ModifiedIndependently() {
+        RequestHeaders headers = new RequestHeaders(request, excluded);
+        RequestHeaders copy = headers.copy();
+
+        copy.put("x-added", "1");
+        headers.remove("x-correlation-id");
+
+        assertThat(copy.get("x-correlation-id")).isEqualTo("abc");
+        assertThat(copy.get("x-added")).isEqualTo("1");
+        assertThat(headers.get("x-added")).isNull();
+        assertThat(headers.get("x-correlation-id")).isNull();
+        assertThat(headers.copy()).hasSize(1);
+    }
+
+    @Test
+    public void orangeContext_ReadsAndForwardsHeaders() {
+        OrangeContext context = new OrangeContext(new RequestHeaders(request, excluded));
+        Map<String, String> forwarded = new HashMap<>();
+
+        context.forEachProperty(forwarded::put);
+
+        assertThat(context.getCorrelationId()).isEqualTo("abc");
+        assertThat(context.getRpcOriginService()).isEqualTo("com.sixt.service.a");
+        assertThat(forwarded).isEqualTo(context.getProperties());
+    }
+
+    @Test
+    public void orangeContext_NoCorrelationId_RandomUuid() {
+        OrangeContext context = new OrangeContext(Collections.emptyMap());
+        OrangeContext other = new OrangeContext(Collections.emptyMap());
+
+        assertThat(context.getCorrelationId())
+                .matches("[0-9a-f]{8}-[0-9a-f]{4}-4[0-9a-f]{3}-[89ab][0-9a-f]{3}-[0-9a-f]{12}");
+        assertThat(context.getCorrelationId()).isNotEqualTo(other.getCorrelationId());
+    }
+
+}
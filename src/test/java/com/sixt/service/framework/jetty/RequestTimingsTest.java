@@ -0,0 +1,48 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestTimingsTest {
+
+    @Test
+    public void toServerTiming_MeasuredPhasesInMilliseconds() {
+        RequestTimings timings = new RequestTimings();
+        timings.add(RequestTimings.Phase.DECODE, TimeUnit.MICROSECONDS.toNanos(42));
+        timings.add(RequestTimings.Phase.HANDLER, TimeUnit.MILLISECONDS.toNanos(12));
+        timings.add(RequestTimings.Phase.HANDLER, TimeUnit.MICROSECONDS.toNanos(1500));
+
+        assertThat(timings.toServerTiming()).isEqualTo("decode;dur=0.042, handler;dur=13.500");
+    }
+
+    @Test
+    public void addAll_MeasuredPhasesAdded() {
+        RequestTimings request = new RequestTimings();
+        request.add(RequestTimings.Phase.HEADERS, 10);
+        RequestTimings call = new RequestTimings();
+        call.add(RequestTimings.Phase.HEADERS, 5);
+        call.add(RequestTimings.Phase.HANDLER, 20);
+
+        call.addAll(request);
+
+        assertThat(call.getNanos(RequestTimings.Phase.HEADERS)).isEqualTo(15);
+        assertThat(call.getNanos(RequestTimings.Phase.HANDLER)).isEqualTo(20);
+        assertThat(call.isMeasured(RequestTimings.Phase.DECODE)).isFalse();
+    }
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.MethodHandlerDictionary;
+import com.sixt.service.framework.OrangeContext;
+import com.sixt.service.framework.ServiceMethodHandler;
+import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.annotation.Bulkhead;
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.rpc.RpcCallException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RpcBulkheadsTest {
+
+    private ServiceProperties props = new ServiceProperties();
+    private RpcHandlerMetrics metrics = mock(RpcHandlerMetrics.class);
+    private GoCounter counter = new GoCounter("test");
+    private MethodHandlerDictionary handlers = new MethodHandlerDictionary();
+    private RpcBulkheads bulkheads;
+    private CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setup() {
+        when(metrics.getExecutorCounter(anyString())).thenReturn(counter);
+        handlers.put("Test.Export", new ExportHandler());
+        handlers.put("Test.Lookup", new LookupHandler());
+    }
+
+    @After
+    public void teardown() {
+        release.countDown();
+    }
+
+    @Test
+    public void getBulkhead_Annotated_NamedBulkhead() {
+        bulkheads = new RpcBulkheads(props, metrics);
+
+        assertThat(bulkheads.getBulkhead(handlers.getDispatch("Test.Export")).getName())
+                .isEqualTo("export");
+        assertThat(bulkheads.getBulkhead(handlers.getDispatch("Test.Lookup"))).isNull();
+    }
+
+    @Test
+    public void getBulkhead_Configured_OverridesAnnotation() {
+        props.addProperty(FeatureFlags.RPC_BULKHEAD_METHODS, "Test.Export=batch, Test.Lookup=lookup");
+        bulkheads = new RpcBulkheads(props, metrics);
+
+        assertThat(bulkheads.getBulkhead(handlers.getDispatch("Test.Export")).getName())
+                .isEqualTo("batch");
+        assertThat(bulkheads.getBulkhead(handlers.getDispatch("Test.Lookup")).getName())
+                .isEqualTo("lookup");
+    }
+
+    @Test
+    public void execute_Saturated_RejectedAsServiceUnavailable() throws Exception {
+        BulkheadExecutor bulkhead = new BulkheadExecutor("export", 1, 0, 1000, metrics);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            occupy(bulkhead, caller);
+
+            Throwable thrown = catchThrowable(() -> bulkhead.execute(null, () -> null));
+
+            assertThat(thrown).isInstanceOf(RpcCallException.class);
+            RpcCallException rpcEx = (RpcCallException) thrown;
+            assertThat(rpcEx.getCategory()).isEqualTo(RpcCallException.Category.ServiceUnavailable);
+            assertThat(rpcEx.isRetriable()).isTrue();
+            assertThat(counter.getFailureCount()).isEqualTo(1);
+        } finally {
+            release.countDown();
+            caller.shutdown();
+        }
+    }
+
+    @Test
+    public void execute_Queued_RunsOnCallingThreadOnceRoomIsFree() throws Exception {
+        BulkheadExecutor bulkhead = new BulkheadExecutor("export", 1, 1, 5000, metrics);
+        ExecutorService caller = Executors.newFixedThreadPool(2);
+        try {
+            occupy(bulkhead, caller);
+            Thread callingThread = Thread.currentThread();
+            AtomicReference<Thread> handlerThread = new AtomicReference<>();
+
+            caller.submit(() -> {
+                Uninterruptibles.sleepUninterruptibly(100, TimeUnit.MILLISECONDS);
+                release.countDown();
+            });
+            bulkhead.execute(null, () -> {
+                handlerThread.set(Thread.currentThread());
+                return null;
+            });
+
+            assertThat(handlerThread.get()).isSameAs(callingThread);
+            assertThat(counter.getSuccessCount()).isEqualTo(2);
+        } finally {
+            release.countDown();
+            caller.shutdown();
+        }
+    }
+
+    @Test
+    public void execute_QueueFull_RejectedWithoutWaiting() throws Exception {
+        BulkheadExecutor bulkhead = new BulkheadExecutor("export", 1, 1, 5000, metrics);
+        ExecutorService caller = Executors.newFixedThreadPool(2);
+        try {
+            occupy(bulkhead, caller);
+            caller.submit(() -> bulkhead.execute(null, () -> null));
+            for (int i = 0; i < 100 && ! bulkhead.hasQueuedCalls(); i++) {
+                Thread.sleep(10);
+            }
+
+            long start = System.nanoTime();
+            Throwable thrown = catchThrowable(() -> bulkhead.execute(null, () -> null));
+
+            assertThat(thrown).isInstanceOf(RpcCallException.class);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+        } finally {
+            release.countDown();
+            caller.shutdown();
+        }
+    }
+
+    @Test
+    public void execute_Queued_WaitCappedByDeadline() throws Exception {
+        BulkheadExecutor bulkhead = new BulkheadExecutor("export", 1, 1, 5000, metrics);
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try {
+            occupy(bulkhead, caller);
+            OrangeContext context = new OrangeContext();
+            context.setDeadline(System.currentTimeMillis() + 100);
+
+            long start = System.nanoTime();
+            Throwable thrown = catchThrowable(() -> bulkhead.execute(context, () -> null));
+
+            assertThat(thrown).isInstanceOf(RpcCallException.class);
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isBetween(50L, 2000L);
+        } finally {
+            release.countDown();
+            caller.shutdown();
+        }
+    }
+
+    @Test
+    public void execute_HandlerThrows_ExceptionRethrownAndPermitReleased() throws Exception {
+        BulkheadExecutor bulkhead = new BulkheadExecutor("export", 1, 0, 1000, metrics);
+
+        Throwable thrown = catchThrowable(() -> bulkhead.execute(null, () -> {
+            throw new RpcCallException(RpcCallException.Category.BadRequest, "bad");
+        }));
+
+        assertThat(thrown).isInstanceOf(RpcCallException.class);
+        assertThat(((RpcCallException) thrown).getCategory()).isEqualTo(RpcCallException.Category.BadRequest);
+        assertThat(bulkhead.execute(null, () -> null)).isNull();
+    }
+
+    private void occupy(BulkheadExecutor bulkhead, ExecutorService caller) throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        caller.submit(() -> bulkhead.execute(null, () -> {
+            running.countDown();
+            Uninterruptibles.awaitUninterruptibly(release);
+            return null;
+        }));
+        assertThat(running.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Bulkhead("export")
+    static class ExportHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+    static class LookupHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+}
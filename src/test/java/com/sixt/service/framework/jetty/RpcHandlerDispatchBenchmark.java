@@ -0,0 +1,116 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.google.protobuf.Message;
+import com.sixt.service.framework.*;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationSubMessage;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.protobuf.ProtobufUtil;
+import com.sixt.service.framework.rpc.RpcCallException;
+import com.sixt.service.framework.util.ReflectionUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding and dispatching a protobuf request the way it was done before the
+ * dispatch table (reflection and hook list copies per request) with the dispatch table.
+ * Run with: gradle jmh -PjmhArgs='RpcHandlerDispatch -prof gc'
+ * and compare gc.alloc.rate.norm (bytes allocated per request).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcHandlerDispatchBenchmark {
+
+    private static final String METHOD = "Benchmark.Echo";
+
+    private MethodHandlerDictionary dictionary;
+    private DispatchingHandler rpcHandler;
+    private OrangeContext context;
+    private byte[] requestBody;
+
+    @Setup
+    public void setup() {
+        dictionary = new MethodHandlerDictionary();
+        dictionary.put(METHOD, new EchoHandler());
+        dictionary.addPreHook(MethodHandlerDictionary.GLOBAL, new PassThroughPreHook());
+        dictionary.addPostHook(METHOD, new PassThroughPostHook());
+        rpcHandler = new DispatchingHandler(dictionary);
+        context = new OrangeContext();
+        requestBody = SerializationTest.newBuilder().setId("id-1").setId2("id-2")
+                .setSubMessage(SerializationSubMessage.newBuilder().setId("sub"))
+                .setId4("id-4").build().toByteArray();
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Message legacyReflectionAndHookCopies() throws Exception {
+        ServiceMethodHandler handler = dictionary.getMethodHandler(METHOD);
+        Class<? extends Message> requestClass = (Class<? extends Message>)
+                ReflectionUtil.findSubClassParameterType(handler, 0);
+        Message request = ProtobufUtil.byteArrayToProtobuf(requestBody, requestClass);
+        List<ServiceMethodPreHook<? extends Message>> preHooks = dictionary.getPreHooksFor(METHOD);
+        for (ServiceMethodPreHook hook : preHooks) {
+            request = hook.handleRequest(request, context);
+        }
+        Message response = handler.handleRequest(request, context);
+        List<ServiceMethodPostHook<? extends Message>> postHooks = dictionary.getPostHooksFor(METHOD);
+        for (ServiceMethodPostHook hook : postHooks) {
+            response = hook.handleRequest(response, context);
+        }
+        return response;
+    }
+
+    @Benchmark
+    public Message dispatchTable() throws Exception {
+        MethodDispatch dispatch = dictionary.getDispatch(METHOD);
+        Message request = dispatch.parseRequest(requestBody);
+        return rpcHandler.invokeHandlerChain(dispatch, request, context, new RequestTimings());
+    }
+
+    static class DispatchingHandler extends RpcHandler {
+        DispatchingHandler(MethodHandlerDictionary handlers) {
+            super(handlers, null, null, new ServiceProperties(), null);
+        }
+    }
+
+    static class EchoHandler implements ServiceMethodHandler<SerializationTest, SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx) {
+            return request;
+        }
+    }
+
+    static class PassThroughPreHook implements ServiceMethodPreHook<SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest request, OrangeContext ctx)
+                throws RpcCallException {
+            return request;
+        }
+    }
+
+    static class PassThroughPostHook implements ServiceMethodPostHook<SerializationTest> {
+        @Override
+        public SerializationTest handleRequest(SerializationTest response, OrangeContext ctx)
+                throws RpcCallException {
+            return response;
+        }
+    }
+
+}
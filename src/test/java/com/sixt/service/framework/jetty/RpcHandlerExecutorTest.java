@@ -0,0 +1,150 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.metrics.GoCounter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RpcHandlerExecutorTest {
+
+    private ServiceProperties props;
+    private RpcHandlerMetrics metrics;
+    private GoCounter counter;
+    private RpcHandlerExecutor executor;
+    private CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setup() {
+        props = new ServiceProperties();
+        metrics = mock(RpcHandlerMetrics.class);
+        counter = new GoCounter("test");
+        when(metrics.getExecutorCounter(anyString())).thenReturn(counter);
+    }
+
+    @After
+    public void teardown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void isEnabled_NotConfigured_Disabled() {
+        executor = new RpcHandlerExecutor(props, metrics);
+
+        assertThat(executor.isEnabled()).isFalse();
+    }
+
+    @Test
+    public void execute_Saturated_RejectsAndCounts() throws Exception {
+        props.addProperty(FeatureFlags.ASYNC_RPC_HANDLING, "true");
+        props.addProperty(FeatureFlags.RPC_HANDLER_THREADS, "1");
+        props.addProperty(FeatureFlags.RPC_HANDLER_QUEUE_SIZE, "1");
+        executor = new RpcHandlerExecutor(props, metrics);
+        CountDownLatch started = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        executor.execute(this::awaitRelease);
+        assertThat(executor.getQueueDepth()).isEqualTo(1);
+        try {
+            executor.execute(this::awaitRelease);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException ex) {
+            //expected
+        }
+
+        assertThat(counter.getSuccessCount()).isEqualTo(2);
+        assertThat(counter.getFailureCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void invokeAll_Saturated_CallerRunsRemainingTasks() throws Exception {
+        props.addProperty(FeatureFlags.RPC_HANDLER_THREADS, "1");
+        props.addProperty(FeatureFlags.RPC_HANDLER_QUEUE_SIZE, "1");
+        executor = new RpcHandlerExecutor(props, metrics);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            awaitRelease();
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        AtomicInteger completed = new AtomicInteger();
+        List<Runnable> tasks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(completed::incrementAndGet);
+        }
+
+        executor.invokeAll(tasks);
+
+        assertThat(completed.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void virtualThreadPerTaskExecutor_BoundedByConcurrency() throws Exception {
+        RpcHandlerExecutor.VirtualThreadPerTaskExecutor perTask =
+                new RpcHandlerExecutor.VirtualThreadPerTaskExecutor(Executors.defaultThreadFactory(), 1);
+        CountDownLatch done = new CountDownLatch(1);
+        perTask.execute(() -> {
+            awaitRelease();
+            done.countDown();
+        });
+        assertThat(perTask.getActiveCount()).isEqualTo(1);
+        try {
+            perTask.execute(this::awaitRelease);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException ex) {
+            //expected
+        }
+
+        release.countDown();
+        assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 0; i < 100 && perTask.getActiveCount() > 0; i++) {
+            Thread.sleep(10);
+        }
+        CountDownLatch second = new CountDownLatch(1);
+        perTask.execute(second::countDown);
+        assertThat(second.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
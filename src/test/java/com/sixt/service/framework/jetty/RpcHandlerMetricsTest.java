@@ -0,0 +1,54 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.jetty;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sixt.service.framework.metrics.GoTimer;
+import com.sixt.service.framework.metrics.MetricBuilder;
+import com.sixt.service.framework.metrics.MetricBuilderFactory;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RpcHandlerMetricsTest {
+
+    private MetricRegistry registry = new MetricRegistry();
+    private RpcHandlerMetrics metrics = new RpcHandlerMetrics(
+            new MetricBuilderFactory(() -> new MetricBuilder(registry)));
+
+    @Test
+    public void getMethodTimer_SameTags_SameHandle() {
+        GoTimer timer = metrics.getMethodTimer("Test.Echo", "caller", "Caller.Call");
+
+        assertThat(metrics.getMethodTimer("Test.Echo", "caller", "Caller.Call")).isSameAs(timer);
+        assertThat(metrics.getMethodTimer("Test.Echo", "other", "Caller.Call")).isNotSameAs(timer);
+    }
+
+    @Test
+    public void getMethodTimer_BlankTags_SharedUnknownMetric() {
+        GoTimer timer = metrics.getMethodTimer("Test.Echo", null, null);
+
+        assertThat(metrics.getMethodTimer("Test.Echo", "", " ")).isSameAs(timer);
+        assertThat(timer.getName()).contains("origin_service=unknown", "origin_method=unknown");
+    }
+
+    @Test
+    public void incrementCounters_CountedOnOneMetric() {
+        metrics.incrementSuccessCounter("Test.Echo", null, null);
+        metrics.incrementFailureCounter("Test.Echo", "", null);
+
+        assertThat(registry.getMetrics().keySet()).filteredOn(name -> name.contains("counter")
+                && name.contains("method=Test.Echo")).hasSize(1);
+    }
+
+}
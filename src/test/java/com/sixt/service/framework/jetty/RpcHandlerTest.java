@@ -14,7 +14,13 @@ package com.sixt.service.framework.jetty;
 
 import com.codahale.metrics.MetricRegistry;
 import com.sixt.service.framework.MethodHandlerDictionary;
+import com.sixt.service.framework.OrangeContext;
 import com.sixt.service.framework.ServiceProperties;
+import com.sixt.service.framework.rpc.HttpRequestWrapper;
+import com.sixt.service.framework.rpc.ServiceEndpoint;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.http.HttpHeader;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -71,6 +77,10 @@ public class RpcHandlerTest {
                 .thenReturn(
                         new RpcHandlerTest_IteratorEnumeration<>(headers.get("single_key_2").iterator())
                 );
+        for (Map.Entry<String, Set<String>> header : headers.entrySet()) {
+            Mockito.when(request.getHeader(header.getKey()))
+                    .thenReturn(header.getValue().iterator().next());
+        }
 
         // When
         Map<String, String> filteredHeaders = rpcHandlerMock.gatherHttpHeaders(request);
@@ -82,6 +92,36 @@ public class RpcHandlerTest {
         Assert.assertEquals("Second multiple key should match value3_3", filteredHeaders.get("multiple_key_2"), "value3_3");
     }
 
+    @Test
+    public void hopByHopHeadersAreNotForwarded() {
+        RpcHandlerTest_RpcHandlerMock rpcHandlerMock = new RpcHandlerTest_RpcHandlerMock(null, null, null);
+        Map<String, String> inbound = new TreeMap<>();
+        inbound.put("Connection", "close");
+        inbound.put("Keep-Alive", "timeout=5");
+        inbound.put("TE", "trailers");
+        inbound.put("Upgrade", "h2c");
+        inbound.put("X-Sx-Custom", "forwarded");
+        HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(request.getHeaderNames())
+                .thenReturn(new RpcHandlerTest_IteratorEnumeration<>(inbound.keySet().iterator()));
+        for (Map.Entry<String, String> header : inbound.entrySet()) {
+            Mockito.when(request.getHeader(header.getKey())).thenReturn(header.getValue());
+        }
+
+        //what RpcClient does with the context of the handled request
+        OrangeContext context = new OrangeContext(rpcHandlerMock.gatherHttpHeaders(request));
+        HttpRequestWrapper outbound = new HttpRequestWrapper("POST",
+                new ServiceEndpoint(null, "localhost:1", "dc1"));
+        context.forEachProperty(outbound::setHeader);
+        Request httpRequest = outbound.newRequest(new HttpClient());
+
+        Assert.assertNull(httpRequest.getHeaders().get(HttpHeader.CONNECTION));
+        Assert.assertNull(httpRequest.getHeaders().get(HttpHeader.KEEP_ALIVE));
+        Assert.assertNull(httpRequest.getHeaders().get(HttpHeader.TE));
+        Assert.assertNull(httpRequest.getHeaders().get(HttpHeader.UPGRADE));
+        Assert.assertEquals("forwarded", httpRequest.getHeaders().get("X-Sx-Custom"));
+    }
+
     public class RpcHandlerTest_RpcHandlerMock
             extends RpcHandler {
 
@@ -15,15 +15,25 @@ package com.sixt.service.framework.jetty;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
 public class RpcServletTest {
@@ -42,6 +52,12 @@ public class RpcServletTest {
     @Mock
     private HttpServletResponse mockHttpServletResponse;
 
+    @Mock
+    private RpcHandlerExecutor mockHandlerExecutor;
+
+    @Mock
+    private AsyncContext mockAsyncContext;
+
     @Before
     public void setup() {
         cut = new RpcServlet(mockJsonHandler, mockProtobufHandler);
@@ -73,4 +89,68 @@ public class RpcServletTest {
         verifyNoMoreInteractions(mockJsonHandler, mockProtobufHandler);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void doPost_AsyncHandling_HandledOnExecutor() throws Exception {
+        // given
+        cut = new RpcServlet(mockJsonHandler, mockProtobufHandler, mockHandlerExecutor);
+        cut.serveRequests();
+        givenAsyncRequest();
+
+        // when
+        cut.doPost(mockHttpServletRequest, mockHttpServletResponse);
+
+        // then
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(mockHandlerExecutor).execute(task.capture());
+        verify(mockProtobufHandler, never()).doPost(any(), any());
+
+        task.getValue().run();
+        verify(mockProtobufHandler).doPost(mockHttpServletRequest, mockHttpServletResponse);
+        verify(mockAsyncContext).complete();
+    }
+
+    @Test
+    public void doPost_HandlerExecutorSaturated_RejectedWithServiceUnavailable() throws Exception {
+        // given
+        cut = new RpcServlet(mockJsonHandler, mockProtobufHandler, mockHandlerExecutor);
+        cut.serveRequests();
+        givenAsyncRequest();
+        doThrow(new RejectedExecutionException()).when(mockHandlerExecutor).execute(any());
+
+        // when
+        cut.doPost(mockHttpServletRequest, mockHttpServletResponse);
+
+        // then
+        verify(mockJsonHandler).writeResponse(eq(mockHttpServletResponse),
+                eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), contains("\"category\":503"));
+        verify(mockProtobufHandler, never()).doPost(any(), any());
+        verify(mockAsyncContext).complete();
+    }
+
+    @Test
+    public void doPost_Draining_InFlightTrackedAndConnectionClosed() throws Exception {
+        // given
+        RpcHandlerMetrics handlerMetrics = mock(RpcHandlerMetrics.class);
+        cut = new RpcServlet(mockJsonHandler, mockProtobufHandler, null, handlerMetrics);
+        cut.serveRequests();
+        cut.drain();
+        when(mockHttpServletRequest.getHeader(RpcServlet.CONTENT_TYPE)).thenReturn(RpcServlet.TYPE_PROTO);
+
+        // when
+        cut.doPost(mockHttpServletRequest, mockHttpServletResponse);
+
+        // then
+        verify(mockHttpServletResponse).setHeader("Connection", "close");
+        verify(mockProtobufHandler).doPost(mockHttpServletRequest, mockHttpServletResponse);
+        verify(handlerMetrics).requestStarted();
+        verify(handlerMetrics).requestFinished();
+    }
+
+    private void givenAsyncRequest() {
+        when(mockHandlerExecutor.isEnabled()).thenReturn(true);
+        when(mockHttpServletRequest.isAsyncSupported()).thenReturn(true);
+        when(mockHttpServletRequest.startAsync()).thenReturn(mockAsyncContext);
+        when(mockHttpServletRequest.getHeader(RpcServlet.CONTENT_TYPE)).thenReturn(RpcServlet.TYPE_PROTO);
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.metrics;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+public class HistogramReservoirTest {
+
+    private final AtomicLong tick = new AtomicLong();
+    private final Clock clock = new Clock() {
+        @Override
+        public long getTick() {
+            return tick.get();
+        }
+    };
+
+    @Test
+    public void quantilesStayWithinPrecision() {
+        HistogramReservoir reservoir = new HistogramReservoir(2);
+        for (long micros = 1; micros <= 100_000; micros++) {
+            reservoir.update(TimeUnit.MICROSECONDS.toNanos(micros));
+        }
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(100_000);
+        assertThat(snapshot.getMedian()).isCloseTo(50_000_000, offset(500_000.0));
+        assertThat(snapshot.get99thPercentile()).isCloseTo(99_000_000, offset(990_000.0));
+        assertThat(snapshot.get999thPercentile()).isCloseTo(99_900_000, offset(999_000.0));
+        assertThat(snapshot.getMax()).isBetween(99_000_000L, 101_000_000L);
+        assertThat(snapshot.getMin()).isLessThanOrEqualTo(1_000L);
+        assertThat(snapshot.getMean()).isCloseTo(50_000_000, offset(500_000.0));
+    }
+
+    @Test
+    public void readingHasNoSideEffects() {
+        HistogramReservoir reservoir = new HistogramReservoir();
+        reservoir.update(1_000_000);
+        reservoir.update(2_000_000);
+        assertThat(reservoir.size()).isEqualTo(2);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+        assertThat(reservoir.size()).isEqualTo(2);
+
+        reservoir.update(5_000_000);
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(3);
+        assertThat(snapshot.getMax()).isBetween(4_950_000L, 5_050_000L);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(3);
+    }
+
+    @Test
+    public void windowRotatesWithTime() {
+        HistogramReservoir reservoir = new HistogramReservoir(2,
+                HistogramReservoir.DEFAULT_HIGHEST_TRACKABLE_NANOS, 60, TimeUnit.SECONDS, clock);
+        reservoir.update(1_000_000);
+        tick.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        reservoir.update(2_000_000);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+
+        tick.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.getMin()).isBetween(1_980_000L, 2_020_000L);
+
+        reservoir.update(3_000_000);
+        tick.addAndGet(TimeUnit.SECONDS.toNanos(60));
+        Snapshot empty = reservoir.getSnapshot();
+        assertThat(empty.size()).isEqualTo(0);
+        assertThat(empty.get99thPercentile()).isEqualTo(0.0);
+        assertThat(empty.getMax()).isEqualTo(0);
+        assertThat(reservoir.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void valuesRecordedBeforeRotationStayInTheirInterval() {
+        HistogramReservoir reservoir = new HistogramReservoir(2,
+                HistogramReservoir.DEFAULT_HIGHEST_TRACKABLE_NANOS, 60, TimeUnit.SECONDS, clock);
+        reservoir.update(1_000_000);
+        tick.addAndGet(TimeUnit.SECONDS.toNanos(45));
+        reservoir.update(2_000_000);
+        tick.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.getMin()).isBetween(1_980_000L, 2_020_000L);
+    }
+
+    @Test
+    public void sumCoversAllValues() {
+        HistogramReservoir reservoir = new HistogramReservoir(2,
+                HistogramReservoir.DEFAULT_HIGHEST_TRACKABLE_NANOS, 60, TimeUnit.SECONDS, clock);
+        reservoir.update(1_000_000);
+        tick.addAndGet(TimeUnit.SECONDS.toNanos(120));
+        reservoir.update(2_000_000);
+        reservoir.update(-5);
+        assertThat(reservoir.getSnapshot().size()).isEqualTo(2);
+        assertThat(reservoir.getSum()).isEqualTo(3_000_000);
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        HistogramReservoir reservoir = new HistogramReservoir();
+        reservoir.update(0);
+        reservoir.update(-5);
+        reservoir.update(TimeUnit.DAYS.toNanos(1));
+        Snapshot snapshot = reservoir.getSnapshot();
+        assertThat(snapshot.size()).isEqualTo(3);
+        assertThat(snapshot.getMin()).isEqualTo(0);
+        long hour = TimeUnit.HOURS.toNanos(1);
+        assertThat(snapshot.getMax()).isBetween(hour - hour / 100, hour + hour / 100);
+    }
+
+    @Test
+    public void highestTrackableValueIsConfigurable() {
+        long second = TimeUnit.SECONDS.toNanos(1);
+        HistogramReservoir reservoir = new HistogramReservoir(2, second);
+        reservoir.update(TimeUnit.MINUTES.toNanos(1));
+        assertThat(reservoir.getSnapshot().getMax()).isBetween(second - second / 100,
+                second + second / 100);
+    }
+
+    @Test
+    public void metricBuilderTakesTimerSettingsFromProperties() {
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.METRICS_TIMER_MAX_MILLIS, "1000");
+        MetricBuilder builder = new MetricBuilder(new MetricRegistry(), props);
+        builder.setBaseName("test");
+        GoTimer timer = builder.buildTimer();
+        long start = timer.start() - TimeUnit.MINUTES.toNanos(1);
+        timer.recordSuccess(start);
+        long second = TimeUnit.SECONDS.toNanos(1);
+        assertThat(timer.getSuccessTimer().getSnapshot().getMax()).isBetween(
+                second - second / 100, second + second / 100);
+    }
+
+    @Test
+    public void goTimerRecordsIntoSeparateHistograms() {
+        GoTimer timer = new GoTimer("test", 3);
+        long start = timer.start();
+        timer.recordSuccess(start);
+        timer.recordSuccess(start);
+        timer.recordFailure(start);
+        assertThat(timer.getSuccessTimer().getCount()).isEqualTo(2);
+        assertThat(timer.getSuccessTimer().getSnapshot().size()).isEqualTo(2);
+        assertThat(timer.getFailureTimer().getSnapshot().size()).isEqualTo(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedPrecision() {
+        new HistogramReservoir(6);
+    }
+
+}
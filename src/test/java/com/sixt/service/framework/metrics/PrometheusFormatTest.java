@@ -0,0 +1,116 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.metrics;
+
+import com.codahale.metrics.MetricRegistry;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrometheusFormatTest {
+
+    private MetricRegistry registry;
+
+    @Before
+    public void setup() {
+        registry = new MetricRegistry();
+    }
+
+    @Test
+    public void countersKeepTagsAsLabels() throws IOException {
+        GoCounter counter = newMetric("server_handler").withTag("method", "Test.Method").
+                buildCounter();
+        counter.incSuccess(3);
+        counter.incFailure();
+
+        assertThat(render()).isEqualTo("# TYPE server_handler_total counter\n" +
+                "server_handler_total{method=\"Test.Method\",result=\"success\"} 3\n" +
+                "server_handler_total{method=\"Test.Method\",result=\"failure\"} 1\n");
+    }
+
+    @Test
+    public void timersAreSummariesInSeconds() throws IOException {
+        GoTimer timer = newMetric("server_handler").withTag("method", "m").buildTimer();
+        timer.getSuccessTimer().update(2_000_000_000L, TimeUnit.NANOSECONDS);
+        timer.getSuccessTimer().update(500_000_000L, TimeUnit.NANOSECONDS);
+
+        String output = render();
+        assertThat(output).startsWith("# TYPE server_handler_seconds summary\n");
+        assertThat(output).contains("server_handler_seconds{method=\"m\",result=\"success\",quantile=\"0.99\"} 2");
+        assertThat(output).contains("server_handler_seconds_sum{method=\"m\",result=\"success\"} 2.5\n");
+        assertThat(output).contains("server_handler_seconds_count{method=\"m\",result=\"success\"} 2\n");
+        assertThat(output).contains("server_handler_seconds_sum{method=\"m\",result=\"failure\"} 0\n");
+        assertThat(output).contains("server_handler_seconds_count{method=\"m\",result=\"failure\"} 0\n");
+    }
+
+    @Test
+    public void gaugeElementsAreSeparateGauges() throws IOException {
+        GoGauge gauge = newMetric("server_handler").withTag("executor", "default").buildGauge();
+        gauge.register("queue_depth", () -> 7);
+        newMetric("health_checks").buildGauge().register("failing", () -> 0);
+
+        assertThat(render()).isEqualTo("# TYPE health_checks_failing gauge\n" +
+                "health_checks_failing 0\n" +
+                "# TYPE server_handler_queue_depth gauge\n" +
+                "server_handler_queue_depth{executor=\"default\"} 7\n");
+    }
+
+    @Test
+    public void functionCounterElementsAreSeparateCounters() throws IOException {
+        GoFunctionCounter counter = newMetric("response_cache").withTag("method", "m").
+                buildFunctionCounter();
+        counter.register("hits", () -> 12);
+        counter.register("evictions", () -> 3);
+
+        assertThat(render()).isEqualTo("# TYPE response_cache_evictions_total counter\n" +
+                "response_cache_evictions_total{method=\"m\"} 3\n" +
+                "# TYPE response_cache_hits_total counter\n" +
+                "response_cache_hits_total{method=\"m\"} 12\n");
+    }
+
+    @Test
+    public void namesAndLabelValuesAreEscaped() throws IOException {
+        newMetric("rpc.client").withTag("error", "bad \"value\"\\").buildCounter().incSuccess();
+
+        assertThat(render()).contains(
+                "rpc_client_total{error=\"bad \\\"value\\\"\\\\\",result=\"success\"} 1\n");
+        assertThat(PrometheusFormat.sanitizeName("9lives-x")).isEqualTo("_9lives_x");
+    }
+
+    @Test
+    public void formatsSpecialValues() {
+        assertThat(PrometheusFormat.formatValue(Double.POSITIVE_INFINITY)).isEqualTo("+Inf");
+        assertThat(PrometheusFormat.formatValue(Double.NaN)).isEqualTo("NaN");
+        assertThat(PrometheusFormat.formatValue(0.25)).isEqualTo("0.25");
+        assertThat(PrometheusFormat.formatValue(42)).isEqualTo("42");
+    }
+
+    private MetricBuilder newMetric(String name) {
+        MetricBuilder builder = new MetricBuilder(registry);
+        builder.setBaseName(name);
+        return builder;
+    }
+
+    private String render() throws IOException {
+        StringWriter out = new StringWriter();
+        PrometheusFormat.write(registry, out);
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.protobuf;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.util.JsonFormat;
+import com.sixt.service.framework.protobuf.FrameworkTest.JsonMappingTest;
+import com.sixt.service.framework.protobuf.FrameworkTest.MessageWithMap;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JsonProtobufMergerTest {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    @Test
+    public void merge_AllFieldTypes_SameAsJsonFormat() throws Exception {
+        String json = "{\"int32Value\":-12,\"int64_value\":\"9007199254740993\"," +
+                "\"uint32Value\":4294967295,\"uint64Value\":\"18446744073709551615\"," +
+                "\"sint32Value\":\"-7\",\"fixed64Value\":42,\"floatValue\":1.5," +
+                "\"doubleValue\":\"NaN\",\"boolValue\":true,\"bytesValue\":\"aGVsbG8=\"," +
+                "\"enumValue\":\"INVALID_VEHICLE_ID\",\"repeatedInt32\":[1,\"2\",3]," +
+                "\"repeated_message\":[{\"id\":\"a\"},{\"id\":\"b\"}]," +
+                "\"intMap\":{\"1\":\"one\",\"-2\":\"minus two\"}," +
+                "\"messageMap\":{\"x\":{\"id\":\"y\"}}," +
+                "\"nested\":{\"id\":\"n\",\"subMessage\":{\"id\":\"sub\"},\"unknown\":[1,{\"a\":2}]}," +
+                "\"timestamp\":\"2017-05-01T12:00:00.123Z\",\"wrappedInt\":5," +
+                "\"choiceInt\":9,\"notAField\":{\"deep\":[null,true]}}";
+
+        assertThat(merge(json, JsonMappingTest.newBuilder()))
+                .isEqualTo(jsonFormat(json, JsonMappingTest.newBuilder()));
+    }
+
+    @Test
+    public void merge_NullValues_FieldsLeftUnset() throws Exception {
+        String json = "{\"int32Value\":null,\"nested\":null,\"timestamp\":null," +
+                "\"wrappedInt\":null,\"repeatedInt32\":null}";
+
+        assertThat(merge(json, JsonMappingTest.newBuilder()))
+                .isEqualTo(JsonMappingTest.getDefaultInstance());
+    }
+
+    @Test
+    public void merge_EnumMap_SameAsJsonFormat() throws Exception {
+        String json = "{\"error_map\":{\"a\":\"NO_ERROR\",\"b\":1}}";
+
+        assertThat(merge(json, MessageWithMap.newBuilder()))
+                .isEqualTo(jsonFormat(json, MessageWithMap.newBuilder()));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void merge_Int32OutOfRange_Throws() throws Exception {
+        merge("{\"int32Value\":2147483648}", JsonMappingTest.newBuilder());
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void merge_InvalidEnumName_Throws() throws Exception {
+        merge("{\"enumValue\":\"NOT_AN_ERROR\"}", JsonMappingTest.newBuilder());
+    }
+
+    @Test
+    public void merge_Uint32MapKeys_SameAsJsonFormat() throws Exception {
+        String json = "{\"uintMap\":{\"0\":\"zero\",\"4294967295\":\"max\"}}";
+
+        assertThat(merge(json, JsonMappingTest.newBuilder()))
+                .isEqualTo(jsonFormat(json, JsonMappingTest.newBuilder()));
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void merge_NegativeUint32MapKey_Throws() throws Exception {
+        merge("{\"uintMap\":{\"-1\":\"minus one\"}}", JsonMappingTest.newBuilder());
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void merge_Uint32MapKeyTooLarge_Throws() throws Exception {
+        merge("{\"uintMap\":{\"4294967296\":\"too large\"}}", JsonMappingTest.newBuilder());
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void merge_TwoFieldsOfOneof_Throws() throws Exception {
+        merge("{\"choiceString\":\"a\",\"choiceInt\":1}", JsonMappingTest.newBuilder());
+    }
+
+    @Test
+    public void merge_NullFieldOfOneof_KeepsTheSetField() throws Exception {
+        String json = "{\"choiceString\":\"a\",\"choiceInt\":null}";
+        assertThat(merge(json, JsonMappingTest.newBuilder())).
+                isEqualTo(JsonMappingTest.newBuilder().setChoiceString("a").build());
+    }
+
+    private Message merge(String json, Message.Builder builder) throws IOException {
+        JsonParser parser = jsonFactory.createParser(json);
+        parser.nextToken();
+        JsonProtobufMerger.merge(parser, builder);
+        return builder.build();
+    }
+
+    private Message jsonFormat(String json, Message.Builder builder) throws IOException {
+        JsonFormat.parser().ignoringUnknownFields().merge(json, builder);
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.protobuf;
+
+import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RpcCompressionTest {
+
+    @Test
+    public void compress_AllCodings_RoundTrip() throws Exception {
+        byte[] data = StringUtils.repeat("compressible ", 1000).getBytes();
+        for (RpcCompression compression : RpcCompression.values()) {
+            byte[] compressed = compression.compress(data);
+
+            assertThat(compressed.length).isLessThan(data.length);
+            assertThat(ByteStreams.toByteArray(compression.decompress(
+                    new ByteArrayInputStream(compressed)))).isEqualTo(data);
+        }
+    }
+
+    @Test
+    public void negotiate_BothAccepted_PrefersLz4() {
+        assertThat(RpcCompression.negotiate("gzip, deflate, lz4")).isEqualTo(RpcCompression.LZ4);
+        assertThat(RpcCompression.negotiate("gzip, lz4;q=0")).isEqualTo(RpcCompression.GZIP);
+        assertThat(RpcCompression.negotiate("GZIP;q=0.5")).isEqualTo(RpcCompression.GZIP);
+    }
+
+    @Test
+    public void negotiate_NoneAccepted_Null() {
+        assertThat(RpcCompression.negotiate(null)).isNull();
+        assertThat(RpcCompression.negotiate("identity, br")).isNull();
+        assertThat(RpcCompression.negotiate("gzip;q=0")).isNull();
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.rpc;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HedgingPolicyTest {
+
+    @Test
+    public void getDelayNanos_FixedDelay() {
+        HedgingPolicy policy = new HedgingPolicy(Duration.ofMillis(20), 1, 5);
+
+        assertThat(policy.getDelayNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void getDelayNanos_ObservedDelay_NoneUntilEnoughSamples() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy(null, 1, 5);
+        for (int i = 0; i < 10; i++) {
+            policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        Thread.sleep(1001);
+
+        assertThat(policy.getDelayNanos()).isEqualTo(-1);
+    }
+
+    @Test
+    public void getDelayNanos_ObservedDelay_IsP95() throws Exception {
+        HedgingPolicy policy = new HedgingPolicy(null, 1, 5);
+        for (int i = 1; i <= 100; i++) {
+            policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        Thread.sleep(1001);
+
+        assertThat(policy.getDelayNanos()).isBetween(TimeUnit.MILLISECONDS.toNanos(93),
+                TimeUnit.MILLISECONDS.toNanos(97));
+    }
+
+    @Test
+    public void tryAcquireHedge_BurstUsedUp_OneHedgePerBudgetShareOfCalls() {
+        HedgingPolicy policy = new HedgingPolicy(Duration.ZERO, 1, 10);
+        int hedges = 0;
+        while (policy.tryAcquireHedge()) {
+            hedges++;
+        }
+        assertThat(hedges).isEqualTo(10);
+
+        for (int i = 0; i < 9; i++) {
+            policy.recordCall();
+        }
+        assertThat(policy.tryAcquireHedge()).isFalse();
+        policy.recordCall();
+        assertThat(policy.tryAcquireHedge()).isTrue();
+        assertThat(policy.tryAcquireHedge()).isFalse();
+    }
+
+    @Test
+    public void recordCall_BalanceCappedAtBurst() {
+        HedgingPolicy policy = new HedgingPolicy(Duration.ZERO, 1, 100);
+        for (int i = 0; i < 100; i++) {
+            policy.recordCall();
+        }
+        int hedges = 0;
+        while (policy.tryAcquireHedge()) {
+            hedges++;
+        }
+
+        assertThat(hedges).isEqualTo(10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_NoHedges_Rejected() {
+        new HedgingPolicy(Duration.ZERO, 0, 5);
+    }
+
+}
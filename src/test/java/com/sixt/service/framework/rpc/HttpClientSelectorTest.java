@@ -0,0 +1,122 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import org.eclipse.jetty.client.HttpClient;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+public class HttpClientSelectorTest {
+
+    private HttpClient httpClient = mock(HttpClient.class);
+    private HttpClient http2Client = mock(HttpClient.class);
+
+    @Test
+    public void getHttpClient_ListedService_Http2() {
+        HttpClientSelector selector = new HttpClientSelector(httpClient, http2Client,
+                ImmutableSet.of("com.sixt.service.h2"));
+
+        assertThat(selector.getHttpClient("com.sixt.service.h2")).isSameAs(http2Client);
+        assertThat(selector.getHttpClient("com.sixt.service.go")).isSameAs(httpClient);
+    }
+
+    @Test
+    public void getHttpClient_AllServices_Http2() {
+        HttpClientSelector selector = new HttpClientSelector(httpClient, http2Client,
+                ImmutableSet.of(FeatureFlags.ALL_SERVICES));
+
+        assertThat(selector.getHttpClient("com.sixt.service.go")).isSameAs(http2Client);
+    }
+
+    @Test
+    public void getHttpClient_NoHttp2Client_Http1() {
+        HttpClientSelector selector = new HttpClientSelector(httpClient);
+
+        assertThat(selector.usesHttp2("com.sixt.service.h2")).isFalse();
+        assertThat(selector.getHttpClient("com.sixt.service.h2")).isSameAs(httpClient);
+    }
+
+    @Test
+    public void getHttp2ClientServices_CommaSeparated_Trimmed() {
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.HTTP2_CLIENT_SERVICES, " a, b ,,c");
+
+        assertThat(FeatureFlags.getHttp2ClientServices(props)).containsOnly("a", "b", "c");
+    }
+
+    @Test
+    public void getHttpClient_ServiceWithOwnPool_ServiceClient() {
+        HttpClient serviceClient = mock(HttpClient.class);
+        HttpClientSelector selector = new HttpClientSelector(httpClient, null,
+                ImmutableSet.of(), ImmutableMap.of("com.sixt.service.big", serviceClient),
+                ImmutableSet.of(FeatureFlags.ALL_SERVICES), ImmutableSet.of());
+
+        assertThat(selector.getHttpClient("com.sixt.service.big")).isSameAs(serviceClient);
+        assertThat(selector.getHttpClient("com.sixt.service.go")).isSameAs(httpClient);
+        assertThat(selector.getHttpClients()).containsOnlyKeys(HttpClientSelector.DEFAULT_CLIENT,
+                "com.sixt.service.big");
+    }
+
+    @Test
+    public void usesKeepAlive_ByDefault_AllServices() {
+        HttpClientSelector selector = new HttpClientSelector(httpClient);
+
+        assertThat(selector.usesKeepAlive("com.sixt.service.go")).isTrue();
+    }
+
+    @Test
+    public void usesKeepAlive_ConnectionCloseService_NotKeptAlive() {
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.HTTP_CONNECTION_CLOSE_SERVICES, "com.sixt.service.legacy");
+        HttpClientSelector selector = new HttpClientSelector(httpClient, null, ImmutableSet.of(),
+                ImmutableMap.of(), FeatureFlags.getHttpKeepAliveServices(props),
+                FeatureFlags.getHttpConnectionCloseServices(props));
+
+        assertThat(selector.usesKeepAlive("com.sixt.service.legacy")).isFalse();
+        assertThat(selector.usesKeepAlive("com.sixt.service.go")).isTrue();
+    }
+
+    @Test
+    public void usesKeepAlive_AllowList_OnlyListedServices() {
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.HTTP_KEEP_ALIVE_SERVICES, "com.sixt.service.go");
+        HttpClientSelector selector = new HttpClientSelector(httpClient, null, ImmutableSet.of(),
+                ImmutableMap.of(), FeatureFlags.getHttpKeepAliveServices(props),
+                FeatureFlags.getHttpConnectionCloseServices(props));
+
+        assertThat(selector.usesKeepAlive("com.sixt.service.go")).isTrue();
+        assertThat(selector.usesKeepAlive("com.sixt.service.legacy")).isFalse();
+    }
+
+    @Test
+    public void getHttpPoolSettings_PerService_OverridesDefault() {
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.HTTP_MAX_CONNECTIONS_PER_ENDPOINT, "8");
+        props.addProperty("httpPool.com.sixt.service.big.maxConnections", "64");
+        props.addProperty("httpPool.com.sixt.service.big.maxQueued", "10");
+
+        assertThat(FeatureFlags.getHttpPoolServices(props)).containsOnly("com.sixt.service.big");
+        assertThat(FeatureFlags.getHttpMaxConnectionsPerEndpoint(props, "com.sixt.service.big")).isEqualTo(64);
+        assertThat(FeatureFlags.getHttpMaxConnectionsPerEndpoint(props, "com.sixt.service.go")).isEqualTo(8);
+        assertThat(FeatureFlags.getHttpMaxQueuedPerEndpoint(props, "com.sixt.service.big")).isEqualTo(10);
+        assertThat(FeatureFlags.getHttpMaxQueuedPerEndpoint(props, null)).isEqualTo(
+                FeatureFlags.DEFAULT_HTTP_MAX_QUEUED_PER_ENDPOINT);
+    }
+
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.rpc;
+
+import com.sixt.service.framework.OrangeContext;
+import com.sixt.service.framework.ServiceProperties;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HttpClientWrapperAsyncTest {
+
+    private final static String OK_BODY = "{\"result\":\"ok\"}";
+
+    private Server server = new Server();
+    private ServerConnector connector = new ServerConnector(server);
+    private HttpClient httpClient = new HttpClient();
+    private LoadBalancer loadBalancer = mock(LoadBalancer.class);
+    private AtomicInteger requests = new AtomicInteger();
+    private volatile int failingRequests;
+    private volatile boolean retriableFailures = true;
+    private volatile int slowRequests;
+    private CountDownLatch releaseSlowRequests = new CountDownLatch(1);
+    private ServiceEndpoint endpoint;
+    private HttpClientWrapper wrapper;
+
+    @Before
+    public void setup() throws Exception {
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+                baseRequest.setHandled(true);
+                int requestNumber = requests.incrementAndGet();
+                if (requestNumber <= slowRequests) {
+                    try {
+                        releaseSlowRequests.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                if (requestNumber <= failingRequests) {
+                    RpcCallException error = new RpcCallException(
+                            RpcCallException.Category.InternalServerError, "failed").
+                            withRetriable(retriableFailures);
+                    response.setStatus(500);
+                    response.getWriter().print("{\"error\":" + error.toJson() + "}");
+                } else {
+                    response.getWriter().print(OK_BODY);
+                }
+            }
+        });
+        server.start();
+        httpClient.start();
+
+        endpoint = new ServiceEndpoint(new ScheduledThreadPoolExecutor(1),
+                "localhost:" + connector.getLocalPort(), "dc1");
+        when(loadBalancer.getServiceName()).thenReturn("com.sixt.service.test");
+        when(loadBalancer.getHealthyInstance()).thenReturn(endpoint);
+        when(loadBalancer.getHealthyInstanceExclude(anyListOf(ServiceEndpoint.class))).
+                thenReturn(endpoint);
+        wrapper = new HttpClientWrapper(new ServiceProperties(), httpClient, null, null);
+        wrapper.setLoadBalancer(loadBalancer);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        releaseSlowRequests.countDown();
+        httpClient.stop();
+        server.stop();
+    }
+
+    @Test
+    public void executeAsync_RetriableFailures_RetriedUntilSuccessful() throws Exception {
+        failingRequests = 2;
+
+        ContentResponse response = call(rpcClient(2, null)).get(5, TimeUnit.SECONDS);
+
+        assertThat(response.getContentAsString()).isEqualTo(OK_BODY);
+        assertThat(requests.get()).isEqualTo(3);
+        assertThat(endpoint.getLatencyEstimate()).isGreaterThan(0);
+    }
+
+    @Test
+    public void executeAsync_RetriesExhausted_FailsWithLastError() throws Exception {
+        failingRequests = 10;
+
+        RpcCallException error = getFailure(call(rpcClient(1, null)));
+
+        assertThat(error.getCategory()).isEqualTo(RpcCallException.Category.InternalServerError);
+        assertThat(error.getMessage()).isEqualTo("failed");
+        assertThat(requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void executeAsync_NonRetriableFailure_NotRetried() throws Exception {
+        failingRequests = 1;
+        retriableFailures = false;
+
+        getFailure(call(rpcClient(3, null)));
+
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void executeAsync_BackOff_WaitedWithoutBlockingCaller() throws Exception {
+        failingRequests = 1;
+        RetryBackOffFunction backOff = retryCounter -> Duration.ofMillis(300);
+
+        long start = System.nanoTime();
+        CompletableFuture<ContentResponse> future = call(rpcClient(1, backOff));
+        long callMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        future.get(5, TimeUnit.SECONDS);
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(callMillis).isLessThan(300);
+        assertThat(totalMillis).isGreaterThanOrEqualTo(300);
+        assertThat(requests.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void executeAsync_BackOffLongerThanDeadline_NotRetried() throws Exception {
+        failingRequests = 1;
+        OrangeContext context = new OrangeContext();
+        context.setDeadline(System.currentTimeMillis() + 2000);
+        RpcClient<?> client = rpcClient(1, retryCounter -> Duration.ofSeconds(10));
+
+        long start = System.nanoTime();
+        RpcCallException error = getFailure(wrapper.executeAsync(wrapper.createHttpPost(client),
+                new JsonRpcCallExceptionDecoder(), context));
+
+        assertThat(error.getMessage()).isEqualTo("failed");
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void executeAsync_DeadlineExceeded_FailsWithoutRequest() throws Exception {
+        OrangeContext context = new OrangeContext();
+        context.setDeadline(System.currentTimeMillis() - 1);
+        RpcClient<?> client = rpcClient(1, null);
+
+        CompletableFuture<ContentResponse> future = wrapper.executeAsync(
+                wrapper.createHttpPost(client), new JsonRpcCallExceptionDecoder(), context);
+
+        assertThat(getFailure(future).getCategory()).isEqualTo(RpcCallException.Category.RequestTimedOut);
+        assertThat(requests.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void executeAsync_SlowResponse_HedgeToOtherEndpointWins() throws Exception {
+        slowRequests = 1;
+        ServiceEndpoint other = useTwoEndpoints();
+        RpcClient<?> client = rpcClient(0, null);
+        client.setHedgingPolicy(new HedgingPolicy(Duration.ofMillis(50), 1, 5));
+
+        long start = System.nanoTime();
+        ContentResponse response = call(client).get(5, TimeUnit.SECONDS);
+
+        assertThat(response.getContentAsString()).isEqualTo(OK_BODY);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+        assertThat(requests.get()).isEqualTo(2);
+        //the slow try is aborted instead of waiting for its response
+        awaitIdle(endpoint);
+        awaitIdle(other);
+    }
+
+    @Test
+    public void executeAsync_FastResponse_NotHedged() throws Exception {
+        useTwoEndpoints();
+        RpcClient<?> client = rpcClient(0, null);
+        client.setHedgingPolicy(new HedgingPolicy(Duration.ofMillis(500), 1, 5));
+
+        call(client).get(5, TimeUnit.SECONDS);
+        Thread.sleep(600);
+
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void executeAsync_HedgeBudgetUsedUp_NotHedged() throws Exception {
+        slowRequests = 1;
+        useTwoEndpoints();
+        HedgingPolicy policy = new HedgingPolicy(Duration.ofMillis(50), 1, 5);
+        while (policy.tryAcquireHedge()) {
+        }
+        RpcClient<?> client = rpcClient(0, null);
+        client.setHedgingPolicy(policy);
+
+        CompletableFuture<ContentResponse> future = call(client);
+        Thread.sleep(300);
+        assertThat(future.isDone()).isFalse();
+        releaseSlowRequests.countDown();
+        future.get(5, TimeUnit.SECONDS);
+
+        assertThat(requests.get()).isEqualTo(1);
+    }
+
+    private ServiceEndpoint useTwoEndpoints() {
+        ServiceEndpoint other = new ServiceEndpoint(new ScheduledThreadPoolExecutor(1),
+                "127.0.0.1:" + connector.getLocalPort(), "dc1");
+        when(loadBalancer.getHealthyInstance()).thenAnswer(invocation -> pick(endpoint));
+        when(loadBalancer.getHealthyInstanceExclude(anyListOf(ServiceEndpoint.class))).
+                thenAnswer(invocation -> pick(other));
+        return other;
+    }
+
+    private ServiceEndpoint pick(ServiceEndpoint endpoint) {
+        endpoint.incrementServingRequests();
+        return endpoint;
+    }
+
+    private void awaitIdle(ServiceEndpoint endpoint) throws InterruptedException {
+        for (int i = 0; i < 100 && endpoint.servingRequests.get() != 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(endpoint.servingRequests.get()).isEqualTo(0);
+    }
+
+    private RpcClient<?> rpcClient(int retries, RetryBackOffFunction backOff) {
+        return new RpcClient<>(loadBalancer, "com.sixt.service.test", "Test.method", retries,
+                1000, backOff, null);
+    }
+
+    private CompletableFuture<ContentResponse> call(RpcClient<?> client) throws RpcCallException {
+        HttpRequestWrapper request = wrapper.createHttpPost(client);
+        return wrapper.executeAsync(request, new JsonRpcCallExceptionDecoder(), new OrangeContext());
+    }
+
+    private RpcCallException getFailure(CompletableFuture<ContentResponse> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("call should have failed");
+            return null;
+        } catch (ExecutionException ex) {
+            assertThat(ex.getCause()).isInstanceOf(RpcCallException.class);
+            return (RpcCallException) ex.getCause();
+        }
+    }
+
+}
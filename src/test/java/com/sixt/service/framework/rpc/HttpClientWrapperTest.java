@@ -4,7 +4,9 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -19,6 +21,7 @@ import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.ContentResponse;
 import org.eclipse.jetty.client.api.Request;
 import org.junit.Assert;
+import org.mockito.ArgumentCaptor;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -63,7 +66,7 @@ public class HttpClientWrapperTest {
         when(rpcClient.getRetries()).thenReturn(NUMBER_OF_RETRIES);
         when(rpcClient.getTimeout()).thenReturn(0);
         httpClientWrapper.setLoadBalancer(loadBalancer);
-        when(rpcClientMetrics.getMethodTimer(anyString(), anyString())).thenReturn(new GoTimer("timer"));
+        when(rpcClient.getMethodTimer(rpcClientMetrics)).thenReturn(new GoTimer("timer"));
         when(tracer.buildSpan(anyString())).thenReturn(spanBuilder);
         when(spanBuilder.start()).thenReturn(span);
         when(httpClient.newRequest(any(URI.class))).thenReturn(request);
@@ -108,12 +111,69 @@ public class HttpClientWrapperTest {
         verify(rpcClient, times(NUMBER_OF_RETRIES + 1)).getTimeout();
         //todo:: seriously? 12 times and 6. need to be refactored
         verify(rpcClient, times(8)).getRetries();
-        verify(rpcClient, times(8)).getMethodName();
-        verify(rpcClient, times(4)).getServiceName();
+        verify(rpcClient, times(4)).getMethodName();
+        verify(rpcClient, times(NUMBER_OF_RETRIES + 1)).getMethodTimer(rpcClientMetrics);
+        verify(rpcClient, never()).getServiceName();
         Assert.assertTrue(timeSpentOnRetries >= NUMBER_OF_RETRIES * 10);
         Assert.assertEquals(1, exceptionsCatchTimes);
     }
 
+    @Test
+    public void execute_Deadline_CapsTimeoutAndPropagatesIt() throws Exception {
+        OrangeContext orangeContext = new OrangeContext();
+        orangeContext.setDeadline(System.currentTimeMillis() + 500);
+        when(rpcClient.getTimeout()).thenReturn(10000);
+        when(httpContentResponse.getStatus()).thenReturn(200);
+        when(httpContentResponse.getContent()).thenReturn(new byte[] { 1 });
+        HttpRequestWrapper httpRequestWrapper = httpClientWrapper.createHttpPost(rpcClient);
+
+        httpClientWrapper.execute(httpRequestWrapper, decoder, orangeContext);
+
+        ArgumentCaptor<Long> timeout = ArgumentCaptor.forClass(Long.class);
+        verify(request).timeout(timeout.capture(), eq(TimeUnit.MILLISECONDS));
+        Assert.assertTrue(timeout.getValue() <= 500);
+        long propagated = Long.parseLong(httpRequestWrapper.getHeaders().get(OrangeContext.DEADLINE));
+        Assert.assertTrue(propagated <= orangeContext.getDeadline());
+    }
+
+    @Test
+    public void execute_DeadlinePassed_NotSent() throws Exception {
+        OrangeContext orangeContext = new OrangeContext();
+        orangeContext.setDeadline(System.currentTimeMillis() - 1);
+        HttpRequestWrapper httpRequestWrapper = httpClientWrapper.createHttpPost(rpcClient);
+
+        try {
+            httpClientWrapper.execute(httpRequestWrapper, decoder, orangeContext);
+            Assert.fail("Expected an RpcCallException");
+        } catch (RpcCallException ex) {
+            Assert.assertEquals(RpcCallException.Category.RequestTimedOut, ex.getCategory());
+        }
+        verify(request, never()).send();
+    }
+
+    @Test
+    public void execute_BackOffLongerThanDeadline_NotRetried() throws Exception {
+        OrangeContext orangeContext = new OrangeContext();
+        orangeContext.setDeadline(System.currentTimeMillis() + 200);
+        RpcCallException exception = new RpcCallException(
+                RpcCallException.Category.InternalServerError, "retriable");
+        when(decoder.decodeException(any(ContentResponse.class))).thenReturn(exception);
+        when(rpcClient.getRetryBackOffFunction())
+            .thenReturn(retryCounter -> Duration.ofSeconds(10));
+        when(rpcClient.hasRetryBackOffFunction()).thenReturn(true);
+        HttpRequestWrapper httpRequestWrapper = httpClientWrapper.createHttpPost(rpcClient);
+
+        long start = System.currentTimeMillis();
+        try {
+            httpClientWrapper.execute(httpRequestWrapper, decoder, orangeContext);
+            Assert.fail("Expected an RpcCallException");
+        } catch (RpcCallException ex) {
+            Assert.assertSame(exception, ex);
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        verify(request, times(1)).send();
+    }
+
     private ServiceEndpoint createServiceEndpoint() {
         return new ServiceEndpoint(new ScheduledThreadPoolExecutor(2), "localhost:20001", "dc1");
     }
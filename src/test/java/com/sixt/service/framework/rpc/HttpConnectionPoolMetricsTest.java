@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.rpc;
+
+import com.codahale.metrics.MetricRegistry;
+import com.sixt.service.framework.metrics.GoCounter;
+import com.sixt.service.framework.metrics.MetricBuilder;
+import com.sixt.service.framework.metrics.MetricBuilderFactory;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpConnectionPoolMetricsTest {
+
+    private Server server = new Server();
+    private ServerConnector connector = new ServerConnector(server);
+    private HttpClient httpClient = new HttpClient();
+    private MetricRegistry registry = new MetricRegistry();
+    private HttpConnectionPoolMetrics metrics;
+
+    @Before
+    public void setup() throws Exception {
+        connector.setPort(0);
+        server.addConnector(connector);
+        server.setHandler(new AbstractHandler() {
+            @Override
+            public void handle(String target, Request baseRequest, HttpServletRequest request,
+                               HttpServletResponse response) {
+                baseRequest.setHandled(true);
+            }
+        });
+        server.start();
+        httpClient.start();
+        MetricBuilderFactory factory = new MetricBuilderFactory(() -> new MetricBuilder(registry));
+        HttpConnectionPoolMetrics.instrument(httpClient, "default", factory);
+        HttpConnectionPoolMetrics.instrument(httpClient, "default", factory);
+        assertThat(httpClient.getBeans(HttpConnectionPoolMetrics.class)).hasSize(1);
+        metrics = httpClient.getBeans(HttpConnectionPoolMetrics.class).iterator().next();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        httpClient.stop();
+        server.stop();
+    }
+
+    @Test
+    public void sequentialCalls_ReuseKeptAliveConnection() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertThat(httpClient.GET(uri()).getStatus()).isEqualTo(200);
+        }
+
+        assertThat(getCounter("created")).isEqualTo(1);
+        assertThat(metrics.getIdleConnections()).isEqualTo(1);
+        assertThat(metrics.getActiveConnections()).isEqualTo(0);
+        assertThat(metrics.getPendingRequests()).isEqualTo(0);
+    }
+
+    @Test
+    public void closeIdleConnections_EndpointDeregistered_PoolEmptied() throws Exception {
+        httpClient.GET(uri());
+        ServiceEndpoint endpoint = new ServiceEndpoint(new ScheduledThreadPoolExecutor(1),
+                "localhost:" + connector.getLocalPort(), "dc1");
+
+        new HttpClientSelector(httpClient).closeIdleConnections("com.sixt.service.test", endpoint);
+
+        assertThat(metrics.getIdleConnections()).isEqualTo(0);
+        //the connection is closed by the selector thread
+        for (int i = 0; i < 100 && getCounter("closed") == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(getCounter("closed")).isEqualTo(1);
+    }
+
+    private String uri() {
+        return "http://localhost:" + connector.getLocalPort() + "/";
+    }
+
+    private long getCounter(String connections) {
+        return ((GoCounter) registry.getMetrics().get("client_connection_pool,http_client=default," +
+                "connections=" + connections + ",metric_type=counter")).getSuccessCount();
+    }
+
+}
@@ -12,21 +12,24 @@
 
 package com.sixt.service.framework.rpc;
 
+import com.sixt.service.framework.FeatureFlags;
 import com.sixt.service.framework.ServiceProperties;
 import org.eclipse.jetty.client.HttpClient;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
 
 public class LoadBalancerImplTest {
 
     private LoadBalancerImpl lb;
+    private ServiceProperties properties = new ServiceProperties();
 
     @Before
     public void setup() {
-        ServiceProperties properties = new ServiceProperties();
         HttpClient httpClient = mock(HttpClient.class);
         HttpClientWrapper wrapper = new HttpClientWrapper(properties, httpClient, null, null);
         lb = new LoadBalancerImpl(properties, wrapper);
@@ -75,4 +78,34 @@ public class LoadBalancerImplTest {
         assertThat(lb.getHealthyInstance()).isNull();
     }
 
+    @Test
+    public void excludeTriedInstances_FallsBackToNextAz() {
+        properties.addProperty(FeatureFlags.DISABLE_RPC_INSTANCE_RETRY, "true");
+        ServiceEndpoint ep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+        ServiceEndpoint ep2 = new ServiceEndpoint(null, "1.1.1.2:80", "dc1");
+        ServiceEndpoint ep3 = new ServiceEndpoint(null, "1.1.1.3:80", "dc2");
+        lb.addServiceEndpoint(ep1);
+        lb.addServiceEndpoint(ep2);
+        lb.addServiceEndpoint(ep3);
+        assertThat(lb.getHealthyInstanceExclude(Arrays.asList(ep1))).isEqualTo(ep2);
+        assertThat(lb.getHealthyInstanceExclude(Arrays.asList(ep1, ep2))).isEqualTo(ep3);
+        assertThat(lb.getHealthyInstanceExclude(Arrays.asList(ep1, ep2, ep3))).isNull();
+        assertThat(ep1.getServingRequests()).isEqualTo(0);
+    }
+
+    @Test
+    public void roundRobinStrategy() {
+        properties.addProperty(FeatureFlags.LOAD_BALANCING_STRATEGY, RoundRobinStrategy.NAME);
+        lb = new LoadBalancerImpl(properties, lb.getHttpClientWrapper());
+        ServiceEndpoint ep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+        ServiceEndpoint ep2 = new ServiceEndpoint(null, "1.1.1.2:80", "dc1");
+        lb.addServiceEndpoint(ep1);
+        lb.addServiceEndpoint(ep2);
+        ep2.incrementServingRequests();
+        //busy or not, endpoints take turns
+        ServiceEndpoint first = lb.getHealthyInstance();
+        assertThat(lb.getHealthyInstance()).isNotEqualTo(first);
+        assertThat(lb.getHealthyInstance()).isEqualTo(first);
+    }
+
 }
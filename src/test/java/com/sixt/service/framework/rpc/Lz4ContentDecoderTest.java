@@ -0,0 +1,52 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import net.jpountz.lz4.LZ4BlockOutputStream;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Lz4ContentDecoderTest {
+
+    @Test
+    public void decode_SmallPiecesOfManyBlocks_OriginalContent() throws Exception {
+        byte[] data = new byte[100_000];
+        Random random = new Random(42);
+        for (int i = 0; i < data.length; i++) {
+            //compressible, but not entirely
+            data[i] = (byte) (random.nextInt(8) + 'a');
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (LZ4BlockOutputStream out = new LZ4BlockOutputStream(compressed, 4096)) {
+            out.write(data);
+        }
+        byte[] content = compressed.toByteArray();
+        Lz4ContentDecoder decoder = new Lz4ContentDecoder();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+
+        for (int offset = 0; offset < content.length; offset += 1000) {
+            ByteBuffer piece = ByteBuffer.wrap(content, offset, Math.min(1000, content.length - offset));
+            ByteBuffer result = decoder.decode(piece);
+            assertThat(piece.hasRemaining()).isFalse();
+            decoded.write(result.array(), result.arrayOffset() + result.position(), result.remaining());
+        }
+
+        assertThat(decoded.toByteArray()).isEqualTo(data);
+    }
+
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.rpc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PeakEwmaStrategyTest {
+
+    private PeakEwmaStrategy strategy = new PeakEwmaStrategy();
+    private ServiceEndpoint fast = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+    private ServiceEndpoint slow = new ServiceEndpoint(null, "1.1.1.2:80", "dc1");
+
+    @Test
+    public void choose_SlowEndpoint_AvoidedDespiteFewerRequests() {
+        fast.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+        slow.recordLatency(TimeUnit.MILLISECONDS.toNanos(100));
+        fast.incrementServingRequests();
+        fast.incrementServingRequests();
+
+        assertThat(strategy.choose(Arrays.asList(fast, slow))).isEqualTo(fast);
+        assertThat(strategy.choose(Arrays.asList(slow, fast))).isEqualTo(fast);
+    }
+
+    @Test
+    public void choose_ManyRequestsInFlight_OutweighLatency() {
+        fast.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+        slow.recordLatency(TimeUnit.MILLISECONDS.toNanos(20));
+        for (int i = 0; i < 10; i++) {
+            fast.incrementServingRequests();
+        }
+
+        assertThat(strategy.choose(Arrays.asList(fast, slow))).isEqualTo(slow);
+    }
+
+    @Test
+    public void choose_UnmeasuredEndpoint_OnlyPreferredWhileIdle() {
+        fast.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+        ServiceEndpoint added = new ServiceEndpoint(null, "1.1.1.3:80", "dc1");
+
+        assertThat(strategy.choose(Arrays.asList(fast, added))).isEqualTo(added);
+        added.incrementServingRequests();
+        assertThat(strategy.choose(Arrays.asList(fast, added))).isEqualTo(fast);
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.rpc;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PeakEwmaTest {
+
+    private final static long DECAY = TimeUnit.SECONDS.toNanos(10);
+
+    private PeakEwma ewma = new PeakEwma(DECAY);
+    private long now = System.nanoTime();
+
+    @Test
+    public void noLatencies() {
+        assertThat(ewma.get()).isEqualTo(0);
+    }
+
+    @Test
+    public void update_HigherLatency_TakenAtOnce() {
+        ewma.update(now, 1000);
+        ewma.update(now + 1, 5000);
+
+        assertThat(ewma.get()).isBetween(4999.0, 5000.0);
+    }
+
+    @Test
+    public void update_LowerLatency_AveragedByElapsedTime() {
+        ewma.update(now, 1000);
+        ewma.update(now + DECAY, 0);
+
+        assertThat(ewma.get()).isBetween(1000 * Math.exp(-1) - 1, 1000 * Math.exp(-1));
+    }
+
+    @Test
+    public void update_QuickSuccession_BarelyMovesAverage() {
+        ewma.update(now, 1000);
+        ewma.update(now + TimeUnit.MILLISECONDS.toNanos(1), 100);
+
+        assertThat(ewma.get()).isBetween(999.0, 1000.0);
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.sixt.service.framework.rpc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PowerOfTwoChoicesStrategyTest {
+
+    private PowerOfTwoChoicesStrategy strategy = new PowerOfTwoChoicesStrategy();
+
+    @Test
+    public void choose_SingleCandidate() {
+        ServiceEndpoint ep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+
+        assertThat(strategy.choose(Collections.singletonList(ep1))).isEqualTo(ep1);
+    }
+
+    @Test
+    public void choose_TwoCandidates_LessBusyOneWins() {
+        ServiceEndpoint ep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+        ServiceEndpoint ep2 = new ServiceEndpoint(null, "1.1.1.2:80", "dc1");
+        ep1.incrementServingRequests();
+        ep1.incrementServingRequests();
+        ep2.incrementServingRequests();
+
+        for (int i = 0; i < 20; i++) {
+            assertThat(strategy.choose(Arrays.asList(ep1, ep2))).isEqualTo(ep2);
+        }
+    }
+
+    @Test
+    public void choose_ManyCandidates_BusiestNeverChosen() {
+        ServiceEndpoint ep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+        ServiceEndpoint ep2 = new ServiceEndpoint(null, "1.1.1.2:80", "dc1");
+        ServiceEndpoint ep3 = new ServiceEndpoint(null, "1.1.1.3:80", "dc1");
+        ep2.incrementServingRequests();
+
+        for (int i = 0; i < 50; i++) {
+            assertThat(strategy.choose(Arrays.asList(ep1, ep2, ep3))).isNotEqualTo(ep2);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryBackOffFunctionTest {
+
+    @Test
+    public void exponentialBackOff_GrowsUpToMaximum() {
+        RetryBackOffFunction backOff = new RetryBackOffFunction.ExponentialRetryBackOff();
+        Duration max = RetryBackOffFunction.ExponentialRetryBackOff.MAX_BACK_OFF;
+
+        assertThat(backOff.timeout(0)).isEqualTo(Duration.ZERO);
+        assertThat(backOff.timeout(1)).isEqualTo(Duration.ofMillis(10));
+        assertThat(backOff.timeout(2)).isEqualTo(Duration.ofMillis(100));
+        assertThat(backOff.timeout(5)).isEqualTo(max);
+        assertThat(backOff.timeout(100)).isEqualTo(max);
+    }
+
+    @Test
+    public void execute_SleepsForTheTimeout() {
+        RetryBackOffFunction backOff = retryCounter -> Duration.ofMillis(50);
+
+        long start = System.nanoTime();
+        backOff.execute(1);
+
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(50_000_000L);
+    }
+
+}
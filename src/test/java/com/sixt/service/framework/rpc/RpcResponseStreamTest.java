@@ -0,0 +1,96 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.rpc;
+
+import com.google.common.primitives.Ints;
+import com.google.protobuf.Message;
+import com.sixt.service.framework.protobuf.FrameworkTest.SerializationTest;
+import com.sixt.service.framework.protobuf.RpcEnvelope;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+public class RpcResponseStreamTest {
+
+    @Test
+    public void next_MessagesUntilEndOfStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeResponse(out, "", SerializationTest.newBuilder().setId("a").build());
+        writeResponse(out, "", SerializationTest.newBuilder().setId("b").build());
+        RpcResponseStream<SerializationTest> stream = newStream(out.toByteArray());
+
+        assertThat(stream.hasNext()).isTrue();
+        assertThat(stream.next().getId()).isEqualTo("a");
+        assertThat(stream.next().getId()).isEqualTo("b");
+        assertThat(stream.hasNext()).isFalse();
+    }
+
+    @Test
+    public void next_ErrorEnvelope_Thrown() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeResponse(out, "", SerializationTest.newBuilder().setId("a").build());
+        RpcCallException error = new RpcCallException(RpcCallException.Category.BadRequest,
+                "boom");
+        writeResponse(out, error.toString(), null);
+        RpcResponseStream<SerializationTest> stream = newStream(out.toByteArray());
+
+        assertThat(stream.next().getId()).isEqualTo("a");
+        try {
+            stream.next();
+            fail("Expected the error of the stream");
+        } catch (RpcCallException ex) {
+            assertThat(ex.getCategory()).isEqualTo(RpcCallException.Category.BadRequest);
+            assertThat(ex.getMessage()).isEqualTo("boom");
+        }
+        assertThat(stream.hasNext()).isFalse();
+    }
+
+    @Test
+    public void next_TruncatedStream_Thrown() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeResponse(out, "", SerializationTest.newBuilder().setId("a").build());
+        byte[] data = out.toByteArray();
+        RpcResponseStream<SerializationTest> stream = newStream(
+                Arrays.copyOf(data, data.length - 1));
+
+        try {
+            stream.next();
+            fail("Expected the stream to be interrupted");
+        } catch (RpcCallException ex) {
+            assertThat(ex.getMessage()).contains("interrupted");
+        }
+    }
+
+    private RpcResponseStream<SerializationTest> newStream(byte[] data) {
+        return new RpcResponseStream<>(new ByteArrayInputStream(data), SerializationTest.class,
+                "Test.Stream");
+    }
+
+    private void writeResponse(ByteArrayOutputStream out, String error, Message body)
+            throws IOException {
+        byte[] header = RpcEnvelope.Response.newBuilder().setServiceMethod("Test.Stream")
+                .setError(error).build().toByteArray();
+        out.write(Ints.toByteArray(header.length));
+        out.write(header);
+        byte[] data = body == null ? new byte[0] : body.toByteArray();
+        out.write(Ints.toByteArray(data.length));
+        out.write(data);
+    }
+
+}
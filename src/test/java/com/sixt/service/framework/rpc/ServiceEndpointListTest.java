@@ -14,6 +14,11 @@ package com.sixt.service.framework.rpc;
 
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class ServiceEndpointListTest {
@@ -39,6 +44,38 @@ public class ServiceEndpointListTest {
                 CircuitBreakerState.State.UNHEALTHY);
     }
 
+    @Test
+    public void nextAvailable_Excluded_Skipped() {
+        ServiceEndpoint sep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+        ServiceEndpoint sep2 = new ServiceEndpoint(null, "1.1.1.2:80", "dc1");
+        list.add(sep1);
+        list.add(sep2);
+        Set<ServiceEndpoint> excluded = Collections.singleton(sep1);
+        assertThat(list.nextAvailable(excluded)).isEqualTo(sep2);
+        assertThat(list.nextAvailable(excluded)).isEqualTo(sep2);
+        assertThat(list.nextAvailable(new HashSet<>(Arrays.asList(sep1, sep2)))).isNull();
+        assertThat(sep1.getServingRequests()).isEqualTo(0);
+        assertThat(sep2.getServingRequests()).isEqualTo(2);
+    }
+
+    @Test
+    public void nextAvailable_StrategyChoosesFromAvailable() {
+        list = new ServiceEndpointList(new PowerOfTwoChoicesStrategy());
+        ServiceEndpoint sep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
+        ServiceEndpoint sep2 = new ServiceEndpoint(null, "1.1.1.2:80", "dc1");
+        ServiceEndpoint sep3 = new ServiceEndpoint(null, "1.1.1.3:80", "dc1");
+        sep3.setCircuitBreakerState(CircuitBreakerState.State.PRIMARY_TRIPPED);
+        list.add(sep1);
+        list.add(sep2);
+        list.add(sep3);
+        for (int i = 0; i < 10; i++) {
+            assertThat(list.nextAvailable()).isNotEqualTo(sep3);
+        }
+        //requests are spread by the number in flight
+        assertThat(sep1.getServingRequests()).isEqualTo(5);
+        assertThat(sep2.getServingRequests()).isEqualTo(5);
+    }
+
     @Test
     public void verifyToString() {
         ServiceEndpoint sep1 = new ServiceEndpoint(null, "1.1.1.1:80", "dc1");
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2016-2017 Sixt GmbH & Co. Autovermietung KG
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain a
+ * copy of the License at http://www.apache.org/licenses/LICENSE-2.0
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.sixt.service.framework.util;
+
+import com.sixt.service.framework.FeatureFlags;
+import com.sixt.service.framework.ServiceProperties;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class VirtualThreadsTest {
+
+    private final ThreadFactory fallback = Executors.defaultThreadFactory();
+
+    @Test
+    public void threadFactory_NotConfigured_Fallback() {
+        assertThat(VirtualThreads.threadFactory(new ServiceProperties(), "test-", fallback))
+                .isSameAs(fallback);
+    }
+
+    @Test
+    public void threadFactory_Configured_VirtualIfSupported() {
+        ServiceProperties props = new ServiceProperties();
+        props.addProperty(FeatureFlags.VIRTUAL_THREADS, "true");
+
+        ThreadFactory threadFactory = VirtualThreads.threadFactory(props, "test-", fallback);
+
+        if (VirtualThreads.isSupported()) {
+            assertThat(threadFactory).isNotSameAs(fallback);
+            assertThat(threadFactory.newThread(() -> { }).getName()).isEqualTo("test-0");
+        } else {
+            assertThat(threadFactory).isSameAs(fallback);
+            assertThat(VirtualThreads.newThreadFactory("test-")).isNull();
+        }
+    }
+
+}